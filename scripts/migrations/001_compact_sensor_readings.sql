@@ -0,0 +1,35 @@
+-- Moves an existing sensor_readings table to the compact layout of
+-- SensorReading: numeric sensor_id instead of the sensor_tag string and the
+-- metrics as scaled integers. The scales must match the *_SCALE constants of
+-- SensorReading. Written for H2, run while ingest is stopped.
+--
+-- Copying into a new table and swapping it in avoids rewriting every row in
+-- place and leaves the old table untouched until the copy succeeded.
+
+CREATE TABLE sensor_readings_compact (
+    id BIGINT NOT NULL PRIMARY KEY,
+    sensor_id BIGINT NOT NULL,
+    temperature INTEGER NOT NULL,
+    humidity INTEGER NOT NULL,
+    wind_speed INTEGER NOT NULL,
+    timestamp TIMESTAMP(6) WITH TIME ZONE NOT NULL
+);
+
+INSERT INTO sensor_readings_compact (id, sensor_id, temperature, humidity, wind_speed, timestamp)
+SELECT r.id, s.id, ROUND(r.temperature * 100), ROUND(r.humidity * 100), ROUND(r.wind_speed * 100), r.timestamp
+FROM sensor_readings r
+JOIN sensors s ON s.tag = r.sensor_tag;
+
+DROP TABLE sensor_readings;
+ALTER TABLE sensor_readings_compact RENAME TO sensor_readings;
+
+ALTER TABLE sensor_readings ADD CONSTRAINT fk_sensor_readings_sensor
+    FOREIGN KEY (sensor_id) REFERENCES sensors (id);
+ALTER TABLE sensor_readings ADD CONSTRAINT uk_sensor_readings_sensor_timestamp
+    UNIQUE (sensor_id, timestamp);
+
+CREATE INDEX idx_sensor_readings_timestamp_id ON sensor_readings (timestamp, id);
+CREATE INDEX idx_sensor_readings_timestamp_metrics
+    ON sensor_readings (timestamp, sensor_id, temperature, humidity, wind_speed);
+CREATE INDEX idx_sensor_readings_sensor_timestamp_metrics
+    ON sensor_readings (sensor_id, timestamp, temperature, humidity, wind_speed);
@@ -0,0 +1,18 @@
+-- Moves the sums of an existing sensor_reading_rollups table to the scaled
+-- integers of SensorReadingRollup, so sums of any number of buckets stay
+-- exact. The scales must match the *_SCALE constants of SensorReading.
+-- Written for H2, run while ingest is stopped.
+--
+-- Sums of values stored with the fixed precision are whole numbers once
+-- scaled, rounding only drops the error the double sums collected. Rollups
+-- that do not match the raw readings are rebuilt at startup, see
+-- ReadingRollupBackfill.
+
+UPDATE sensor_reading_rollups SET
+    temperature_sum = ROUND(temperature_sum * 100),
+    humidity_sum = ROUND(humidity_sum * 100),
+    wind_speed_sum = ROUND(wind_speed_sum * 100);
+
+ALTER TABLE sensor_reading_rollups ALTER COLUMN temperature_sum SET DATA TYPE BIGINT;
+ALTER TABLE sensor_reading_rollups ALTER COLUMN humidity_sum SET DATA TYPE BIGINT;
+ALTER TABLE sensor_reading_rollups ALTER COLUMN wind_speed_sum SET DATA TYPE BIGINT;
@@ -0,0 +1,14 @@
+-- Truncates the timestamps of an existing sensor_readings table to whole
+-- seconds. Ingest stores whole seconds, range bounds are rounded to seconds
+-- and cold segments encode epoch seconds, so sealing refuses readings with a
+-- sub-second part. Written for H2, run while ingest is stopped.
+--
+-- Two readings of a sensor within the same second collide on the unique
+-- (sensor_id, timestamp) constraint and fail the update, keep one of them
+-- first. This lists them:
+--
+-- SELECT sensor_id, DATE_TRUNC(SECOND, timestamp) AS second, COUNT(*)
+--     FROM sensor_readings GROUP BY sensor_id, second HAVING COUNT(*) > 1;
+
+UPDATE sensor_readings SET timestamp = DATE_TRUNC(SECOND, timestamp)
+    WHERE timestamp <> DATE_TRUNC(SECOND, timestamp);
@@ -1,4 +1,8 @@
 #!/bin/bash
+# Functional smoke check of the endpoints and their error responses against
+# an instance on localhost:8080. It sends one request of each kind, for
+# throughput and latency use the load generator instead:
+#   mvn test -Pload -Dload.args="--rate=500 --duration=PT2M"
 
 BASE_URL="http://localhost:8080/api/v1"
 HEADER="Content-Type: application/json"
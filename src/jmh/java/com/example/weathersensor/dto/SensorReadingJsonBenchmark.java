@@ -0,0 +1,63 @@
+package com.example.weathersensor.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON decode of ingest requests and encode of reading responses, with the
+ * object mapper configured like the one Spring Boot hands to the controllers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SensorReadingJsonBenchmark {
+
+    private ObjectReader requestReader;
+    private ObjectWriter responseWriter;
+    private byte[] requestJson;
+    private SensorReadingResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Boot's defaults: ISO dates instead of timestamps, unknown properties ignored
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        requestReader = objectMapper.readerFor(SensorReadingRequest.class);
+        responseWriter = objectMapper.writerFor(SensorReadingResponse.class);
+
+        Instant timestamp = Instant.parse("2024-06-01T12:34:56Z");
+        requestJson = objectMapper.writeValueAsBytes(
+                new SensorReadingRequest("SENSOR_001", 21.5, 63.0, 4.25, timestamp));
+        response = new SensorReadingResponse(42L, "SENSOR_001", 21.5, 63.0, 4.25,
+                timestamp.atZone(ZoneId.of("Europe/Berlin")));
+    }
+
+    @Benchmark
+    public SensorReadingRequest decodeRequest() throws IOException {
+        return requestReader.readValue(requestJson);
+    }
+
+    @Benchmark
+    public byte[] encodeResponse() throws IOException {
+        return responseWriter.writeValueAsBytes(response);
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.service.ReadingRollupService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average queries against an embedded H2 holding a fixed synthetic data set:
+ * {@value #SENSORS} sensors with a reading every minute for {@value #DAYS}
+ * days. Compares the raw aggregate queries of the repository with the rollup
+ * path over the same range, for one sensor and for all of them
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AverageQueryBenchmark {
+
+    private static final int SENSORS = 20;
+    private static final int DAYS = 7;
+    private static final Instant DATA_START = Instant.parse("2024-01-01T00:00:00Z");
+    private static final String TAG = "SENSOR_007";
+
+    private static final int WINDOWS = 64;
+
+    // Both ends fall inside buckets, so the rollup path has edges to fill in
+    private static final Instant FIRST_START = DATA_START.plus(1, ChronoUnit.DAYS).plusSeconds(11_111);
+    private static final Duration LENGTH = Duration.ofDays(5).plusSeconds(33_333);
+
+    private ConfigurableApplicationContext context;
+    private SensorReadingRepository sensorReadingRepository;
+    private ReadingRollupService rollupService;
+    private final Instant[] starts = new Instant[WINDOWS];
+    private final Instant[] ends = new Instant[WINDOWS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(WeatherSensorApiApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.jpa.show-sql=false", "logging.level.root=WARN",
+                        "logging.level.org.hibernate.SQL=WARN")
+                .run();
+        sensorReadingRepository = context.getBean(SensorReadingRepository.class);
+        rollupService = context.getBean(ReadingRollupService.class);
+        load();
+        // H2 hands back the previous result when a query runs again with the
+        // same parameters, so every invocation moves to another window
+        for (int i = 0; i < WINDOWS; i++) {
+            starts[i] = FIRST_START.plusSeconds(i * 397L);
+            ends[i] = starts[i].plus(LENGTH);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    // Raw rows are written with plain JDBC to keep the setup short, the
+    // rollups go through the same path as ingest
+    private void load() {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = context.getBean(TransactionTemplate.class);
+        List<Sensor> sensors = new ArrayList<>();
+        for (int s = 1; s <= SENSORS; s++) {
+            sensors.add(new Sensor(String.format("SENSOR_%03d", s), s % 2 == 0 ? "Berlin" : "Delhi",
+                    s % 2 == 0 ? "Europe/Berlin" : "Asia/Kolkata"));
+        }
+        context.getBean(SensorRepository.class).saveAll(sensors);
+
+        int minutesPerDay = 24 * 60;
+        long id = 1_000_000_000L;
+        for (Sensor sensor : sensors) {
+            for (int day = 0; day < DAYS; day++) {
+                List<SensorReading> readings = new ArrayList<>(minutesPerDay);
+                List<Object[]> rows = new ArrayList<>(minutesPerDay);
+                for (int minute = day * minutesPerDay; minute < (day + 1) * minutesPerDay; minute++) {
+                    Instant timestamp = DATA_START.plus(minute, ChronoUnit.MINUTES);
+                    double temperature = 10.0 + (minute % 240) * 0.125;
+                    double humidity = 40.0 + minute % 50;
+                    double windSpeed = (minute % 32) * 0.5;
+                    readings.add(new SensorReading(sensor, temperature, humidity, windSpeed, timestamp));
+                    rows.add(new Object[] { id++, sensor.getId(),
+                            SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE),
+                            SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE),
+                            SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE),
+                            Timestamp.from(timestamp) });
+                }
+                transactionTemplate.executeWithoutResult(status -> {
+                    jdbcTemplate.batchUpdate("INSERT INTO sensor_readings "
+                            + "(id, sensor_id, temperature, humidity, wind_speed, timestamp) VALUES (?, ?, ?, ?, ?, ?)",
+                            rows);
+                    rollupService.record(readings);
+                });
+            }
+        }
+    }
+
+    @Benchmark
+    public AverageMetricsDto rawAverageAllSensors() {
+        int i = nextWindow();
+        return sensorReadingRepository.findAverageMetricsInDateRange(starts[i], ends[i]).orElseThrow();
+    }
+
+    @Benchmark
+    public AverageMetricsDto rawAverageFiltered() {
+        int i = nextWindow();
+        return sensorReadingRepository.findAverageMetricsFiltered(starts[i], ends[i], null, TAG, null).orElseThrow();
+    }
+
+    @Benchmark
+    public AverageMetricsDto rawAverageByTag() {
+        int i = nextWindow();
+        return sensorReadingRepository.findAverageMetricsByTag(TAG, starts[i], ends[i]).orElseThrow();
+    }
+
+    @Benchmark
+    public AverageMetricsDto rawAverageByLocation() {
+        int i = nextWindow();
+        return sensorReadingRepository.findAverageMetricsFiltered(starts[i], ends[i], "Berlin", null, null)
+                .orElseThrow();
+    }
+
+    @Benchmark
+    public Double rawAverageTemperatureByTag() {
+        int i = nextWindow();
+        return sensorReadingRepository.findAvgTemperatureBySensorTagBetween(TAG, starts[i], ends[i]).orElseThrow();
+    }
+
+    @Benchmark
+    public AverageMetricsDto rollupAverageAllSensors() {
+        int i = nextWindow();
+        return rollupService.averages(starts[i], ends[i], null);
+    }
+
+    @Benchmark
+    public AverageMetricsDto rollupAverageByTag() {
+        int i = nextWindow();
+        return rollupService.averages(starts[i], ends[i], TAG);
+    }
+
+    private int nextWindow() {
+        next = (next + 1) % WINDOWS;
+        return next;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.SensorReadingResponse;
+import com.example.weathersensor.dto.SensorReadingRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of stored readings to responses, and the time zone conversion it
+ * is dominated by: resolving the sensor's zone id against converting with an
+ * already resolved zone
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadingMappingBenchmark {
+
+    @Param({ "Europe/Berlin", "Asia/Kolkata", "UTC" })
+    public String timeZone;
+
+    private SensorReadingRow row;
+    private ZoneId zone;
+
+    @Setup
+    public void setUp() {
+        row = new SensorReadingRow(42L, "SENSOR_001", 21.5, 63.0, 4.25,
+                Instant.parse("2024-06-01T12:34:56.789Z"), timeZone);
+        zone = ZoneId.of(timeZone);
+    }
+
+    @Benchmark
+    public SensorReadingResponse convertToResponse() {
+        return SensorReadingService.convertToResponse(row);
+    }
+
+    @Benchmark
+    public ZoneId resolveZone() {
+        return ZoneId.of(row.timeZone());
+    }
+
+    @Benchmark
+    public ZonedDateTime convertWithResolvedZone() {
+        return row.timestamp().atZone(zone);
+    }
+}
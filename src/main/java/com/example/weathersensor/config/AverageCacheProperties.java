@@ -0,0 +1,24 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for the cache of average query results
+ *
+ * @param maxEntries           how many results are kept at most
+ * @param openTtl              how long a result for a window reaching the
+ *                             present is served as fresh
+ * @param staleWhileRevalidate how much longer it is served while a refresh
+ *                             runs in the background
+ * @param refreshThreads       threads refreshing stale results
+ */
+@ConfigurationProperties(prefix = "weather.average-cache")
+public record AverageCacheProperties(
+                @DefaultValue("10000") int maxEntries,
+                @DefaultValue("PT5S") Duration openTtl,
+                @DefaultValue("PT30S") Duration staleWhileRevalidate,
+                @DefaultValue("2") int refreshThreads) {
+}
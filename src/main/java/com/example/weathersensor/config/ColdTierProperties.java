@@ -0,0 +1,25 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+/**
+ * Archive of the raw readings removed by retention
+ *
+ * @param enabled   seal raw readings into segment files before retention
+ *                  deletes them, and read those files for archived time
+ * @param directory where the segment files are kept, one subdirectory per
+ *                  sensor. Must outlive the database, segments of a previous
+ *                  database are served as they are
+ * @param cacheSize payloads of the segment files read most recently kept
+ *                  in memory, the least recently read are dropped first
+ */
+@ConfigurationProperties(prefix = "weather.cold-tier")
+public record ColdTierProperties(
+                @DefaultValue("false") boolean enabled,
+                @DefaultValue("data/segments") Path directory,
+                @DefaultValue("64MB") DataSize cacheSize) {
+}
@@ -0,0 +1,29 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for the in memory columns of recent readings
+ *
+ * @param enabled          keep recent readings in memory and answer queries
+ *                         from them
+ * @param horizon          chunks whose newest reading is older than this are
+ *                         evicted
+ * @param maxReadings      readings kept for all sensors together, beyond it
+ *                         a background pass evicts the oldest chunks down to
+ *                         nine tenths of it. A reading takes 28 bytes of
+ *                         array space
+ * @param chunkSize        readings per chunk, the unit of eviction
+ * @param evictionInterval how often expired chunks are evicted
+ */
+@ConfigurationProperties(prefix = "weather.hot-store")
+public record HotStoreProperties(
+                @DefaultValue("true") boolean enabled,
+                @DefaultValue("P3D") Duration horizon,
+                @DefaultValue("2000000") long maxReadings,
+                @DefaultValue("4096") int chunkSize,
+                @DefaultValue("PT1M") Duration evictionInterval) {
+}
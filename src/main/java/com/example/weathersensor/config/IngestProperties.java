@@ -0,0 +1,21 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the multi reading ingest endpoints
+ *
+ * @param chunkSize         number of readings persisted per flush, keep it
+ *                          aligned with hibernate.jdbc.batch_size
+ * @param maxBatchSize      largest list accepted by the JSON batch endpoint
+ * @param maxReportedErrors how many rejected readings are listed in a response
+ * @param maxLineLength     longest accepted NDJSON line, in characters
+ */
+@ConfigurationProperties(prefix = "weather.ingest")
+public record IngestProperties(
+                @DefaultValue("50") int chunkSize,
+                @DefaultValue("10000") int maxBatchSize,
+                @DefaultValue("100") int maxReportedErrors,
+                @DefaultValue("4096") int maxLineLength) {
+}
@@ -0,0 +1,18 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the reading query endpoints
+ *
+ * @param defaultPageSize  readings per page when the client does not ask
+ * @param maxPageSize      largest page a client may ask for
+ * @param maxSeriesBuckets most buckets a time series may span
+ */
+@ConfigurationProperties(prefix = "weather.query")
+public record QueryProperties(
+                @DefaultValue("100") int defaultPageSize,
+                @DefaultValue("1000") int maxPageSize,
+                @DefaultValue("1440") int maxSeriesBuckets) {
+}
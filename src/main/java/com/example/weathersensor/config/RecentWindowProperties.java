@@ -0,0 +1,22 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the in memory aggregates of recent readings
+ *
+ * @param sensorBuckets per-second buckets kept for each sensor, a sensor
+ *                      reporting once a minute is covered for about 17 hours
+ * @param totalBuckets  per-second buckets kept for all sensors together, in
+ *                      each stripe
+ * @param totalStripes  stripes the all-sensors buckets are split into by
+ *                      sensor, so concurrent ingests rarely wait for each
+ *                      other. Each stripe can grow to totalBuckets
+ */
+@ConfigurationProperties(prefix = "weather.recent-window")
+public record RecentWindowProperties(
+                @DefaultValue("1024") int sensorBuckets,
+                @DefaultValue("86400") int totalBuckets,
+                @DefaultValue("8") int totalStripes) {
+}
@@ -0,0 +1,24 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Retention of the raw readings
+ *
+ * @param enabled      run the compaction job
+ * @param rawRetention how long raw readings and minute rollups are kept, older
+ *                     time is only covered by hour and day rollups
+ * @param interval     pause between two runs of the job
+ * @param chunkSize    rows removed per delete statement, each statement is a
+ *                     transaction of its own
+ */
+@ConfigurationProperties(prefix = "weather.retention")
+public record RetentionProperties(
+                @DefaultValue("false") boolean enabled,
+                @DefaultValue("P30D") Duration rawRetention,
+                @DefaultValue("PT1H") Duration interval,
+                @DefaultValue("5000") int chunkSize) {
+}
@@ -0,0 +1,21 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for the in memory sensor registry
+ *
+ * @param refreshInterval   how often the registry is reloaded from the database
+ * @param negativeCacheSize how many unknown tags are remembered at most
+ * @param negativeCacheTtl  how long an unknown tag is rejected without asking
+ *                          the database again
+ */
+@ConfigurationProperties(prefix = "weather.sensor-registry")
+public record SensorRegistryProperties(
+                @DefaultValue("PT5M") Duration refreshInterval,
+                @DefaultValue("10000") int negativeCacheSize,
+                @DefaultValue("PT1M") Duration negativeCacheTtl) {
+}
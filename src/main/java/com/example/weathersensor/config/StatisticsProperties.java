@@ -0,0 +1,25 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+
+/**
+ * Settings for the reading statistics endpoints
+ *
+ * @param enabled       keep quantile sketches in the hour and day rollups,
+ *                      which the statistics endpoints need. Merging them
+ *                      is a large part of storing a single reading
+ * @param quantiles     quantiles reported when the client does not ask for
+ *                      any
+ * @param maxQuantiles  most quantiles a client may ask for at once
+ * @param histogramBins equal width bins between min and max of each metric
+ */
+@ConfigurationProperties(prefix = "weather.statistics")
+public record StatisticsProperties(
+                @DefaultValue("true") boolean enabled,
+                @DefaultValue({ "0.5", "0.9", "0.95", "0.99" }) List<Double> quantiles,
+                @DefaultValue("20") int maxQuantiles,
+                @DefaultValue("10") int histogramBins) {
+}
@@ -0,0 +1,41 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Durable asynchronous single reading ingest through a write-ahead log
+ *
+ * @param enabled         accept single readings with 202 once they are
+ *                        synced to the log, instead of buffering them in
+ *                        memory, see {@link WriteBehindProperties}
+ * @param directory       where the log segments and the applied checkpoint
+ *                        are kept
+ * @param segmentSize     size of one memory mapped log segment
+ * @param syncInterval    extra time a sync waits for more appends to share
+ *                        it, appends arriving during a sync always share
+ *                        the next one
+ * @param syncBatch       pending appends that trigger a sync right away
+ * @param maxBacklog      log not yet applied to the database before clients
+ *                        get 429
+ * @param shutdownTimeout how long shutdown waits for the log to be applied,
+ *                        the rest is replayed on the next start
+ * @param maxAttempts     tries to store a chunk of records before it is
+ *                        split, a single record still failing is moved to
+ *                        the dead letter file next to the segments
+ */
+@ConfigurationProperties(prefix = "weather.ingest.wal")
+public record WriteAheadLogProperties(
+                @DefaultValue("false") boolean enabled,
+                @DefaultValue("data/wal") Path directory,
+                @DefaultValue("64MB") DataSize segmentSize,
+                @DefaultValue("PT0S") Duration syncInterval,
+                @DefaultValue("256") int syncBatch,
+                @DefaultValue("256MB") DataSize maxBacklog,
+                @DefaultValue("PT30S") Duration shutdownTimeout,
+                @DefaultValue("5") int maxAttempts) {
+}
@@ -0,0 +1,29 @@
+package com.example.weathersensor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for asynchronous single reading ingest
+ *
+ * @param enabled         accept single readings with 202 and store them in
+ *                        the background instead of before responding
+ * @param shards          number of buffers and writer threads, readings of a
+ *                        sensor always go to the same shard
+ * @param bufferSize      readings each shard buffers before clients get 429,
+ *                        rounded up to a power of two
+ * @param maxAttempts     how often a failing flush is tried before the
+ *                        chunk is split, a single reading still failing is
+ *                        dropped
+ * @param shutdownTimeout how long shutdown waits for the buffers to drain
+ */
+@ConfigurationProperties(prefix = "weather.ingest.write-behind")
+public record WriteBehindProperties(
+                @DefaultValue("false") boolean enabled,
+                @DefaultValue("4") int shards,
+                @DefaultValue("8192") int bufferSize,
+                @DefaultValue("5") int maxAttempts,
+                @DefaultValue("PT30S") Duration shutdownTimeout) {
+}
@@ -1,8 +1,12 @@
 package com.example.weathersensor.controller;
 
 import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.BatchIngestResponse;
+import com.example.weathersensor.dto.ReadingStatisticsDto;
+import com.example.weathersensor.dto.SensorReadingPage;
 import com.example.weathersensor.dto.SensorReadingRequest;
 import com.example.weathersensor.dto.SensorReadingResponse;
+import com.example.weathersensor.dto.SeriesBucketDto;
 import com.example.weathersensor.service.SensorReadingService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -13,11 +17,16 @@
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/v1/sensor-readings")
@@ -32,18 +41,47 @@ public SensorReadingController(SensorReadingService service) {
         }
 
         @PostMapping
-        @Operation(summary = "Register a new sensor reading", description = "Register weather metrics from a sensor. Timestamp is accepted in any timezone and stored as UTC.")
+        @Operation(summary = "Register a new sensor reading", description = "Register weather metrics from a sensor. Timestamp is accepted in any timezone and stored as UTC. When write-behind ingest is enabled the reading is queued and stored shortly after the response.")
         @ApiResponses(value = {
                         @ApiResponse(responseCode = "201", description = "Sensor reading registered successfully"),
-                        @ApiResponse(responseCode = "400", description = "Invalid input data")
+                        @ApiResponse(responseCode = "202", description = "Sensor reading queued, write-behind ingest only"),
+                        @ApiResponse(responseCode = "400", description = "Invalid input data"),
+                        @ApiResponse(responseCode = "429", description = "Ingest backlog full, retry later")
         })
         public ResponseEntity<SensorReadingResponse> registerReading(
                         @Valid @RequestBody SensorReadingRequest request) {
 
+                if (service.isWriteBehind()) {
+                        service.acceptReading(request);
+                        return ResponseEntity.accepted().build();
+                }
                 SensorReadingResponse response = service.registerReading(request);
                 return ResponseEntity.status(HttpStatus.CREATED).body(response);
         }
 
+        @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+        @Operation(summary = "Register many sensor readings", description = "Register a list of readings in one request. Each reading is validated on its own, valid readings are stored with batched inserts and rejected ones are reported with their position in the list.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Batch processed, see the accepted and rejected counts"),
+                        @ApiResponse(responseCode = "400", description = "Malformed body or batch too large")
+        })
+        public ResponseEntity<BatchIngestResponse> registerReadings(InputStream body) throws IOException {
+
+                BatchIngestResponse response = service.registerReadingArray(body);
+                return ResponseEntity.ok(response);
+        }
+
+        @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+        @Operation(summary = "Stream many sensor readings as NDJSON", description = "Register readings sent as newline delimited JSON, one reading per line. The upload is parsed and stored incrementally so its size is not limited by server memory. The response counts accepted and rejected lines and lists the first rejections.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Upload processed, see the accepted and rejected counts")
+        })
+        public ResponseEntity<BatchIngestResponse> registerReadingsStream(InputStream body) throws IOException {
+
+                BatchIngestResponse response = service.registerReadings(body);
+                return ResponseEntity.ok(response);
+        }
+
         @GetMapping
         @Operation(summary = "Get all sensor readings in a date range", description = "Retrieve all sensor readings within a specified date range")
         @ApiResponses(value = {
@@ -59,8 +97,61 @@ public ResponseEntity<List<SensorReadingResponse>> getReadings(
                 return ResponseEntity.ok(readings);
         }
 
+        @GetMapping("/page")
+        @Operation(summary = "Get one page of sensor readings in a date range", description = "Readings ordered by timestamp then id. Pass the returned nextCursor to fetch the following page, it is null on the last page. Every page is served in constant time however deep the client pages.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Page retrieved successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range, cursor or limit")
+        })
+        public ResponseEntity<SensorReadingPage> getReadingsPage(
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime,
+
+                        @Parameter(description = "nextCursor of the previous page, omit for the first page") @RequestParam(required = false) String cursor,
+
+                        @Parameter(description = "Maximum readings per page") @RequestParam(required = false) Integer limit) {
+
+                SensorReadingPage page = service.getReadingsPage(startTime, endTime, cursor, limit);
+                return ResponseEntity.ok(page);
+        }
+
+        @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+        @Operation(summary = "Stream sensor readings in a date range as NDJSON", description = "Same readings as the JSON listing, written one per line while they are read from the database. Use it for large ranges.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Sensor readings streamed successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range")
+        })
+        public ResponseEntity<StreamingResponseBody> streamReadings(
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime) {
+
+                return ResponseEntity.ok()
+                                .contentType(MediaType.APPLICATION_NDJSON)
+                                .body(out -> service.streamReadings(startTime, endTime,
+                                                SensorReadingService.StreamFormat.NDJSON, out));
+        }
+
+        @GetMapping(params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+        @Operation(summary = "Stream sensor readings in a date range as a JSON array", description = "Same JSON array as the regular listing, but written while the readings are read from the database instead of being collected first. Use it for large ranges.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Sensor readings streamed successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range")
+        })
+        public ResponseEntity<StreamingResponseBody> streamReadingsAsArray(
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime) {
+
+                return ResponseEntity.ok()
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(out -> service.streamReadings(startTime, endTime,
+                                                SensorReadingService.StreamFormat.JSON_ARRAY, out));
+        }
+
         @GetMapping("/average")
-        @Operation(summary = "Get average metrics for all sensors", description = "Calculate average temperature, humidity, and wind speed for all sensors in a date range")
+        @Operation(summary = "Get average metrics for all sensors", description = "Calculate average temperature, humidity, and wind speed for all sensors in a date range. With retention enabled, time older than the raw retention is only held in hour rollups: there an hour counts when it starts in the range, unless the cold tier holds its raw readings.")
         @ApiResponses(value = {
                         @ApiResponse(responseCode = "200", description = "Average metrics calculated successfully"),
                         @ApiResponse(responseCode = "400", description = "Invalid date range")
@@ -74,8 +165,28 @@ public ResponseEntity<AverageMetricsDto> getAverageMetrics(
                 return ResponseEntity.ok(response);
         }
 
+        @GetMapping(value = "/average", params = "groupBy")
+        @Operation(summary = "Get average metrics per sensor, location or time zone", description = "Averages of every group in a date range, computed together in one pass grouped by sensor instead of one request per group. Optionally restricted to some groups, requested groups without readings are returned with empty averages. Time older than the raw retention counts in whole hours like the other averages.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Average metrics calculated successfully, keyed by group"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range or groupBy")
+        })
+        public ResponseEntity<Map<String, AverageMetricsDto>> getGroupedAverageMetrics(
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime,
+
+                        @Parameter(description = "Group by tag, location or timeZone") @RequestParam String groupBy,
+
+                        @Parameter(description = "Groups to include, comma separated, omit for all") @RequestParam(required = false) List<String> keys) {
+
+                Map<String, AverageMetricsDto> response = service.getGroupedAverageMetrics(startTime, endTime,
+                                SensorReadingService.GroupBy.fromParameter(groupBy), keys);
+                return ResponseEntity.ok(response);
+        }
+
         @GetMapping("/average/{sensorId}")
-        @Operation(summary = "Get average metrics for a specific sensor", description = "Calculate average temperature, humidity, and wind speed for a specific sensor in a date range")
+        @Operation(summary = "Get average metrics for a specific sensor", description = "Calculate average temperature, humidity, and wind speed for a specific sensor in a date range. Time older than the raw retention counts in whole hours like the averages of all sensors.")
         @ApiResponses(value = {
                         @ApiResponse(responseCode = "200", description = "Average metrics calculated successfully"),
                         @ApiResponse(responseCode = "400", description = "Invalid date range or sensor ID")
@@ -89,4 +200,72 @@ public ResponseEntity<AverageMetricsDto> getAverageMetricsBySensor(
                 return ResponseEntity.ok(response);
         }
 
+        @GetMapping("/series")
+        @Operation(summary = "Get an average time series for all sensors", description = "Average temperature, humidity and wind speed per 1m, 5m or 1h bucket aligned to UTC. The buckets at both ends are whole, buckets without readings are left out. Computed from rollups, 1m and 5m buckets only exist for the time still held as raw readings.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Series calculated successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range or interval, or too many buckets")
+        })
+        public ResponseEntity<List<SeriesBucketDto>> getSeries(
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime,
+
+                        @Parameter(description = "Bucket size: 1m, 5m or 1h") @RequestParam String interval) {
+
+                List<SeriesBucketDto> response = service.getSeries(startTime, endTime, null,
+                                SensorReadingService.SeriesInterval.fromParameter(interval));
+                return ResponseEntity.ok(response);
+        }
+
+        @GetMapping("/series/{sensorId}")
+        @Operation(summary = "Get an average time series for a specific sensor", description = "Same series as for all sensors, restricted to one sensor")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Series calculated successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range, interval or sensor ID, or too many buckets")
+        })
+        public ResponseEntity<List<SeriesBucketDto>> getSeriesBySensor(
+                        @Parameter(description = "Unique sensor identifier") @PathVariable String sensorId,
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime,
+                        @Parameter(description = "Bucket size: 1m, 5m or 1h") @RequestParam String interval) {
+
+                List<SeriesBucketDto> response = service.getSeries(startTime, endTime, sensorId,
+                                SensorReadingService.SeriesInterval.fromParameter(interval));
+                return ResponseEntity.ok(response);
+        }
+
+        @GetMapping("/statistics")
+        @Operation(summary = "Get metric statistics for all sensors", description = "Min, max, mean, standard deviation, quantiles and a histogram of temperature, humidity and wind speed in a date range. Computed from per-hour sketches, so an hour counts when it starts in the range. Min, max, mean and standard deviation are exact, quantiles are within 1% relative error.")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Statistics calculated successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range or quantiles, or statistics are disabled")
+        })
+        public ResponseEntity<ReadingStatisticsDto> getStatistics(
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime,
+
+                        @Parameter(description = "Quantiles between 0 and 1, comma separated, omit for the defaults") @RequestParam(required = false) List<Double> quantiles) {
+
+                ReadingStatisticsDto response = service.getStatistics(startTime, endTime, null, quantiles);
+                return ResponseEntity.ok(response);
+        }
+
+        @GetMapping("/statistics/{sensorId}")
+        @Operation(summary = "Get metric statistics for a specific sensor", description = "Same statistics as for all sensors, restricted to one sensor")
+        @ApiResponses(value = {
+                        @ApiResponse(responseCode = "200", description = "Statistics calculated successfully"),
+                        @ApiResponse(responseCode = "400", description = "Invalid date range, quantiles or sensor ID, or statistics are disabled")
+        })
+        public ResponseEntity<ReadingStatisticsDto> getStatisticsBySensor(
+                        @Parameter(description = "Unique sensor identifier") @PathVariable String sensorId,
+                        @Parameter(description = "Start date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startTime,
+                        @Parameter(description = "End date and time (ISO 8601 format with timezone)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endTime,
+                        @Parameter(description = "Quantiles between 0 and 1, comma separated, omit for the defaults") @RequestParam(required = false) List<Double> quantiles) {
+
+                ReadingStatisticsDto response = service.getStatistics(startTime, endTime, sensorId, quantiles);
+                return ResponseEntity.ok(response);
+        }
+
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package com.example.weathersensor.dto;
+
+import java.util.List;
+
+public record BatchIngestResponse(
+                long accepted,
+                long rejected,
+                List<RejectedReading> rejections) {
+}
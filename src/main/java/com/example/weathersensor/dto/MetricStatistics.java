@@ -0,0 +1,27 @@
+package com.example.weathersensor.dto;
+
+import java.util.List;
+
+/**
+ * Distribution of one metric over a range. Min, max, mean and standard
+ * deviation are exact, quantiles and histogram counts come from sketches
+ * and are approximate
+ */
+public record MetricStatistics(
+                Double min,
+                Double max,
+                Double mean,
+                Double standardDeviation,
+                List<QuantileValue> quantiles,
+                List<HistogramBin> histogram) {
+
+        public record QuantileValue(double quantile, double value) {
+        }
+
+        /**
+         * Readings between lower and upper, the last bin includes its upper
+         * bound
+         */
+        public record HistogramBin(double lower, double upper, long count) {
+        }
+}
@@ -0,0 +1,45 @@
+package com.example.weathersensor.dto;
+
+import com.example.weathersensor.entity.SensorReading;
+
+/**
+ * Sums and count of readings, unlike averages they can be added together
+ * when a range is answered from several sources. The sums are kept in the
+ * stored scale of each metric, see {@link SensorReading}, so adding them is
+ * exact in any order and the scale is only divided out of the averages
+ */
+public record MetricTotals(
+                Long temperatureSum,
+                Long humiditySum,
+                Long windSpeedSum,
+                Long readings) {
+
+        public static final MetricTotals EMPTY = new MetricTotals(0L, 0L, 0L, 0L);
+
+        // SUM over no rows is NULL in SQL
+        public MetricTotals {
+                temperatureSum = temperatureSum == null ? 0L : temperatureSum;
+                humiditySum = humiditySum == null ? 0L : humiditySum;
+                windSpeedSum = windSpeedSum == null ? 0L : windSpeedSum;
+                readings = readings == null ? 0L : readings;
+        }
+
+        public MetricTotals plus(MetricTotals other) {
+                return new MetricTotals(
+                                temperatureSum + other.temperatureSum,
+                                humiditySum + other.humiditySum,
+                                windSpeedSum + other.windSpeedSum,
+                                readings + other.readings);
+        }
+
+        public AverageMetricsDto toAverages() {
+                if (readings == 0) {
+                        return new AverageMetricsDto(null, null, null, 0L);
+                }
+                return new AverageMetricsDto(
+                                temperatureSum / ((double) readings * SensorReading.TEMPERATURE_SCALE),
+                                humiditySum / ((double) readings * SensorReading.HUMIDITY_SCALE),
+                                windSpeedSum / ((double) readings * SensorReading.WIND_SPEED_SCALE),
+                                readings);
+        }
+}
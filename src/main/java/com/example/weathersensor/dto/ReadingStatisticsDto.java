@@ -0,0 +1,12 @@
+package com.example.weathersensor.dto;
+
+/**
+ * Statistics of each metric over a range, the metrics are null when there
+ * are no readings
+ */
+public record ReadingStatisticsDto(
+                Long readings,
+                MetricStatistics temperature,
+                MetricStatistics humidity,
+                MetricStatistics windSpeed) {
+}
@@ -0,0 +1,15 @@
+package com.example.weathersensor.dto;
+
+/**
+ * A reading that was not stored by a batch ingest
+ *
+ * @param index    zero based position of the reading in the submitted batch,
+ *                 for NDJSON uploads its line number with blank lines counted
+ * @param sensorId sensor tag of the reading, null when it could not be parsed
+ * @param reason   why the reading was rejected
+ */
+public record RejectedReading(
+                long index,
+                String sensorId,
+                String reason) {
+}
@@ -0,0 +1,14 @@
+package com.example.weathersensor.dto;
+
+import java.util.List;
+
+/**
+ * One page of a keyset paginated reading query
+ *
+ * @param readings   readings ordered by timestamp then id
+ * @param nextCursor opaque cursor of the next page, null on the last page
+ */
+public record SensorReadingPage(
+                List<SensorReadingResponse> readings,
+                String nextCursor) {
+}
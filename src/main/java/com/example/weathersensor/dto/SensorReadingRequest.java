@@ -1,19 +1,31 @@
 package com.example.weathersensor.dto;
 
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.NotBlank;
 
 import java.time.Instant;
 import java.time.OffsetDateTime;
 
+/**
+ * Metrics are stored as integers scaled to a fixed precision, see
+ * SensorReading. The bounds are physical limits well inside that range
+ */
 public record SensorReadingRequest(
                 @NotBlank(message = "Sensor ID is required") String sensorId,
 
-                @NotNull(message = "Temperature is required") Double temperature,
+                @NotNull(message = "Temperature is required")
+                @DecimalMin(value = "-273.15", message = "Temperature must be at least -273.15")
+                @DecimalMax(value = "1000", message = "Temperature must be at most 1000") Double temperature,
 
-                @NotNull(message = "Humidity is required") Double humidity,
+                @NotNull(message = "Humidity is required")
+                @DecimalMin(value = "0", message = "Humidity must be at least 0")
+                @DecimalMax(value = "100", message = "Humidity must be at most 100") Double humidity,
 
-                @NotNull(message = "Wind speed is required") Double windSpeed,
+                @NotNull(message = "Wind speed is required")
+                @DecimalMin(value = "0", message = "Wind speed must be at least 0")
+                @DecimalMax(value = "1000", message = "Wind speed must be at most 1000") Double windSpeed,
 
                 @NotNull(message = "Timestamp is required") Instant timestamp) {
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.example.weathersensor.dto;
+
+import java.time.Instant;
+
+/**
+ * Flat read model of a reading joined with its sensor. Filled by JPQL
+ * constructor expressions, so reading queries neither hydrate managed
+ * entities nor trigger lazy sensor loads
+ */
+public record SensorReadingRow(
+                Long id,
+                String sensorId,
+                Double temperature,
+                Double humidity,
+                Double windSpeed,
+                Instant timestamp,
+                String timeZone) {
+}
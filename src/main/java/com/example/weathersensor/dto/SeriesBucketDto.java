@@ -0,0 +1,14 @@
+package com.example.weathersensor.dto;
+
+import java.time.Instant;
+
+/**
+ * Averages of the readings in one bucket of a time series
+ */
+public record SeriesBucketDto(
+                Instant bucketStart,
+                Double averageTemperature,
+                Double averageHumidity,
+                Double averageWindSpeed,
+                Long readings) {
+}
@@ -0,0 +1,34 @@
+package com.example.weathersensor.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * How far old data has been compacted. Raw readings and minute rollups
+ * before the watermark are deleted, hour and day rollups still cover that
+ * time. The rollup backfill keeps how far it has checked the raw readings in
+ * a row of its own
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "retention_watermarks")
+public class RetentionWatermark {
+
+    // Name of the compacted data, one row per retention job
+    @Id
+    private String name;
+
+    @Column(nullable = false)
+    private Instant compactedBefore;
+}
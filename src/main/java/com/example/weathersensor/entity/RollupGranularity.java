@@ -0,0 +1,35 @@
+package com.example.weathersensor.entity;
+
+import java.time.Instant;
+
+/**
+ * Bucket sizes of the reading rollups, buckets are aligned to UTC
+ */
+public enum RollupGranularity {
+    MINUTE(60), HOUR(3_600), DAY(86_400);
+
+    private final long seconds;
+
+    RollupGranularity(long seconds) {
+        this.seconds = seconds;
+    }
+
+    public long seconds() {
+        return seconds;
+    }
+
+    /**
+     * @return start of the bucket holding the instant
+     */
+    public Instant floor(Instant instant) {
+        return Instant.ofEpochSecond(Math.floorDiv(instant.getEpochSecond(), seconds) * seconds);
+    }
+
+    /**
+     * @return the first bucket boundary at or after the instant
+     */
+    public Instant ceil(Instant instant) {
+        Instant floor = floor(instant);
+        return floor.equals(instant) ? floor : floor.plusSeconds(seconds);
+    }
+}
@@ -11,7 +11,11 @@
 @Getter
 @NoArgsConstructor
 @Entity
-@Table(name = "sensors")
+@Table(name = "sensors", indexes = {
+        // Location and time zone filters of the average queries
+        @Index(name = "idx_sensors_location", columnList = "location"),
+        @Index(name = "idx_sensors_time_zone", columnList = "timeZone")
+})
 public class Sensor {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
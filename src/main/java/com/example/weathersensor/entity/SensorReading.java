@@ -5,43 +5,113 @@
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnTransformer;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 
+/**
+ * One measurement of a sensor. Rows reference the sensor by its numeric id
+ * and keep the metrics as integers scaled to a fixed number of decimals per
+ * metric, so a row is a few fixed width columns. Values are rounded to that
+ * precision when set, and timestamps truncated to whole seconds, what the
+ * entity holds is what the database stores
+ */
 @NoArgsConstructor
 @Getter
 @Setter
 @Entity
 @Table(name = "sensor_readings", uniqueConstraints = {
-        @UniqueConstraint(columnNames = { "sensor_tag", "timestamp" })
+        // A tag belongs to exactly one sensor id, so this is still one reading
+        // per sensor tag and timestamp
+        @UniqueConstraint(columnNames = { "sensor_id", "timestamp" })
+}, indexes = {
+        // Sort key of the keyset paginated range query, also serves the
+        // queries filtering on the time range alone
+        @Index(name = "idx_sensor_readings_timestamp_id", columnList = "timestamp, id"),
+        // Covering indexes of the averaging queries, over all sensors and per
+        // sensor, the metrics are read from the index without row lookups
+        @Index(name = "idx_sensor_readings_timestamp_metrics",
+                columnList = "timestamp, sensor_id, temperature, humidity, wind_speed"),
+        @Index(name = "idx_sensor_readings_sensor_timestamp_metrics",
+                columnList = "sensor_id, timestamp, temperature, humidity, wind_speed")
 })
 public class SensorReading {
 
+    // Stored precision of each metric, as the factor a value is multiplied
+    // with before it is stored. They are constants on purpose, not settings:
+    // the scale is part of what the integer columns, the rollup sums and the
+    // cold segments mean, so a value read with another scale than it was
+    // written with is silently wrong. Changing one needs a migration of the
+    // stored data under scripts/migrations, and a rebuild
+    public static final int TEMPERATURE_SCALE = 100;
+    public static final int HUMIDITY_SCALE = 100;
+    public static final int WIND_SPEED_SCALE = 100;
+
+    // Sequence ids with a pooled optimizer let Hibernate batch inserts,
+    // IDENTITY would force one round trip per row to read back the key
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sensor_readings_seq")
+    @SequenceGenerator(name = "sensor_readings_seq", sequenceName = "sensor_readings_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "sensor_tag", referencedColumnName = "tag", nullable = false)
+    @JoinColumn(name = "sensor_id", nullable = false)
     private Sensor sensor;
 
-    @Column(nullable = false)
-    private Double temperature;
+    // Read as a double in every query, aggregates included
+    @Column(nullable = false, columnDefinition = "integer")
+    @ColumnTransformer(read = "cast(temperature as double precision) / " + TEMPERATURE_SCALE,
+            write = "round(cast(? as double precision) * " + TEMPERATURE_SCALE + ")")
+    private double temperature;
 
-    @Column(nullable = false)
-    private Double humidity;
+    @Column(nullable = false, columnDefinition = "integer")
+    @ColumnTransformer(read = "cast(humidity as double precision) / " + HUMIDITY_SCALE,
+            write = "round(cast(? as double precision) * " + HUMIDITY_SCALE + ")")
+    private double humidity;
 
-    @Column(nullable = false)
-    private Double windSpeed;
+    @Column(nullable = false, columnDefinition = "integer")
+    @ColumnTransformer(read = "cast(wind_speed as double precision) / " + WIND_SPEED_SCALE,
+            write = "round(cast(? as double precision) * " + WIND_SPEED_SCALE + ")")
+    private double windSpeed;
 
+    // Whole seconds: range bounds are rounded to seconds and the cold tier
+    // encodes epoch seconds, a sub-second part would be lost on sealing
     @Column(nullable = false)
-    private Instant timestamp = Instant.now();
+    private Instant timestamp = Instant.now().truncatedTo(ChronoUnit.SECONDS);
 
-    public SensorReading(Sensor sensor, Double temperature, Double humidity, Double windSpeed, Instant timestamp) {
+    public SensorReading(Sensor sensor, double temperature, double humidity, double windSpeed, Instant timestamp) {
         this.sensor = sensor;
-        this.temperature = temperature;
-        this.humidity = humidity;
-        this.windSpeed = windSpeed;
-        this.timestamp = timestamp;
+        setTemperature(temperature);
+        setHumidity(humidity);
+        setWindSpeed(windSpeed);
+        setTimestamp(timestamp);
+    }
+
+    public void setTemperature(double temperature) {
+        this.temperature = round(temperature, TEMPERATURE_SCALE);
+    }
+
+    public void setHumidity(double humidity) {
+        this.humidity = round(humidity, HUMIDITY_SCALE);
+    }
+
+    public void setWindSpeed(double windSpeed) {
+        this.windSpeed = round(windSpeed, WIND_SPEED_SCALE);
+    }
+
+    public void setTimestamp(Instant timestamp) {
+        this.timestamp = timestamp.truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * @return the value as it is stored with the given scale
+     */
+    public static long scaled(double value, int scale) {
+        return Math.round(value * scale);
+    }
+
+    private static double round(double value, int scale) {
+        return (double) scaled(value, scale) / scale;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package com.example.weathersensor.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Pre-aggregated readings of one sensor in one time bucket. Sums are kept in
+ * the stored scale of each metric, see {@link SensorReading}, so sum and
+ * count give the same averages as the raw readings however buckets are
+ * combined. Min and max are kept for range statistics
+ */
+@Getter
+@NoArgsConstructor
+@Entity
+@Table(name = "sensor_reading_rollups", indexes = @Index(name = "idx_sensor_reading_rollups_bucket",
+        columnList = "granularity, bucket_start, sensor_tag"))
+public class SensorReadingRollup {
+
+    @EmbeddedId
+    private SensorReadingRollupId id;
+
+    @Column(nullable = false)
+    private long readings;
+
+    @Column(nullable = false)
+    private long temperatureSum;
+
+    @Column(nullable = false)
+    private double temperatureMin;
+
+    @Column(nullable = false)
+    private double temperatureMax;
+
+    @Column(nullable = false)
+    private long humiditySum;
+
+    @Column(nullable = false)
+    private double humidityMin;
+
+    @Column(nullable = false)
+    private double humidityMax;
+
+    @Column(nullable = false)
+    private long windSpeedSum;
+
+    @Column(nullable = false)
+    private double windSpeedMin;
+
+    @Column(nullable = false)
+    private double windSpeedMax;
+
+    public SensorReadingRollup(SensorReadingRollupId id) {
+        this.id = id;
+        this.temperatureMin = this.humidityMin = this.windSpeedMin = Double.POSITIVE_INFINITY;
+        this.temperatureMax = this.humidityMax = this.windSpeedMax = Double.NEGATIVE_INFINITY;
+    }
+
+    public void add(double temperature, double humidity, double windSpeed) {
+        readings++;
+        temperatureSum += SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE);
+        temperatureMin = Math.min(temperatureMin, temperature);
+        temperatureMax = Math.max(temperatureMax, temperature);
+        humiditySum += SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE);
+        humidityMin = Math.min(humidityMin, humidity);
+        humidityMax = Math.max(humidityMax, humidity);
+        windSpeedSum += SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE);
+        windSpeedMin = Math.min(windSpeedMin, windSpeed);
+        windSpeedMax = Math.max(windSpeedMax, windSpeed);
+    }
+
+    /**
+     * Add the readings of another bucket, e.g. the hours of a day
+     */
+    public void add(SensorReadingRollup other) {
+        readings += other.readings;
+        temperatureSum += other.temperatureSum;
+        temperatureMin = Math.min(temperatureMin, other.temperatureMin);
+        temperatureMax = Math.max(temperatureMax, other.temperatureMax);
+        humiditySum += other.humiditySum;
+        humidityMin = Math.min(humidityMin, other.humidityMin);
+        humidityMax = Math.max(humidityMax, other.humidityMax);
+        windSpeedSum += other.windSpeedSum;
+        windSpeedMin = Math.min(windSpeedMin, other.windSpeedMin);
+        windSpeedMax = Math.max(windSpeedMax, other.windSpeedMax);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.weathersensor.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Serialized quantile sketches of one sensor's metrics in one hour or day
+ * bucket, kept next to the rollup of the same bucket. Minute buckets have
+ * none, a sketch costs far more than a rollup row
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "sensor_reading_sketches", indexes = @Index(name = "idx_sensor_reading_sketches_bucket",
+        columnList = "granularity, bucket_start, sensor_tag"))
+public class SensorReadingSketch {
+
+    // A sketch is bounded by its bin limit to well below this
+    private static final int MAX_SKETCH_BYTES = 65_536;
+
+    @EmbeddedId
+    private SensorReadingRollupId id;
+
+    @Column(nullable = false, length = MAX_SKETCH_BYTES)
+    private byte[] temperature;
+
+    @Column(nullable = false, length = MAX_SKETCH_BYTES)
+    private byte[] humidity;
+
+    @Column(nullable = false, length = MAX_SKETCH_BYTES)
+    private byte[] windSpeed;
+}
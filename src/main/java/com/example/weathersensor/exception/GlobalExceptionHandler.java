@@ -1,5 +1,6 @@
 package com.example.weathersensor.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -77,6 +78,24 @@ public ResponseEntity<ErrorResponse> handleSensorNotFound(
                 return ResponseEntity.status(httpStatus).body(errorResponse);
         }
 
+        /**
+         * Handle IngestBacklogFullException, tells the client when to retry
+         */
+        @ExceptionHandler(IngestBacklogFullException.class)
+        public ResponseEntity<ErrorResponse> handleIngestBacklogFull(
+                        IngestBacklogFullException ex, WebRequest request) {
+
+                ErrorResponse errorResponse = new ErrorResponse(
+                                ex.getMessage(),
+                                HttpStatus.TOO_MANY_REQUESTS.value(),
+                                LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                                request.getDescription(false).replace("uri=", ""));
+
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .header(HttpHeaders.RETRY_AFTER, "1")
+                                .body(errorResponse);
+        }
+
         @ExceptionHandler(HttpMessageNotReadableException.class)
         public ResponseEntity<ErrorResponse> handleInvalidJson(HttpMessageNotReadableException ex, WebRequest request) {
                 ErrorResponse errorResponse = new ErrorResponse(
@@ -0,0 +1,12 @@
+package com.example.weathersensor.exception;
+
+/**
+ * The write-behind buffers cannot take more readings right now, the client
+ * should retry later
+ */
+public class IngestBacklogFullException extends RuntimeException {
+
+    public IngestBacklogFullException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -13,6 +13,15 @@ public enum MODE {
         READING, SENSOR
     }
 
+    /**
+     * For readings from unregistered sensors. This path can be flooded by
+     * misconfigured devices, so the exception carries no stack trace, filling
+     * it in is most of the cost of throwing
+     */
+    public static SensorNotFoundException unknownReadingSensor(String sensorId) {
+        return new SensorNotFoundException("Sensor not found with ID: " + sensorId, MODE.READING, false);
+    }
+
     @Getter
     MODE mode;
 
@@ -25,4 +34,9 @@ public SensorNotFoundException(String message, Throwable cause, MODE mode) {
         super(message, cause);
         this.mode = mode;
     }
+
+    protected SensorNotFoundException(String message, MODE mode, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.mode = mode;
+    }
 }
@@ -0,0 +1,93 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollup;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ReadingRollupRepository
+    extends JpaRepository<SensorReadingRollup, SensorReadingRollupId>, ReadingRollupRepositoryCustom {
+
+  /**
+   * Sum the buckets of one granularity starting in [startTime, endTime)
+   *
+   * @param granularity
+   * @param startTime   inclusive, aligned to the granularity
+   * @param endTime     exclusive, aligned to the granularity
+   * @param tag         restrict to one sensor, null for all sensors
+   * @return
+   */
+  @Query("""
+      SELECT new com.example.weathersensor.dto.MetricTotals(
+          SUM(r.temperatureSum), SUM(r.humiditySum), SUM(r.windSpeedSum), SUM(r.readings))
+      FROM SensorReadingRollup r
+      WHERE r.id.granularity = :granularity
+        AND r.id.bucketStart >= :startTime AND r.id.bucketStart < :endTime
+        AND (:tag IS NULL OR r.id.sensorTag = :tag)
+      """)
+  MetricTotals sumBuckets(
+      @Param("granularity") RollupGranularity granularity,
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime,
+      @Param("tag") String tag);
+
+  /**
+   * Readings counted by each sensor's buckets of one granularity starting in
+   * [startTime, endTime)
+   *
+   * @param granularity
+   * @param startTime   inclusive, aligned to the granularity
+   * @param endTime     exclusive, aligned to the granularity
+   * @return pairs of bucket id and readings
+   */
+  @Query("""
+      SELECT r.id, r.readings FROM SensorReadingRollup r
+      WHERE r.id.granularity = :granularity
+        AND r.id.bucketStart >= :startTime AND r.id.bucketStart < :endTime
+      """)
+  List<Object[]> countBuckets(
+      @Param("granularity") RollupGranularity granularity,
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+
+  /**
+   * Buckets of one sensor and granularity starting in [startTime, endTime)
+   */
+  @Query("""
+      SELECT r FROM SensorReadingRollup r
+      WHERE r.id.granularity = :granularity AND r.id.sensorTag = :tag
+        AND r.id.bucketStart >= :startTime AND r.id.bucketStart < :endTime
+      """)
+  List<SensorReadingRollup> findBuckets(
+      @Param("granularity") RollupGranularity granularity,
+      @Param("tag") String tag,
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+
+  /**
+   * Delete the buckets of one sensor and granularity starting in [startTime,
+   * endTime)
+   *
+   * @return buckets deleted
+   */
+  @Modifying
+  @Query("""
+      DELETE FROM SensorReadingRollup r
+      WHERE r.id.granularity = :granularity AND r.id.sensorTag = :tag
+        AND r.id.bucketStart >= :startTime AND r.id.bucketStart < :endTime
+      """)
+  int deleteBuckets(
+      @Param("granularity") RollupGranularity granularity,
+      @Param("tag") String tag,
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+}
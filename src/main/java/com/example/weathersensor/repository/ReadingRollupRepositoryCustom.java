@@ -0,0 +1,53 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollup;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+public interface ReadingRollupRepositoryCustom {
+
+  /**
+   * Add partial aggregates to the stored buckets, creating missing buckets.
+   * Runs in the caller's transaction
+   *
+   * @param partials one aggregate per (granularity, sensor, bucket)
+   */
+  void merge(Collection<SensorReadingRollup> partials);
+
+  /**
+   * Sum the buckets of one granularity starting in [startTime, endTime) per
+   * sensor tag, in a single grouped query
+   *
+   * @param startTime inclusive, aligned to the granularity
+   * @param endTime   exclusive, aligned to the granularity
+   * @param tags      restrict to these sensors, null for all sensors
+   * @return totals of the sensors with buckets in the interval
+   */
+  Map<String, MetricTotals> sumBucketsBySensor(RollupGranularity granularity, Instant startTime, Instant endTime,
+      Collection<String> tags);
+
+  /**
+   * Sum the buckets of one granularity starting in [startTime, endTime) into
+   * coarser buckets of bucketSeconds aligned to UTC, over all selected
+   * sensors together, in a single grouped query
+   *
+   * @param bucketSeconds a multiple of the granularity
+   * @param tag           restrict to one sensor, null for all sensors
+   * @return totals by bucket start in ascending order, buckets without
+   *         readings are left out
+   */
+  Map<Instant, MetricTotals> sumBucketsByTime(RollupGranularity granularity, Instant startTime, Instant endTime,
+      long bucketSeconds, String tag);
+
+  /**
+   * Delete up to limit buckets of one granularity starting before the cutoff,
+   * in a transaction of its own unless the caller has one
+   *
+   * @return buckets deleted, less than limit once none are left
+   */
+  int deleteBucketsBefore(RollupGranularity granularity, Instant cutoff, int limit);
+}
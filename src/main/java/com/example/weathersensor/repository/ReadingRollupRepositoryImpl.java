@@ -0,0 +1,217 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollup;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds partial aggregates to the stored buckets with batched in-place
+ * updates. Reading the bucket back through JPA and updating it would cost a
+ * select per bucket and lose increments between concurrent writers. When some
+ * buckets do not exist yet the batch is rolled back to a savepoint and every
+ * bucket is updated or inserted on its own, still in lock order. A bucket
+ * inserted by a concurrent writer in the meantime turns the insert into an
+ * update. A plain MERGE is not enough, two transactions can both find the
+ * bucket missing and the second insert then fails
+ */
+public class ReadingRollupRepositoryImpl implements ReadingRollupRepositoryCustom {
+
+  private static final String UPDATE_SQL = """
+      UPDATE sensor_reading_rollups SET
+        readings = readings + ?,
+        temperature_sum = temperature_sum + ?,
+        temperature_min = LEAST(temperature_min, ?),
+        temperature_max = GREATEST(temperature_max, ?),
+        humidity_sum = humidity_sum + ?,
+        humidity_min = LEAST(humidity_min, ?),
+        humidity_max = GREATEST(humidity_max, ?),
+        wind_speed_sum = wind_speed_sum + ?,
+        wind_speed_min = LEAST(wind_speed_min, ?),
+        wind_speed_max = GREATEST(wind_speed_max, ?)
+      WHERE granularity = ? AND sensor_tag = ? AND bucket_start = ?
+      """;
+
+  private static final String INSERT_SQL = """
+      INSERT INTO sensor_reading_rollups (readings,
+        temperature_sum, temperature_min, temperature_max,
+        humidity_sum, humidity_min, humidity_max,
+        wind_speed_sum, wind_speed_min, wind_speed_max,
+        granularity, sensor_tag, bucket_start)
+      VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+      """;
+
+  private static final String SUM_BY_SENSOR_SQL = """
+      SELECT sensor_tag, SUM(temperature_sum), SUM(humidity_sum), SUM(wind_speed_sum), SUM(readings)
+      FROM sensor_reading_rollups
+      WHERE granularity = ? AND bucket_start >= ? AND bucket_start < ?%s
+      GROUP BY sensor_tag
+      """;
+
+  // Buckets are numbered since the epoch, the bucket size is inlined as H2
+  // can not type a parameter inside EXTRACT arithmetic
+  private static final String SUM_BY_TIME_SQL = """
+      SELECT FLOOR(EXTRACT(EPOCH FROM bucket_start) / %1$d),
+        SUM(temperature_sum), SUM(humidity_sum), SUM(wind_speed_sum), SUM(readings)
+      FROM sensor_reading_rollups
+      WHERE granularity = ? AND bucket_start >= ? AND bucket_start < ?%2$s
+      GROUP BY FLOOR(EXTRACT(EPOCH FROM bucket_start) / %1$d)
+      ORDER BY 1
+      """;
+
+  private static final String DELETE_BEFORE_SQL = """
+      DELETE FROM sensor_reading_rollups
+      WHERE granularity = ? AND bucket_start < ?
+      FETCH FIRST ? ROWS ONLY
+      """;
+
+  // Same lock order in every transaction, concurrent batches touching the
+  // same buckets then wait on each other instead of deadlocking
+  private static final Comparator<SensorReadingRollup> LOCK_ORDER = Comparator
+      .comparing((SensorReadingRollup r) -> r.getId().getGranularity())
+      .thenComparing(r -> r.getId().getSensorTag())
+      .thenComparing(r -> r.getId().getBucketStart());
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Override
+  public void merge(Collection<SensorReadingRollup> partials) {
+    if (partials.isEmpty()) {
+      return;
+    }
+    List<SensorReadingRollup> ordered = partials.stream().sorted(LOCK_ORDER).toList();
+    jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+      try (PreparedStatement update = con.prepareStatement(UPDATE_SQL)) {
+        Savepoint batch = con.setSavepoint();
+        for (SensorReadingRollup rollup : ordered) {
+          bind(update, rollup);
+          update.addBatch();
+        }
+        if (Arrays.stream(update.executeBatch()).noneMatch(count -> count == 0)) {
+          con.releaseSavepoint(batch);
+          return null;
+        }
+        // Locks taken by the batch are released again, taking them together
+        // with the inserted buckets one by one keeps the lock order
+        con.rollback(batch);
+        try (PreparedStatement insert = con.prepareStatement(INSERT_SQL)) {
+          for (SensorReadingRollup rollup : ordered) {
+            upsert(con, update, insert, rollup);
+          }
+        }
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public Map<String, MetricTotals> sumBucketsBySensor(RollupGranularity granularity, Instant startTime,
+      Instant endTime, Collection<String> tags) {
+    List<Object> args = new ArrayList<>(List.of(granularity.name(),
+        OffsetDateTime.ofInstant(startTime, ZoneOffset.UTC), OffsetDateTime.ofInstant(endTime, ZoneOffset.UTC)));
+    String tagFilter = "";
+    if (tags != null) {
+      tagFilter = " AND sensor_tag IN (" + String.join(", ", tags.stream().map(tag -> "?").toList()) + ")";
+      args.addAll(tags);
+    }
+    Map<String, MetricTotals> totals = new HashMap<>();
+    jdbcTemplate.query(SUM_BY_SENSOR_SQL.formatted(tagFilter), rs -> {
+      totals.put(rs.getString(1), new MetricTotals(rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+    }, args.toArray());
+    return totals;
+  }
+
+  @Override
+  public Map<Instant, MetricTotals> sumBucketsByTime(RollupGranularity granularity, Instant startTime,
+      Instant endTime, long bucketSeconds, String tag) {
+    if (bucketSeconds % granularity.seconds() != 0) {
+      throw new IllegalArgumentException(bucketSeconds + "s buckets can not be summed from " + granularity);
+    }
+    List<Object> args = new ArrayList<>(List.of(granularity.name(),
+        OffsetDateTime.ofInstant(startTime, ZoneOffset.UTC), OffsetDateTime.ofInstant(endTime, ZoneOffset.UTC)));
+    String tagFilter = "";
+    if (tag != null) {
+      tagFilter = " AND sensor_tag = ?";
+      args.add(tag);
+    }
+    Map<Instant, MetricTotals> totals = new LinkedHashMap<>();
+    jdbcTemplate.query(SUM_BY_TIME_SQL.formatted(bucketSeconds, tagFilter), rs -> {
+      totals.put(Instant.ofEpochSecond(rs.getLong(1) * bucketSeconds),
+          new MetricTotals(rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+    }, args.toArray());
+    return totals;
+  }
+
+  @Override
+  public int deleteBucketsBefore(RollupGranularity granularity, Instant cutoff, int limit) {
+    return jdbcTemplate.update(DELETE_BEFORE_SQL, granularity.name(),
+        OffsetDateTime.ofInstant(cutoff, ZoneOffset.UTC), limit);
+  }
+
+  private static void upsert(Connection con, PreparedStatement update, PreparedStatement insert,
+      SensorReadingRollup rollup) throws SQLException {
+    bind(update, rollup);
+    if (update.executeUpdate() > 0) {
+      return;
+    }
+    Savepoint single = con.setSavepoint();
+    try {
+      bind(insert, rollup);
+      insert.executeUpdate();
+      con.releaseSavepoint(single);
+      return;
+    } catch (SQLException e) {
+      if (!isDuplicateKey(e)) {
+        throw e;
+      }
+      con.rollback(single);
+    }
+    // Inserted and committed by a concurrent writer since the update above
+    bind(update, rollup);
+    if (update.executeUpdate() == 0) {
+      throw new IllegalStateException("Rollup bucket " + rollup.getId() + " vanished during update");
+    }
+  }
+
+  // Integrity constraint violations share SQLSTATE class 23
+  private static boolean isDuplicateKey(SQLException e) {
+    return e.getSQLState() != null && e.getSQLState().startsWith("23");
+  }
+
+  private static void bind(PreparedStatement ps, SensorReadingRollup rollup) throws SQLException {
+    SensorReadingRollupId id = rollup.getId();
+    ps.setLong(1, rollup.getReadings());
+    ps.setLong(2, rollup.getTemperatureSum());
+    ps.setDouble(3, rollup.getTemperatureMin());
+    ps.setDouble(4, rollup.getTemperatureMax());
+    ps.setLong(5, rollup.getHumiditySum());
+    ps.setDouble(6, rollup.getHumidityMin());
+    ps.setDouble(7, rollup.getHumidityMax());
+    ps.setLong(8, rollup.getWindSpeedSum());
+    ps.setDouble(9, rollup.getWindSpeedMin());
+    ps.setDouble(10, rollup.getWindSpeedMax());
+    ps.setString(11, id.getGranularity().name());
+    ps.setString(12, id.getSensorTag());
+    ps.setObject(13, OffsetDateTime.ofInstant(id.getBucketStart(), ZoneOffset.UTC));
+  }
+}
@@ -0,0 +1,58 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import com.example.weathersensor.entity.SensorReadingSketch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ReadingSketchRepository
+    extends JpaRepository<SensorReadingSketch, SensorReadingRollupId>, ReadingSketchRepositoryCustom {
+
+  /**
+   * Sketches of the buckets of one granularity starting in [startTime,
+   * endTime)
+   *
+   * @param granularity
+   * @param startTime   inclusive, aligned to the granularity
+   * @param endTime     exclusive, aligned to the granularity
+   * @param tag         restrict to one sensor, null for all sensors
+   * @return
+   */
+  @Query("""
+      SELECT s FROM SensorReadingSketch s
+      WHERE s.id.granularity = :granularity
+        AND s.id.bucketStart >= :startTime AND s.id.bucketStart < :endTime
+        AND (:tag IS NULL OR s.id.sensorTag = :tag)
+      """)
+  List<SensorReadingSketch> findBuckets(
+      @Param("granularity") RollupGranularity granularity,
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime,
+      @Param("tag") String tag);
+
+  /**
+   * Delete the sketches of one sensor and granularity starting in
+   * [startTime, endTime)
+   *
+   * @return sketches deleted
+   */
+  @Modifying
+  @Query("""
+      DELETE FROM SensorReadingSketch s
+      WHERE s.id.granularity = :granularity AND s.id.sensorTag = :tag
+        AND s.id.bucketStart >= :startTime AND s.id.bucketStart < :endTime
+      """)
+  int deleteBuckets(
+      @Param("granularity") RollupGranularity granularity,
+      @Param("tag") String tag,
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+}
@@ -0,0 +1,20 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.entity.SensorReadingSketch;
+
+import java.util.Collection;
+import java.util.function.BinaryOperator;
+
+public interface ReadingSketchRepositoryCustom {
+
+  /**
+   * Merge partial sketches into the stored ones, creating missing buckets.
+   * Runs in the caller's transaction, which must already hold the locks of
+   * the rollups of the same buckets, so no other writer merges into these
+   * sketches before it commits
+   *
+   * @param partials one sketch per (granularity, sensor, bucket)
+   * @param merge    combines a stored and a partial serialized sketch
+   */
+  void merge(Collection<SensorReadingSketch> partials, BinaryOperator<byte[]> merge);
+}
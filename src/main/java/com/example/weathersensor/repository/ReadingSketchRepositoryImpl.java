@@ -0,0 +1,113 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import com.example.weathersensor.entity.SensorReadingSketch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Sketches can not be added together in SQL like the rollup sums, so the
+ * stored ones are read with a single query, merged by the caller and written
+ * back with batched updates, missing buckets with batched inserts
+ */
+public class ReadingSketchRepositoryImpl implements ReadingSketchRepositoryCustom {
+
+  // One per granularity joined with UNION ALL, H2 does not use an index for
+  // the same conditions joined with OR
+  private static final String SELECT_SQL = """
+      SELECT granularity, sensor_tag, bucket_start, temperature, humidity, wind_speed
+      FROM sensor_reading_sketches
+      WHERE granularity = ? AND bucket_start >= ? AND bucket_start <= ? AND sensor_tag IN (%s)
+      """;
+
+  private static final String UPDATE_SQL = """
+      UPDATE sensor_reading_sketches SET temperature = ?, humidity = ?, wind_speed = ?
+      WHERE granularity = ? AND sensor_tag = ? AND bucket_start = ?
+      """;
+
+  private static final String INSERT_SQL = """
+      INSERT INTO sensor_reading_sketches (temperature, humidity, wind_speed,
+        granularity, sensor_tag, bucket_start)
+      VALUES (?, ?, ?, ?, ?, ?)
+      """;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Override
+  public void merge(Collection<SensorReadingSketch> partials, BinaryOperator<byte[]> merge) {
+    Map<RollupGranularity, List<SensorReadingSketch>> byGranularity = partials.stream()
+        .collect(Collectors.groupingBy(s -> s.getId().getGranularity(),
+            () -> new EnumMap<>(RollupGranularity.class), Collectors.toList()));
+    if (byGranularity.isEmpty()) {
+      return;
+    }
+    Map<SensorReadingRollupId, SensorReadingSketch> stored = findStored(byGranularity);
+    List<Object[]> updates = new ArrayList<>();
+    List<Object[]> inserts = new ArrayList<>();
+    for (SensorReadingSketch partial : partials) {
+      SensorReadingSketch current = stored.get(partial.getId());
+      if (current == null) {
+        inserts.add(row(partial));
+      } else {
+        updates.add(row(new SensorReadingSketch(partial.getId(),
+            merge.apply(current.getTemperature(), partial.getTemperature()),
+            merge.apply(current.getHumidity(), partial.getHumidity()),
+            merge.apply(current.getWindSpeed(), partial.getWindSpeed()))));
+      }
+    }
+    if (!updates.isEmpty()) {
+      jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+    }
+    if (!inserts.isEmpty()) {
+      jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+    }
+  }
+
+  // Every stored sketch of the sensors between the first and last bucket of
+  // each granularity, a superset of the partials' buckets
+  private Map<SensorReadingRollupId, SensorReadingSketch> findStored(
+      Map<RollupGranularity, List<SensorReadingSketch>> byGranularity) {
+    List<String> selects = new ArrayList<>();
+    List<Object> args = new ArrayList<>();
+    byGranularity.forEach((granularity, sketches) -> {
+      List<String> tags = sketches.stream().map(s -> s.getId().getSensorTag()).distinct().toList();
+      Instant first = sketches.stream().map(s -> s.getId().getBucketStart())
+          .min(Comparator.naturalOrder()).orElseThrow();
+      Instant last = sketches.stream().map(s -> s.getId().getBucketStart())
+          .max(Comparator.naturalOrder()).orElseThrow();
+      selects.add(SELECT_SQL.formatted(String.join(", ", tags.stream().map(tag -> "?").toList())));
+      args.add(granularity.name());
+      args.add(OffsetDateTime.ofInstant(first, ZoneOffset.UTC));
+      args.add(OffsetDateTime.ofInstant(last, ZoneOffset.UTC));
+      args.addAll(tags);
+    });
+    Map<SensorReadingRollupId, SensorReadingSketch> stored = new HashMap<>();
+    jdbcTemplate.query(String.join(" UNION ALL ", selects), rs -> {
+      SensorReadingRollupId id = new SensorReadingRollupId(RollupGranularity.valueOf(rs.getString(1)),
+          rs.getString(2), rs.getObject(3, OffsetDateTime.class).toInstant());
+      stored.put(id, new SensorReadingSketch(id, rs.getBytes(4), rs.getBytes(5), rs.getBytes(6)));
+    }, args.toArray());
+    return stored;
+  }
+
+  private static Object[] row(SensorReadingSketch sketch) {
+    SensorReadingRollupId id = sketch.getId();
+    return new Object[] { sketch.getTemperature(), sketch.getHumidity(), sketch.getWindSpeed(),
+        id.getGranularity().name(), id.getSensorTag(), OffsetDateTime.ofInstant(id.getBucketStart(), ZoneOffset.UTC) };
+  }
+}
@@ -0,0 +1,9 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.entity.RetentionWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RetentionWatermarkRepository extends JpaRepository<RetentionWatermark, String> {
+}
@@ -1,18 +1,25 @@
 package com.example.weathersensor.repository;
 
 import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.dto.SensorReadingRow;
 import com.example.weathersensor.entity.SensorReading;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface SensorReadingRepository extends JpaRepository<SensorReading, Long> {
+public interface SensorReadingRepository extends JpaRepository<SensorReading, Long>, SensorReadingRepositoryCustom {
 
   /**
    * List all reading in specific time interval
@@ -23,6 +30,142 @@ public interface SensorReadingRepository extends JpaRepository<SensorReading, Lo
    */
   List<SensorReading> findByTimestampBetween(Instant startTime, Instant endTime);
 
+  /**
+   * List all readings in a time interval with their sensor tag and time zone,
+   * in a single joined query without creating managed entities
+   *
+   * @param startTime
+   * @param endTime
+   * @return
+   */
+  @Query("""
+      SELECT new com.example.weathersensor.dto.SensorReadingRow(
+          sr.id, s.tag, sr.temperature, sr.humidity, sr.windSpeed, sr.timestamp, s.timeZone)
+      FROM SensorReading sr JOIN sr.sensor s
+      WHERE sr.timestamp BETWEEN :startTime AND :endTime
+      """)
+  List<SensorReadingRow> findRowsByTimestampBetween(
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+
+  /**
+   * Stream all readings in a time interval, rows are fetched from the cursor
+   * in chunks instead of being materialised at once. Must be consumed inside a
+   * transaction and closed afterwards
+   *
+   * @param startTime
+   * @param endTime
+   * @return
+   */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+  @Query("""
+      SELECT new com.example.weathersensor.dto.SensorReadingRow(
+          sr.id, s.tag, sr.temperature, sr.humidity, sr.windSpeed, sr.timestamp, s.timeZone)
+      FROM SensorReading sr JOIN sr.sensor s
+      WHERE sr.timestamp BETWEEN :startTime AND :endTime
+      """)
+  Stream<SensorReadingRow> streamRowsByTimestampBetween(
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+
+  /**
+   * Stream the readings in [startTime, endTime) grouped by sensor, each
+   * sensor's readings in time order, for sealing them into segments. Must be
+   * consumed inside a transaction and closed afterwards
+   *
+   * @param startTime
+   * @param endTime
+   * @return
+   */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+  @Query("""
+      SELECT new com.example.weathersensor.dto.SensorReadingRow(
+          sr.id, s.tag, sr.temperature, sr.humidity, sr.windSpeed, sr.timestamp, s.timeZone)
+      FROM SensorReading sr JOIN sr.sensor s
+      WHERE sr.timestamp >= :startTime AND sr.timestamp < :endTime
+      ORDER BY s.id, sr.timestamp, sr.id
+      """)
+  Stream<SensorReadingRow> streamRowsToArchive(
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime);
+
+  /**
+   * @return timestamp of the oldest stored reading, empty without readings
+   */
+  @Query("SELECT MIN(sr.timestamp) FROM SensorReading sr")
+  Optional<Instant> findOldestTimestamp();
+
+  /**
+   * First page of a keyset paginated range query, ordered by (timestamp, id)
+   *
+   * @param startTime
+   * @param endTime
+   * @param limit
+   * @return
+   */
+  @Query("""
+      SELECT new com.example.weathersensor.dto.SensorReadingRow(
+          sr.id, s.tag, sr.temperature, sr.humidity, sr.windSpeed, sr.timestamp, s.timeZone)
+      FROM SensorReading sr JOIN sr.sensor s
+      WHERE sr.timestamp BETWEEN :startTime AND :endTime
+      ORDER BY sr.timestamp, sr.id
+      """)
+  List<SensorReadingRow> findPage(
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime,
+      Limit limit);
+
+  /**
+   * Next page of a keyset paginated range query, seeks past the (timestamp, id)
+   * of the previous page's last reading so the cost does not grow with depth
+   *
+   * @param startTime
+   * @param endTime
+   * @param afterTimestamp
+   * @param afterId
+   * @param limit
+   * @return
+   */
+  @Query("""
+      SELECT new com.example.weathersensor.dto.SensorReadingRow(
+          sr.id, s.tag, sr.temperature, sr.humidity, sr.windSpeed, sr.timestamp, s.timeZone)
+      FROM SensorReading sr JOIN sr.sensor s
+      WHERE sr.timestamp >= :afterTimestamp AND sr.timestamp <= :endTime
+        AND sr.timestamp >= :startTime
+        AND (sr.timestamp > :afterTimestamp OR sr.id > :afterId)
+      ORDER BY sr.timestamp, sr.id
+      """)
+  List<SensorReadingRow> findPageAfter(
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime,
+      @Param("afterTimestamp") Instant afterTimestamp,
+      @Param("afterId") Long afterId,
+      Limit limit);
+
+  /**
+   * Sum all metrics of the readings in [startTime, endTime), used for the edges
+   * of a range that are not covered by whole rollup buckets. The tag is
+   * resolved in a subquery, so the sums over all sensors need no join. Each
+   * value is rounded back to its stored integer, so the sums are exact
+   *
+   * @param startTime inclusive
+   * @param endTime   exclusive
+   * @param tag       restrict to one sensor, null for all sensors
+   * @return
+   */
+  @Query("SELECT new com.example.weathersensor.dto.MetricTotals("
+      + " CAST(SUM(ROUND(sr.temperature * " + SensorReading.TEMPERATURE_SCALE + ")) AS Long),"
+      + " CAST(SUM(ROUND(sr.humidity * " + SensorReading.HUMIDITY_SCALE + ")) AS Long),"
+      + " CAST(SUM(ROUND(sr.windSpeed * " + SensorReading.WIND_SPEED_SCALE + ")) AS Long),"
+      + " COUNT(sr))"
+      + " FROM SensorReading sr"
+      + " WHERE sr.timestamp >= :startTime AND sr.timestamp < :endTime"
+      + " AND (:tag IS NULL OR sr.sensor.id = (SELECT s.id FROM Sensor s WHERE s.tag = :tag))")
+  MetricTotals sumRaw(
+      @Param("startTime") Instant startTime,
+      @Param("endTime") Instant endTime,
+      @Param("tag") String tag);
+
   /**
    * Query Average Temperature in specific sensor tag
    * 
@@ -108,20 +251,9 @@ Optional<AverageMetricsDto> findAverageMetricsFiltered(
       @Param("tag") String tag,
       @Param("timeZone") String timeZone);
 
-  // All 3 remaining queries are individual break down of
-  // findAverageMetricsFiltered
-
-  @Query("""
-      SELECT new com.example.weathersensor.dto.AverageMetricsDto(
-          AVG(sr.temperature), AVG(sr.humidity), AVG(sr.windSpeed), COUNT(sr))
-      FROM SensorReading sr
-      WHERE sr.sensor.location = :location
-        AND sr.timestamp BETWEEN :startTime AND :endTime
-      """)
-  Optional<AverageMetricsDto> findAverageMetricsByLocation(
-      @Param("location") String location,
-      @Param("startTime") Instant startTime,
-      @Param("endTime") Instant endTime);
+  // Break down of findAverageMetricsFiltered by tag. Averages by location
+  // or time zone are summed per sensor and grouped from the registry, see
+  // SensorReadingService#getGroupedAverageMetrics
 
   @Query("""
       SELECT new com.example.weathersensor.dto.AverageMetricsDto(
@@ -134,16 +266,4 @@ Optional<AverageMetricsDto> findAverageMetricsByTag(
       @Param("tag") String tag,
       @Param("startTime") Instant startTime,
       @Param("endTime") Instant endTime);
-
-  @Query("""
-      SELECT new com.example.weathersensor.dto.AverageMetricsDto(
-          AVG(sr.temperature), AVG(sr.humidity), AVG(sr.windSpeed), COUNT(sr))
-      FROM SensorReading sr
-      WHERE sr.sensor.timeZone = :timeZone
-        AND sr.timestamp BETWEEN :startTime AND :endTime
-      """)
-  Optional<AverageMetricsDto> findAverageMetricsByTimeZone(
-      @Param("timeZone") String timeZone,
-      @Param("startTime") Instant startTime,
-      @Param("endTime") Instant endTime);
 }
@@ -0,0 +1,61 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface SensorReadingRepositoryCustom {
+
+  /**
+   * Sum all metrics of the readings in a time interval per sensor tag, in a
+   * single grouped query. Meant for the short edges of a range that rollups
+   * do not cover
+   *
+   * @param startTime inclusive
+   * @param endTime   exclusive
+   * @param tags      restrict to these sensors, null for all sensors
+   * @return totals of the sensors with readings in the interval
+   */
+  Map<String, MetricTotals> sumRawBySensor(Instant startTime, Instant endTime, Collection<String> tags);
+
+  /**
+   * Count the readings of each sensor in each whole hour, in a single
+   * grouped query
+   *
+   * @param startTime inclusive, aligned to the hour
+   * @param endTime   exclusive, aligned to the hour
+   * @return counts keyed by the hour bucket of the sensor
+   */
+  Map<SensorReadingRollupId, Long> countRawByHour(Instant startTime, Instant endTime);
+
+  /**
+   * Find which of the given readings are already stored with the same sensor
+   * and timestamp, used to reject duplicates before a batch insert. Each pair
+   * is looked up in the unique index, however far apart the timestamps are
+   *
+   * @param readings readings about to be inserted
+   * @return rows of [sensor id, timestamp] already stored
+   */
+  List<Object[]> findExistingKeys(Collection<SensorReading> readings);
+
+  /**
+   * Delete up to limit readings taken before the cutoff, in a transaction of
+   * its own unless the caller has one
+   *
+   * @return readings deleted, less than limit once none are left
+   */
+  int deleteBefore(Instant cutoff, int limit);
+
+  /**
+   * Delete the readings with these ids, in a transaction of its own unless
+   * the caller has one
+   *
+   * @return readings deleted
+   */
+  int deleteByIds(List<Long> ids);
+}
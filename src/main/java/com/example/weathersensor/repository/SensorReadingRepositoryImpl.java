@@ -0,0 +1,134 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sums the stored integer metrics of each sensor and adds them up
+ * exactly, the scale is only divided out of the averages. Duplicate checks
+ * run through the entity manager, so they share the ingest transaction and
+ * its statement statistics. Old readings are
+ * deleted in bounded chunks, or by the ids sealed into the cold tier, see
+ * ReadingRetentionService
+ */
+public class SensorReadingRepositoryImpl implements SensorReadingRepositoryCustom {
+
+  private static final String SUM_BY_SENSOR_SQL = """
+      SELECT s.tag, SUM(r.temperature), SUM(r.humidity), SUM(r.wind_speed), COUNT(*)
+      FROM sensor_readings r JOIN sensors s ON s.id = r.sensor_id
+      WHERE r.timestamp >= ? AND r.timestamp < ?%s
+      GROUP BY s.tag
+      """;
+
+  // The hour is inlined as H2 can not type a parameter inside EXTRACT
+  // arithmetic
+  private static final String COUNT_BY_HOUR_SQL = """
+      SELECT s.tag, FLOOR(EXTRACT(EPOCH FROM r.timestamp) / %1$d), COUNT(*)
+      FROM sensor_readings r JOIN sensors s ON s.id = r.sensor_id
+      WHERE r.timestamp >= ? AND r.timestamp < ?
+      GROUP BY s.tag, FLOOR(EXTRACT(EPOCH FROM r.timestamp) / %1$d)
+      """.formatted(RollupGranularity.HOUR.seconds());
+
+  private static final String DELETE_BEFORE_SQL = """
+      DELETE FROM sensor_readings
+      WHERE timestamp < ?
+      FETCH FIRST ? ROWS ONLY
+      """;
+
+  // Row values are sought one by one in the unique (sensor_id, timestamp)
+  // index
+  private static final String EXISTING_KEYS_SQL = """
+      SELECT sensor_id, timestamp FROM sensor_readings
+      WHERE (sensor_id, timestamp) IN (%s)
+      """;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public Map<String, MetricTotals> sumRawBySensor(Instant startTime, Instant endTime, Collection<String> tags) {
+    List<Object> args = new ArrayList<>(List.of(utc(startTime), utc(endTime)));
+    String tagFilter = "";
+    if (tags != null) {
+      tagFilter = " AND s.tag IN (" + String.join(", ", tags.stream().map(tag -> "?").toList()) + ")";
+      args.addAll(tags);
+    }
+    Map<String, MetricTotals> totals = new HashMap<>();
+    jdbcTemplate.query(SUM_BY_SENSOR_SQL.formatted(tagFilter), rs -> {
+      totals.put(rs.getString(1), new MetricTotals(rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+    }, args.toArray());
+    return totals;
+  }
+
+  @Override
+  public Map<SensorReadingRollupId, Long> countRawByHour(Instant startTime, Instant endTime) {
+    Map<SensorReadingRollupId, Long> counts = new HashMap<>();
+    jdbcTemplate.query(COUNT_BY_HOUR_SQL, rs -> {
+      counts.put(new SensorReadingRollupId(RollupGranularity.HOUR, rs.getString(1),
+          Instant.ofEpochSecond(rs.getLong(2) * RollupGranularity.HOUR.seconds())), rs.getLong(3));
+    }, utc(startTime), utc(endTime));
+    return counts;
+  }
+
+  @Override
+  public List<Object[]> findExistingKeys(Collection<SensorReading> readings) {
+    if (readings.isEmpty()) {
+      return List.of();
+    }
+    Query query = entityManager.createNativeQuery(existingKeysSql(readings.size()));
+    int position = 1;
+    for (SensorReading reading : readings) {
+      query.setParameter(position++, reading.getSensor().getId());
+      query.setParameter(position++, utc(reading.getTimestamp()));
+    }
+    List<Object[]> keys = new ArrayList<>(readings.size());
+    for (Object row : query.getResultList()) {
+      Object[] columns = (Object[]) row;
+      keys.add(new Object[] { ((Number) columns[0]).longValue(), ((OffsetDateTime) columns[1]).toInstant() });
+    }
+    return keys;
+  }
+
+  // Package-private for the query plan test
+  static String existingKeysSql(int pairs) {
+    return EXISTING_KEYS_SQL.formatted(String.join(", ", Collections.nCopies(pairs, "(?, ?)")));
+  }
+
+  @Override
+  public int deleteBefore(Instant cutoff, int limit) {
+    return jdbcTemplate.update(DELETE_BEFORE_SQL, utc(cutoff), limit);
+  }
+
+  @Override
+  public int deleteByIds(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    String placeholders = String.join(", ", ids.stream().map(id -> "?").toList());
+    return jdbcTemplate.update("DELETE FROM sensor_readings WHERE id IN (" + placeholders + ")", ids.toArray());
+  }
+
+  private static OffsetDateTime utc(Instant instant) {
+    return OffsetDateTime.ofInstant(instant, ZoneOffset.UTC);
+  }
+}
@@ -5,6 +5,7 @@
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,5 +18,8 @@ public interface SensorRepository extends JpaRepository<Sensor, Long> {
     @Query("SELECT s FROM Sensor s WHERE s.tag = :tag")
     Optional<Sensor> findByTag(@Param("tag") String tag);
 
+    @Query("SELECT s FROM Sensor s WHERE s.tag IN :tags")
+    List<Sensor> findByTagIn(@Param("tags") Collection<String> tags);
+
     boolean existsByTag(String tag);
 }
\ No newline at end of file
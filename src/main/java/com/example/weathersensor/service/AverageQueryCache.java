@@ -0,0 +1,342 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.AverageCacheProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.entity.SensorReading;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of average query results.
+ * <ul>
+ * <li>Windows that ended before they were computed are closed, their result
+ * is kept until evicted or until a late reading lands in the window</li>
+ * <li>Windows reaching the present are fresh for a short TTL, then served
+ * stale for a while longer while one background refresh runs</li>
+ * <li>Identical requests arriving while a result is computed wait for that
+ * computation instead of starting their own</li>
+ * </ul>
+ * The counters are exported with the names Micrometer's cache binders use
+ */
+@Component
+public class AverageQueryCache implements MeterBinder {
+
+    private record Key(String tag, Instant startTime, Instant endTime) {
+    }
+
+    private static final class Entry {
+        final CompletableFuture<AverageMetricsDto> value = new CompletableFuture<>();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        // Replacement computed by a background refresh, not in the map yet
+        volatile Entry refresh;
+        // A reading landed in the window while the entry was computed
+        volatile boolean invalidated;
+        volatile boolean closed;
+        volatile long freshUntil;
+        volatile long staleUntil;
+        volatile long lastAccess;
+
+        Entry(long now) {
+            lastAccess = now;
+        }
+    }
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    // Taken by invalidations and by refreshes putting their result in place
+    private final Object invalidationLock = new Object();
+    private final int maxEntries;
+    private final long openTtlNanos;
+    private final long staleNanos;
+    private final Executor refreshExecutor;
+    private final ExecutorService ownedExecutor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public AverageQueryCache(AverageCacheProperties properties) {
+        this(properties, newRefreshExecutor(properties.refreshThreads()));
+    }
+
+    AverageQueryCache(AverageCacheProperties properties, Executor refreshExecutor) {
+        this.maxEntries = properties.maxEntries();
+        this.openTtlNanos = properties.openTtl().toNanos();
+        this.staleNanos = properties.staleWhileRevalidate().toNanos();
+        this.refreshExecutor = refreshExecutor;
+        this.ownedExecutor = refreshExecutor instanceof ExecutorService service ? service : null;
+    }
+
+    /**
+     * Cached averages over [startTime, endTime]
+     *
+     * @param tag    sensor the averages are restricted to, null for all sensors
+     * @param loader computes the averages on a miss
+     */
+    public AverageMetricsDto get(String tag, Instant startTime, Instant endTime, Supplier<AverageMetricsDto> loader) {
+        Key key = new Key(tag, startTime, endTime);
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.lastAccess = now;
+            if (!entry.value.isDone()) {
+                coalesced.increment();
+                return join(entry);
+            }
+            if (!entry.value.isCompletedExceptionally()) {
+                if (entry.closed || now - entry.freshUntil < 0) {
+                    hits.increment();
+                    return entry.value.join();
+                }
+                if (now - entry.staleUntil < 0) {
+                    staleHits.increment();
+                    refresh(key, entry, loader);
+                    return entry.value.join();
+                }
+            }
+        }
+        misses.increment();
+        return load(key, entry, loader);
+    }
+
+    /**
+     * Drop closed results and results still being computed whose window
+     * contains one of the stored readings, after the surrounding transaction
+     * commits when there is one. Results of open windows are left to their
+     * TTL, but a refresh of one that ran while the reading was stored is not
+     * kept as closed
+     */
+    public void invalidate(Collection<SensorReading> readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        List<SensorReading> committed = List.copyOf(readings);
+        AfterCommit.run(() -> dropClosedWindows(committed));
+    }
+
+    private void dropClosedWindows(List<SensorReading> readings) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Instant min = Instant.MAX;
+        Instant max = Instant.MIN;
+        Map<String, Instant[]> bySensor = new HashMap<>();
+        for (SensorReading reading : readings) {
+            Instant timestamp = reading.getTimestamp();
+            min = timestamp.isBefore(min) ? timestamp : min;
+            max = timestamp.isAfter(max) ? timestamp : max;
+            Instant[] range = bySensor.computeIfAbsent(reading.getSensor().getTag(),
+                    t -> new Instant[] { timestamp, timestamp });
+            range[0] = timestamp.isBefore(range[0]) ? timestamp : range[0];
+            range[1] = timestamp.isAfter(range[1]) ? timestamp : range[1];
+        }
+        Instant[] all = { min, max };
+        synchronized (invalidationLock) {
+            entries.entrySet().removeIf(e -> {
+                Key key = e.getKey();
+                Instant[] range = key.tag() == null ? all : bySensor.get(key.tag());
+                if (range == null || range[1].isBefore(key.startTime()) || range[0].isAfter(key.endTime())) {
+                    return false;
+                }
+                Entry entry = e.getValue();
+                Entry refresh = entry.refresh;
+                if (refresh != null) {
+                    refresh.invalidated = true;
+                }
+                // A query still running may have missed the reading
+                return entry.closed || !entry.value.isDone();
+            });
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long staleHits() {
+        return staleHits.sum();
+    }
+
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindGets(registry, "hit", hits);
+        bindGets(registry, "stale", staleHits);
+        bindGets(registry, "coalesced", coalesced);
+        bindGets(registry, "miss", misses);
+        FunctionCounter.builder("cache.evictions", evictions, LongAdder::sum)
+                .tag("cache", "averages")
+                .register(registry);
+        Gauge.builder("cache.size", entries, Map::size)
+                .tag("cache", "averages")
+                .register(registry);
+    }
+
+    private static void bindGets(MeterRegistry registry, String result, LongAdder counter) {
+        FunctionCounter.builder("cache.gets", counter, LongAdder::sum)
+                .tags("cache", "averages", "result", result)
+                .register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    private AverageMetricsDto load(Key key, Entry expired, Supplier<AverageMetricsDto> loader) {
+        long now = System.nanoTime();
+        Entry entry = new Entry(now);
+        boolean owner = expired == null
+                ? entries.putIfAbsent(key, entry) == null
+                : entries.replace(key, expired, entry);
+        if (!owner) {
+            // Another request started the same computation first
+            Entry current = entries.get(key);
+            if (current != null) {
+                return join(current);
+            }
+            return loader.get();
+        }
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        compute(key, entry, loader);
+        return join(entry);
+    }
+
+    // Runs at most one background refresh per entry, the stale entry keeps
+    // being served until the new one replaces it
+    private void refresh(Key key, Entry stale, Supplier<AverageMetricsDto> loader) {
+        if (!stale.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                Entry entry = new Entry(stale.lastAccess);
+                stale.refresh = entry;
+                compute(key, entry, loader);
+                boolean replaced = false;
+                if (!entry.value.isCompletedExceptionally()) {
+                    // A reading stored since the query started either marked
+                    // the entry already or finds it in the map
+                    synchronized (invalidationLock) {
+                        entry.closed &= !entry.invalidated;
+                        replaced = entries.replace(key, stale, entry);
+                    }
+                }
+                if (!replaced) {
+                    stale.refresh = null;
+                    stale.refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            stale.refresh = null;
+            stale.refreshing.set(false);
+        }
+    }
+
+    private void compute(Key key, Entry entry, Supplier<AverageMetricsDto> loader) {
+        // Decided before the query runs, a window still open then may miss
+        // readings that arrive while it runs
+        boolean closed = key.endTime().isBefore(Instant.now());
+        try {
+            AverageMetricsDto result = loader.get();
+            long now = System.nanoTime();
+            entry.closed = closed;
+            entry.freshUntil = now + openTtlNanos;
+            entry.staleUntil = now + openTtlNanos + staleNanos;
+            entry.value.complete(result);
+        } catch (RuntimeException e) {
+            entries.remove(key, entry);
+            entry.value.completeExceptionally(e);
+        }
+    }
+
+    private static AverageMetricsDto join(Entry entry) {
+        try {
+            return entry.value.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // Drop results past their stale period first, then the least recently
+    // used ones down to three quarters of the capacity so eviction does not
+    // run on every insert
+    private synchronized void evict() {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        long now = System.nanoTime();
+        int before = entries.size();
+        entries.values().removeIf(e -> e.value.isDone() && !e.closed && now - e.staleUntil >= 0);
+        int target = maxEntries * 3 / 4;
+        int excess = entries.size() - target;
+        if (excess > 0) {
+            // Access times keep changing, sort a snapshot of them
+            entries.entrySet().stream()
+                    .map(e -> Map.entry(e, e.getValue().lastAccess))
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(excess)
+                    .toList()
+                    .forEach(e -> entries.remove(e.getKey().getKey(), e.getKey().getValue()));
+        }
+        evictions.add(before - entries.size());
+    }
+
+    private static ExecutorService newRefreshExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "average-cache-refresh-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,571 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.ColdTierProperties;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.dto.SensorReadingRow;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The cold tier of the raw readings: immutable segment files, each holding
+ * one sensor's readings of one UTC day, compressed with
+ * {@link SegmentCodec}. Retention seals raw readings into segments before it
+ * deletes them, see
+ * {@link ReadingRetentionService#compactBefore}, and queries reaching before
+ * the retention watermark read them back. Segments are indexed in memory per
+ * sensor by their first second, the index is rebuilt from the file headers
+ * on startup. A segment is forced to disk, renamed into place and its
+ * directory synced before the ids of its readings are handed out, so no
+ * reading is deleted while a crash could still lose its segment. Queries
+ * copy a segment's payload out of its memory mapped file and keep the
+ * payloads read most recently up to a configured size, decoding happens as
+ * the readings are consumed, merged across segments in time order, so no
+ * segment is ever held decoded.
+ * Timestamps are kept as whole seconds and metrics as the scaled
+ * integers the database stores, see {@link SensorReading#scaled}. As doubles
+ * those whole numbers only use the top bits of the mantissa, so the XOR of
+ * two readings is short, unlike the XOR of decimal fractions
+ */
+@Component
+public class ColdSegmentStore implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ColdSegmentStore.class);
+
+    private static final int MAGIC = 0x57534547;
+    private static final byte VERSION = 1;
+    private static final String SUFFIX = ".seg";
+
+    private static final Comparator<SegmentCursor> TIME_ORDER = Comparator
+            .comparingLong((SegmentCursor cursor) -> cursor.decoder.second())
+            .thenComparingLong(cursor -> cursor.decoder.id());
+
+    /**
+     * One segment file as described by its header
+     */
+    record Segment(Path path, String tag, String timeZone, int count, long firstSecond, long lastSecond,
+            long firstId, long bytes) {
+    }
+
+    // The payload of a segment file as decoder words, valid for that segment
+    // only as sealing again replaces the file under the same path
+    private record Payload(Segment segment, long[] words) {
+    }
+
+    /**
+     * Position of a read in one segment, on its current reading in the range
+     */
+    private static final class SegmentCursor {
+        private final Segment segment;
+        private final SegmentCodec.Decoder decoder;
+        private final long end;
+
+        SegmentCursor(Segment segment, SegmentCodec.Decoder decoder, long end) {
+            this.segment = segment;
+            this.decoder = decoder;
+            this.end = end;
+        }
+
+        // Readings are in time order within a segment
+        boolean advanceTo(long first) {
+            while (decoder.next()) {
+                if (decoder.second() >= end) {
+                    return false;
+                }
+                if (decoder.second() >= first) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        SensorReadingRow row() {
+            return new SensorReadingRow(decoder.id(), segment.tag(),
+                    decoder.temperature() / SensorReading.TEMPERATURE_SCALE,
+                    decoder.humidity() / SensorReading.HUMIDITY_SCALE,
+                    decoder.windSpeed() / SensorReading.WIND_SPEED_SCALE,
+                    Instant.ofEpochSecond(decoder.second()), segment.timeZone());
+        }
+    }
+
+    private record SegmentKey(long firstSecond, long firstId) implements Comparable<SegmentKey> {
+
+        private static final Comparator<SegmentKey> ORDER = Comparator
+                .comparingLong(SegmentKey::firstSecond)
+                .thenComparingLong(SegmentKey::firstId);
+
+        @Override
+        public int compareTo(SegmentKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final SensorReadingRepository sensorReadingRepository;
+    private final Map<String, NavigableMap<SegmentKey, Segment>> bySensor = new ConcurrentHashMap<>();
+    private final AtomicLong longestSpan = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong readings = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // Least recently used first, guarded by itself like cachedBytes
+    private final Map<Path, Payload> payloads = new LinkedHashMap<>(16, 0.75f, true);
+    private final long cacheBytes;
+    private long cachedBytes;
+
+    @Autowired
+    public ColdSegmentStore(ColdTierProperties properties, SensorReadingRepository sensorReadingRepository) {
+        this.enabled = properties.enabled();
+        this.directory = properties.directory();
+        this.sensorReadingRepository = sensorReadingRepository;
+        this.cacheBytes = properties.cacheSize().toBytes();
+        if (enabled) {
+            loadIndex();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Write the raw readings in [from, to) to one new segment per sensor.
+     * The range should lie within one UTC day. A segment is named after
+     * its first reading, sealing the same readings again replaces their
+     * segment rather than duplicating it
+     *
+     * @return segments written
+     */
+    @Transactional(readOnly = true)
+    public int seal(Instant from, Instant to) {
+        return seal(from, to, id -> {
+        });
+    }
+
+    /**
+     * Like {@link #seal(Instant, Instant)}, passing the id of every reading
+     * written to a segment to {@code sealed} once the segment is durable, so
+     * exactly those readings can be deleted afterwards
+     *
+     * @return segments written
+     */
+    @Transactional(readOnly = true)
+    public int seal(Instant from, Instant to, LongConsumer sealed) {
+        if (!enabled) {
+            return 0;
+        }
+        int written = 0;
+        try (Stream<SensorReadingRow> rows = sensorReadingRepository.streamRowsToArchive(from, to)) {
+            SegmentCodec.Encoder encoder = null;
+            SensorReadingRow first = null;
+            long lastSecond = 0;
+            List<Long> ids = new ArrayList<>();
+            for (Iterator<SensorReadingRow> it = rows.iterator(); it.hasNext();) {
+                SensorReadingRow row = it.next();
+                if (first != null && !first.sensorId().equals(row.sensorId())) {
+                    write(first, lastSecond, encoder);
+                    written++;
+                    ids.forEach(sealed::accept);
+                    ids.clear();
+                    encoder = null;
+                }
+                if (encoder == null) {
+                    encoder = new SegmentCodec.Encoder();
+                    first = row;
+                }
+                if (row.timestamp().getNano() != 0) {
+                    // Segments keep epoch seconds, readings stored before
+                    // ingest truncated to seconds need migration 003 first
+                    throw new IllegalStateException("Reading " + row.id() + " has a sub-second timestamp "
+                            + row.timestamp() + ", run scripts/migrations/003_whole_second_timestamps.sql");
+                }
+                lastSecond = row.timestamp().getEpochSecond();
+                ids.add(row.id());
+                encoder.add(lastSecond, row.id(),
+                        SensorReading.scaled(row.temperature(), SensorReading.TEMPERATURE_SCALE),
+                        SensorReading.scaled(row.humidity(), SensorReading.HUMIDITY_SCALE),
+                        SensorReading.scaled(row.windSpeed(), SensorReading.WIND_SPEED_SCALE));
+            }
+            if (encoder != null) {
+                write(first, lastSecond, encoder);
+                written++;
+                ids.forEach(sealed::accept);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Sums of the archived readings in [from, to)
+     *
+     * @param tag restrict to one sensor, null for all sensors
+     */
+    public MetricTotals sum(Instant from, Instant to, String tag) {
+        long first = firstSecond(from);
+        long end = firstSecond(to);
+        long[] sums = new long[4];
+        for (Segment segment : segments(tag, first, end)) {
+            addSums(segment, first, end, sums);
+        }
+        return toTotals(sums);
+    }
+
+    /**
+     * Sums of the archived readings in [from, to) per sensor tag, sensors
+     * without archived readings in the range are absent
+     *
+     * @param tags restrict to these sensors, null for all sensors
+     */
+    public Map<String, MetricTotals> sumBySensor(Instant from, Instant to, Collection<String> tags) {
+        long first = firstSecond(from);
+        long end = firstSecond(to);
+        List<Segment> overlapping = new ArrayList<>();
+        if (tags == null) {
+            overlapping.addAll(segments(null, first, end));
+        } else {
+            tags.forEach(tag -> overlapping.addAll(segments(tag, first, end)));
+        }
+        Map<String, long[]> sums = new HashMap<>();
+        for (Segment segment : overlapping) {
+            addSums(segment, first, end, sums.computeIfAbsent(segment.tag(), tag -> new long[4]));
+        }
+        Map<String, MetricTotals> totals = new HashMap<>();
+        sums.forEach((tag, sensorSums) -> totals.put(tag, toTotals(sensorSums)));
+        return totals;
+    }
+
+    // Scaled sums and count of the segment's readings in [first, end)
+    private void addSums(Segment segment, long first, long end, long[] sums) {
+        SegmentCursor cursor = new SegmentCursor(segment, decoder(segment), end);
+        for (boolean more = cursor.advanceTo(first); more; more = cursor.advanceTo(first)) {
+            sums[0] += (long) cursor.decoder.temperature();
+            sums[1] += (long) cursor.decoder.humidity();
+            sums[2] += (long) cursor.decoder.windSpeed();
+            sums[3]++;
+        }
+    }
+
+    private static MetricTotals toTotals(long[] sums) {
+        return new MetricTotals(sums[0], sums[1], sums[2], sums[3]);
+    }
+
+    /**
+     * The archived readings in [from, to) ordered by timestamp then id. Each
+     * segment is in time order, the stream merges them and decodes a reading
+     * only once it is consumed
+     */
+    public Stream<SensorReadingRow> readings(Instant from, Instant to) {
+        long first = firstSecond(from);
+        long end = firstSecond(to);
+        PriorityQueue<SegmentCursor> cursors = new PriorityQueue<>(TIME_ORDER);
+        for (Segment segment : segments(null, first, end)) {
+            SegmentCursor cursor = new SegmentCursor(segment, decoder(segment), end);
+            if (cursor.advanceTo(first)) {
+                cursors.add(cursor);
+            }
+        }
+        Iterator<SensorReadingRow> merged = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public SensorReadingRow next() {
+                SegmentCursor cursor = cursors.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                SensorReadingRow row = cursor.row();
+                if (cursor.advanceTo(first)) {
+                    cursors.add(cursor);
+                }
+                return row;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Delete every segment. Needed when the archived readings are removed
+     * together with the database
+     */
+    public void clear() {
+        for (NavigableMap<SegmentKey, Segment> sensorSegments : bySensor.values()) {
+            for (Segment segment : sensorSegments.values()) {
+                try {
+                    Files.deleteIfExists(segment.path());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        bySensor.clear();
+        synchronized (payloads) {
+            payloads.clear();
+            cachedBytes = 0;
+        }
+        longestSpan.set(0);
+        segments.set(0);
+        readings.set(0);
+        bytes.set(0);
+    }
+
+    public long segments() {
+        return segments.get();
+    }
+
+    public long readings() {
+        return readings.get();
+    }
+
+    /**
+     * @return size of all segment files
+     */
+    public long footprintBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.cold_tier.segments", segments, AtomicLong::get)
+                .description("Segment files of archived readings")
+                .register(registry);
+        Gauge.builder("weather.cold_tier.readings", readings, AtomicLong::get)
+                .description("Readings held in segment files")
+                .register(registry);
+        Gauge.builder("weather.cold_tier.bytes", bytes, AtomicLong::get)
+                .description("Size of the segment files")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    // Segments are sealed per day, one starting a full span before the
+    // range cannot reach into it
+    private List<Segment> segments(String tag, long first, long end) {
+        Collection<NavigableMap<SegmentKey, Segment>> maps;
+        if (tag == null) {
+            maps = bySensor.values();
+        } else {
+            NavigableMap<SegmentKey, Segment> sensorSegments = bySensor.get(tag);
+            maps = sensorSegments == null ? List.of() : List.of(sensorSegments);
+        }
+        SegmentKey low = new SegmentKey(first - longestSpan.get(), Long.MIN_VALUE);
+        SegmentKey high = new SegmentKey(end, Long.MIN_VALUE);
+        List<Segment> overlapping = new ArrayList<>();
+        for (NavigableMap<SegmentKey, Segment> sensorSegments : maps) {
+            for (Segment segment : sensorSegments.subMap(low, true, high, false).values()) {
+                if (segment.lastSecond() >= first) {
+                    overlapping.add(segment);
+                }
+            }
+        }
+        return overlapping;
+    }
+
+    private void write(SensorReadingRow first, long lastSecond, SegmentCodec.Encoder encoder) {
+        long firstSecond = first.timestamp().getEpochSecond();
+        byte[] payload = encoder.toBytes();
+        try {
+            Path sensorDirectory = directory.resolve(URLEncoder.encode(first.sensorId(), StandardCharsets.UTF_8));
+            createDirectories(sensorDirectory);
+            Path file = sensorDirectory.resolve(firstSecond + "-" + first.id() + SUFFIX);
+            Path temp = Files.createTempFile(sensorDirectory, "seal", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(first.sensorId());
+                out.writeUTF(first.timeZone());
+                out.writeInt(encoder.count());
+                out.writeLong(firstSecond);
+                out.writeLong(lastSecond);
+                out.writeLong(first.id());
+                out.writeInt(payload.length);
+                out.write(payload);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(sensorDirectory);
+            index(new Segment(file, first.sensorId(), first.timeZone(), encoder.count(), firstSecond, lastSecond,
+                    first.id(), Files.size(file)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Syncs the parent of every directory created, so the new entries
+    // survive a crash like the segments below them
+    private static void createDirectories(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            return;
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        createDirectories(parent);
+        try {
+            Files.createDirectory(path);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(path)) {
+                throw e;
+            }
+        }
+        syncDirectory(parent);
+    }
+
+    private static void syncDirectory(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void index(Segment segment) {
+        Segment replaced = bySensor.computeIfAbsent(segment.tag(), t -> new ConcurrentSkipListMap<>())
+                .put(new SegmentKey(segment.firstSecond(), segment.firstId()), segment);
+        longestSpan.accumulateAndGet(segment.lastSecond() - segment.firstSecond(), Math::max);
+        segments.incrementAndGet();
+        readings.addAndGet(segment.count());
+        bytes.addAndGet(segment.bytes());
+        if (replaced != null) {
+            uncache(replaced.path());
+            segments.decrementAndGet();
+            readings.addAndGet(-replaced.count());
+            bytes.addAndGet(-replaced.bytes());
+        }
+    }
+
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(SUFFIX))::iterator) {
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                    index(readHeader(in, file, Files.size(file)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Indexed {} segments with {} archived readings in {}", segments.get(), readings.get(), directory);
+    }
+
+    private static Segment readHeader(DataInputStream in, Path file, long size) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        String tag = in.readUTF();
+        String timeZone = in.readUTF();
+        int count = in.readInt();
+        long firstSecond = in.readLong();
+        long lastSecond = in.readLong();
+        long firstId = in.readLong();
+        return new Segment(file, tag, timeZone, count, firstSecond, lastSecond, firstId, size);
+    }
+
+    private SegmentCodec.Decoder decoder(Segment segment) {
+        return new SegmentCodec.Decoder(payload(segment), segment.count());
+    }
+
+    private long[] payload(Segment segment) {
+        synchronized (payloads) {
+            Payload cached = payloads.get(segment.path());
+            if (cached != null && cached.segment() == segment) {
+                return cached.words();
+            }
+        }
+        long[] words;
+        try (FileChannel channel = FileChannel.open(segment.path(), StandardOpenOption.READ)) {
+            words = SegmentCodec.words(payload(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    segment.path()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (payloads) {
+            Payload replaced = payloads.put(segment.path(), new Payload(segment, words));
+            cachedBytes += (long) words.length * Long.BYTES;
+            if (replaced != null) {
+                cachedBytes -= (long) replaced.words().length * Long.BYTES;
+            }
+            for (Iterator<Payload> eldest = payloads.values().iterator(); cachedBytes > cacheBytes;) {
+                cachedBytes -= (long) eldest.next().words().length * Long.BYTES;
+                eldest.remove();
+            }
+        }
+        return words;
+    }
+
+    private void uncache(Path path) {
+        synchronized (payloads) {
+            Payload removed = payloads.remove(path);
+            if (removed != null) {
+                cachedBytes -= (long) removed.words().length * Long.BYTES;
+            }
+        }
+    }
+
+    // Skips the header written by write
+    private static ByteBuffer payload(ByteBuffer file, Path path) throws IOException {
+        if (file.getInt(0) != MAGIC || file.get(Integer.BYTES) != VERSION) {
+            throw new IOException("Not a segment file: " + path);
+        }
+        int position = Integer.BYTES + 1;
+        // Tag and time zone, each prefixed with its length
+        for (int i = 0; i < 2; i++) {
+            position += Short.BYTES + Short.toUnsignedInt(file.getShort(position));
+        }
+        // Count, first and last second, first id
+        position += Integer.BYTES + 3 * Long.BYTES;
+        return file.slice(position + Integer.BYTES, file.getInt(position));
+    }
+
+    // Readings are stored with whole seconds
+    private static long firstSecond(Instant time) {
+        return time.getNano() == 0 ? time.getEpochSecond() : time.getEpochSecond() + 1;
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.HotStoreProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.dto.SensorReadingRow;
+import com.example.weathersensor.entity.SensorReading;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The readings stored since startup, held per sensor in columns of primitive
+ * arrays, see {@link SensorColumns}. Reading lists and averages of ranges
+ * starting after the oldest retained second are answered from here without
+ * JPA or the database. Memory is bounded by the number of readings kept and
+ * by the horizon. Both evict by a time watermark: every chunk ending before
+ * it is dropped and the covered range then starts at it. Beyond the capacity
+ * a background pass picks the watermark that frees a tenth of it, so ingest
+ * threads never scan the sensors. Readings are only added once their
+ * transaction committed. Assumes this instance stores every reading, like
+ * {@link RecentReadingWindow}
+ */
+@Component
+public class HotReadingStore implements MeterBinder {
+
+    private static final Comparator<SensorReadingRow> TIME_ORDER = Comparator
+            .comparing(SensorReadingRow::timestamp)
+            .thenComparing(SensorReadingRow::id);
+
+    private final boolean enabled;
+    private final long horizonSeconds;
+    private final long maxReadings;
+    private final int chunkSize;
+    private final Map<String, SensorColumns> bySensor = new ConcurrentHashMap<>();
+    private final AtomicLong readings = new AtomicLong();
+    private final AtomicLong slots = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private final AtomicBoolean evictionPending = new AtomicBoolean();
+    private final Executor evictionExecutor;
+    private final ExecutorService ownedExecutor;
+    private volatile long coveredFrom;
+
+    @Autowired
+    public HotReadingStore(HotStoreProperties properties) {
+        this(properties, newEvictionExecutor());
+    }
+
+    HotReadingStore(HotStoreProperties properties, Executor evictionExecutor) {
+        this.enabled = properties.enabled();
+        this.horizonSeconds = properties.horizon().toSeconds();
+        this.maxReadings = properties.maxReadings();
+        this.chunkSize = properties.chunkSize();
+        this.evictionExecutor = evictionExecutor;
+        this.ownedExecutor = evictionExecutor instanceof ExecutorService service ? service : null;
+        clear();
+    }
+
+    /**
+     * Add stored readings, after the surrounding transaction commits when
+     * there is one
+     */
+    public void record(Collection<SensorReading> stored) {
+        if (!enabled || stored.isEmpty()) {
+            return;
+        }
+        List<SensorReading> committed = List.copyOf(stored);
+        AfterCommit.run(() -> committed.forEach(this::add));
+    }
+
+    public void add(SensorReading reading) {
+        add(reading.getSensor().getTag(), reading.getSensor().getTimeZone(), reading.getId(),
+                reading.getTimestamp(), reading.getTemperature(), reading.getHumidity(), reading.getWindSpeed());
+    }
+
+    public void add(String tag, String timeZone, long id, Instant timestamp,
+            double temperature, double humidity, double windSpeed) {
+        long second = timestamp.getEpochSecond();
+        if (second < coveredFrom) {
+            return;
+        }
+        SensorColumns columns = bySensor.computeIfAbsent(tag, t -> new SensorColumns(t, timeZone, chunkSize));
+        int allocated;
+        synchronized (columns) {
+            // Requests are bounded well inside the int range, fail rather
+            // than wrap if one gets past that
+            allocated = columns.add(second, id,
+                    Math.toIntExact(SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE)),
+                    Math.toIntExact(SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE)),
+                    Math.toIntExact(SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE)));
+        }
+        slots.addAndGet(allocated);
+        if (readings.incrementAndGet() > maxReadings && evictionPending.compareAndSet(false, true)) {
+            evictionExecutor.execute(() -> {
+                // Readings added during the pass may ask for the next one
+                evictionPending.set(false);
+                evictOverCapacity();
+            });
+        }
+    }
+
+    /**
+     * Averages over [startTime, endTime] if every reading in that range is
+     * still held in memory
+     *
+     * @param tag restrict to one sensor, null for all sensors
+     * @return empty when the range reaches further back than the store
+     */
+    public Optional<AverageMetricsDto> averages(Instant startTime, Instant endTime, String tag) {
+        long from = firstSecond(startTime);
+        long to = endTime.getEpochSecond();
+        if (!enabled || from < coveredFrom) {
+            return Optional.empty();
+        }
+        long[] sums = new long[4];
+        for (SensorColumns columns : columns(tag)) {
+            synchronized (columns) {
+                columns.sum(from, to, sums);
+            }
+        }
+        // Chunks evicted during the scan may be missing from the sums
+        if (from < coveredFrom) {
+            return Optional.empty();
+        }
+        return Optional.of(new MetricTotals(sums[0], sums[1], sums[2], sums[3]).toAverages());
+    }
+
+    /**
+     * The readings in [startTime, endTime] ordered by timestamp then id, if
+     * every reading in that range is still held in memory
+     *
+     * @return empty when the range reaches further back than the store
+     */
+    public Optional<List<SensorReadingRow>> readings(Instant startTime, Instant endTime) {
+        long from = firstSecond(startTime);
+        long to = endTime.getEpochSecond();
+        if (!enabled || from < coveredFrom) {
+            return Optional.empty();
+        }
+        List<SensorReadingRow> rows = new ArrayList<>();
+        for (SensorColumns columns : bySensor.values()) {
+            synchronized (columns) {
+                columns.rows(from, to, rows);
+            }
+        }
+        if (from < coveredFrom) {
+            return Optional.empty();
+        }
+        rows.sort(TIME_ORDER);
+        return Optional.of(rows);
+    }
+
+    /**
+     * Evict the chunks that left the horizon
+     */
+    @Scheduled(fixedDelayString = "${weather.hot-store.eviction-interval:PT1M}",
+            initialDelayString = "${weather.hot-store.eviction-interval:PT1M}")
+    public void evictExpired() {
+        evictBefore(Instant.now().getEpochSecond() - horizonSeconds);
+    }
+
+    /**
+     * Forget everything, the store then covers readings from the next second
+     * on. Needed when readings are removed behind the service's back
+     */
+    public void clear() {
+        synchronized (evictionLock) {
+            coveredFrom = Instant.now().getEpochSecond() + 1;
+            bySensor.clear();
+            readings.set(0);
+            slots.set(0);
+        }
+    }
+
+    /**
+     * @return first epoch second from which every stored reading is held
+     */
+    public Instant coveredFrom() {
+        return Instant.ofEpochSecond(coveredFrom);
+    }
+
+    public long readings() {
+        return readings.get();
+    }
+
+    /**
+     * @return bytes of the column arrays, allocated slots included
+     */
+    public long footprintBytes() {
+        return slots.get() * SensorColumns.BYTES_PER_SLOT;
+    }
+
+    /**
+     * @return column bytes per million readings held, 0 when empty
+     */
+    public long bytesPerMillionReadings() {
+        long held = readings.get();
+        return held == 0 ? 0 : footprintBytes() * 1_000_000 / held;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.hot_store.readings", readings, AtomicLong::get)
+                .description("Readings held in the in-memory columns")
+                .register(registry);
+        Gauge.builder("weather.hot_store.bytes", this, HotReadingStore::footprintBytes)
+                .description("Array bytes of the in-memory columns")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("weather.hot_store.bytes_per_million_readings", this,
+                HotReadingStore::bytesPerMillionReadings)
+                .description("Array bytes of the in-memory columns per million readings")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private Collection<SensorColumns> columns(String tag) {
+        if (tag == null) {
+            return bySensor.values();
+        }
+        SensorColumns columns = bySensor.get(tag);
+        return columns == null ? List.of() : List.of(columns);
+    }
+
+    // Frees a tenth of the capacity at once, dropping the chunks ending
+    // first so the covered range shrinks as little as possible
+    void evictOverCapacity() {
+        synchronized (evictionLock) {
+            if (readings.get() <= maxReadings) {
+                return;
+            }
+            long excess = readings.get() - (maxReadings - maxReadings / 10);
+            List<long[]> ends = new ArrayList<>();
+            for (SensorColumns columns : bySensor.values()) {
+                synchronized (columns) {
+                    columns.chunkEnds(ends);
+                }
+            }
+            ends.sort(Comparator.comparingLong(end -> end[0]));
+            long freed = 0;
+            for (long[] end : ends) {
+                freed += end[1];
+                if (freed >= excess) {
+                    evictBefore(end[0] + 1);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Moves the covered range first, so a query scanning while chunks are
+    // dropped sees that it may have missed them
+    private void evictBefore(long watermark) {
+        synchronized (evictionLock) {
+            coveredFrom = Math.max(coveredFrom, watermark);
+            for (SensorColumns columns : bySensor.values()) {
+                List<SensorColumns.Chunk> evicted;
+                synchronized (columns) {
+                    evicted = columns.evictEndingBefore(watermark);
+                }
+                for (SensorColumns.Chunk chunk : evicted) {
+                    readings.addAndGet(-chunk.size());
+                    slots.addAndGet(-chunk.capacity());
+                }
+            }
+        }
+    }
+
+    private static ExecutorService newEvictionExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-store-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Readings are stored with whole seconds
+    private static long firstSecond(Instant startTime) {
+        return startTime.getNano() == 0 ? startTime.getEpochSecond() : startTime.getEpochSecond() + 1;
+    }
+}
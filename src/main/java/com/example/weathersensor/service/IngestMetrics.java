@@ -0,0 +1,148 @@
+package com.example.weathersensor.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the ingest path. LongAdder keeps contended increments cheap
+ * and allocation free, the meter registry only reads the sums when scraped
+ */
+@Component
+public class IngestMetrics implements MeterBinder {
+
+    private final LongAdder readingsStored = new LongAdder();
+    private final LongAdder invalidReadingRejections = new LongAdder();
+    private final LongAdder duplicateReadingRejections = new LongAdder();
+    private final LongAdder unknownSensorRejections = new LongAdder();
+    private final LongAdder backlogRejections = new LongAdder();
+    private final LongAdder writeBehindFlushes = new LongAdder();
+    private final LongAdder writeBehindFlushNanos = new LongAdder();
+    private final LongAccumulator writeBehindMaxFlushNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder writeBehindStored = new LongAdder();
+    private final LongAdder writeBehindDropped = new LongAdder();
+
+    public void readingsStored(int readings) {
+        readingsStored.add(readings);
+    }
+
+    public long readingsStored() {
+        return readingsStored.sum();
+    }
+
+    public void invalidReadingRejected() {
+        invalidReadingRejections.increment();
+    }
+
+    public long invalidReadingRejections() {
+        return invalidReadingRejections.sum();
+    }
+
+    public void duplicateReadingRejected() {
+        duplicateReadingRejections.increment();
+    }
+
+    public long duplicateReadingRejections() {
+        return duplicateReadingRejections.sum();
+    }
+
+    public void unknownSensorRejected() {
+        unknownSensorRejections.increment();
+    }
+
+    public long unknownSensorRejections() {
+        return unknownSensorRejections.sum();
+    }
+
+    public void backlogRejected() {
+        backlogRejections.increment();
+    }
+
+    public long backlogRejections() {
+        return backlogRejections.sum();
+    }
+
+    /**
+     * One write-behind flush finished
+     *
+     * @param stored readings stored
+     * @param nanos  time spent writing, retries included
+     */
+    public void writeBehindFlushed(int stored, long nanos) {
+        writeBehindFlushes.increment();
+        writeBehindFlushNanos.add(nanos);
+        writeBehindMaxFlushNanos.accumulate(nanos);
+        writeBehindStored.add(stored);
+    }
+
+    /**
+     * Readings accepted with 202 that were not stored, because they were
+     * rejected when written or the flush kept failing
+     */
+    public void writeBehindDropped(long readings) {
+        writeBehindDropped.add(readings);
+    }
+
+    public long writeBehindFlushes() {
+        return writeBehindFlushes.sum();
+    }
+
+    public long writeBehindFlushNanos() {
+        return writeBehindFlushNanos.sum();
+    }
+
+    public long writeBehindMaxFlushNanos() {
+        return writeBehindMaxFlushNanos.get();
+    }
+
+    public long writeBehindStored() {
+        return writeBehindStored.sum();
+    }
+
+    public long writeBehindDropped() {
+        return writeBehindDropped.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("weather.ingest.readings.stored", readingsStored, LongAdder::sum)
+                .description("Readings stored, over all ingest endpoints")
+                .baseUnit("readings")
+                .register(registry);
+        bindRejections(registry, "invalid", invalidReadingRejections);
+        bindRejections(registry, "duplicate", duplicateReadingRejections);
+        bindRejections(registry, "unknown_sensor", unknownSensorRejections);
+        bindRejections(registry, "backlog_full", backlogRejections);
+
+        FunctionTimer.builder("weather.ingest.write_behind.flushes", this,
+                IngestMetrics::writeBehindFlushes, IngestMetrics::writeBehindFlushNanos, TimeUnit.NANOSECONDS)
+                .description("Write-behind chunk flushes, retries included")
+                .register(registry);
+        TimeGauge.builder("weather.ingest.write_behind.flush.max", this, TimeUnit.NANOSECONDS,
+                IngestMetrics::writeBehindMaxFlushNanos)
+                .description("Longest write-behind flush since start")
+                .register(registry);
+        FunctionCounter.builder("weather.ingest.write_behind.stored", writeBehindStored, LongAdder::sum)
+                .baseUnit("readings")
+                .register(registry);
+        FunctionCounter.builder("weather.ingest.write_behind.dropped", writeBehindDropped, LongAdder::sum)
+                .description("Readings accepted with 202 that were never stored")
+                .baseUnit("readings")
+                .register(registry);
+    }
+
+    private static void bindRejections(MeterRegistry registry, String reason, LongAdder counter) {
+        FunctionCounter.builder("weather.ingest.readings.rejected", counter, LongAdder::sum)
+                .description("Readings rejected before being stored")
+                .baseUnit("readings")
+                .tag("reason", reason)
+                .register(registry);
+    }
+}
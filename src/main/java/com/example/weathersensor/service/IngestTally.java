@@ -0,0 +1,38 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.BatchIngestResponse;
+import com.example.weathersensor.dto.RejectedReading;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Running accepted/rejected counts of one ingest request, only the first
+ * rejections are kept so a huge upload cannot grow the error list unbounded
+ */
+final class IngestTally {
+
+    private final int maxReportedErrors;
+    private final List<RejectedReading> rejections = new ArrayList<>();
+    private long accepted;
+    private long rejected;
+
+    IngestTally(int maxReportedErrors) {
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    void accepted(int count) {
+        accepted += count;
+    }
+
+    void rejected(long index, String sensorId, String reason) {
+        rejected++;
+        if (rejections.size() < maxReportedErrors) {
+            rejections.add(new RejectedReading(index, sensorId, reason));
+        }
+    }
+
+    BatchIngestResponse toResponse() {
+        return new BatchIngestResponse(accepted, rejected, List.copyOf(rejections));
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import com.example.weathersensor.entity.SensorReadingSketch;
+
+import java.util.List;
+
+/**
+ * Quantile sketches of the three metrics of one bucket, or of several merged
+ */
+final class MetricSketches {
+    final QuantileSketch temperature = new QuantileSketch();
+    final QuantileSketch humidity = new QuantileSketch();
+    final QuantileSketch windSpeed = new QuantileSketch();
+
+    void add(double temperature, double humidity, double windSpeed) {
+        this.temperature.add(temperature);
+        this.humidity.add(humidity);
+        this.windSpeed.add(windSpeed);
+    }
+
+    void merge(List<SensorReadingSketch> stored) {
+        for (SensorReadingSketch sketch : stored) {
+            temperature.merge(QuantileSketch.fromBytes(sketch.getTemperature()));
+            humidity.merge(QuantileSketch.fromBytes(sketch.getHumidity()));
+            windSpeed.merge(QuantileSketch.fromBytes(sketch.getWindSpeed()));
+        }
+    }
+
+    SensorReadingSketch toEntity(SensorReadingRollupId id) {
+        return new SensorReadingSketch(id, temperature.toBytes(), humidity.toBytes(), windSpeed.toBytes());
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.weathersensor.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads newline delimited records with a hard cap on the line length, so a
+ * single oversized line cannot be buffered into memory the way
+ * {@link java.io.BufferedReader#readLine()} would
+ */
+final class NdjsonLineReader {
+
+    private final Reader reader;
+    private final int maxLineLength;
+    private final StringBuilder line;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private boolean truncated;
+    private boolean eof;
+
+    NdjsonLineReader(Reader reader, int maxLineLength) {
+        this.reader = reader;
+        this.maxLineLength = maxLineLength;
+        this.line = new StringBuilder(Math.min(maxLineLength, 1024));
+    }
+
+    /**
+     * Advance to the next line
+     *
+     * @return false once the input is exhausted
+     */
+    boolean next() throws IOException {
+        line.setLength(0);
+        truncated = false;
+        if (eof) {
+            return false;
+        }
+        while (position < limit || fill()) {
+            char c = buffer[position++];
+            if (c == '\n') {
+                return true;
+            }
+            if (line.length() < maxLineLength) {
+                line.append(c);
+            } else {
+                truncated = true;
+            }
+        }
+        eof = true;
+        return line.length() > 0 || truncated;
+    }
+
+    private boolean fill() throws IOException {
+        limit = reader.read(buffer);
+        position = 0;
+        return limit > 0;
+    }
+
+    /**
+     * @return true when the current line was longer than the cap and only its
+     *         prefix was kept
+     */
+    boolean truncated() {
+        return truncated;
+    }
+
+    /**
+     * @return true when the current line holds nothing but whitespace
+     */
+    boolean blank() {
+        for (int i = 0; i < line.length(); i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String line() {
+        return line.toString();
+    }
+}
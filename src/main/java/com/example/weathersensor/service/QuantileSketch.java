@@ -0,0 +1,321 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.MetricStatistics;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Quantile sketch of one metric after DDSketch. Values are counted in
+ * logarithmic bins that widen with the value, so every quantile is within
+ * {@value #RELATIVE_ACCURACY} relative error of the true one whatever the
+ * distribution, and sketches of different buckets merge exactly by adding
+ * their bin counts. Count, min, max, sum and sum of squares are kept exactly
+ * next to the bins. Positive and negative values have bins of their own,
+ * zeros are counted apart. A sign holds at most {@value #MAX_BINS} bins,
+ * beyond that the bins closest to zero are collapsed into one. Metrics stored
+ * with two decimals in int columns never need that many. Not thread safe
+ */
+final class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+    static final int MAX_BINS = 2048;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // Far below the smallest stored step of any metric
+    private static final double MIN_MAGNITUDE = 1e-9;
+    private static final byte VERSION = 1;
+
+    private final Bins positive = new Bins();
+    private final Bins negative = new Bins();
+    private long zeros;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+    private double sumOfSquares;
+
+    void add(double value) {
+        if (value >= MIN_MAGNITUDE) {
+            positive.add(index(value), 1);
+        } else if (value <= -MIN_MAGNITUDE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeros++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        sumOfSquares += value * value;
+    }
+
+    void merge(QuantileSketch other) {
+        other.positive.forEach(positive::add);
+        other.negative.forEach(negative::add);
+        zeros += other.zeros;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+        sumOfSquares += other.sumOfSquares;
+    }
+
+    /**
+     * Merge two serialized sketches into a new one
+     */
+    static byte[] merge(byte[] stored, byte[] partial) {
+        QuantileSketch sketch = fromBytes(stored);
+        sketch.merge(fromBytes(partial));
+        return sketch.toBytes();
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1, 0 and 1 give the exact min and max
+     * @return within {@value #RELATIVE_ACCURACY} relative error of the value
+     *         ranked at quantile * (count - 1), NaN when empty
+     */
+    double quantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double rank = quantile * (count - 1);
+        if (rank <= 0) {
+            return min;
+        }
+        if (rank >= count - 1) {
+            return max;
+        }
+        long seen = 0;
+        for (int i = negative.maxIndex; i >= negative.minIndex; i--) {
+            seen += negative.count(i);
+            if (seen > rank) {
+                return clamp(-value(i));
+            }
+        }
+        seen += zeros;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        for (int i = positive.minIndex; i <= positive.maxIndex; i++) {
+            seen += positive.count(i);
+            if (seen > rank) {
+                return clamp(value(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Exact min, max, mean and population standard deviation, the given
+     * quantiles and a histogram of equal width bins between min and max.
+     * Readings are placed in histogram bins by their sketch bin, so counts
+     * near a histogram bin edge may land in the neighbouring bin
+     *
+     * @return null when the sketch is empty
+     */
+    MetricStatistics toStatistics(List<Double> quantiles, int histogramBins) {
+        if (count == 0) {
+            return null;
+        }
+        double mean = sum / count;
+        double variance = Math.max(0, sumOfSquares / count - mean * mean);
+        List<MetricStatistics.QuantileValue> values = new ArrayList<>(quantiles.size());
+        for (double q : quantiles) {
+            values.add(new MetricStatistics.QuantileValue(q, quantile(q)));
+        }
+        return new MetricStatistics(min, max, mean, Math.sqrt(variance), values, histogram(histogramBins));
+    }
+
+    private List<MetricStatistics.HistogramBin> histogram(int bins) {
+        if (min == max) {
+            return List.of(new MetricStatistics.HistogramBin(min, max, count));
+        }
+        double width = (max - min) / bins;
+        long[] counts = new long[bins];
+        negative.forEach((index, n) -> counts[histogramBin(-value(index), width, bins)] += n);
+        if (zeros > 0) {
+            counts[histogramBin(0, width, bins)] += zeros;
+        }
+        positive.forEach((index, n) -> counts[histogramBin(value(index), width, bins)] += n);
+        List<MetricStatistics.HistogramBin> histogram = new ArrayList<>(bins);
+        for (int i = 0; i < bins; i++) {
+            double upper = i == bins - 1 ? max : min + (i + 1) * width;
+            histogram.add(new MetricStatistics.HistogramBin(min + i * width, upper, counts[i]));
+        }
+        return histogram;
+    }
+
+    private int histogramBin(double value, double width, int bins) {
+        return Math.min(bins - 1, (int) ((clamp(value) - min) / width));
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Bin i holds the magnitudes in (gamma^(i-1), gamma^i]
+    private static int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    // Within RELATIVE_ACCURACY of every magnitude in the bin
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * Version, counts as varints, the exact moments, then the non-empty bins
+     * of each sign as varint index deltas and counts
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        writeVarLong(out, count);
+        writeVarLong(out, zeros);
+        ByteBuffer moments = ByteBuffer.allocate(4 * Double.BYTES)
+                .putDouble(min).putDouble(max).putDouble(sum).putDouble(sumOfSquares);
+        out.writeBytes(moments.array());
+        positive.write(out);
+        negative.write(out);
+        return out.toByteArray();
+    }
+
+    static QuantileSketch fromBytes(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown quantile sketch version " + version);
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.count = readVarLong(in);
+        sketch.zeros = readVarLong(in);
+        sketch.min = in.getDouble();
+        sketch.max = in.getDouble();
+        sketch.sum = in.getDouble();
+        sketch.sumOfSquares = in.getDouble();
+        sketch.positive.read(in);
+        sketch.negative.read(in);
+        return sketch;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BinConsumer {
+        void accept(int index, long count);
+    }
+
+    /**
+     * Counts of the bins of one sign in an array covering the non-empty
+     * indexes, with some room to grow at both ends
+     */
+    private static final class Bins {
+        private static final int SLACK = 16;
+
+        private long[] counts = new long[0];
+        // Index of counts[0]
+        private int offset;
+        private int minIndex = Integer.MAX_VALUE;
+        private int maxIndex = Integer.MIN_VALUE;
+
+        void add(int index, long n) {
+            if (minIndex > maxIndex) {
+                minIndex = maxIndex = index;
+            } else if (index > maxIndex) {
+                int floor = index - MAX_BINS + 1;
+                long collapsed = 0;
+                if (floor > minIndex) {
+                    for (int i = minIndex; i <= Math.min(maxIndex, floor - 1); i++) {
+                        collapsed += counts[i - offset];
+                        counts[i - offset] = 0;
+                    }
+                    minIndex = floor;
+                }
+                maxIndex = index;
+                ensureCapacity();
+                counts[minIndex - offset] += collapsed;
+            } else if (index < minIndex) {
+                minIndex = Math.max(index, maxIndex - MAX_BINS + 1);
+                index = minIndex;
+            }
+            ensureCapacity();
+            counts[index - offset] += n;
+        }
+
+        long count(int index) {
+            return counts[index - offset];
+        }
+
+        void forEach(BinConsumer consumer) {
+            for (int i = minIndex; i <= maxIndex; i++) {
+                long n = counts[i - offset];
+                if (n != 0) {
+                    consumer.accept(i, n);
+                }
+            }
+        }
+
+        private void ensureCapacity() {
+            if (minIndex >= offset && maxIndex < offset + counts.length) {
+                return;
+            }
+            long[] grown = new long[maxIndex - minIndex + 1 + 2 * SLACK];
+            int grownOffset = minIndex - SLACK;
+            for (int i = Math.max(offset, grownOffset); i < offset + counts.length; i++) {
+                if (i - grownOffset < grown.length) {
+                    grown[i - grownOffset] = counts[i - offset];
+                }
+            }
+            counts = grown;
+            offset = grownOffset;
+        }
+
+        void write(ByteArrayOutputStream out) {
+            int[] bins = { 0 };
+            forEach((index, n) -> bins[0]++);
+            writeVarLong(out, bins[0]);
+            int[] previous = { 0 };
+            forEach((index, n) -> {
+                int delta = index - previous[0];
+                writeVarLong(out, (delta << 1) ^ (delta >> 31));
+                writeVarLong(out, n);
+                previous[0] = index;
+            });
+        }
+
+        void read(ByteBuffer in) {
+            long bins = readVarLong(in);
+            int index = 0;
+            for (long b = 0; b < bins; b++) {
+                int zigzag = (int) readVarLong(in);
+                index += (zigzag >>> 1) ^ -(zigzag & 1);
+                add(index, readVarLong(in));
+            }
+        }
+    }
+}
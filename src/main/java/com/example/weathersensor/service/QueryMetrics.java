@@ -0,0 +1,58 @@
+package com.example.weathersensor.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers of the average query path, split by what answered the query. The
+ * timers are registered once, recording a duration does not allocate
+ */
+@Component
+public class QueryMetrics {
+
+    private final Timer recentWindow;
+    private final Timer hotStore;
+    private final Timer rollups;
+
+    @Autowired
+    public QueryMetrics(MeterRegistry registry) {
+        this.recentWindow = computeTimer(registry, "recent_window");
+        this.hotStore = computeTimer(registry, "hot_store");
+        this.rollups = computeTimer(registry, "rollups");
+    }
+
+    /**
+     * An average query missed the cache and was answered from the in-memory
+     * recent window
+     */
+    public void recentWindowAnswered(long nanos) {
+        recentWindow.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * An average query missed the cache and was answered from the in-memory
+     * columns of the hot store
+     */
+    public void hotStoreAnswered(long nanos) {
+        hotStore.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * An average query missed the cache and was answered from the rollups
+     * and raw readings
+     */
+    public void rollupsAnswered(long nanos) {
+        rollups.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Timer computeTimer(MeterRegistry registry, String source) {
+        return Timer.builder("weather.average.compute")
+                .description("Average queries computed after a cache miss")
+                .tag("source", source)
+                .register(registry);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.IntToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Validates and stores a chunk of readings with a single JDBC batch.
+ * Every chunk runs in its own transaction and the persistence context is
+ * cleared afterwards, so memory stays flat however many chunks a request has.
+ * Duplicates are looked up by the exact sensor and timestamp of each reading.
+ * A reading committed by another request after that lookup fails the insert
+ * on the unique constraint, the chunk is then rolled back and stored once
+ * more, the lookup now rejecting that reading as stored
+ */
+@Component
+public class ReadingBatchWriter {
+
+    private final SensorReadingRepository sensorReadingRepository;
+    private final SensorService sensorService;
+    private final Validator validator;
+    private final IngestMetrics ingestMetrics;
+    private final ReadingRollupService rollupService;
+    private final RecentReadingWindow recentWindow;
+    private final HotReadingStore hotStore;
+    private final AverageQueryCache averageCache;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public ReadingBatchWriter(SensorReadingRepository sensorReadingRepository, SensorService sensorService,
+            Validator validator, IngestMetrics ingestMetrics, ReadingRollupService rollupService,
+            RecentReadingWindow recentWindow, HotReadingStore hotStore, AverageQueryCache averageCache,
+            PlatformTransactionManager transactionManager) {
+        this.sensorReadingRepository = sensorReadingRepository;
+        this.sensorService = sensorService;
+        this.validator = validator;
+        this.ingestMetrics = ingestMetrics;
+        this.rollupService = rollupService;
+        this.recentWindow = recentWindow;
+        this.hotStore = hotStore;
+        this.averageCache = averageCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Store the valid readings of a chunk and report the others to the tally
+     *
+     * @param chunk      readings to store, null entries are rejected
+     * @param firstIndex position of the first chunk entry in the whole request
+     * @param tally      collects accepted and rejected counts
+     */
+    public void writeChunk(List<SensorReadingRequest> chunk, long firstIndex, IngestTally tally) {
+        writeChunk(chunk, i -> firstIndex + i, tally);
+    }
+
+    /**
+     * Like {@link #writeChunk(List, long, IngestTally)}, with the position in
+     * the whole request reported for each chunk entry
+     *
+     * @param positions position of the chunk entry at each index
+     */
+    public void writeChunk(List<SensorReadingRequest> chunk, IntToLongFunction positions, IngestTally tally) {
+        List<Integer> valid = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            SensorReadingRequest request = chunk.get(i);
+            if (request == null) {
+                ingestMetrics.invalidReadingRejected();
+                tally.rejected(positions.applyAsLong(i), null, "Reading is empty");
+                continue;
+            }
+            Set<ConstraintViolation<SensorReadingRequest>> violations = validator.validate(request);
+            if (!violations.isEmpty()) {
+                ingestMetrics.invalidReadingRejected();
+                tally.rejected(positions.applyAsLong(i), request.sensorId(), violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining("; ")));
+                continue;
+            }
+            valid.add(i);
+        }
+        if (valid.isEmpty()) {
+            return;
+        }
+
+        Set<String> tags = new HashSet<>();
+        for (int i : valid) {
+            tags.add(chunk.get(i).sensorId());
+        }
+        Map<String, Sensor> sensors = sensorService.getSensorsByTags(tags);
+        Set<String> seen = new HashSet<>();
+        List<Integer> candidates = new ArrayList<>(valid.size());
+        for (int i : valid) {
+            SensorReadingRequest request = chunk.get(i);
+            Sensor sensor = sensors.get(request.sensorId());
+            if (sensor == null) {
+                ingestMetrics.unknownSensorRejected();
+                tally.rejected(positions.applyAsLong(i), request.sensorId(),
+                        "Sensor not found with ID: " + request.sensorId());
+                continue;
+            }
+            if (!seen.add(key(sensor.getId(), request.timestamp().truncatedTo(ChronoUnit.SECONDS)))) {
+                ingestMetrics.duplicateReadingRejected();
+                tally.rejected(positions.applyAsLong(i), request.sensorId(),
+                        "Duplicate reading for sensor and timestamp in request");
+                continue;
+            }
+            candidates.add(i);
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        Stored stored;
+        try {
+            stored = transactionTemplate.execute(status -> store(chunk, candidates, sensors));
+        } catch (DataIntegrityViolationException e) {
+            stored = transactionTemplate.execute(status -> store(chunk, candidates, sensors));
+        }
+        for (int i : stored.duplicates()) {
+            ingestMetrics.duplicateReadingRejected();
+            tally.rejected(positions.applyAsLong(i), chunk.get(i).sensorId(),
+                    "Reading already exists for sensor and timestamp");
+        }
+        // The in-memory views only see committed readings
+        List<SensorReading> readings = stored.readings();
+        recentWindow.record(readings);
+        hotStore.record(readings);
+        averageCache.invalidate(readings);
+        ingestMetrics.readingsStored(readings.size());
+        tally.accepted(readings.size());
+    }
+
+    private record Stored(List<SensorReading> readings, List<Integer> duplicates) {
+    }
+
+    // Builds new entities on every attempt, those of a rolled back one keep
+    // their ids
+    private Stored store(List<SensorReadingRequest> chunk, List<Integer> candidates, Map<String, Sensor> sensors) {
+        List<SensorReading> readings = new ArrayList<>(candidates.size());
+        for (int i : candidates) {
+            SensorReadingRequest request = chunk.get(i);
+            readings.add(new SensorReading(sensors.get(request.sensorId()), request.temperature(),
+                    request.humidity(), request.windSpeed(), request.timestamp().truncatedTo(ChronoUnit.SECONDS)));
+        }
+        Set<String> existing = new HashSet<>();
+        for (Object[] row : sensorReadingRepository.findExistingKeys(readings)) {
+            existing.add(key((Long) row[0], (Instant) row[1]));
+        }
+        List<SensorReading> fresh = new ArrayList<>(readings.size());
+        List<Integer> duplicates = new ArrayList<>();
+        for (int c = 0; c < readings.size(); c++) {
+            SensorReading reading = readings.get(c);
+            if (existing.contains(key(reading.getSensor().getId(), reading.getTimestamp()))) {
+                duplicates.add(candidates.get(c));
+            } else {
+                fresh.add(reading);
+            }
+        }
+        sensorReadingRepository.saveAll(fresh);
+        rollupService.record(fresh);
+        sensorReadingRepository.flush();
+        return new Stored(fresh, duplicates);
+    }
+
+    private static String key(Long sensorId, Instant timestamp) {
+        return sensorId + "@" + timestamp.getEpochSecond();
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.RetentionProperties;
+import com.example.weathersensor.entity.RetentionWatermark;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.RetentionWatermarkRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Downsamples raw readings older than the retention period to the hour and
+ * day rollups. Those rollups are written together with every reading, so
+ * compacting moves the watermark past the old time first and then deletes
+ * the raw readings and minute rollups before it. Hours whose rollups do not
+ * count their raw readings, e.g. readings stored before rollups were kept,
+ * are rebuilt first, see {@link ReadingRollupBackfill}, so no reading is
+ * deleted without being counted. Deletes run in chunks, each its own
+ * transaction, so no statement locks more than a chunk of rows. Averages
+ * stop reading raw data before the watermark as soon as it moves, see
+ * {@link ReadingRollupService#averages}. With the cold tier enabled the raw
+ * readings are sealed into segments first, see {@link ColdSegmentStore}, one
+ * UTC day at a time, and only the readings sealed are deleted. A reading
+ * arriving for a day while it is sealed stays in the table and is sealed
+ * by the next run
+ */
+@Service
+public class ReadingRetentionService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadingRetentionService.class);
+
+    static final String WATERMARK = "sensor_readings";
+
+    private final RetentionProperties properties;
+    private final RetentionWatermarkRepository watermarkRepository;
+    private final SensorReadingRepository sensorReadingRepository;
+    private final ReadingRollupRepository rollupRepository;
+    private final ColdSegmentStore coldStore;
+    private final ReadingRollupBackfill rollupBackfill;
+
+    @Autowired
+    public ReadingRetentionService(RetentionProperties properties,
+            RetentionWatermarkRepository watermarkRepository,
+            SensorReadingRepository sensorReadingRepository,
+            ReadingRollupRepository rollupRepository,
+            ColdSegmentStore coldStore,
+            ReadingRollupBackfill rollupBackfill) {
+        this.properties = properties;
+        this.watermarkRepository = watermarkRepository;
+        this.sensorReadingRepository = sensorReadingRepository;
+        this.rollupRepository = rollupRepository;
+        this.coldStore = coldStore;
+        this.rollupBackfill = rollupBackfill;
+    }
+
+    @Scheduled(fixedDelayString = "${weather.retention.interval:PT1H}",
+            initialDelayString = "${weather.retention.interval:PT1H}")
+    public void compactExpired() {
+        if (properties.enabled()) {
+            compactBefore(Instant.now().minus(properties.rawRetention()));
+        }
+    }
+
+    /**
+     * @return start of the time still held as raw readings, {@link Instant#MIN}
+     *         before the first compaction
+     */
+    public Instant compactedBefore() {
+        return watermarkRepository.findById(WATERMARK)
+                .map(RetentionWatermark::getCompactedBefore)
+                .orElse(Instant.MIN);
+    }
+
+    /**
+     * @return start of the time whose raw readings are read from the cold
+     *         tier, empty when the cold tier is disabled or nothing was
+     *         compacted yet
+     */
+    public Optional<Instant> archivedBefore() {
+        if (!coldStore.isEnabled()) {
+            return Optional.empty();
+        }
+        return watermarkRepository.findById(WATERMARK).map(RetentionWatermark::getCompactedBefore);
+    }
+
+    /**
+     * Compact the time before the cutoff, rounded down to a whole hour. The
+     * watermark never moves back, readings that arrived late for time already
+     * compacted are deleted again, after being sealed into segments of their
+     * own when the cold tier is enabled
+     *
+     * @return raw readings deleted
+     */
+    public long compactBefore(Instant cutoff) {
+        Instant watermark = RollupGranularity.HOUR.floor(cutoff);
+        Instant current = compactedBefore();
+        if (!watermark.isAfter(current)) {
+            watermark = current;
+        }
+        int rebuilt = backfill(current, watermark);
+        Archived archived = coldStore.isEnabled() ? archive(current, watermark) : new Archived(0, 0);
+        moveWatermark(current, watermark);
+        Instant before = watermark;
+        long readings = coldStore.isEnabled() ? archived.deleted()
+                : deleteInChunks(limit -> sensorReadingRepository.deleteBefore(before, limit));
+        long buckets = deleteInChunks(
+                limit -> rollupRepository.deleteBucketsBefore(RollupGranularity.MINUTE, before, limit));
+        if (readings > 0 || buckets > 0) {
+            log.info("Compacted readings before {}: rebuilt the rollups of {} sensor hours, sealed {} segments,"
+                    + " deleted {} raw readings and {} minute rollups", before, rebuilt, archived.segments(), readings,
+                    buckets);
+        }
+        return readings;
+    }
+
+    // Rollups of the hours about to lose their raw readings, from the oldest
+    // reading on the first run. Time before the current watermark has no
+    // complete raw readings left to rebuild from
+    private int backfill(Instant current, Instant watermark) {
+        Optional<Instant> from = current.equals(Instant.MIN)
+                ? sensorReadingRepository.findOldestTimestamp()
+                : Optional.of(current);
+        if (from.isEmpty() || !from.get().isBefore(watermark)) {
+            return 0;
+        }
+        return rollupBackfill.backfill(from.get(), watermark);
+    }
+
+    private record Archived(int segments, long deleted) {
+    }
+
+    // Seals every raw reading left before the watermark one day at a time,
+    // so each segment covers a single day. The watermark passes a day once
+    // it is sealed, then exactly the readings sealed are deleted
+    private Archived archive(Instant current, Instant before) {
+        Optional<Instant> oldest = sensorReadingRepository.findOldestTimestamp();
+        if (oldest.isEmpty() || !oldest.get().isBefore(before)) {
+            return new Archived(0, 0);
+        }
+        int segments = 0;
+        long deleted = 0;
+        Instant dayStart = oldest.get();
+        while (dayStart.isBefore(before)) {
+            Instant dayEnd = RollupGranularity.DAY.floor(dayStart).plus(1, ChronoUnit.DAYS);
+            Instant sealEnd = dayEnd.isBefore(before) ? dayEnd : before;
+            List<Long> sealed = new ArrayList<>();
+            segments += coldStore.seal(dayStart, sealEnd, sealed::add);
+            moveWatermark(current, sealEnd);
+            for (int from = 0; from < sealed.size(); from += properties.chunkSize()) {
+                deleted += sensorReadingRepository.deleteByIds(
+                        sealed.subList(from, Math.min(sealed.size(), from + properties.chunkSize())));
+            }
+            dayStart = sealEnd;
+        }
+        return new Archived(segments, deleted);
+    }
+
+    // Only ever forward, days before the current watermark hold late
+    // readings
+    private void moveWatermark(Instant current, Instant watermark) {
+        if (watermark.isAfter(current) && watermark.isAfter(compactedBefore())) {
+            watermarkRepository.save(new RetentionWatermark(WATERMARK, watermark));
+        }
+    }
+
+    private long deleteInChunks(IntUnaryOperator deleteChunk) {
+        int limit = properties.chunkSize();
+        long deleted = 0;
+        int chunk;
+        do {
+            chunk = deleteChunk.applyAsInt(limit);
+            deleted += chunk;
+        } while (chunk == limit);
+        return deleted;
+    }
+}
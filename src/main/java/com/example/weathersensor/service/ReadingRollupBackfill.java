@@ -0,0 +1,171 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.StatisticsProperties;
+import com.example.weathersensor.dto.SensorReadingRow;
+import com.example.weathersensor.entity.RetentionWatermark;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.ReadingSketchRepository;
+import com.example.weathersensor.repository.RetentionWatermarkRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Rebuilds rollups that do not match the raw readings, e.g. for readings
+ * stored before rollups were kept or written to the table directly. An hour
+ * of a sensor is rebuilt when its hour rollup counts a different number of
+ * readings than the table holds, its minute and hour buckets are then
+ * recomputed from the raw readings and its day bucket from the hours. Only
+ * time that still holds raw readings can be checked. A reading stored for an
+ * hour while it is rebuilt may be missed, so hours that still receive
+ * readings are left to the next run
+ */
+@Service
+public class ReadingRollupBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadingRollupBackfill.class);
+
+    // Progress of the startup run, kept next to the retention watermark
+    static final String WATERMARK = "sensor_reading_rollups";
+
+    private final ReadingRollupRepository rollupRepository;
+    private final ReadingSketchRepository sketchRepository;
+    private final SensorReadingRepository sensorReadingRepository;
+    private final RetentionWatermarkRepository watermarkRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean sketched;
+
+    @Autowired
+    public ReadingRollupBackfill(ReadingRollupRepository rollupRepository,
+            ReadingSketchRepository sketchRepository,
+            SensorReadingRepository sensorReadingRepository,
+            RetentionWatermarkRepository watermarkRepository,
+            PlatformTransactionManager transactionManager, StatisticsProperties statisticsProperties) {
+        this.rollupRepository = rollupRepository;
+        this.sketchRepository = sketchRepository;
+        this.sensorReadingRepository = sensorReadingRepository;
+        this.watermarkRepository = watermarkRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.sketched = statisticsProperties.enabled();
+    }
+
+    /**
+     * Check the hours stored since the last run, every hour still held as raw
+     * readings on the first one. The current hour is left to the next run
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillStored() {
+        Instant checkedBefore = RollupGranularity.HOUR.floor(Instant.now());
+        Optional<Instant> from = watermark(WATERMARK)
+                .or(sensorReadingRepository::findOldestTimestamp);
+        if (from.isPresent()) {
+            int rebuilt = backfill(from.get(), checkedBefore);
+            if (rebuilt > 0) {
+                log.info("Rebuilt the rollups of {} sensor hours before {}", rebuilt, checkedBefore);
+            }
+        }
+        watermarkRepository.save(new RetentionWatermark(WATERMARK, checkedBefore));
+    }
+
+    /**
+     * Rebuild the rollups of the sensor hours in [from, to) that do not
+     * match the raw readings, one day at a time, each in its own transaction
+     *
+     * @param from inclusive, rounded down to a whole hour
+     * @param to   exclusive, rounded down to a whole hour
+     * @return sensor hours rebuilt
+     */
+    public int backfill(Instant from, Instant to) {
+        Instant first = RollupGranularity.HOUR.floor(from);
+        Instant compactedBefore = watermark(ReadingRetentionService.WATERMARK).orElse(first);
+        if (first.isBefore(compactedBefore)) {
+            first = compactedBefore;
+        }
+        Instant end = RollupGranularity.HOUR.floor(to);
+        int rebuilt = 0;
+        while (first.isBefore(end)) {
+            Instant dayEnd = RollupGranularity.DAY.floor(first).plus(1, ChronoUnit.DAYS);
+            Instant sliceEnd = dayEnd.isBefore(end) ? dayEnd : end;
+            Instant sliceStart = first;
+            rebuilt += transactionTemplate.execute(status -> rebuild(sliceStart, sliceEnd));
+            first = sliceEnd;
+        }
+        return rebuilt;
+    }
+
+    // Hours of one day
+    private int rebuild(Instant from, Instant to) {
+        Map<SensorReadingRollupId, Long> raw = sensorReadingRepository.countRawByHour(from, to);
+        Set<SensorReadingRollupId> stale = new HashSet<>(raw.keySet());
+        for (Object[] bucket : rollupRepository.countBuckets(RollupGranularity.HOUR, from, to)) {
+            SensorReadingRollupId id = (SensorReadingRollupId) bucket[0];
+            if (bucket[1].equals(raw.get(id))) {
+                stale.remove(id);
+            } else {
+                stale.add(id);
+            }
+        }
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        // Sensors to rebuild in each hour, every hour's raw readings are read
+        // once
+        Map<Instant, Set<String>> tagsByHour = new TreeMap<>();
+        Set<String> tags = new HashSet<>();
+        for (SensorReadingRollupId id : stale) {
+            Instant hour = id.getBucketStart();
+            Instant hourEnd = hour.plusSeconds(RollupGranularity.HOUR.seconds());
+            rollupRepository.deleteBuckets(RollupGranularity.MINUTE, id.getSensorTag(), hour, hourEnd);
+            rollupRepository.deleteBuckets(RollupGranularity.HOUR, id.getSensorTag(), hour, hourEnd);
+            sketchRepository.deleteBuckets(RollupGranularity.HOUR, id.getSensorTag(), hour, hourEnd);
+            tagsByHour.computeIfAbsent(hour, key -> new HashSet<>()).add(id.getSensorTag());
+            tags.add(id.getSensorTag());
+        }
+        RollupPartials hours = new RollupPartials(sketched);
+        tagsByHour.forEach((hour, hourTags) -> {
+            Instant last = hour.plusSeconds(RollupGranularity.HOUR.seconds()).minus(1, ChronoUnit.MICROS);
+            for (SensorReadingRow row : sensorReadingRepository.findRowsByTimestampBetween(hour, last)) {
+                if (hourTags.contains(row.sensorId())) {
+                    hours.add(row.sensorId(), row.timestamp(), row.temperature(), row.humidity(),
+                            row.windSpeed(), RollupGranularity.MINUTE, RollupGranularity.HOUR);
+                }
+            }
+        });
+        hours.mergeInto(rollupRepository, sketchRepository);
+
+        // Day buckets are replaced by the sum of their hours, kept before the
+        // retention watermark and rebuilt after it
+        Instant day = RollupGranularity.DAY.floor(from);
+        Instant nextDay = day.plus(1, ChronoUnit.DAYS);
+        RollupPartials days = new RollupPartials(sketched);
+        for (String tag : tags) {
+            rollupRepository.deleteBuckets(RollupGranularity.DAY, tag, day, nextDay);
+            sketchRepository.deleteBuckets(RollupGranularity.DAY, tag, day, nextDay);
+            days.add(new SensorReadingRollupId(RollupGranularity.DAY, tag, day),
+                    rollupRepository.findBuckets(RollupGranularity.HOUR, tag, day, nextDay),
+                    sketchRepository.findBuckets(RollupGranularity.HOUR, day, nextDay, tag));
+        }
+        days.mergeInto(rollupRepository, sketchRepository);
+        return stale.size();
+    }
+
+    private Optional<Instant> watermark(String name) {
+        return watermarkRepository.findById(name).map(RetentionWatermark::getCompactedBefore);
+    }
+}
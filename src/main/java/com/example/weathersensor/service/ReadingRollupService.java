@@ -0,0 +1,336 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.StatisticsProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.dto.ReadingStatisticsDto;
+import com.example.weathersensor.dto.SeriesBucketDto;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.ReadingSketchRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the minute, hour and day rollups of the readings up to date and
+ * answers average queries from them. A range is covered with the coarsest
+ * whole buckets that fit, finer buckets towards the edges and raw readings
+ * only for the partial minutes at both ends, so the cost of a query depends
+ * on the number of sensors rather than on the length of the range. Hour and
+ * day buckets also keep quantile sketches of each metric, which answer
+ * statistics queries without reading raw readings, unless statistics are
+ * disabled
+ */
+@Service
+public class ReadingRollupService {
+
+    private static final RollupGranularity[] COARSEST_FIRST = {
+            RollupGranularity.DAY, RollupGranularity.HOUR, RollupGranularity.MINUTE };
+
+    private final ReadingRollupRepository rollupRepository;
+    private final ReadingSketchRepository sketchRepository;
+    private final SensorReadingRepository sensorReadingRepository;
+    private final ReadingRetentionService retentionService;
+    private final ColdSegmentStore coldStore;
+    private final boolean sketched;
+
+    @Autowired
+    public ReadingRollupService(ReadingRollupRepository rollupRepository,
+            ReadingSketchRepository sketchRepository, SensorReadingRepository sensorReadingRepository,
+            ReadingRetentionService retentionService, ColdSegmentStore coldStore,
+            StatisticsProperties statisticsProperties) {
+        this.rollupRepository = rollupRepository;
+        this.sketchRepository = sketchRepository;
+        this.sensorReadingRepository = sensorReadingRepository;
+        this.retentionService = retentionService;
+        this.coldStore = coldStore;
+        this.sketched = statisticsProperties.enabled();
+    }
+
+    /**
+     * Add newly stored readings to their buckets. Must join the transaction
+     * that stores the readings, so rollups and raw rows never disagree. Late
+     * readings are simply added to the older buckets they belong to
+     */
+    @Transactional
+    public void record(Collection<SensorReading> readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        RollupPartials partials = new RollupPartials(sketched);
+        for (SensorReading reading : readings) {
+            partials.add(reading.getSensor().getTag(), reading.getTimestamp(), reading.getTemperature(),
+                    reading.getHumidity(), reading.getWindSpeed(), COARSEST_FIRST);
+        }
+        partials.mergeInto(rollupRepository, sketchRepository);
+    }
+
+    /**
+     * Statistics over the hour buckets starting in [startTime, endTime],
+     * whole days of them from the day sketches. Only sketches are read, so
+     * the cost depends on the number of sensors and days rather than on the
+     * readings, and the range is resolved to whole hours
+     *
+     * @param tag restrict to one sensor, null for all sensors
+     */
+    public ReadingStatisticsDto statistics(Instant startTime, Instant endTime, String tag,
+            List<Double> quantiles, int histogramBins) {
+        Instant first = RollupGranularity.HOUR.ceil(startTime);
+        Instant end = endTime.truncatedTo(ChronoUnit.MICROS).plus(1, ChronoUnit.MICROS);
+        MetricSketches merged = new MetricSketches();
+        if (first.isBefore(end)) {
+            Instant firstDay = RollupGranularity.DAY.ceil(first);
+            Instant lastDay = RollupGranularity.DAY.floor(end);
+            if (!firstDay.isBefore(lastDay)) {
+                merged.merge(sketchRepository.findBuckets(RollupGranularity.HOUR, first, end, tag));
+            } else {
+                merged.merge(sketchRepository.findBuckets(RollupGranularity.DAY, firstDay, lastDay, tag));
+                merged.merge(sketchRepository.findBuckets(RollupGranularity.HOUR, first, firstDay, tag));
+                merged.merge(sketchRepository.findBuckets(RollupGranularity.HOUR, lastDay, end, tag));
+            }
+        }
+        return new ReadingStatisticsDto(merged.temperature.count(),
+                merged.temperature.toStatistics(quantiles, histogramBins),
+                merged.humidity.toStatistics(quantiles, histogramBins),
+                merged.windSpeed.toStatistics(quantiles, histogramBins));
+    }
+
+    /**
+     * Averages per bucket of bucketSeconds, aligned to UTC, for the buckets
+     * starting in [floor(startTime), endTime]. Hour multiples are summed from
+     * the hour rollups, shorter buckets from the minute rollups in one grouped
+     * query, so the cost depends on the number of buckets rather than on the
+     * readings. Minute rollups are deleted with the raw readings, callers
+     * check {@link #seriesHeldSince} first
+     *
+     * @param bucketSeconds a multiple of a minute
+     * @param tag           restrict to one sensor, null for all sensors
+     * @return buckets with readings in ascending order
+     */
+    public List<SeriesBucketDto> series(Instant startTime, Instant endTime, long bucketSeconds, String tag) {
+        if (endTime.isBefore(startTime)) {
+            return List.of();
+        }
+        Instant first = floor(startTime, bucketSeconds);
+        // The last bucket is whole even when endTime falls inside it
+        Instant end = floor(endTime, bucketSeconds).plusSeconds(bucketSeconds);
+        return rollupRepository.sumBucketsByTime(seriesGranularity(bucketSeconds), first, end, bucketSeconds, tag)
+                .entrySet().stream()
+                .map(e -> {
+                    AverageMetricsDto averages = e.getValue().toAverages();
+                    return new SeriesBucketDto(e.getKey(), averages.averageTemperature(),
+                            averages.averageHumidity(), averages.averageWindSpeed(), averages.readings());
+                })
+                .toList();
+    }
+
+    /**
+     * @return start of the time {@link #series} can answer with buckets of
+     *         bucketSeconds, {@link Instant#MIN} when all of it
+     */
+    public Instant seriesHeldSince(long bucketSeconds) {
+        return seriesGranularity(bucketSeconds) == RollupGranularity.MINUTE
+                ? retentionService.compactedBefore()
+                : Instant.MIN;
+    }
+
+    private static RollupGranularity seriesGranularity(long bucketSeconds) {
+        return bucketSeconds % RollupGranularity.HOUR.seconds() == 0
+                ? RollupGranularity.HOUR
+                : RollupGranularity.MINUTE;
+    }
+
+    private static Instant floor(Instant instant, long bucketSeconds) {
+        return Instant.ofEpochSecond(Math.floorDiv(instant.getEpochSecond(), bucketSeconds) * bucketSeconds);
+    }
+
+    /**
+     * Averages over [startTime, endTime], both ends inclusive like the raw
+     * BETWEEN queries. Time before the retention watermark is only held in
+     * hour and day rollups, there an hour counts when it starts in the range,
+     * unless the cold tier holds the raw readings of the partial hours
+     *
+     * @param tag restrict to one sensor, null for all sensors
+     */
+    public AverageMetricsDto averages(Instant startTime, Instant endTime, String tag) {
+        return sum(startTime, endTime, new TagSums(tag)).toAverages();
+    }
+
+    /**
+     * Totals of each sensor over [startTime, endTime], the range is covered
+     * like in {@link #averages} but every query is grouped by sensor, so the
+     * number of queries does not grow with the number of sensors
+     *
+     * @param tags restrict to these sensors, null for all sensors
+     * @return totals of the sensors with readings in the range
+     */
+    public Map<String, MetricTotals> totalsBySensor(Instant startTime, Instant endTime, Collection<String> tags) {
+        if (tags != null && tags.isEmpty()) {
+            return Map.of();
+        }
+        return sum(startTime, endTime, new SensorSums(tags));
+    }
+
+    private <T> T sum(Instant startTime, Instant endTime, Sums<T> sums) {
+        // Timestamps are stored with microsecond precision, this turns the
+        // inclusive end into an exclusive one that bucket boundaries can meet
+        Instant end = endTime.truncatedTo(ChronoUnit.MICROS).plus(1, ChronoUnit.MICROS);
+        Instant compactedBefore = retentionService.compactedBefore();
+        if (!startTime.isBefore(compactedBefore)) {
+            return totals(startTime, end, sums, 0);
+        }
+        Instant split = end.isBefore(compactedBefore) ? end : compactedBefore;
+        return sums.plus(compactedTotals(startTime, split, sums), totals(split, end, sums, 0));
+    }
+
+    // Whole hours from the rollups, the partial hours at both ends from the
+    // cold tier when it is enabled
+    private <T> T compactedTotals(Instant from, Instant to, Sums<T> sums) {
+        if (!coldStore.isEnabled()) {
+            return hourTotals(from, to, sums);
+        }
+        Instant first = RollupGranularity.HOUR.ceil(from);
+        Instant last = RollupGranularity.HOUR.floor(to);
+        if (!first.isBefore(last)) {
+            return sums.archived(from, to);
+        }
+        return sums.plus(hourTotals(first, last, sums), sums.archived(from, first), sums.archived(last, to));
+    }
+
+    // Hour buckets starting in [from, to), whole days of them from the day
+    // rollups
+    private <T> T hourTotals(Instant from, Instant to, Sums<T> sums) {
+        Instant first = RollupGranularity.HOUR.ceil(from);
+        if (!first.isBefore(to)) {
+            return sums.empty();
+        }
+        Instant firstDay = RollupGranularity.DAY.ceil(first);
+        Instant lastDay = RollupGranularity.DAY.floor(to);
+        if (!firstDay.isBefore(lastDay)) {
+            return sums.buckets(RollupGranularity.HOUR, first, to);
+        }
+        return sums.plus(sums.buckets(RollupGranularity.DAY, firstDay, lastDay),
+                sums.buckets(RollupGranularity.HOUR, first, firstDay),
+                sums.buckets(RollupGranularity.HOUR, lastDay, to));
+    }
+
+    private <T> T totals(Instant from, Instant to, Sums<T> sums, int level) {
+        if (!from.isBefore(to)) {
+            return sums.empty();
+        }
+        if (level == COARSEST_FIRST.length) {
+            return sums.raw(from, to);
+        }
+        RollupGranularity granularity = COARSEST_FIRST[level];
+        Instant first = granularity.ceil(from);
+        Instant last = granularity.floor(to);
+        if (!first.isBefore(last)) {
+            return totals(from, to, sums, level + 1);
+        }
+        return sums.plus(sums.buckets(granularity, first, last),
+                totals(from, first, sums, level + 1),
+                totals(last, to, sums, level + 1));
+    }
+
+    /**
+     * Sums the pieces a range is split into and adds them up, either for one
+     * or all sensors together or for each sensor on its own
+     */
+    private interface Sums<T> {
+        T empty();
+
+        T plus(T a, T b);
+
+        default T plus(T a, T b, T c) {
+            return plus(plus(a, b), c);
+        }
+
+        // Buckets starting in [from, to)
+        T buckets(RollupGranularity granularity, Instant from, Instant to);
+
+        // Raw readings in [from, to)
+        T raw(Instant from, Instant to);
+
+        // Archived readings in [from, to)
+        T archived(Instant from, Instant to);
+    }
+
+    private final class TagSums implements Sums<MetricTotals> {
+        private final String tag;
+
+        TagSums(String tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public MetricTotals empty() {
+            return MetricTotals.EMPTY;
+        }
+
+        @Override
+        public MetricTotals plus(MetricTotals a, MetricTotals b) {
+            return a.plus(b);
+        }
+
+        @Override
+        public MetricTotals buckets(RollupGranularity granularity, Instant from, Instant to) {
+            return rollupRepository.sumBuckets(granularity, from, to, tag);
+        }
+
+        @Override
+        public MetricTotals raw(Instant from, Instant to) {
+            return sensorReadingRepository.sumRaw(from, to, tag);
+        }
+
+        @Override
+        public MetricTotals archived(Instant from, Instant to) {
+            return coldStore.sum(from, to, tag);
+        }
+    }
+
+    private final class SensorSums implements Sums<Map<String, MetricTotals>> {
+        private final Collection<String> tags;
+
+        SensorSums(Collection<String> tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public Map<String, MetricTotals> empty() {
+            return Map.of();
+        }
+
+        @Override
+        public Map<String, MetricTotals> plus(Map<String, MetricTotals> a, Map<String, MetricTotals> b) {
+            Map<String, MetricTotals> merged = new HashMap<>(a);
+            b.forEach((tag, totals) -> merged.merge(tag, totals, MetricTotals::plus));
+            return merged;
+        }
+
+        @Override
+        public Map<String, MetricTotals> buckets(RollupGranularity granularity, Instant from, Instant to) {
+            return rollupRepository.sumBucketsBySensor(granularity, from, to, tags);
+        }
+
+        // Only the partial minutes at the ends of a range, one query is enough
+        @Override
+        public Map<String, MetricTotals> raw(Instant from, Instant to) {
+            return sensorReadingRepository.sumRawBySensor(from, to, tags);
+        }
+
+        @Override
+        public Map<String, MetricTotals> archived(Instant from, Instant to) {
+            return coldStore.sumBySensor(from, to, tags);
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.IngestProperties;
+import com.example.weathersensor.config.WriteAheadLogProperties;
+import com.example.weathersensor.dto.BatchIngestResponse;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.exception.IngestBacklogFullException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of accepted single readings, so they can be acknowledged
+ * once they are on disk rather than once the database committed them. The
+ * log is a sequence of fixed size, memory mapped segment files. Appends
+ * copy a small binary record into the current segment and wait for the next
+ * sync, one sync thread forces the segment to disk for every append that
+ * arrived meanwhile (group commit). A single applier thread stores synced
+ * records in order through {@link ReadingBatchWriter} and records how far it
+ * got in a checkpoint file, segments behind the checkpoint are deleted. A
+ * chunk that keeps failing is split until the records that fail on their own
+ * are found, those are moved to a dead letter file in the log's format.
+ * <p>
+ * On start the log is read from the checkpoint to its last intact record and
+ * that tail is stored before readings are accepted. Records applied after
+ * the last checkpoint are stored again, the writer drops them as duplicates
+ * of the same sensor and second
+ */
+@Component
+public class ReadingWriteAheadLog implements SmartLifecycle, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadingWriteAheadLog.class);
+
+    // Record: payload length, CRC32 of the payload, payload. A length of 0
+    // is space never written, END_OF_SEGMENT sends readers to the next one
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String DEAD_LETTER = "dead-letter";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 1_000;
+
+    private final WriteAheadLogProperties properties;
+    private final ReadingBatchWriter batchWriter;
+    private final IngestMetrics ingestMetrics;
+    private final int chunkSize;
+    private final int maxReportedErrors;
+    private final Path directory;
+    private final long segmentSize;
+    private final long syncIntervalNanos;
+    private final long maxBacklog;
+
+    private final NavigableMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Object applyLock = new Object();
+
+    // Positions count bytes over all segments, segment n starts at
+    // n * segmentSize
+    private volatile long written;
+    private volatile long durable;
+    private volatile long applied;
+    private int unsynced;
+
+    private volatile boolean accepting;
+    private volatile boolean syncing;
+    private volatile boolean applying;
+    private Thread syncer;
+    private Thread applier;
+
+    @Autowired
+    public ReadingWriteAheadLog(WriteAheadLogProperties properties, IngestProperties ingestProperties,
+            ReadingBatchWriter batchWriter, IngestMetrics ingestMetrics) {
+        this.properties = properties;
+        this.batchWriter = batchWriter;
+        this.ingestMetrics = ingestMetrics;
+        this.chunkSize = ingestProperties.chunkSize();
+        this.maxReportedErrors = ingestProperties.maxReportedErrors();
+        this.directory = properties.directory();
+        this.segmentSize = properties.segmentSize().toBytes();
+        this.syncIntervalNanos = properties.syncInterval().toNanos();
+        this.maxBacklog = properties.maxBacklog().toBytes();
+    }
+
+    public boolean enabled() {
+        return properties.enabled();
+    }
+
+    /**
+     * Log a validated reading, returns once the record is synced to disk
+     *
+     * @throws IngestBacklogFullException when too much of the log is not
+     *                                    applied yet or the log is shutting
+     *                                    down
+     */
+    public void append(SensorReadingRequest request) {
+        if (!accepting) {
+            ingestMetrics.backlogRejected();
+            throw new IngestBacklogFullException("Reading ingest is not accepting readings right now");
+        }
+        if (written - applied > maxBacklog) {
+            ingestMetrics.backlogRejected();
+            throw new IngestBacklogFullException("Reading ingest backlog is full, retry later");
+        }
+        byte[] payload = encode(request);
+        if (RECORD_HEADER + payload.length + Integer.BYTES > segmentSize) {
+            throw new IllegalArgumentException("Reading does not fit in a log segment");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        lock.lock();
+        try {
+            // Checked before the record is written, the syncer syncs every
+            // record written while syncing before it stops, so a record is
+            // never rejected once it can be replayed
+            if (!syncing) {
+                ingestMetrics.backlogRejected();
+                throw new IngestBacklogFullException("Reading ingest is not accepting readings right now");
+            }
+            long position = written;
+            long offset = position % segmentSize;
+            // The end marker must always fit behind the last record
+            if (offset + RECORD_HEADER + payload.length + Integer.BYTES > segmentSize) {
+                position = roll(position);
+                offset = 0;
+            }
+            MappedByteBuffer segment = segments.get(position / segmentSize);
+            segment.put((int) offset + RECORD_HEADER, payload);
+            segment.putInt((int) offset + Integer.BYTES, (int) crc.getValue());
+            segment.putInt((int) offset, payload.length);
+            long end = position + RECORD_HEADER + payload.length;
+            written = end;
+            if (++unsynced == 1 || unsynced >= properties.syncBatch()) {
+                appended.signal();
+            }
+            while (durable < end) {
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store every synced record not applied yet, in log order
+     *
+     * @return records applied
+     */
+    public long applyPending() {
+        synchronized (applyLock) {
+            long limit = durable;
+            long position = applied;
+            long count = 0;
+            List<SensorReadingRequest> chunk = new ArrayList<>(chunkSize);
+            while (position < limit) {
+                long index = position / segmentSize;
+                int offset = (int) (position % segmentSize);
+                MappedByteBuffer segment = segments.get(index);
+                int length = segment.getInt(offset);
+                if (length == END_OF_SEGMENT) {
+                    position = (index + 1) * segmentSize;
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                segment.get(offset + RECORD_HEADER, payload);
+                chunk.add(decode(payload));
+                position += RECORD_HEADER + length;
+                if (chunk.size() == chunkSize) {
+                    store(chunk, position);
+                    count += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                store(chunk, position);
+                count += chunk.size();
+            }
+            if (position > applied) {
+                applied = position;
+                writeCheckpoint(position);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return log bytes synced but not stored in the database yet
+     */
+    public long backlogBytes() {
+        return durable - applied;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.ingest.wal.backlog", this, ReadingWriteAheadLog::backlogBytes)
+                .description("Write-ahead log bytes not applied to the database yet")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled()) {
+            return;
+        }
+        open();
+        long replayed = applyPending();
+        if (replayed > 0) {
+            log.info("Replayed {} readings from the write-ahead log in {}", replayed, directory);
+        }
+        applying = true;
+        applier = new Thread(this::runApplier, "reading-wal-applier");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    @Override
+    public void stop() {
+        if (applier == null) {
+            return;
+        }
+        accepting = false;
+        applying = false;
+        LockSupport.unpark(applier);
+        try {
+            applier.join(properties.shutdownTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (backlogBytes() > 0) {
+            log.warn("Write-ahead log shutdown left {} bytes to replay on the next start", backlogBytes());
+        }
+        close();
+        applier = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return applier != null;
+    }
+
+    // Stop after the web server, which stops in earlier phases, so no request
+    // appends once the applier drained the log
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    /**
+     * Recover the log and accept appends, without applying them
+     */
+    void open() {
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        syncing = true;
+        syncer = new Thread(this::runSyncer, "reading-wal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        accepting = true;
+    }
+
+    /**
+     * Stop accepting appends and syncing, as a crash right after the last
+     * sync would
+     */
+    void close() {
+        accepting = false;
+        lock.lock();
+        try {
+            syncing = false;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segments.clear();
+    }
+
+    private void runSyncer() {
+        lock.lock();
+        try {
+            while (syncing || durable < written) {
+                if (durable == written) {
+                    appended.awaitUninterruptibly();
+                    continue;
+                }
+                // Give other appends a chance to share this sync
+                long deadline = System.nanoTime() + syncIntervalNanos;
+                long remaining;
+                while (syncing && unsynced < properties.syncBatch()
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    appended.awaitNanos(remaining);
+                }
+                // Only the bytes written since the last sync, a segment
+                // filled meanwhile was forced when it was rolled
+                long target = written;
+                long index = (target - 1) / segmentSize;
+                long from = Math.max(durable, index * segmentSize);
+                MappedByteBuffer segment = segments.get(index);
+                unsynced = 0;
+                lock.unlock();
+                try {
+                    segment.force((int) (from - index * segmentSize), (int) (target - from));
+                } finally {
+                    lock.lock();
+                }
+                durable = target;
+                synced.signalAll();
+                if (applier != null) {
+                    LockSupport.unpark(applier);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synced.signalAll();
+            lock.unlock();
+        }
+    }
+
+    private void runApplier() {
+        while (applying || applied < durable) {
+            try {
+                if (applyPending() == 0) {
+                    if (!applying) {
+                        return;
+                    }
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            } catch (RuntimeException e) {
+                log.error("Applying the write-ahead log failed, it is retried from the last checkpoint", e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_BACKOFF_MILLIS));
+                if (!applying) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Stores a chunk and moves the checkpoint behind it. Rejected readings
+    // are duplicates of replayed records or readings whose sensor was removed
+    // meanwhile
+    private void store(List<SensorReadingRequest> chunk, long position) {
+        storeOrSplit(chunk);
+        applied = position;
+        writeCheckpoint(position);
+        // Segments behind the one being read are fully applied
+        long current = position / segmentSize;
+        while (!segments.isEmpty() && segments.firstKey() < current) {
+            long index = segments.pollFirstEntry().getKey();
+            try {
+                Files.deleteIfExists(segmentPath(index));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // A chunk still failing after the last attempt is stored in halves, so
+    // one bad record only costs the attempts of the chunks holding it
+    private void storeOrSplit(List<SensorReadingRequest> chunk) {
+        RuntimeException failure = tryStore(chunk);
+        if (failure == null) {
+            return;
+        }
+        if (chunk.size() == 1) {
+            deadLetter(chunk.get(0), failure);
+            return;
+        }
+        int half = chunk.size() / 2;
+        storeOrSplit(chunk.subList(0, half));
+        storeOrSplit(chunk.subList(half, chunk.size()));
+    }
+
+    // Null once stored, else the last failure. During shutdown failures are
+    // rethrown instead, the chunk is replayed on the next start
+    private RuntimeException tryStore(List<SensorReadingRequest> chunk) {
+        long start = System.nanoTime();
+        for (int attempt = 1;; attempt++) {
+            try {
+                IngestTally tally = new IngestTally(maxReportedErrors);
+                batchWriter.writeChunk(chunk, 0, tally);
+                BatchIngestResponse result = tally.toResponse();
+                ingestMetrics.writeBehindFlushed((int) result.accepted(), System.nanoTime() - start);
+                if (result.rejected() > 0) {
+                    ingestMetrics.writeBehindDropped(result.rejected());
+                    log.debug("Write-ahead log dropped {} readings: {}", result.rejected(), result.rejections());
+                }
+                return null;
+            } catch (RuntimeException e) {
+                if (!applying && attempt > 1) {
+                    throw e;
+                }
+                if (attempt >= properties.maxAttempts()) {
+                    return e;
+                }
+                log.warn("Applying {} write-ahead log records failed, attempt {} of {}", chunk.size(), attempt,
+                        properties.maxAttempts(), e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(
+                        Math.min(MAX_RETRY_BACKOFF_MILLIS, 50L << Math.min(attempt, 10))));
+            }
+        }
+    }
+
+    // Appends the record to the dead letter file and forces it, it is gone
+    // from the log once the checkpoint passes it
+    private void deadLetter(SensorReadingRequest request, RuntimeException failure) {
+        byte[] payload = encode(request);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+        Path file = directory.resolve(DEAD_LETTER);
+        try {
+            boolean created = !Files.exists(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                channel.force(false);
+            }
+            if (created) {
+                syncDirectory();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ingestMetrics.writeBehindDropped(1);
+        log.error("Moved the reading of {} at {} to {} after {} attempts", request.sensorId(), request.timestamp(),
+                file, properties.maxAttempts(), failure);
+    }
+
+    // Caller holds the lock. Forces the full segment before moving on, so
+    // only the current segment can end in a torn record
+    private long roll(long position) {
+        long index = position / segmentSize;
+        MappedByteBuffer segment = segments.get(index);
+        segment.putInt((int) (position % segmentSize), END_OF_SEGMENT);
+        segment.force();
+        map(index + 1);
+        return (index + 1) * segmentSize;
+    }
+
+    private MappedByteBuffer map(long index) {
+        Path file = segmentPath(index);
+        try {
+            boolean created = !Files.exists(file);
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            // Records forced into a new segment are only found after a crash
+            // once its directory entry is durable too
+            if (created) {
+                syncDirectory();
+            }
+            segments.put(index, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // Finds the end of the intact records after the checkpoint and clears
+    // anything behind it, such as a record torn by a crash
+    private void recover() throws IOException {
+        long checkpoint = readCheckpoint();
+        List<Long> indexes;
+        try (Stream<Path> files = Files.list(directory)) {
+            indexes = files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        long first = checkpoint / segmentSize;
+        for (long index : indexes) {
+            if (index < first) {
+                Files.deleteIfExists(segmentPath(index));
+            } else {
+                map(index);
+            }
+        }
+        if (segments.isEmpty()) {
+            map(first);
+        }
+        long position = Math.max(checkpoint, segments.firstKey() * segmentSize);
+        while (true) {
+            long index = position / segmentSize;
+            MappedByteBuffer segment = segments.get(index);
+            int offset = (int) (position % segmentSize);
+            int length = segment.getInt(offset);
+            if (length == END_OF_SEGMENT && segments.containsKey(index + 1)) {
+                position = (index + 1) * segmentSize;
+                continue;
+            }
+            if (length <= 0 || offset + RECORD_HEADER + length + Integer.BYTES > segmentSize) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            segment.get(offset + RECORD_HEADER, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (segment.getInt(offset + Integer.BYTES) != (int) crc.getValue()) {
+                break;
+            }
+            position += RECORD_HEADER + length;
+        }
+
+        long last = position / segmentSize;
+        MappedByteBuffer segment = segments.get(last);
+        byte[] zeros = new byte[8192];
+        for (int offset = (int) (position % segmentSize); offset < segmentSize; offset += zeros.length) {
+            segment.put(offset, zeros, 0, (int) Math.min(zeros.length, segmentSize - offset));
+        }
+        segment.force();
+        for (long index : segments.tailMap(last, false).keySet().toArray(Long[]::new)) {
+            log.warn("Dropping write-ahead log segment {} behind a damaged record", index);
+            segments.remove(index);
+            Files.deleteIfExists(segmentPath(index));
+        }
+        written = position;
+        durable = position;
+        applied = Math.max(checkpoint, segments.firstKey() * segmentSize);
+    }
+
+    // A checkpoint cut short, as an older version could leave it, counts as
+    // none
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] checkpoint = Files.readAllBytes(file);
+        if (checkpoint.length < Long.BYTES) {
+            log.warn("Ignoring the damaged write-ahead log checkpoint {}, the log is replayed from its start", file);
+            return 0;
+        }
+        return ByteBuffer.wrap(checkpoint).getLong();
+    }
+
+    // Replaced by an atomic move so a crash leaves the old or the new
+    // checkpoint. Not forced, a lost checkpoint only replays records the
+    // writer then drops as duplicates
+    private void writeCheckpoint(long position) {
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        try {
+            Files.write(temp, ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+            Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    // Tag, epoch second and the three metrics, the writer stores whole
+    // seconds anyway
+    private static byte[] encode(SensorReadingRequest request) {
+        byte[] tag = request.sensorId().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Integer.BYTES + tag.length + Long.BYTES + 3 * Double.BYTES)
+                .putInt(tag.length)
+                .put(tag)
+                .putLong(request.timestamp().getEpochSecond())
+                .putDouble(request.temperature())
+                .putDouble(request.humidity())
+                .putDouble(request.windSpeed())
+                .array();
+    }
+
+    private static SensorReadingRequest decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        byte[] tag = new byte[buffer.getInt()];
+        buffer.get(tag);
+        Instant timestamp = Instant.ofEpochSecond(buffer.getLong());
+        return new SensorReadingRequest(new String(tag, StandardCharsets.UTF_8), buffer.getDouble(),
+                buffer.getDouble(), buffer.getDouble(), timestamp);
+    }
+}
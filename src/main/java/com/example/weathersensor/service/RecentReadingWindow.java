@@ -0,0 +1,135 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.RecentWindowProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.SensorReading;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory per-second aggregates of the readings stored since startup, per
+ * sensor and for all sensors together. Average queries whose range starts
+ * after the oldest retained second are answered from here without touching
+ * the database. Readings are only added once their transaction committed.
+ * The all-sensors buckets are striped by sensor, each stripe with its own
+ * lock, so ingests of different sensors rarely contend.
+ * Assumes this instance stores every reading, like the sensor registry
+ */
+@Component
+public class RecentReadingWindow {
+
+    private final int sensorBuckets;
+    private final int totalBuckets;
+    private final int totalStripes;
+    private final Map<String, SecondBuckets> bySensor = new ConcurrentHashMap<>();
+    private volatile SecondBuckets[] totals;
+    private volatile long coveredFrom;
+
+    @Autowired
+    public RecentReadingWindow(RecentWindowProperties properties) {
+        this.sensorBuckets = properties.sensorBuckets();
+        this.totalBuckets = properties.totalBuckets();
+        this.totalStripes = properties.totalStripes();
+        clear();
+    }
+
+    /**
+     * Add stored readings to the window, after the surrounding transaction
+     * commits when there is one
+     */
+    public void record(Collection<SensorReading> readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        List<SensorReading> committed = List.copyOf(readings);
+        AfterCommit.run(() -> committed.forEach(this::add));
+    }
+
+    public void add(SensorReading reading) {
+        add(reading.getSensor().getTag(), reading.getTimestamp(),
+                reading.getTemperature(), reading.getHumidity(), reading.getWindSpeed());
+    }
+
+    public void add(String tag, Instant timestamp, double temperature, double humidity, double windSpeed) {
+        long second = timestamp.getEpochSecond();
+        long scaledTemperature = SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE);
+        long scaledHumidity = SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE);
+        long scaledWindSpeed = SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE);
+        SecondBuckets sensor = bySensor.computeIfAbsent(tag, t -> new SecondBuckets(sensorBuckets, coveredFrom));
+        synchronized (sensor) {
+            sensor.add(second, scaledTemperature, scaledHumidity, scaledWindSpeed);
+        }
+        SecondBuckets[] stripes = totals;
+        SecondBuckets all = stripes[(tag.hashCode() & Integer.MAX_VALUE) % stripes.length];
+        synchronized (all) {
+            all.add(second, scaledTemperature, scaledHumidity, scaledWindSpeed);
+        }
+    }
+
+    /**
+     * Averages over [startTime, endTime] if every reading in that range is
+     * still held in memory
+     *
+     * @param tag restrict to one sensor, null for all sensors
+     * @return empty when the range reaches further back than the window
+     */
+    public Optional<AverageMetricsDto> averages(Instant startTime, Instant endTime, String tag) {
+        // Readings are stored with whole seconds
+        long from = startTime.getNano() == 0 ? startTime.getEpochSecond() : startTime.getEpochSecond() + 1;
+        long to = endTime.getEpochSecond();
+        if (tag == null) {
+            return totalAverages(from, to);
+        }
+        SecondBuckets buckets = bySensor.get(tag);
+        if (buckets == null) {
+            // Nothing recorded for the sensor since the window started
+            return from >= coveredFrom ? Optional.of(new AverageMetricsDto(null, null, null, 0L))
+                    : Optional.empty();
+        }
+        synchronized (buckets) {
+            if (from < buckets.coveredFrom()) {
+                return Optional.empty();
+            }
+            return Optional.of(buckets.sum(from, to).toAverages());
+        }
+    }
+
+    private Optional<AverageMetricsDto> totalAverages(long from, long to) {
+        MetricTotals sum = MetricTotals.EMPTY;
+        for (SecondBuckets stripe : totals) {
+            synchronized (stripe) {
+                if (from < stripe.coveredFrom()) {
+                    return Optional.empty();
+                }
+                sum = sum.plus(stripe.sum(from, to));
+            }
+        }
+        return Optional.of(sum.toAverages());
+    }
+
+    /**
+     * Forget everything, the window then covers readings from the next second
+     * on. Needed when readings are removed behind the service's back
+     */
+    public void clear() {
+        coveredFrom = Instant.now().getEpochSecond() + 1;
+        bySensor.clear();
+        SecondBuckets[] stripes = new SecondBuckets[totalStripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new SecondBuckets(totalBuckets, coveredFrom);
+        }
+        totals = stripes;
+    }
+
+    public int sensors() {
+        return bySensor.size();
+    }
+}
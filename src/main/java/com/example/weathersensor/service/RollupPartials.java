@@ -0,0 +1,68 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.SensorReadingRollup;
+import com.example.weathersensor.entity.SensorReadingRollupId;
+import com.example.weathersensor.entity.SensorReadingSketch;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.ReadingSketchRepository;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rollups and sketches of a batch of readings, one per bucket, to be added
+ * to the stored buckets together. Minute buckets get no sketch, nor does any
+ * bucket when statistics are disabled
+ */
+final class RollupPartials {
+
+    private final Map<SensorReadingRollupId, SensorReadingRollup> rollups = new HashMap<>();
+    private final Map<SensorReadingRollupId, MetricSketches> sketches = new HashMap<>();
+    private final boolean sketched;
+
+    RollupPartials(boolean sketched) {
+        this.sketched = sketched;
+    }
+
+    void add(String tag, Instant timestamp, double temperature, double humidity, double windSpeed,
+            RollupGranularity... granularities) {
+        for (RollupGranularity granularity : granularities) {
+            SensorReadingRollupId id = new SensorReadingRollupId(granularity, tag, granularity.floor(timestamp));
+            rollups.computeIfAbsent(id, SensorReadingRollup::new).add(temperature, humidity, windSpeed);
+            if (sketched && granularity != RollupGranularity.MINUTE) {
+                sketches.computeIfAbsent(id, key -> new MetricSketches()).add(temperature, humidity, windSpeed);
+            }
+        }
+    }
+
+    /**
+     * Add whole stored buckets to a coarser one, e.g. the hours of a day
+     */
+    void add(SensorReadingRollupId id, List<SensorReadingRollup> buckets, List<SensorReadingSketch> bucketSketches) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        SensorReadingRollup rollup = rollups.computeIfAbsent(id, SensorReadingRollup::new);
+        buckets.forEach(rollup::add);
+        if (sketched) {
+            sketches.computeIfAbsent(id, key -> new MetricSketches()).merge(bucketSketches);
+        }
+    }
+
+    /**
+     * Add everything to the stored buckets, inside the caller's transaction
+     */
+    void mergeInto(ReadingRollupRepository rollupRepository, ReadingSketchRepository sketchRepository) {
+        rollupRepository.merge(rollups.values());
+        if (sketches.isEmpty()) {
+            return;
+        }
+        // The rollup merge holds the locks of these buckets until commit
+        sketchRepository.merge(sketches.entrySet().stream()
+                .map(e -> e.getValue().toEntity(e.getKey()))
+                .toList(), QuantileSketch::merge);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.MetricTotals;
+
+/**
+ * Ring of per-second sum and count buckets in time order, kept in primitive
+ * arrays. Sums are in the stored scale of each metric. Only seconds that received readings take a slot. When the ring is
+ * full the oldest bucket is dropped and {@link #coveredFrom()} moves past it,
+ * so callers can tell which ranges are still complete. Arrays start small
+ * and grow up to the capacity. Not thread safe
+ */
+class SecondBuckets {
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private final int capacity;
+    private long coveredFrom;
+    private long[] seconds;
+    private int[] counts;
+    private long[] temperatureSums;
+    private long[] humiditySums;
+    private long[] windSpeedSums;
+    private int head;
+    private int size;
+
+    /**
+     * @param capacity    maximum number of buckets
+     * @param coveredFrom first epoch second whose readings are all recorded
+     */
+    SecondBuckets(int capacity, long coveredFrom) {
+        this.capacity = capacity;
+        this.coveredFrom = coveredFrom;
+        allocate(Math.min(capacity, INITIAL_SLOTS));
+    }
+
+    /**
+     * @return first epoch second from which every reading is in the buckets
+     */
+    long coveredFrom() {
+        return coveredFrom;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long second, long temperature, long humidity, long windSpeed) {
+        if (second < coveredFrom) {
+            return;
+        }
+        int pos = search(second);
+        if (pos >= 0) {
+            accumulate(slot(pos), 1, temperature, humidity, windSpeed);
+            return;
+        }
+        pos = -pos - 1;
+        if (size == capacity) {
+            if (pos == 0) {
+                // Older than everything kept, dropping it is the same as
+                // evicting it right away
+                coveredFrom = second + 1;
+                return;
+            }
+            coveredFrom = seconds[head] + 1;
+            head = (head + 1) % seconds.length;
+            size--;
+            pos--;
+        } else if (size == seconds.length) {
+            grow();
+        }
+        // Readings nearly always arrive in order, shifting is the exception
+        for (int i = size; i > pos; i--) {
+            move(slot(i - 1), slot(i));
+        }
+        int slot = slot(pos);
+        seconds[slot] = second;
+        counts[slot] = 0;
+        temperatureSums[slot] = humiditySums[slot] = windSpeedSums[slot] = 0;
+        accumulate(slot, 1, temperature, humidity, windSpeed);
+        size++;
+    }
+
+    /**
+     * Sum the buckets of seconds in [fromSecond, toSecond]
+     */
+    MetricTotals sum(long fromSecond, long toSecond) {
+        long temperature = 0;
+        long humidity = 0;
+        long windSpeed = 0;
+        long readings = 0;
+        int from = search(fromSecond);
+        for (int i = from < 0 ? -from - 1 : from; i < size; i++) {
+            int slot = slot(i);
+            if (seconds[slot] > toSecond) {
+                break;
+            }
+            temperature += temperatureSums[slot];
+            humidity += humiditySums[slot];
+            windSpeed += windSpeedSums[slot];
+            readings += counts[slot];
+        }
+        return new MetricTotals(temperature, humidity, windSpeed, readings);
+    }
+
+    // Binary search over the logical positions, returns -(insertion point) - 1
+    // when the second has no bucket
+    private int search(long second) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = seconds[slot(mid)];
+            if (value < second) {
+                low = mid + 1;
+            } else if (value > second) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int slot(int position) {
+        int slot = head + position;
+        return slot >= seconds.length ? slot - seconds.length : slot;
+    }
+
+    private void accumulate(int slot, int readings, long temperature, long humidity, long windSpeed) {
+        counts[slot] += readings;
+        temperatureSums[slot] += temperature;
+        humiditySums[slot] += humidity;
+        windSpeedSums[slot] += windSpeed;
+    }
+
+    private void move(int from, int to) {
+        seconds[to] = seconds[from];
+        counts[to] = counts[from];
+        temperatureSums[to] = temperatureSums[from];
+        humiditySums[to] = humiditySums[from];
+        windSpeedSums[to] = windSpeedSums[from];
+    }
+
+    private void grow() {
+        long[] oldSeconds = seconds;
+        int[] oldCounts = counts;
+        long[] oldTemperatures = temperatureSums;
+        long[] oldHumidities = humiditySums;
+        long[] oldWindSpeeds = windSpeedSums;
+        int oldHead = head;
+        allocate(Math.min(capacity, oldSeconds.length * 2));
+        for (int i = 0; i < size; i++) {
+            int from = (oldHead + i) % oldSeconds.length;
+            seconds[i] = oldSeconds[from];
+            counts[i] = oldCounts[from];
+            temperatureSums[i] = oldTemperatures[from];
+            humiditySums[i] = oldHumidities[from];
+            windSpeedSums[i] = oldWindSpeeds[from];
+        }
+        head = 0;
+    }
+
+    private void allocate(int slots) {
+        seconds = new long[slots];
+        counts = new int[slots];
+        temperatureSums = new long[slots];
+        humiditySums = new long[slots];
+        windSpeedSums = new long[slots];
+    }
+}
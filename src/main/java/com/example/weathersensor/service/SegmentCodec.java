@@ -0,0 +1,324 @@
+package com.example.weathersensor.service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Gorilla style compression of one sensor's readings in time order, after
+ * the encoding of Facebook's Gorilla time series database. Timestamps and
+ * ids are stored as the change of their delta, which is zero for readings
+ * at a steady interval and then costs a single bit. Each metric is stored as
+ * the XOR with its previous value, a repeated value costs one bit, otherwise
+ * only the bits between the leading and trailing zeros of the XOR are
+ * written. Not thread safe
+ */
+final class SegmentCodec {
+
+    private SegmentCodec() {
+    }
+
+    /**
+     * Receives the decoded readings
+     */
+    @FunctionalInterface
+    interface ReadingConsumer {
+        void accept(long second, long id, double temperature, double humidity, double windSpeed);
+    }
+
+    /**
+     * Appends readings, which must arrive in time order
+     */
+    static final class Encoder {
+        private final BitWriter out = new BitWriter();
+        private final XorState temperature = new XorState();
+        private final XorState humidity = new XorState();
+        private final XorState windSpeed = new XorState();
+        private int count;
+        private long previousSecond;
+        private long secondDelta;
+        private long previousId;
+        private long idDelta;
+
+        void add(long second, long id, double temperature, double humidity, double windSpeed) {
+            if (count == 0) {
+                out.write(second, 64);
+                out.write(id, 64);
+            } else {
+                long delta = second - previousSecond;
+                writeDeltaOfDelta(out, delta - secondDelta);
+                secondDelta = delta;
+                delta = id - previousId;
+                writeDeltaOfDelta(out, delta - idDelta);
+                idDelta = delta;
+            }
+            this.temperature.write(out, temperature);
+            this.humidity.write(out, humidity);
+            this.windSpeed.write(out, windSpeed);
+            previousSecond = second;
+            previousId = id;
+            count++;
+        }
+
+        int count() {
+            return count;
+        }
+
+        byte[] toBytes() {
+            return out.toBytes();
+        }
+    }
+
+    /**
+     * Decode count readings written by an {@link Encoder}
+     */
+    static void decode(byte[] payload, int count, ReadingConsumer consumer) {
+        Decoder decoder = new Decoder(words(ByteBuffer.wrap(payload)), count);
+        while (decoder.next()) {
+            consumer.accept(decoder.second(), decoder.id(), decoder.temperature(), decoder.humidity(),
+                    decoder.windSpeed());
+        }
+    }
+
+    /**
+     * The payload as the words a {@link Decoder} reads, with one spare word
+     * so a read never has to check for the end
+     */
+    static long[] words(ByteBuffer payload) {
+        int length = payload.remaining();
+        long[] words = new long[(length + Long.BYTES - 1) / Long.BYTES + 1];
+        payload.slice().asLongBuffer().get(words, 0, length / Long.BYTES);
+        // The payload ends within its last word, the missing bytes are zeros
+        for (int i = length / Long.BYTES * Long.BYTES; i < length; i++) {
+            words[i / Long.BYTES] |= (payload.get(payload.position() + i) & 0xFFL) << (56 - i % Long.BYTES * 8);
+        }
+        return words;
+    }
+
+    /**
+     * Decodes count readings written by an {@link Encoder} one at a time, so
+     * a segment is never held decoded
+     */
+    static final class Decoder {
+        private final BitReader in;
+        private final int count;
+        private final XorState temperatures = new XorState();
+        private final XorState humidities = new XorState();
+        private final XorState windSpeeds = new XorState();
+        private int decoded;
+        private long second;
+        private long secondDelta;
+        private long id;
+        private long idDelta;
+        private double temperature;
+        private double humidity;
+        private double windSpeed;
+
+        Decoder(long[] words, int count) {
+            this.in = new BitReader(words);
+            this.count = count;
+        }
+
+        /**
+         * Move to the next reading
+         *
+         * @return false once every reading was decoded
+         */
+        boolean next() {
+            if (decoded == count) {
+                return false;
+            }
+            if (decoded == 0) {
+                second = in.read(64);
+                id = in.read(64);
+            } else {
+                secondDelta += readDeltaOfDelta(in);
+                second += secondDelta;
+                idDelta += readDeltaOfDelta(in);
+                id += idDelta;
+            }
+            temperature = temperatures.read(in);
+            humidity = humidities.read(in);
+            windSpeed = windSpeeds.read(in);
+            decoded++;
+            return true;
+        }
+
+        long second() {
+            return second;
+        }
+
+        long id() {
+            return id;
+        }
+
+        double temperature() {
+            return temperature;
+        }
+
+        double humidity() {
+            return humidity;
+        }
+
+        double windSpeed() {
+            return windSpeed;
+        }
+    }
+
+    // A zero bit for no change, otherwise a prefix picks the smallest of
+    // 7, 9 and 12 bit ranges that holds the value, 64 bits beyond them
+    private static void writeDeltaOfDelta(BitWriter out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else if (value >= -63 && value <= 64) {
+            out.write(0b10, 2);
+            out.write(value + 63, 7);
+        } else if (value >= -255 && value <= 256) {
+            out.write(0b110, 3);
+            out.write(value + 255, 9);
+        } else if (value >= -2047 && value <= 2048) {
+            out.write(0b1110, 4);
+            out.write(value + 2047, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(value, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return in.read(7) - 63;
+        }
+        if (in.read(1) == 0) {
+            return in.read(9) - 255;
+        }
+        if (in.read(1) == 0) {
+            return in.read(12) - 2047;
+        }
+        return in.read(64);
+    }
+
+    /**
+     * Previous value of one metric and the zero counts of the XOR that set
+     * the current block of meaningful bits
+     */
+    private static final class XorState {
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+        private boolean first = true;
+
+        void write(BitWriter out, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.write(bits, 64);
+                first = false;
+                previous = bits;
+                return;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            out.write(1, 1);
+            // The leading zero count has to fit in 5 bits
+            int xorLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int xorTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && xorLeading >= leading && xorTrailing >= trailing) {
+                out.write(0, 1);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                int meaningful = 64 - xorLeading - xorTrailing;
+                out.write(1, 1);
+                out.write(xorLeading, 5);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> xorTrailing, meaningful);
+                leading = xorLeading;
+                trailing = xorTrailing;
+            }
+        }
+
+        double read(BitReader in) {
+            if (first) {
+                first = false;
+                previous = in.read(64);
+            } else if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    int meaningful = (int) in.read(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    /**
+     * Bits packed into longs from the most significant bit on
+     */
+    static final class BitWriter {
+        private long[] words = new long[16];
+        private long position;
+
+        /**
+         * Append the low bits of a value, 1 to 64 of them
+         */
+        void write(long value, int bits) {
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            int index = (int) (position >>> 6);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int free = 64 - (int) (position & 63);
+            if (bits <= free) {
+                words[index] |= value << (free - bits);
+            } else {
+                int rest = bits - free;
+                words[index] |= value >>> rest;
+                words[index + 1] |= value << (64 - rest);
+            }
+            position += bits;
+        }
+
+        byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate((int) ((position + 63) >>> 6) * Long.BYTES);
+            for (int i = 0; i < buffer.capacity() / Long.BYTES; i++) {
+                buffer.putLong(words[i]);
+            }
+            return Arrays.copyOf(buffer.array(), (int) ((position + 7) >>> 3));
+        }
+    }
+
+    static final class BitReader {
+        private final long[] words;
+        private long position;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        /**
+         * Read the next 1 to 64 bits as the low bits of a long
+         */
+        long read(int bits) {
+            int index = (int) (position >>> 6);
+            int free = 64 - (int) (position & 63);
+            long value;
+            if (bits <= free) {
+                value = words[index] >>> (free - bits);
+            } else {
+                int rest = bits - free;
+                value = (words[index] << rest) | (words[index + 1] >>> (64 - rest));
+            }
+            position += bits;
+            return bits < 64 ? value & ((1L << bits) - 1) : value;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.SensorReadingRow;
+import com.example.weathersensor.entity.SensorReading;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Readings of one sensor in time order, stored column by column in chunks of
+ * primitive arrays: epoch seconds, ids, and the metrics as the scaled
+ * integers the database stores, so sums are exact. Chunks start small and
+ * grow up to the chunk size. A reading arriving out of order is inserted in
+ * place and splits its chunk when that is full. Not thread safe
+ */
+class SensorColumns {
+
+    private static final int INITIAL_SLOTS = 16;
+
+    /**
+     * Array bytes per reading slot: second, id and three metrics
+     */
+    static final int BYTES_PER_SLOT = 2 * Long.BYTES + 3 * Integer.BYTES;
+
+    static final class Chunk {
+        private long[] seconds;
+        private long[] ids;
+        private int[] temperatures;
+        private int[] humidities;
+        private int[] windSpeeds;
+        private int size;
+
+        Chunk(int slots) {
+            seconds = new long[slots];
+            ids = new long[slots];
+            temperatures = new int[slots];
+            humidities = new int[slots];
+            windSpeeds = new int[slots];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return seconds.length;
+        }
+
+        long first() {
+            return seconds[0];
+        }
+
+        long last() {
+            return seconds[size - 1];
+        }
+
+        private void resize(int slots) {
+            seconds = Arrays.copyOf(seconds, slots);
+            ids = Arrays.copyOf(ids, slots);
+            temperatures = Arrays.copyOf(temperatures, slots);
+            humidities = Arrays.copyOf(humidities, slots);
+            windSpeeds = Arrays.copyOf(windSpeeds, slots);
+        }
+
+        // Move [from, size) to the start of an empty chunk
+        private void moveTail(int from, Chunk to) {
+            int count = size - from;
+            System.arraycopy(seconds, from, to.seconds, 0, count);
+            System.arraycopy(ids, from, to.ids, 0, count);
+            System.arraycopy(temperatures, from, to.temperatures, 0, count);
+            System.arraycopy(humidities, from, to.humidities, 0, count);
+            System.arraycopy(windSpeeds, from, to.windSpeeds, 0, count);
+            to.size = count;
+            size = from;
+        }
+
+        private void insert(int pos, long second, long id, int temperature, int humidity, int windSpeed) {
+            int tail = size - pos;
+            if (tail > 0) {
+                System.arraycopy(seconds, pos, seconds, pos + 1, tail);
+                System.arraycopy(ids, pos, ids, pos + 1, tail);
+                System.arraycopy(temperatures, pos, temperatures, pos + 1, tail);
+                System.arraycopy(humidities, pos, humidities, pos + 1, tail);
+                System.arraycopy(windSpeeds, pos, windSpeeds, pos + 1, tail);
+            }
+            seconds[pos] = second;
+            ids[pos] = id;
+            temperatures[pos] = temperature;
+            humidities[pos] = humidity;
+            windSpeeds[pos] = windSpeed;
+            size++;
+        }
+
+        // First position whose second is not below the given one
+        private int lowerBound(long second) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (seconds[mid] < second) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // First position whose second is above the given one
+        private int upperBound(long second) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (seconds[mid] <= second) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final String tag;
+    private final String timeZone;
+    private final int chunkSize;
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    SensorColumns(String tag, String timeZone, int chunkSize) {
+        this.tag = tag;
+        this.timeZone = timeZone;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Add the last second and size of every chunk to ends, oldest first
+     */
+    void chunkEnds(List<long[]> ends) {
+        for (Chunk chunk : chunks) {
+            ends.add(new long[] { chunk.last(), chunk.size() });
+        }
+    }
+
+    /**
+     * @return slots allocated for the reading, 0 when it fit in free space
+     */
+    int add(long second, long id, int temperature, int humidity, int windSpeed) {
+        int allocated = 0;
+        if (chunks.isEmpty()) {
+            Chunk chunk = new Chunk(Math.min(chunkSize, INITIAL_SLOTS));
+            chunks.add(chunk);
+            allocated += chunk.capacity();
+        }
+        // Readings nearly always arrive in order and go to the end
+        int index = chunks.size() - 1;
+        Chunk chunk = chunks.get(index);
+        int pos = chunk.size();
+        if (chunk.size() > 0 && second < chunk.last()) {
+            index = firstChunkEndingAfter(second);
+            chunk = chunks.get(index);
+            pos = chunk.upperBound(second);
+        }
+        if (chunk.size() == chunk.capacity()) {
+            if (chunk.capacity() < chunkSize) {
+                int slots = Math.min(chunkSize, chunk.capacity() * 2);
+                allocated += slots - chunk.capacity();
+                chunk.resize(slots);
+            } else {
+                Chunk next = new Chunk(chunkSize);
+                allocated += next.capacity();
+                chunks.add(index + 1, next);
+                if (pos == chunk.size()) {
+                    chunk = next;
+                    pos = 0;
+                } else {
+                    int half = chunk.size() / 2;
+                    chunk.moveTail(half, next);
+                    if (pos > half) {
+                        chunk = next;
+                        pos -= half;
+                    }
+                }
+            }
+        }
+        chunk.insert(pos, second, id, temperature, humidity, windSpeed);
+        return allocated;
+    }
+
+    /**
+     * Add the scaled metric sums and count of the readings in seconds
+     * [from, to] to sums, in the order temperature, humidity, wind speed, count
+     */
+    void sum(long from, long to, long[] sums) {
+        for (int c = firstChunkEndingAtOrAfter(from); c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            if (chunk.first() > to) {
+                break;
+            }
+            int start = chunk.lowerBound(from);
+            int end = chunk.upperBound(to);
+            long temperature = 0;
+            long humidity = 0;
+            long windSpeed = 0;
+            for (int i = start; i < end; i++) {
+                temperature += chunk.temperatures[i];
+                humidity += chunk.humidities[i];
+                windSpeed += chunk.windSpeeds[i];
+            }
+            sums[0] += temperature;
+            sums[1] += humidity;
+            sums[2] += windSpeed;
+            sums[3] += end - start;
+        }
+    }
+
+    /**
+     * Add the readings in seconds [from, to] to rows, in time order
+     */
+    void rows(long from, long to, List<SensorReadingRow> rows) {
+        for (int c = firstChunkEndingAtOrAfter(from); c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            if (chunk.first() > to) {
+                break;
+            }
+            int end = chunk.upperBound(to);
+            for (int i = chunk.lowerBound(from); i < end; i++) {
+                rows.add(new SensorReadingRow(chunk.ids[i], tag,
+                        (double) chunk.temperatures[i] / SensorReading.TEMPERATURE_SCALE,
+                        (double) chunk.humidities[i] / SensorReading.HUMIDITY_SCALE,
+                        (double) chunk.windSpeeds[i] / SensorReading.WIND_SPEED_SCALE,
+                        Instant.ofEpochSecond(chunk.seconds[i]), timeZone));
+            }
+        }
+    }
+
+    /**
+     * Drop the chunks whose readings are all before the given second
+     *
+     * @return the chunks dropped, oldest first
+     */
+    List<Chunk> evictEndingBefore(long second) {
+        List<Chunk> expired = chunks.subList(0, firstChunkEndingAtOrAfter(second));
+        List<Chunk> evicted = List.copyOf(expired);
+        expired.clear();
+        return evicted;
+    }
+
+    private int firstChunkEndingAfter(long second) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks.get(mid).last() <= second) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int firstChunkEndingAtOrAfter(long second) {
+        int low = 0;
+        int high = chunks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks.get(mid).last() < second) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -1,42 +1,181 @@
 package com.example.weathersensor.service;
 
+import com.example.weathersensor.config.IngestProperties;
+import com.example.weathersensor.config.QueryProperties;
+import com.example.weathersensor.config.StatisticsProperties;
 import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.BatchIngestResponse;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.dto.ReadingStatisticsDto;
+import com.example.weathersensor.dto.SensorReadingPage;
 import com.example.weathersensor.dto.SensorReadingRequest;
 import com.example.weathersensor.dto.SensorReadingResponse;
+import com.example.weathersensor.dto.SensorReadingRow;
+import com.example.weathersensor.dto.SensorResponseDto;
+import com.example.weathersensor.dto.SeriesBucketDto;
 import com.example.weathersensor.entity.Sensor;
 import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.exception.IngestBacklogFullException;
 import com.example.weathersensor.exception.SensorNotFoundException;
 import com.example.weathersensor.repository.SensorReadingRepository;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.time.*;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class SensorReadingService {
 
+    /**
+     * Output format of {@link #streamReadings}
+     */
+    public enum StreamFormat {
+        JSON_ARRAY, NDJSON
+    }
+
+    /**
+     * Sensor attribute {@link #getGroupedAverageMetrics} groups by
+     */
+    public enum GroupBy {
+        TAG("tag", SensorResponseDto::tag),
+        LOCATION("location", SensorResponseDto::location),
+        TIME_ZONE("timeZone", SensorResponseDto::timeZone);
+
+        private final String parameter;
+        private final Function<SensorResponseDto, String> key;
+
+        GroupBy(String parameter, Function<SensorResponseDto, String> key) {
+            this.parameter = parameter;
+            this.key = key;
+        }
+
+        /**
+         * @param parameter tag, location or timeZone
+         */
+        public static GroupBy fromParameter(String parameter) {
+            for (GroupBy groupBy : values()) {
+                if (groupBy.parameter.equals(parameter)) {
+                    return groupBy;
+                }
+            }
+            throw new IllegalArgumentException("groupBy must be one of tag, location or timeZone");
+        }
+    }
+
+    /**
+     * Bucket size of {@link #getSeries}
+     */
+    public enum SeriesInterval {
+        ONE_MINUTE("1m", 60),
+        FIVE_MINUTES("5m", 300),
+        ONE_HOUR("1h", 3_600);
+
+        private final String parameter;
+        private final long seconds;
+
+        SeriesInterval(String parameter, long seconds) {
+            this.parameter = parameter;
+            this.seconds = seconds;
+        }
+
+        /**
+         * @param parameter 1m, 5m or 1h
+         */
+        public static SeriesInterval fromParameter(String parameter) {
+            for (SeriesInterval interval : values()) {
+                if (interval.parameter.equals(parameter)) {
+                    return interval;
+                }
+            }
+            throw new IllegalArgumentException("interval must be one of 1m, 5m or 1h");
+        }
+    }
+
     private final SensorReadingRepository sensorReadingRepository;
     private final SensorService sensorService;
+    private final ReadingBatchWriter batchWriter;
+    private final IngestProperties ingestProperties;
+    private final ObjectReader requestReader;
+    private final ObjectWriter responseWriter;
+    private final IngestMetrics ingestMetrics;
+    private final QueryProperties queryProperties;
+    private final StatisticsProperties statisticsProperties;
+    private final ReadingRollupService rollupService;
+    private final RecentReadingWindow recentWindow;
+    private final HotReadingStore hotStore;
+    private final ColdSegmentStore coldStore;
+    private final ReadingRetentionService retentionService;
+    private final AverageQueryCache averageCache;
+    private final WriteBehindPipeline writeBehind;
+    private final ReadingWriteAheadLog writeAheadLog;
+    private final QueryMetrics queryMetrics;
 
     @Autowired
-    public SensorReadingService(SensorReadingRepository sensorReadingRepository, SensorService sensorService) {
+    public SensorReadingService(SensorReadingRepository sensorReadingRepository, SensorService sensorService,
+            ReadingBatchWriter batchWriter, IngestProperties ingestProperties, ObjectMapper objectMapper,
+            IngestMetrics ingestMetrics, QueryProperties queryProperties,
+            StatisticsProperties statisticsProperties, ReadingRollupService rollupService,
+            RecentReadingWindow recentWindow, HotReadingStore hotStore, ColdSegmentStore coldStore,
+            ReadingRetentionService retentionService, AverageQueryCache averageCache,
+            WriteBehindPipeline writeBehind, ReadingWriteAheadLog writeAheadLog, QueryMetrics queryMetrics) {
         this.sensorReadingRepository = sensorReadingRepository;
         this.sensorService = sensorService;
+        this.batchWriter = batchWriter;
+        this.ingestProperties = ingestProperties;
+        this.requestReader = objectMapper.readerFor(SensorReadingRequest.class);
+        this.responseWriter = objectMapper.writerFor(SensorReadingResponse.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.ingestMetrics = ingestMetrics;
+        this.queryProperties = queryProperties;
+        this.statisticsProperties = statisticsProperties;
+        this.rollupService = rollupService;
+        this.recentWindow = recentWindow;
+        this.hotStore = hotStore;
+        this.coldStore = coldStore;
+        this.retentionService = retentionService;
+        this.averageCache = averageCache;
+        this.writeBehind = writeBehind;
+        this.writeAheadLog = writeAheadLog;
+        this.queryMetrics = queryMetrics;
     }
 
     /**
      * Register a new sensor reading
      * Converts OffsetDateTime to UTC Instant for storage
      */
+    @Transactional
     public SensorReadingResponse registerReading(SensorReadingRequest request) {
         Optional<Sensor> sensorOpt = sensorService.getSensorByTag(request.sensorId());
 
         if (sensorOpt.isEmpty()) {
-            throw new SensorNotFoundException("Sensor not found with ID: " + request.sensorId(),
-                    SensorNotFoundException.MODE.READING);
+            ingestMetrics.unknownSensorRejected();
+            throw SensorNotFoundException.unknownReadingSensor(request.sensorId());
         }
 
         SensorReading reading = new SensorReading(
@@ -47,6 +186,11 @@ public SensorReadingResponse registerReading(SensorReadingRequest request) {
                 request.timestamp().truncatedTo(ChronoUnit.SECONDS));
 
         SensorReading saved = sensorReadingRepository.save(reading);
+        ingestMetrics.readingsStored(1);
+        rollupService.record(List.of(saved));
+        recentWindow.record(List.of(saved));
+        hotStore.record(List.of(saved));
+        averageCache.invalidate(List.of(saved));
         saved.getSensor().getTimeZone();
         // Convert to a specific time zone
         ZonedDateTime targetTime = saved.getTimestamp().atZone(ZoneId.of(saved.getSensor().getTimeZone()));
@@ -61,14 +205,148 @@ public SensorReadingResponse registerReading(SensorReadingRequest request) {
     }
 
     /**
-     * Get average metrics for all sensors in a date range
+     * @return true when single readings are stored in the background, see
+     *         {@link #acceptReading}
      */
-    public AverageMetricsDto getAverageMetrics(Instant startTime, Instant endTime) {
+    public boolean isWriteBehind() {
+        return writeAheadLog.enabled() || writeBehind.enabled();
+    }
+
+    /**
+     * Queue a reading to be stored in the background. The sensor is checked
+     * against the registry now, duplicates are only detected when the reading
+     * is written and are then dropped. With the write-ahead log enabled this
+     * returns once the reading is synced to the log, otherwise it is only
+     * buffered in memory
+     *
+     * @throws IngestBacklogFullException when the backlog is full
+     */
+    public void acceptReading(SensorReadingRequest request) {
+        if (sensorService.getSensorByTag(request.sensorId()).isEmpty()) {
+            ingestMetrics.unknownSensorRejected();
+            throw SensorNotFoundException.unknownReadingSensor(request.sensorId());
+        }
+        if (writeAheadLog.enabled()) {
+            writeAheadLog.append(request);
+        } else {
+            writeBehind.submit(request);
+        }
+    }
+
+    /**
+     * Register many readings at once. Readings are validated one by one so a bad
+     * entry only rejects itself, the valid ones are stored in JDBC batches of
+     * {@link IngestProperties#chunkSize()}
+     */
+    public BatchIngestResponse registerReadings(List<SensorReadingRequest> requests) {
+        if (requests.size() > ingestProperties.maxBatchSize()) {
+            throw new IllegalArgumentException("Batch of " + requests.size()
+                    + " readings exceeds the limit of " + ingestProperties.maxBatchSize());
+        }
+
+        IngestTally tally = new IngestTally(ingestProperties.maxReportedErrors());
+        int chunkSize = ingestProperties.chunkSize();
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            List<SensorReadingRequest> chunk = requests.subList(from, Math.min(from + chunkSize, requests.size()));
+            batchWriter.writeChunk(chunk, from, tally);
+        }
+        return tally.toResponse();
+    }
+
+    /**
+     * Register a JSON array of readings read from a stream. Readings are
+     * parsed one by one and the body is rejected as soon as it holds more
+     * than {@link IngestProperties#maxBatchSize()}, so an oversized upload is
+     * never read in full. Nothing is stored before the whole array is read
+     *
+     * @throws IllegalArgumentException when the body is malformed or too
+     *                                  large
+     */
+    public BatchIngestResponse registerReadingArray(InputStream json) throws IOException {
+        List<SensorReadingRequest> requests = new ArrayList<>();
+        try (JsonParser parser = requestReader.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Malformed JSON request: expected an array of readings");
+            }
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token == null) {
+                    throw new IllegalArgumentException("Malformed JSON request: the array is not closed");
+                }
+                if (requests.size() == ingestProperties.maxBatchSize()) {
+                    throw new IllegalArgumentException("Batch exceeds the limit of "
+                            + ingestProperties.maxBatchSize() + " readings");
+                }
+                requests.add(token == JsonToken.VALUE_NULL ? null : requestReader.readValue(parser));
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON request: " + e.getOriginalMessage());
+        }
+        return registerReadings(requests);
+    }
 
-        Optional<AverageMetricsDto> result = sensorReadingRepository.findAverageMetricsInDateRange(startTime,
-                endTime);
-        return result.orElseGet(() -> new AverageMetricsDto(null, null, null, 0L));
+    /**
+     * Register readings from a newline delimited JSON stream. Lines are parsed
+     * and stored chunk by chunk as they arrive, so memory use does not depend
+     * on the upload size. Rejections are reported by zero based line number,
+     * blank lines included. Only the first
+     * {@link IngestProperties#maxReportedErrors()} rejections are listed
+     */
+    public BatchIngestResponse registerReadings(InputStream ndjson) throws IOException {
+        IngestTally tally = new IngestTally(ingestProperties.maxReportedErrors());
+        NdjsonLineReader lines = new NdjsonLineReader(
+                new InputStreamReader(ndjson, StandardCharsets.UTF_8),
+                ingestProperties.maxLineLength());
+        int chunkSize = ingestProperties.chunkSize();
+        List<SensorReadingRequest> chunk = new ArrayList<>(chunkSize);
+        // Line of each chunk entry, blank lines leave gaps
+        long[] chunkLines = new long[chunkSize];
+        long line = -1;
+
+        while (lines.next()) {
+            line++;
+            if (lines.blank()) {
+                continue;
+            }
+            String error = null;
+            if (lines.truncated()) {
+                error = "Line exceeds " + ingestProperties.maxLineLength() + " characters";
+            } else {
+                try {
+                    SensorReadingRequest request = requestReader.readValue(lines.line());
+                    chunkLines[chunk.size()] = line;
+                    chunk.add(request);
+                } catch (JsonProcessingException e) {
+                    error = "Malformed JSON: " + e.getOriginalMessage();
+                }
+            }
 
+            if (error != null) {
+                ingestMetrics.invalidReadingRejected();
+                // Keep rejections in line order, write what is buffered first
+                if (!chunk.isEmpty()) {
+                    batchWriter.writeChunk(chunk, i -> chunkLines[i], tally);
+                    chunk.clear();
+                }
+                tally.rejected(line, null, error);
+            } else if (chunk.size() == chunkSize) {
+                batchWriter.writeChunk(chunk, i -> chunkLines[i], tally);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            batchWriter.writeChunk(chunk, i -> chunkLines[i], tally);
+        }
+        return tally.toResponse();
+    }
+
+    /**
+     * Get average metrics for all sensors in a date range. Recent ranges are
+     * answered from memory, the per-second window first and the hot store for
+     * the last days, older ones from the rollups with raw readings only at the
+     * edges of the range. Results are cached, see {@link AverageQueryCache}
+     */
+    public AverageMetricsDto getAverageMetrics(Instant startTime, Instant endTime) {
+        return averageCache.get(null, startTime, endTime, () -> computeAverages(startTime, endTime, null));
     }
 
     /**
@@ -77,29 +355,274 @@ public AverageMetricsDto getAverageMetrics(Instant startTime, Instant endTime) {
     public AverageMetricsDto getAverageMetricsBySensor(String sensorId,
             Instant startTime,
             Instant endTime) {
+        return averageCache.get(sensorId, startTime, endTime, () -> computeAverages(startTime, endTime, sensorId));
+    }
+
+    /**
+     * Averages of every sensor, location or time zone over a date range.
+     * Sensors are assigned to their group from the registry and the readings
+     * of all of them are summed by one set of queries grouped by sensor, see
+     * {@link ReadingRollupService#totalsBySensor}, instead of a query per
+     * group
+     *
+     * @param keys restrict to these groups, null or empty for every group.
+     *             Requested groups without readings get empty averages
+     * @return averages by group, ordered by key
+     */
+    public Map<String, AverageMetricsDto> getGroupedAverageMetrics(Instant startTime, Instant endTime,
+            GroupBy groupBy, List<String> keys) {
+        Set<String> requested = keys == null || keys.isEmpty() ? null : new HashSet<>(keys);
+        Map<String, MetricTotals> groups = new TreeMap<>();
+        if (requested != null) {
+            requested.forEach(key -> groups.put(key, MetricTotals.EMPTY));
+        }
+        Map<String, String> groupOfTag = new HashMap<>();
+        for (SensorResponseDto sensor : sensorService.getAllSensors()) {
+            String key = groupBy.key.apply(sensor);
+            if (requested == null || requested.contains(key)) {
+                groupOfTag.put(sensor.tag(), key);
+                groups.putIfAbsent(key, MetricTotals.EMPTY);
+            }
+        }
+        rollupService.totalsBySensor(startTime, endTime, requested == null ? null : groupOfTag.keySet())
+                .forEach((tag, totals) -> {
+                    String key = groupOfTag.get(tag);
+                    if (key != null) {
+                        groups.merge(key, totals, MetricTotals::plus);
+                    }
+                });
+        Map<String, AverageMetricsDto> averages = new LinkedHashMap<>();
+        groups.forEach((key, totals) -> averages.put(key, totals.toAverages()));
+        return averages;
+    }
 
-        Optional<AverageMetricsDto> result = sensorReadingRepository.findAverageMetricsFiltered(startTime, endTime,
-                null, sensorId, null);
+    private AverageMetricsDto computeAverages(Instant startTime, Instant endTime, String sensorId) {
+        long start = System.nanoTime();
+        Optional<AverageMetricsDto> recent = recentWindow.averages(startTime, endTime, sensorId);
+        if (recent.isPresent()) {
+            queryMetrics.recentWindowAnswered(System.nanoTime() - start);
+            return recent.get();
+        }
+        Optional<AverageMetricsDto> hot = hotStore.averages(startTime, endTime, sensorId);
+        if (hot.isPresent()) {
+            queryMetrics.hotStoreAnswered(System.nanoTime() - start);
+            return hot.get();
+        }
+        AverageMetricsDto averages = rollupService.averages(startTime, endTime, sensorId);
+        queryMetrics.rollupsAnswered(System.nanoTime() - start);
+        return averages;
+    }
+
+    /**
+     * Min, max, mean, standard deviation, quantiles and a histogram of each
+     * metric, merged from the quantile sketches of the hour and day rollups.
+     * The range is resolved to the hours starting in it. Unavailable when
+     * statistics are disabled, no sketches are kept then
+     *
+     * @param sensorId  restrict to one sensor, null for all sensors
+     * @param quantiles between 0 and 1, null or empty for the configured ones
+     */
+    public ReadingStatisticsDto getStatistics(Instant startTime, Instant endTime, String sensorId,
+            List<Double> quantiles) {
+        if (!statisticsProperties.enabled()) {
+            throw new IllegalArgumentException("Reading statistics are disabled, see weather.statistics.enabled");
+        }
+        if (quantiles == null || quantiles.isEmpty()) {
+            quantiles = statisticsProperties.quantiles();
+        } else if (quantiles.size() > statisticsProperties.maxQuantiles()) {
+            throw new IllegalArgumentException("At most " + statisticsProperties.maxQuantiles()
+                    + " quantiles can be requested");
+        } else if (quantiles.stream().anyMatch(q -> q == null || !(q >= 0 && q <= 1))) {
+            throw new IllegalArgumentException("quantiles must be between 0 and 1");
+        }
+        return rollupService.statistics(startTime, endTime, sensorId, quantiles,
+                statisticsProperties.histogramBins());
+    }
 
-        return result.orElseGet(() -> new AverageMetricsDto(null, null, null, 0L));
+    /**
+     * Averages per bucket of the interval over [startTime, endTime], the
+     * buckets at both ends are whole. Computed from the rollups, so at most
+     * the configured number of buckets can be asked for. 1m and 5m buckets
+     * only exist for the time still held as raw readings
+     *
+     * @param sensorId restrict to one sensor, null for all sensors
+     */
+    public List<SeriesBucketDto> getSeries(Instant startTime, Instant endTime, String sensorId,
+            SeriesInterval interval) {
+        if (endTime.isBefore(startTime)) {
+            throw new IllegalArgumentException("startTime must not be after endTime");
+        }
+        long firstBucket = Math.floorDiv(startTime.getEpochSecond(), interval.seconds);
+        long buckets = Math.floorDiv(endTime.getEpochSecond(), interval.seconds) - firstBucket + 1;
+        if (buckets > queryProperties.maxSeriesBuckets()) {
+            throw new IllegalArgumentException("At most " + queryProperties.maxSeriesBuckets() + " buckets of "
+                    + interval.parameter + " can be requested, the range spans " + buckets);
+        }
+        Instant heldSince = rollupService.seriesHeldSince(interval.seconds);
+        if (Instant.ofEpochSecond(firstBucket * interval.seconds).isBefore(heldSince)) {
+            throw new IllegalArgumentException(interval.parameter + " buckets are only kept since " + heldSince
+                    + ", use 1h buckets before that");
+        }
+        return rollupService.series(startTime, endTime, interval.seconds, sensorId);
     }
 
+    /**
+     * Readings in a date range, from the hot store when it still holds the
+     * whole range
+     */
     public List<SensorReadingResponse> getReadings(Instant startTime, Instant endTime) {
-        List<SensorReading> readings = sensorReadingRepository.findByTimestampBetween(startTime, endTime);
+        List<SensorReadingRow> readings = hotStore.readings(startTime, endTime)
+                .orElseGet(() -> storedReadings(startTime, endTime));
         return readings.stream()
-                .map(this::convertToResponse)
+                .map(SensorReadingService::convertToResponse)
                 .toList();
     }
 
-    private SensorReadingResponse convertToResponse(SensorReading reading) {
-        ZonedDateTime targetTime = reading.getTimestamp().truncatedTo(ChronoUnit.SECONDS)
-                .atZone(ZoneId.of(reading.getSensor().getTimeZone()));
+    // Archived time comes from the cold tier, the rest from the database
+    private List<SensorReadingRow> storedReadings(Instant startTime, Instant endTime) {
+        Optional<Instant> archivedBefore = archivedBefore(startTime);
+        if (archivedBefore.isEmpty()) {
+            return sensorReadingRepository.findRowsByTimestampBetween(startTime, endTime);
+        }
+        Instant split = archivedBefore.get();
+        List<SensorReadingRow> readings = coldStore.readings(startTime, archivedEnd(split, endTime))
+                .collect(Collectors.toCollection(ArrayList::new));
+        if (!endTime.isBefore(split)) {
+            readings.addAll(sensorReadingRepository.findRowsByTimestampBetween(split, endTime));
+        }
+        return readings;
+    }
+
+    // Start of the time held as raw readings when a range starting at
+    // startTime reaches into the cold tier
+    private Optional<Instant> archivedBefore(Instant startTime) {
+        return retentionService.archivedBefore().filter(startTime::isBefore);
+    }
+
+    // Exclusive end of the archived part of a range ending at endTime
+    private static Instant archivedEnd(Instant split, Instant endTime) {
+        return endTime.isBefore(split) ? endTime.plusNanos(1) : split;
+    }
+
+    // Cold tier reads of longer ranges merge a day of segments at a time
+    private static Instant windowEnd(Instant windowStart, Instant end) {
+        Instant dayLater = windowStart.plus(1, ChronoUnit.DAYS);
+        return dayLater.isBefore(end) ? dayLater : end;
+    }
+
+    /**
+     * One page of the readings in a date range, ordered by timestamp then id.
+     * Pages are located by seeking past the previous page's last key rather
+     * than by offset, so every page costs the same however deep the client
+     * is. Archived time is read from the cold tier a day at a time until the
+     * page is full
+     *
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param limit  page size, null for the configured default
+     */
+    public SensorReadingPage getReadingsPage(Instant startTime, Instant endTime, String cursor, Integer limit) {
+        int size = limit == null ? queryProperties.defaultPageSize() : limit;
+        if (size < 1 || size > queryProperties.maxPageSize()) {
+            throw new IllegalArgumentException("limit must be between 1 and " + queryProperties.maxPageSize());
+        }
+
+        // One extra row tells whether another page follows
+        ReadingCursor after = cursor == null ? null : ReadingCursor.decode(cursor);
+        Optional<Instant> archivedBefore = archivedBefore(startTime);
+        List<SensorReadingRow> rows = new ArrayList<>();
+        if (archivedBefore.isPresent()) {
+            rows.addAll(archivedPage(startTime, archivedEnd(archivedBefore.get(), endTime), after, size + 1));
+        }
+        Instant storedFrom = archivedBefore.orElse(startTime);
+        if (rows.size() <= size && !endTime.isBefore(storedFrom)) {
+            Limit remaining = Limit.of(size + 1 - rows.size());
+            rows.addAll(after == null
+                    ? sensorReadingRepository.findPage(storedFrom, endTime, remaining)
+                    : sensorReadingRepository.findPageAfter(storedFrom, endTime, after.timestamp(), after.id(),
+                            remaining));
+        }
+
+        String nextCursor = null;
+        if (rows.size() > size) {
+            rows = rows.subList(0, size);
+            SensorReadingRow last = rows.get(size - 1);
+            nextCursor = new ReadingCursor(last.timestamp(), last.id()).encode();
+        }
+        return new SensorReadingPage(rows.stream().map(SensorReadingService::convertToResponse).toList(),
+                nextCursor);
+    }
+
+    // Archived readings of [from, to) ordered after the cursor, at most limit
+    private List<SensorReadingRow> archivedPage(Instant from, Instant to, ReadingCursor after, int limit) {
+        List<SensorReadingRow> rows = new ArrayList<>();
+        Instant windowStart = after != null && after.timestamp().isAfter(from) ? after.timestamp() : from;
+        while (windowStart.isBefore(to) && rows.size() < limit) {
+            Instant windowEnd = windowEnd(windowStart, to);
+            coldStore.readings(windowStart, windowEnd)
+                    .filter(row -> after == null || row.timestamp().isAfter(after.timestamp())
+                            || row.timestamp().equals(after.timestamp()) && row.id() > after.id())
+                    .limit(limit - rows.size())
+                    .forEach(rows::add);
+            windowStart = windowEnd;
+        }
+        return rows;
+    }
+
+    /**
+     * Write every reading of a date range to the output as it is read from a
+     * database cursor. Rows are unmanaged projections, nothing accumulates in
+     * the persistence context, so heap use does not depend on the range size.
+     * Archived time is written first, decoded from the cold tier a day at a
+     * time
+     */
+    @Transactional(readOnly = true)
+    public void streamReadings(Instant startTime, Instant endTime, StreamFormat format, OutputStream out)
+            throws IOException {
+        Optional<Instant> archivedBefore = archivedBefore(startTime);
+        Instant storedFrom = archivedBefore.orElse(startTime);
+        try (SequenceWriter writer = format == StreamFormat.NDJSON
+                ? responseWriter.withRootValueSeparator("\n").writeValues(out)
+                : responseWriter.writeValuesAsArray(out)) {
+            boolean empty = true;
+            if (archivedBefore.isPresent()) {
+                Instant archivedEnd = archivedEnd(archivedBefore.get(), endTime);
+                for (Instant window = startTime; window.isBefore(archivedEnd);) {
+                    Instant windowEnd = windowEnd(window, archivedEnd);
+                    for (Iterator<SensorReadingRow> it = coldStore.readings(window, windowEnd).iterator();
+                            it.hasNext();) {
+                        writer.write(convertToResponse(it.next()));
+                        empty = false;
+                    }
+                    window = windowEnd;
+                }
+            }
+            if (!endTime.isBefore(storedFrom)) {
+                try (Stream<SensorReadingRow> readings = sensorReadingRepository
+                        .streamRowsByTimestampBetween(storedFrom, endTime)) {
+                    for (Iterator<SensorReadingRow> it = readings.iterator(); it.hasNext();) {
+                        writer.write(convertToResponse(it.next()));
+                        empty = false;
+                    }
+                }
+            }
+            writer.flush();
+            // NDJSON lines are newline terminated, the writer only separates them
+            if (format == StreamFormat.NDJSON && !empty) {
+                out.write('\n');
+            }
+        }
+    }
+
+    // Package-private for the mapping micro-benchmark
+    static SensorReadingResponse convertToResponse(SensorReadingRow reading) {
+        ZonedDateTime targetTime = reading.timestamp().truncatedTo(ChronoUnit.SECONDS)
+                .atZone(ZoneId.of(reading.timeZone()));
         return new SensorReadingResponse(
-                reading.getId(),
-                reading.getSensor().getTag(),
-                reading.getTemperature(),
-                reading.getHumidity(),
-                reading.getWindSpeed(),
+                reading.id(),
+                reading.sensorId(),
+                reading.temperature(),
+                reading.humidity(),
+                reading.windSpeed(),
                 targetTime);
     }
 }
\ No newline at end of file
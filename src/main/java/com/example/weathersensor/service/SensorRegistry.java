@@ -0,0 +1,103 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.entity.Sensor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Read mostly, in memory copy of the sensors table.
+ * Readers work on an immutable snapshot without locking, writers build a new
+ * snapshot and swap it in. The sensors table changes rarely, so rebuilding
+ * the indexes on every change is cheaper than synchronising every lookup.
+ * Stored sensors are detached copies and must be treated as read only
+ */
+@Component
+public class SensorRegistry {
+
+    private volatile Snapshot snapshot = Snapshot.of(List.of());
+
+    public Optional<Sensor> findByTag(String tag) {
+        return Optional.ofNullable(snapshot.byTag().get(tag));
+    }
+
+    public List<Sensor> findByLocation(String location) {
+        return snapshot.byLocation().getOrDefault(location, List.of());
+    }
+
+    public List<Sensor> findByTimeZone(String timeZone) {
+        return snapshot.byTimeZone().getOrDefault(timeZone, List.of());
+    }
+
+    /**
+     * @return all sensors ordered by id
+     */
+    public List<Sensor> findAll() {
+        return snapshot.all();
+    }
+
+    public int size() {
+        return snapshot.all().size();
+    }
+
+    /**
+     * Replace the whole content, used when loading from the database
+     */
+    public synchronized void replaceAll(Collection<Sensor> sensors) {
+        snapshot = Snapshot.of(sensors.stream().map(SensorRegistry::copyOf).toList());
+    }
+
+    /**
+     * Add a sensor or replace the one with the same tag
+     */
+    public void put(Sensor sensor) {
+        putAll(List.of(sensor));
+    }
+
+    /**
+     * Add sensors, replacing those with the same tags, in a single swap
+     */
+    public synchronized void putAll(Collection<Sensor> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        Map<String, Sensor> sensors = new HashMap<>(snapshot.byTag());
+        for (Sensor sensor : added) {
+            sensors.put(sensor.getTag(), copyOf(sensor));
+        }
+        snapshot = Snapshot.of(List.copyOf(sensors.values()));
+    }
+
+    private static Sensor copyOf(Sensor sensor) {
+        Sensor copy = new Sensor(sensor.getTag(), sensor.getLocation(), sensor.getTimeZone());
+        copy.setId(sensor.getId());
+        return copy;
+    }
+
+    private record Snapshot(
+            List<Sensor> all,
+            Map<String, Sensor> byTag,
+            Map<String, List<Sensor>> byLocation,
+            Map<String, List<Sensor>> byTimeZone) {
+
+        static Snapshot of(List<Sensor> sensors) {
+            List<Sensor> all = sensors.stream()
+                    .sorted(Comparator.comparing(Sensor::getId, Comparator.nullsLast(Comparator.naturalOrder())))
+                    .toList();
+            return new Snapshot(
+                    all,
+                    all.stream().collect(Collectors.toUnmodifiableMap(Sensor::getTag, s -> s)),
+                    index(all, Sensor::getLocation),
+                    index(all, Sensor::getTimeZone));
+        }
+
+        private static Map<String, List<Sensor>> index(List<Sensor> sensors, Function<Sensor, String> key) {
+            return sensors.stream()
+                    .collect(Collectors.collectingAndThen(
+                            Collectors.groupingBy(key, Collectors.toUnmodifiableList()),
+                            Map::copyOf));
+        }
+    }
+}
@@ -6,8 +6,15 @@
 import com.example.weathersensor.exception.SensorAlreadyExistsException;
 import com.example.weathersensor.repository.SensorRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -16,6 +23,12 @@ public class SensorService {
     @Autowired
     private SensorRepository sensorRepository;
 
+    @Autowired
+    private SensorRegistry sensorRegistry;
+
+    @Autowired
+    private UnknownSensorCache unknownSensorCache;
+
     public SensorResponseDto registerSensor(SensorRegistrationRequest dto) {
 
         if (sensorRepository.existsByTag(dto.tag())) {
@@ -24,21 +37,28 @@ public SensorResponseDto registerSensor(SensorRegistrationRequest dto) {
 
         Sensor sensor = new Sensor(dto.tag(), dto.location(), dto.timeZone());
         Sensor savedSensor = sensorRepository.save(sensor);
+        sensorRegistry.put(savedSensor);
+        unknownSensorCache.remove(savedSensor.getTag());
 
-        return new SensorResponseDto(
-                savedSensor.getId(),
-                savedSensor.getTag(),
-                savedSensor.getLocation(),
-                savedSensor.getTimeZone());
+        return toDto(savedSensor);
+    }
+
+    /**
+     * Load the sensor registry from the database. Runs at startup and
+     * periodically to pick up sensors registered by other instances or written
+     * to the table directly
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${weather.sensor-registry.refresh-interval:PT5M}",
+            initialDelayString = "${weather.sensor-registry.refresh-interval:PT5M}")
+    public void reloadRegistry() {
+        sensorRegistry.replaceAll(sensorRepository.findAll());
+        unknownSensorCache.clear();
     }
 
     public List<SensorResponseDto> getAllSensors() {
-        return sensorRepository.findAll().stream()
-                .map(sensor -> new SensorResponseDto(
-                        sensor.getId(),
-                        sensor.getTag(),
-                        sensor.getLocation(),
-                        sensor.getTimeZone()))
+        return sensorRegistry.findAll().stream()
+                .map(SensorService::toDto)
                 .toList();
     }
 
@@ -46,17 +66,61 @@ public Optional<Sensor> getSensorById(Long id) {
         return sensorRepository.findById(id);
     }
 
+    /**
+     * Served from the registry, the database is only asked for tags the
+     * registry does not know yet and that were not recently found missing
+     */
     public Optional<Sensor> getSensorByTag(String tag) {
-        return sensorRepository.findByTag(tag);
+        Optional<Sensor> cached = sensorRegistry.findByTag(tag);
+        if (cached.isPresent() || unknownSensorCache.contains(tag)) {
+            return cached;
+        }
+        Optional<Sensor> sensor = sensorRepository.findByTag(tag);
+        sensor.ifPresentOrElse(sensorRegistry::put, () -> unknownSensorCache.add(tag));
+        return sensor;
+    }
+
+    /**
+     * Resolve many sensors at once, unknown tags are simply absent from the
+     * returned map. Tags missing from the registry are fetched with one query
+     */
+    public Map<String, Sensor> getSensorsByTags(Collection<String> tags) {
+        Map<String, Sensor> sensors = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String tag : tags) {
+            Optional<Sensor> cached = sensorRegistry.findByTag(tag);
+            if (cached.isPresent()) {
+                sensors.put(tag, cached.get());
+            } else if (!unknownSensorCache.contains(tag)) {
+                missing.add(tag);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Sensor> found = sensorRepository.findByTagIn(missing);
+            sensorRegistry.putAll(found);
+            found.forEach(sensor -> sensors.put(sensor.getTag(), sensor));
+            missing.stream().filter(tag -> !sensors.containsKey(tag)).forEach(unknownSensorCache::add);
+        }
+        return sensors;
     }
 
     public List<SensorResponseDto> getSensorsByLocation(String location) {
-        return sensorRepository.findByLocation(location).stream()
-                .map(sensor -> new SensorResponseDto(
-                        sensor.getId(),
-                        sensor.getTag(),
-                        sensor.getLocation(),
-                        sensor.getTimeZone()))
+        return sensorRegistry.findByLocation(location).stream()
+                .map(SensorService::toDto)
                 .toList();
     }
-}
\ No newline at end of file
+
+    public List<SensorResponseDto> getSensorsByTimeZone(String timeZone) {
+        return sensorRegistry.findByTimeZone(timeZone).stream()
+                .map(SensorService::toDto)
+                .toList();
+    }
+
+    private static SensorResponseDto toDto(Sensor sensor) {
+        return new SensorResponseDto(
+                sensor.getId(),
+                sensor.getTag(),
+                sensor.getLocation(),
+                sensor.getTimeZone());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.SensorRegistryProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded negative cache of sensor tags the database did not know.
+ * Devices sending readings for unregistered tags are rejected from here
+ * instead of costing a findByTag query each. Entries expire so a sensor
+ * registered on another instance is picked up after the TTL
+ */
+@Component
+public class UnknownSensorCache {
+
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttlNanos;
+
+    @Autowired
+    public UnknownSensorCache(SensorRegistryProperties properties) {
+        this.maxSize = properties.negativeCacheSize();
+        this.ttlNanos = properties.negativeCacheTtl().toNanos();
+    }
+
+    /**
+     * @return true when the tag was recently confirmed to be unknown
+     */
+    public boolean contains(String tag) {
+        Long expiresAt = expiries.get(tag);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiresAt < 0) {
+            return true;
+        }
+        expiries.remove(tag, expiresAt);
+        return false;
+    }
+
+    public void add(String tag) {
+        if (expiries.size() >= maxSize) {
+            evict();
+        }
+        expiries.put(tag, System.nanoTime() + ttlNanos);
+    }
+
+    public void remove(String tag) {
+        expiries.remove(tag);
+    }
+
+    public void clear() {
+        expiries.clear();
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    // Drop expired entries first, then arbitrary ones down to three quarters
+    // of the capacity so eviction does not run on every insert
+    private void evict() {
+        long now = System.nanoTime();
+        expiries.entrySet().removeIf(e -> now - e.getValue() >= 0);
+        int target = maxSize * 3 / 4;
+        Iterator<String> tags = expiries.keySet().iterator();
+        while (expiries.size() > target && tags.hasNext()) {
+            tags.next();
+            tags.remove();
+        }
+    }
+}
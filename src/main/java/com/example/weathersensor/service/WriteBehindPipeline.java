@@ -0,0 +1,234 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.IngestProperties;
+import com.example.weathersensor.config.WriteBehindProperties;
+import com.example.weathersensor.dto.BatchIngestResponse;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.exception.IngestBacklogFullException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for single readings. Readings are routed by sensor tag
+ * to one of several shards, each a lock-free ring buffer drained by its own
+ * writer thread in chunks of {@link IngestProperties#chunkSize()}. A sensor
+ * always maps to the same shard and every shard has a single writer, so the
+ * readings of a sensor are stored in the order they were accepted. A full
+ * buffer rejects instead of blocking the request thread. Stopping waits for
+ * the buffers to drain, after the web server stopped taking requests. A
+ * chunk that keeps failing is stored in halves, a single reading that still
+ * fails is logged in full to the {@code weather.write-behind.dead-letter}
+ * logger and dropped
+ */
+@Component
+public class WriteBehindPipeline implements SmartLifecycle, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindPipeline.class);
+    // Deployments can route it to its own appender to keep dropped readings
+    private static final Logger deadLetters = LoggerFactory.getLogger("weather.write-behind.dead-letter");
+
+    // Parked writers are woken by producers, the timeout only guards against
+    // a missed wake up
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 1_000;
+
+    private final WriteBehindProperties properties;
+    private final ReadingBatchWriter batchWriter;
+    private final IngestMetrics ingestMetrics;
+    private final int chunkSize;
+    private final int maxReportedErrors;
+    private final Shard[] shards;
+
+    private volatile boolean accepting;
+    private volatile boolean running;
+
+    @Autowired
+    public WriteBehindPipeline(WriteBehindProperties properties, IngestProperties ingestProperties,
+            ReadingBatchWriter batchWriter, IngestMetrics ingestMetrics) {
+        this.properties = properties;
+        this.batchWriter = batchWriter;
+        this.ingestMetrics = ingestMetrics;
+        this.chunkSize = ingestProperties.chunkSize();
+        this.maxReportedErrors = ingestProperties.maxReportedErrors();
+        this.shards = new Shard[properties.enabled() ? properties.shards() : 0];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, properties.bufferSize());
+        }
+    }
+
+    public boolean enabled() {
+        return properties.enabled();
+    }
+
+    /**
+     * Queue a validated reading for storage
+     *
+     * @throws IngestBacklogFullException when the sensor's shard is full or
+     *                                    the pipeline is shutting down
+     */
+    public void submit(SensorReadingRequest request) {
+        if (!accepting) {
+            ingestMetrics.backlogRejected();
+            throw new IngestBacklogFullException("Reading ingest is not accepting readings right now");
+        }
+        Shard shard = shards[Math.floorMod(request.sensorId().hashCode(), shards.length)];
+        if (!shard.buffer.offer(request)) {
+            ingestMetrics.backlogRejected();
+            throw new IngestBacklogFullException("Reading ingest backlog is full, retry later");
+        }
+        if (shard.idle) {
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    /**
+     * @return readings accepted but not stored yet, over all shards
+     */
+    public int queueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.buffer.size();
+        }
+        return depth;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.ingest.write_behind.queue.depth", this, WriteBehindPipeline::queueDepth)
+                .description("Readings accepted but not stored yet")
+                .baseUnit("readings")
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        accepting = properties.enabled();
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        accepting = false;
+        running = false;
+        long deadline = System.nanoTime() + properties.shutdownTimeout().toNanos();
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                shard.thread.join(Math.max(1, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int left = queueDepth();
+        if (left > 0) {
+            log.warn("Write-behind shutdown timed out with {} readings not stored", left);
+            ingestMetrics.writeBehindDropped(left);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Stop after the web server, which stops in earlier phases, so no request
+    // can queue a reading once the buffers are drained
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private final class Shard implements Runnable {
+
+        final MpscRingBuffer<SensorReadingRequest> buffer;
+        final Thread thread;
+        volatile boolean idle;
+
+        Shard(int index, int bufferSize) {
+            this.buffer = new MpscRingBuffer<>(bufferSize);
+            this.thread = new Thread(this, "reading-writer-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<SensorReadingRequest> chunk = new ArrayList<>(chunkSize);
+            while (running || !buffer.isEmpty()) {
+                if (buffer.drainTo(chunk, chunkSize) == 0) {
+                    idle = true;
+                    if (running && buffer.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    idle = false;
+                    continue;
+                }
+                flushOrSplit(chunk);
+                chunk.clear();
+            }
+        }
+
+        // Like the write-ahead log, one bad reading only costs the attempts of
+        // the chunks holding it
+        private void flushOrSplit(List<SensorReadingRequest> chunk) {
+            RuntimeException failure = flush(chunk);
+            if (failure == null) {
+                return;
+            }
+            if (chunk.size() == 1) {
+                SensorReadingRequest reading = chunk.get(0);
+                ingestMetrics.writeBehindDropped(1);
+                deadLetters.error("{}", reading);
+                log.error("Write-behind dropped the reading of {} at {} after {} attempts", reading.sensorId(),
+                        reading.timestamp(), properties.maxAttempts(), failure);
+                return;
+            }
+            int half = chunk.size() / 2;
+            flushOrSplit(chunk.subList(0, half));
+            flushOrSplit(chunk.subList(half, chunk.size()));
+        }
+
+        // Null once written, else the last failure
+        private RuntimeException flush(List<SensorReadingRequest> chunk) {
+            long start = System.nanoTime();
+            for (int attempt = 1;; attempt++) {
+                try {
+                    IngestTally tally = new IngestTally(maxReportedErrors);
+                    batchWriter.writeChunk(chunk, 0, tally);
+                    BatchIngestResponse result = tally.toResponse();
+                    ingestMetrics.writeBehindFlushed((int) result.accepted(), System.nanoTime() - start);
+                    if (result.rejected() > 0) {
+                        ingestMetrics.writeBehindDropped(result.rejected());
+                        log.warn("Write-behind rejected {} readings: {}", result.rejected(), result.rejections());
+                    }
+                    return null;
+                } catch (RuntimeException e) {
+                    if (attempt >= properties.maxAttempts()) {
+                        return e;
+                    }
+                    log.warn("Write-behind flush of {} readings failed, attempt {} of {}", chunk.size(), attempt,
+                            properties.maxAttempts(), e);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(
+                            Math.min(MAX_RETRY_BACKOFF_MILLIS, 50L << attempt)));
+                }
+            }
+        }
+    }
+}
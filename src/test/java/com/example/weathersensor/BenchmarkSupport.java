@@ -0,0 +1,61 @@
+package com.example.weathersensor;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Base of the benchmarks, which load large data sets and are excluded from
+ * the default build. Subclasses time their queries with {@link #medianNanos}
+ * or collect latencies for {@link #p99} and report through {@link #report},
+ * which logs under the benchmark's own class. Run with
+ * {@code mvn test -Pbenchmark}
+ */
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public abstract class BenchmarkSupport {
+
+    private static final int WARM_UP_RUNS = 3;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * One timed run, numbered so queries can shift their ranges and never
+     * be answered from a result cache
+     */
+    @FunctionalInterface
+    protected interface Run {
+        void run(int run) throws Exception;
+    }
+
+    /**
+     * Median time of {@code runs} runs numbered from 0, after a few warm-up
+     * runs numbered from {@code runs} on
+     */
+    protected static long medianNanos(int runs, Run query) throws Exception {
+        for (int run = 0; run < WARM_UP_RUNS; run++) {
+            query.run(runs + run);
+        }
+        long[] samples = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            long begin = System.nanoTime();
+            query.run(run);
+            samples[run] = System.nanoTime() - begin;
+        }
+        Arrays.sort(samples);
+        return samples[runs / 2];
+    }
+
+    protected static long p99(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (sorted.length * 0.99)];
+    }
+
+    protected void report(String format, Object... args) {
+        log.info(String.format(format, args));
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.SensorReadingPage;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.dto.SensorReadingResponse;
+import com.example.weathersensor.dto.SensorReadingRow;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.RetentionWatermarkRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.ColdSegmentStore;
+import com.example.weathersensor.service.ReadingRetentionService;
+import com.example.weathersensor.service.SensorReadingService;
+import com.example.weathersensor.service.SensorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+                "weather.cold-tier.enabled=true", "weather.cold-tier.directory=target/cold-tier-test" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+public class ColdTierIntegrationTest {
+
+        private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+        private static final Instant CUTOFF = Instant.parse("2024-03-02T12:30:00Z");
+
+        @Autowired
+        private SensorReadingService sensorReadingService;
+        @Autowired
+        private ReadingRetentionService retentionService;
+        @MockitoSpyBean
+        private ColdSegmentStore coldStore;
+        @Autowired
+        private SensorReadingRepository repository;
+        @Autowired
+        private ReadingRollupRepository rollupRepository;
+        @Autowired
+        private RetentionWatermarkRepository watermarkRepository;
+        @Autowired
+        private SensorRepository sensorRepository;
+        @Autowired
+        private SensorService sensorService;
+
+        @BeforeEach
+        public void setup() {
+                reset(coldStore);
+                coldStore.clear();
+                repository.deleteAll();
+                rollupRepository.deleteAll();
+                watermarkRepository.deleteAll();
+                sensorRepository.deleteAll();
+                sensorRepository.saveAll(List.of(
+                                new Sensor("SENSOR_001", "Berlin", "Europe/Berlin"),
+                                new Sensor("SENSOR_002", "Delhi", "Asia/Kolkata")));
+                sensorService.reloadRegistry();
+
+                // Three days of readings every 10 minutes
+                List<SensorReadingRequest> requests = new ArrayList<>();
+                for (int i = 0; i < 3 * 24 * 6; i++) {
+                        Instant timestamp = START.plus(i * 10L, ChronoUnit.MINUTES);
+                        requests.add(new SensorReadingRequest("SENSOR_001", 10.0 + i % 37 * 0.25, 40.0 + i % 11,
+                                        i % 13 * 0.5, timestamp));
+                        requests.add(new SensorReadingRequest("SENSOR_002", 25.0 - i % 29 * 0.5, 70.0 - i % 7,
+                                        i % 5 * 1.25, timestamp.plusSeconds(30)));
+                }
+                sensorReadingService.registerReadings(requests);
+        }
+
+        @Test
+        public void testCompactedReadingsAreSealedIntoSegments() {
+                long before = repository.count();
+
+                long deleted = retentionService.compactBefore(CUTOFF);
+
+                // Two sensors, each with readings in two daily slices
+                assertThat(coldStore.segments()).isEqualTo(4);
+                assertThat(coldStore.readings()).isEqualTo(deleted).isEqualTo(before - repository.count());
+                assertThat(coldStore.footprintBytes()).isLessThan(deleted * 8);
+        }
+
+        @Test
+        public void testReadingsAcrossTheWatermarkAreUnchanged() {
+                Instant from = Instant.parse("2024-03-01T22:05:00Z");
+                Instant to = Instant.parse("2024-03-02T14:00:30Z");
+                List<SensorReadingResponse> expected = sensorReadingService.getReadings(from, to);
+                List<SensorReadingResponse> archivedOnly = sensorReadingService.getReadings(from,
+                                Instant.parse("2024-03-02T03:00:00Z"));
+
+                retentionService.compactBefore(CUTOFF);
+
+                assertThat(sensorReadingService.getReadings(from, to))
+                                .containsExactlyInAnyOrderElementsOf(expected);
+                assertThat(sensorReadingService.getReadings(from, Instant.parse("2024-03-02T03:00:00Z")))
+                                .containsExactlyElementsOf(archivedOnly);
+        }
+
+        @Test
+        public void testAveragesOfPartialHoursAreExact() {
+                Instant from = Instant.parse("2024-03-01T05:20:00Z");
+                Instant to = Instant.parse("2024-03-03T07:45:15Z");
+                AverageMetricsDto all = raw(from, to, null);
+                AverageMetricsDto tagged = raw(from, to, "SENSOR_002");
+                Instant archivedEnd = Instant.parse("2024-03-01T09:35:00Z");
+                AverageMetricsDto archived = raw(from, archivedEnd, "SENSOR_001");
+
+                retentionService.compactBefore(CUTOFF);
+
+                assertClose(sensorReadingService.getAverageMetrics(from, to), all);
+                assertClose(sensorReadingService.getAverageMetricsBySensor("SENSOR_002", from, to), tagged);
+                assertClose(sensorReadingService.getAverageMetricsBySensor("SENSOR_001", from, archivedEnd),
+                                archived);
+                Map<String, AverageMetricsDto> byLocation = sensorReadingService.getGroupedAverageMetrics(from, to,
+                                SensorReadingService.GroupBy.LOCATION, null);
+                assertThat(byLocation).containsOnlyKeys("Berlin", "Delhi");
+                assertClose(byLocation.get("Delhi"), tagged);
+                assertClose(sensorReadingService.getGroupedAverageMetrics(from, archivedEnd,
+                                SensorReadingService.GroupBy.TAG, List.of("SENSOR_001")).get("SENSOR_001"), archived);
+        }
+
+        @Test
+        public void testLateReadingsAreSealedByTheNextCompaction() {
+                retentionService.compactBefore(CUTOFF);
+                Instant late = Instant.parse("2024-03-01T03:00:05Z");
+                // Maps the segment the next compaction replaces
+                assertThat(sensorReadingService.getReadings(late, late)).isEmpty();
+                sensorReadingService.registerReading(new SensorReadingRequest("SENSOR_001", 99.5, 10.0, 1.0, late));
+
+                retentionService.compactBefore(CUTOFF);
+
+                assertThat(coldStore.segments()).isEqualTo(5);
+                assertThat(sensorReadingService.getReadings(late, late))
+                                .extracting(SensorReadingResponse::temperature)
+                                .containsExactly(99.5);
+        }
+
+        @Test
+        public void testSubSecondTimestampsReadBackTheSameOnceSealed() {
+                Instant late = Instant.parse("2024-03-01T03:00:05Z");
+                sensorReadingService.registerReading(
+                                new SensorReadingRequest("SENSOR_001", 99.5, 10.0, 1.0, late.plusMillis(750)));
+                sensorReadingService.registerReadings(List.of(
+                                new SensorReadingRequest("SENSOR_002", 98.5, 10.0, 1.0, late.plusNanos(1))));
+                List<SensorReadingResponse> stored = sensorReadingService.getReadings(late, late);
+
+                retentionService.compactBefore(CUTOFF);
+
+                assertThat(stored).extracting(reading -> reading.timestamp().toInstant()).containsOnly(late);
+                assertThat(sensorReadingService.getReadings(late, late)).hasSize(2)
+                                .containsExactlyInAnyOrderElementsOf(stored);
+        }
+
+        @Test
+        public void testPagesAndStreamsAcrossTheWatermarkAreUnchanged() throws IOException {
+                Instant from = Instant.parse("2024-03-01T22:05:00Z");
+                Instant to = Instant.parse("2024-03-02T14:00:30Z");
+                List<SensorReadingResponse> expected = pages(from, to);
+                String ndjson = stream(from, to, SensorReadingService.StreamFormat.NDJSON);
+                String archivedOnly = stream(from, Instant.parse("2024-03-02T03:00:00Z"),
+                                SensorReadingService.StreamFormat.JSON_ARRAY);
+
+                retentionService.compactBefore(CUTOFF);
+
+                assertThat(pages(from, to)).hasSize(2 * 96).containsExactlyElementsOf(expected);
+                assertThat(stream(from, to, SensorReadingService.StreamFormat.NDJSON)).isEqualTo(ndjson);
+                assertThat(stream(from, Instant.parse("2024-03-02T03:00:00Z"),
+                                SensorReadingService.StreamFormat.JSON_ARRAY)).isEqualTo(archivedOnly);
+        }
+
+        @Test
+        public void testReadingsStoredWhileSealingAreNotDeleted() {
+                // A reading arrives for the first slice right after it is
+                // sealed, stored by another thread as sealing runs in a
+                // transaction of its own
+                Instant late = Instant.parse("2024-03-01T03:00:05Z");
+                doAnswer(invocation -> {
+                        Object segments = invocation.callRealMethod();
+                        if (invocation.getArgument(0, Instant.class).equals(START)) {
+                                CompletableFuture.runAsync(() -> sensorReadingService.registerReading(
+                                                new SensorReadingRequest("SENSOR_001", 99.5, 10.0, 1.0, late)))
+                                                .join();
+                        }
+                        return segments;
+                }).when(coldStore).seal(any(Instant.class), any(Instant.class), any());
+
+                long deleted = retentionService.compactBefore(CUTOFF);
+
+                assertThat(deleted).isEqualTo(coldStore.readings()).isEqualTo(2 * 36 * 6);
+                reset(coldStore);
+                assertThat(retentionService.compactBefore(CUTOFF)).isEqualTo(1);
+                assertThat(sensorReadingService.getReadings(late, late))
+                                .extracting(SensorReadingResponse::temperature)
+                                .containsExactly(99.5);
+        }
+
+        @Test
+        public void testReadingsAreHandedOutOnlyOnceTheirSegmentIsWritten() throws IOException {
+                // A file where SENSOR_002's directory belongs fails its segment
+                Path blocked = Path.of("target/cold-tier-test/SENSOR_002");
+                FileSystemUtils.deleteRecursively(blocked);
+                Files.createDirectories(blocked.getParent());
+                Files.createFile(blocked);
+                List<Long> sealed = new ArrayList<>();
+                try {
+                        assertThatThrownBy(() -> coldStore.seal(START, START.plus(1, ChronoUnit.DAYS), sealed::add))
+                                        .isInstanceOf(UncheckedIOException.class);
+                } finally {
+                        Files.delete(blocked);
+                }
+
+                assertThat(coldStore.segments()).isEqualTo(1);
+                assertThat(sealed).hasSize(24 * 6)
+                                .containsExactlyInAnyOrderElementsOf(repository
+                                                .findRowsByTimestampBetween(START, START.plusSeconds(86_399)).stream()
+                                                .filter(row -> row.sensorId().equals("SENSOR_001"))
+                                                .map(SensorReadingRow::id)
+                                                .toList());
+        }
+
+        // Every page of seven readings, so pages straddle the watermark
+        private List<SensorReadingResponse> pages(Instant from, Instant to) {
+                List<SensorReadingResponse> readings = new ArrayList<>();
+                String cursor = null;
+                do {
+                        SensorReadingPage page = sensorReadingService.getReadingsPage(from, to, cursor, 7);
+                        readings.addAll(page.readings());
+                        cursor = page.nextCursor();
+                } while (cursor != null);
+                return readings;
+        }
+
+        private String stream(Instant from, Instant to, SensorReadingService.StreamFormat format)
+                        throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                sensorReadingService.streamReadings(from, to, format, out);
+                return out.toString();
+        }
+
+        private AverageMetricsDto raw(Instant from, Instant to, String tag) {
+                return repository.findAverageMetricsFiltered(from, to, null, tag, null).orElseThrow();
+        }
+
+        private static void assertClose(AverageMetricsDto actual, AverageMetricsDto expected) {
+                assertThat(actual.readings()).isEqualTo(expected.readings());
+                assertThat(actual.averageTemperature()).isCloseTo(expected.averageTemperature(), within(1e-9));
+                assertThat(actual.averageHumidity()).isCloseTo(expected.averageHumidity(), within(1e-9));
+                assertThat(actual.averageWindSpeed()).isCloseTo(expected.averageWindSpeed(), within(1e-9));
+        }
+}
@@ -0,0 +1,18 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = WeatherSensorApiApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = { "spring.threads.virtual.enabled=false", "spring.jpa.show-sql=false" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class PlatformThreadsBenchmarkTest extends ThreadModelBenchmark {
+
+        @Override
+        protected boolean virtualThreads() {
+                return false;
+        }
+}
@@ -0,0 +1,191 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.dto.SeriesBucketDto;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.RetentionWatermarkRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.ReadingRetentionService;
+import com.example.weathersensor.service.SensorReadingService;
+import com.example.weathersensor.service.SensorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+// A small chunk size makes every delete take several rounds
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = "weather.retention.chunk-size=7")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+public class ReadingRetentionIntegrationTest {
+
+        private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+        private static final Instant CUTOFF = Instant.parse("2024-03-02T12:30:00Z");
+        private static final Instant WATERMARK = Instant.parse("2024-03-02T12:00:00Z");
+
+        @Autowired
+        private SensorReadingService sensorReadingService;
+        @Autowired
+        private ReadingRetentionService retentionService;
+        @Autowired
+        private SensorReadingRepository repository;
+        @Autowired
+        private ReadingRollupRepository rollupRepository;
+        @Autowired
+        private RetentionWatermarkRepository watermarkRepository;
+        @Autowired
+        private SensorRepository sensorRepository;
+        @Autowired
+        private SensorService sensorService;
+        @Autowired
+        private JdbcTemplate jdbcTemplate;
+
+        @BeforeEach
+        public void setup() {
+                repository.deleteAll();
+                rollupRepository.deleteAll();
+                watermarkRepository.deleteAll();
+                sensorRepository.deleteAll();
+                sensorRepository.saveAll(List.of(
+                                new Sensor("SENSOR_001", "Berlin", "Europe/Berlin"),
+                                new Sensor("SENSOR_002", "Delhi", "Asia/Kolkata")));
+                sensorService.reloadRegistry();
+
+                // Three days of readings every 10 minutes
+                List<SensorReadingRequest> requests = new ArrayList<>();
+                for (int i = 0; i < 3 * 24 * 6; i++) {
+                        Instant timestamp = START.plus(i * 10L, ChronoUnit.MINUTES);
+                        requests.add(new SensorReadingRequest("SENSOR_001", 10.0 + i % 37 * 0.25, 40.0 + i % 11,
+                                        i % 13 * 0.5, timestamp));
+                        requests.add(new SensorReadingRequest("SENSOR_002", 25.0 - i % 29 * 0.5, 70.0 - i % 7,
+                                        i % 5 * 1.25, timestamp.plusSeconds(30)));
+                }
+                sensorReadingService.registerReadings(requests);
+        }
+
+        @Test
+        public void testRawReadingsBeforeTheCutoffAreCompacted() {
+                long before = repository.count();
+
+                long deleted = retentionService.compactBefore(CUTOFF);
+
+                assertThat(retentionService.compactedBefore()).isEqualTo(WATERMARK);
+                assertThat(deleted).isEqualTo(before - repository.count()).isEqualTo(2 * 36 * 6);
+                assertThat(countBefore("SELECT COUNT(*) FROM sensor_readings WHERE timestamp < ?"))
+                                .isZero();
+                assertThat(countBefore("SELECT COUNT(*) FROM sensor_reading_rollups"
+                                + " WHERE granularity = 'MINUTE' AND bucket_start < ?")).isZero();
+                assertThat(rollupRepository.sumBuckets(RollupGranularity.HOUR, START, WATERMARK, null).readings())
+                                .isEqualTo(deleted);
+        }
+
+        @Test
+        public void testReadingsWithoutRollupsAreCountedBeforeTheyAreDeleted() {
+                // Two readings written behind the ingest path, so no rollup
+                // counts them
+                Instant hour = Instant.parse("2024-03-02T03:00:00Z");
+                Long sensorId = jdbcTemplate.queryForObject("SELECT id FROM sensors WHERE tag = 'SENSOR_001'",
+                                Long.class);
+                for (int i = 0; i < 2; i++) {
+                        jdbcTemplate.update("INSERT INTO sensor_readings"
+                                        + " (id, sensor_id, temperature, humidity, wind_speed, timestamp)"
+                                        + " VALUES (?, ?, 5000, 1000, 0, ?)", 900_000_000L + i, sensorId,
+                                        hour.plusSeconds(5 + i * 60L).atOffset(ZoneOffset.UTC));
+                }
+
+                long deleted = retentionService.compactBefore(CUTOFF);
+
+                assertThat(deleted).isEqualTo(2 * 36 * 6 + 2);
+                assertThat(rollupRepository.sumBuckets(RollupGranularity.HOUR, hour, hour.plusSeconds(3600),
+                                "SENSOR_001").readings()).isEqualTo(8);
+                assertThat(rollupRepository.sumBuckets(RollupGranularity.HOUR, START, WATERMARK, null).readings())
+                                .isEqualTo(deleted);
+                assertThat(rollupRepository.sumBuckets(RollupGranularity.DAY, START, START.plus(2, ChronoUnit.DAYS),
+                                null).readings()).isEqualTo(2 * 2 * 24 * 6 + 2);
+        }
+
+        @Test
+        public void testAveragesStayCorrectAcrossTheWatermark() {
+                // Hour aligned start before the watermark, partial minute end after it
+                Instant from = Instant.parse("2024-03-01T05:00:00Z");
+                Instant to = Instant.parse("2024-03-03T07:45:15Z");
+                AverageMetricsDto all = raw(from, to, null);
+                AverageMetricsDto tagged = raw(from, to, "SENSOR_002");
+                // Before the watermark an hour counts when it starts in the range
+                AverageMetricsDto partialHour = raw(Instant.parse("2024-03-01T06:00:00Z"), to, null);
+
+                retentionService.compactBefore(CUTOFF);
+
+                assertClose(sensorReadingService.getAverageMetrics(from, to), all);
+                assertClose(sensorReadingService.getAverageMetricsBySensor("SENSOR_002", from, to), tagged);
+                assertClose(sensorReadingService.getAverageMetrics(Instant.parse("2024-03-01T05:20:00Z"), to),
+                                partialHour);
+        }
+
+        @Test
+        public void testHourSeriesSpanTheWatermarkAndFinerOnesStopAtIt() {
+                Instant from = Instant.parse("2024-03-02T09:10:00Z");
+                Instant to = Instant.parse("2024-03-02T14:59:59Z");
+                List<SeriesBucketDto> before = sensorReadingService.getSeries(from, to, null,
+                                SensorReadingService.SeriesInterval.ONE_HOUR);
+
+                retentionService.compactBefore(CUTOFF);
+
+                List<SeriesBucketDto> after = sensorReadingService.getSeries(from, to, null,
+                                SensorReadingService.SeriesInterval.ONE_HOUR);
+                assertThat(after).hasSize(6);
+                for (int i = 0; i < after.size(); i++) {
+                        assertThat(after.get(i).bucketStart()).isEqualTo(before.get(i).bucketStart());
+                        assertThat(after.get(i).readings()).isEqualTo(12);
+                        assertThat(after.get(i).averageTemperature())
+                                        .isCloseTo(before.get(i).averageTemperature(), within(1e-9));
+                }
+                // Readings every 10 minutes fill every other 5 minute bucket
+                assertThat(sensorReadingService.getSeries(WATERMARK, to, "SENSOR_001",
+                                SensorReadingService.SeriesInterval.FIVE_MINUTES)).hasSize(18);
+                assertThatThrownBy(() -> sensorReadingService.getSeries(from, to, null,
+                                SensorReadingService.SeriesInterval.FIVE_MINUTES))
+                                .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        @Test
+        public void testWatermarkDoesNotMoveBack() {
+                retentionService.compactBefore(CUTOFF);
+
+                assertThat(retentionService.compactBefore(START)).isZero();
+                assertThat(retentionService.compactedBefore()).isEqualTo(WATERMARK);
+        }
+
+        private AverageMetricsDto raw(Instant from, Instant to, String tag) {
+                return repository.findAverageMetricsFiltered(from, to, null, tag, null).orElseThrow();
+        }
+
+        private long countBefore(String sql) {
+                return jdbcTemplate.queryForObject(sql, Long.class, WATERMARK.atOffset(ZoneOffset.UTC));
+        }
+
+        private static void assertClose(AverageMetricsDto actual, AverageMetricsDto expected) {
+                assertThat(actual.readings()).isEqualTo(expected.readings());
+                assertThat(actual.averageTemperature()).isCloseTo(expected.averageTemperature(), within(1e-9));
+                assertThat(actual.averageHumidity()).isCloseTo(expected.averageHumidity(), within(1e-9));
+                assertThat(actual.averageWindSpeed()).isCloseTo(expected.averageWindSpeed(), within(1e-9));
+        }
+}
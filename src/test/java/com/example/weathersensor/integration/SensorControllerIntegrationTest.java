@@ -6,6 +6,7 @@
 import com.example.weathersensor.entity.Sensor;
 import com.example.weathersensor.repository.SensorReadingRepository;
 import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.SensorService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -40,6 +41,12 @@ public class SensorControllerIntegrationTest {
     @Autowired
     private SensorRepository sensorRepository;
 
+    @Autowired
+    private SensorReadingRepository sensorReadingRepository;
+
+    @Autowired
+    private SensorService sensorService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -48,12 +55,15 @@ public class SensorControllerIntegrationTest {
     @BeforeEach
     public void setup() {
         mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        sensorReadingRepository.deleteAll();
         sensorRepository.deleteAll();
         // Register Sensor
         Sensor sensor = new Sensor("SENSOR_001", "Berlin", "Europe/Berlin");
         Sensor sensor2 = new Sensor("SENSOR_002", "Berlin", "Europe/Berlin");
         Sensor sensor3 = new Sensor("SENSOR_003", "Delhi", "Asia/Kolkata");
         sensorRepository.saveAll(Arrays.asList(sensor, sensor2, sensor3));
+        // Sensors were written behind the service, refresh its registry
+        sensorService.reloadRegistry();
     }
 
     @Test
@@ -155,6 +165,7 @@ public void testGetSensorsByLocation_NotFound() throws Exception {
     @Test
     public void testListAllSensors_Empty() throws Exception {
         sensorRepository.deleteAll();
+        sensorService.reloadRegistry();
 
         mockMvc.perform(get("/api/v1/sensors"))
                 .andExpect(status().isOk())
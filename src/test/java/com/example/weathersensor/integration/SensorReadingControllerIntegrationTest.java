@@ -1,35 +1,68 @@
 package com.example.weathersensor.integration;
 
 import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.AverageMetricsDto;
 import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.dto.SensorReadingResponse;
 import com.example.weathersensor.dto.SensorRegistrationRequest;
+import com.example.weathersensor.entity.RollupGranularity;
 import com.example.weathersensor.entity.Sensor;
 import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.ReadingSketchRepository;
 import com.example.weathersensor.repository.SensorReadingRepository;
 import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.AverageQueryCache;
+import com.example.weathersensor.service.IngestMetrics;
+import com.example.weathersensor.service.HotReadingStore;
+import com.example.weathersensor.service.ReadingRollupBackfill;
+import com.example.weathersensor.service.ReadingRollupService;
+import com.example.weathersensor.service.RecentReadingWindow;
+import com.example.weathersensor.service.SensorReadingService;
+import com.example.weathersensor.service.SensorService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
 
 @SpringBootTest(classes = WeatherSensorApiApplication.class)
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
@@ -43,7 +76,33 @@ public class SensorReadingControllerIntegrationTest {
         @Autowired
         private SensorRepository sensorRepository;
         @Autowired
+        private ReadingRollupRepository rollupRepository;
+        @Autowired
+        private ReadingSketchRepository sketchRepository;
+        @Autowired
+        private JdbcTemplate jdbcTemplate;
+        @Autowired
         private ObjectMapper objectMapper;
+        @Autowired
+        private EntityManagerFactory entityManagerFactory;
+        @Autowired
+        private SensorService sensorService;
+        @Autowired
+        private IngestMetrics ingestMetrics;
+        @Autowired
+        private RecentReadingWindow recentWindow;
+        @Autowired
+        private HotReadingStore hotStore;
+        @Autowired
+        private AverageQueryCache averageCache;
+        @Autowired
+        private MeterRegistry meterRegistry;
+        @Autowired
+        private ReadingRollupBackfill rollupBackfill;
+        @Autowired
+        private SensorReadingService sensorReadingService;
+        @MockitoSpyBean
+        private ReadingRollupService rollupService;
 
         private MockMvc mockMvc;
 
@@ -51,11 +110,17 @@ public class SensorReadingControllerIntegrationTest {
         public void setup() {
                 mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
                 repository.deleteAll();
+                rollupRepository.deleteAll();
+                sketchRepository.deleteAll();
                 sensorRepository.deleteAll();
                 sensorRepository.saveAll(List.of(
                                 new Sensor("SENSOR_001", "Berlin", "Europe/Berlin"),
                                 new Sensor("SENSOR_002", "Berlin", "Europe/Berlin"),
                                 new Sensor("SENSOR_003", "Delhi", "Asia/Kolkata")));
+                sensorService.reloadRegistry();
+                recentWindow.clear();
+                hotStore.clear();
+                averageCache.clear();
         }
 
         private void postReading(SensorReadingRequest request) throws Exception {
@@ -92,6 +157,28 @@ public void test400ErrorForSensorReadingCreation() throws Exception {
                                 .andExpect(status().isBadRequest());
         }
 
+        @Test
+        public void test400ErrorForReadingsOutsideTheStoredRange() throws Exception {
+                Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                SensorReadingRequest req = new SensorReadingRequest("SENSOR_001", 3.0e7, 50.0, 0.0, now);
+                mockMvc.perform(post("/api/v1/sensor-readings")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(req)))
+                                .andExpect(status().isBadRequest());
+
+                List<SensorReadingRequest> batch = List.of(
+                                new SensorReadingRequest("SENSOR_001", 20.0, 120.0, 0.0, now),
+                                new SensorReadingRequest("SENSOR_002", 20.0, 55.55, 1.25, now));
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(batch)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.accepted").value(1))
+                                .andExpect(jsonPath("$.rejections[0].reason").value("Humidity must be at most 100"));
+                // Two decimals of humidity are kept
+                assertEquals(55.55, repository.findAll().get(0).getHumidity());
+        }
+
         @Test
         public void test422UnprocessableEntity() throws Exception {
                 SensorReadingRequest req = new SensorReadingRequest("NO_SENSOR", 23.5, 0.0, 0.0, Instant.now());
@@ -187,4 +274,709 @@ public void testAllSensorReadingsInTimeFrame() throws Exception {
                                 .andExpect(jsonPath("$[*].windSpeed").value(everyItem(is(0.0))))
                                 .andExpect(jsonPath("$[*].timestamp").value(hasItems(ts1, ts2, ts3)));
         }
+
+        @Test
+        public void testBatchReportsAcceptedAndRejectedReadings() throws Exception {
+                Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                List<SensorReadingRequest> batch = new ArrayList<>(createReadings(now));
+                batch.add(new SensorReadingRequest("NO_SENSOR", 23.5, 0.0, 0.0, now));
+                batch.add(new SensorReadingRequest("SENSOR_001", null, 0.0, 0.0, now));
+                batch.add(new SensorReadingRequest("SENSOR_001", 23.5, 0.0, 0.0, now));
+
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(batch)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.accepted").value(4))
+                                .andExpect(jsonPath("$.rejected").value(3))
+                                .andExpect(jsonPath("$.rejections[*].index").value(containsInAnyOrder(4, 5, 6)))
+                                .andExpect(jsonPath("$.rejections[?(@.index == 4)].reason")
+                                                .value("Sensor not found with ID: NO_SENSOR"))
+                                .andExpect(jsonPath("$.rejections[?(@.index == 5)].reason")
+                                                .value("Temperature is required"))
+                                .andExpect(jsonPath("$.rejections[?(@.index == 6)].reason")
+                                                .value("Duplicate reading for sensor and timestamp in request"));
+                assertEquals(4, repository.count());
+
+                // Resubmitting the same readings must not create duplicates
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(createReadings(now))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.accepted").value(0))
+                                .andExpect(jsonPath("$.rejected").value(4));
+        }
+
+        @Test
+        public void testBatchInsertsUseJdbcBatching() throws Exception {
+                Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                        batch.add(new SensorReadingRequest("SENSOR_001", 20.0 + i, 50.0, 5.0,
+                                        base.minus(i, ChronoUnit.SECONDS)));
+                }
+                String body = objectMapper.writeValueAsString(batch);
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+                statistics.clear();
+
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(body))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.accepted").value(100));
+
+                // Two chunks of 50, each costs: duplicate check, one sequence
+                // call for the pooled ids and one batched insert
+                assertEquals(100, statistics.getEntityInsertCount());
+                assertEquals(6, statistics.getPrepareStatementCount());
+                assertEquals(100, repository.count());
+        }
+
+        @Test
+        public void testOversizedBatchIsRejectedWithoutReadingItAll() throws Exception {
+                String reading = objectMapper.writeValueAsString(
+                                new SensorReadingRequest("SENSOR_001", 20.0, 50.0, 5.0, Instant.now()));
+                // Malformed past the limit, only reading that far would tell
+                String body = "[" + String.join(",", Collections.nCopies(10_001, reading)) + ",{not json";
+
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(body))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(jsonPath("$.message").value("Batch exceeds the limit of 10000 readings"));
+                assertEquals(0, repository.count());
+        }
+
+        @Test
+        public void testReadingStoredConcurrentlyIsRejectedAsDuplicate() throws Exception {
+                Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                // Another request stores one of the readings after the first
+                // attempt looked for duplicates
+                doAnswer(invocation -> {
+                        CompletableFuture.runAsync(() -> sensorReadingService.registerReading(
+                                        new SensorReadingRequest("SENSOR_002", 10.0, 0.0, 0.0, now))).join();
+                        return invocation.callRealMethod();
+                }).doCallRealMethod().when(rollupService).record(anyCollection());
+
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(createReadings(now))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.accepted").value(3))
+                                .andExpect(jsonPath("$.rejections[0].index").value(2))
+                                .andExpect(jsonPath("$.rejections[0].reason")
+                                                .value("Reading already exists for sensor and timestamp"));
+                assertEquals(4, repository.count());
+                Instant hour = RollupGranularity.HOUR.floor(now);
+                // The rolled back attempt left nothing behind in the rollups
+                assertEquals(1L, rollupRepository.sumBuckets(RollupGranularity.HOUR, hour, hour.plusSeconds(3600),
+                                "SENSOR_002").readings());
+        }
+
+        @Test
+        public void testNdjsonUploadIsStoredInChunks() throws Exception {
+                Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < 120; i++) {
+                        body.append(objectMapper.writeValueAsString(new SensorReadingRequest(
+                                        "SENSOR_00" + (i % 3 + 1), 20.0, 50.0, 5.0, base.minus(i, ChronoUnit.MINUTES))))
+                                        .append('\n');
+                        if (i == 60) {
+                                body.append("{not json\n\n");
+                        }
+                }
+                body.append(objectMapper.writeValueAsString(
+                                new SensorReadingRequest("NO_SENSOR", 20.0, 50.0, 5.0, base)));
+
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_NDJSON)
+                                .content(body.toString()))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.accepted").value(120))
+                                .andExpect(jsonPath("$.rejected").value(2))
+                                .andExpect(jsonPath("$.rejections[*].index").value(contains(61, 122)))
+                                .andExpect(jsonPath("$.rejections[?(@.index == 61)].reason")
+                                                .value(contains(startsWith("Malformed JSON"))))
+                                // Line number in the upload, the blank line counts
+                                .andExpect(jsonPath("$.rejections[?(@.index == 122)].sensorId")
+                                                .value(contains("NO_SENSOR")));
+                assertEquals(120, repository.count());
+        }
+
+        @Test
+        public void testIngestAndSensorListingSkipSensorQueries() throws Exception {
+                Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+                statistics.clear();
+
+                for (SensorReadingRequest req : createReadings(now)) {
+                        postReading(req);
+                }
+                mockMvc.perform(get("/api/v1/sensors")).andExpect(status().isOk());
+                mockMvc.perform(get("/api/v1/sensors/location/Berlin")).andExpect(status().isOk());
+
+                // Without the registry every ingest ran a findByTag query and
+                // each listing a full select, now only the inserts reach the DB
+                assertEquals(0, statistics.getQueryExecutionCount());
+                assertEquals(4, statistics.getEntityInsertCount());
+        }
+
+        @Test
+        public void testUnknownSensorIsRejectedWithoutRepeatedLookups() throws Exception {
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+                statistics.clear();
+                long rejectionsBefore = ingestMetrics.unknownSensorRejections();
+
+                for (int i = 0; i < 5; i++) {
+                        SensorReadingRequest req = new SensorReadingRequest("ROGUE_SENSOR", 23.5, 0.0, 0.0,
+                                        Instant.now());
+                        mockMvc.perform(post("/api/v1/sensor-readings")
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .content(objectMapper.writeValueAsString(req)))
+                                        .andExpect(status().isUnprocessableEntity())
+                                        .andExpect(jsonPath("$.status").value(422))
+                                        .andExpect(jsonPath("$.message").value("Sensor not found with ID: ROGUE_SENSOR"));
+                }
+
+                assertEquals(1, statistics.getQueryExecutionCount());
+                assertEquals(5, ingestMetrics.unknownSensorRejections() - rejectionsBefore);
+        }
+
+        @Test
+        public void testReadingsCanBeStreamedAsNdjsonAndJsonArray() throws Exception {
+                Instant instant = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                for (SensorReadingRequest req : createReadings(instant)) {
+                        postReading(req);
+                }
+                String start = DateTimeFormatter.ISO_INSTANT.format(instant.minus(30, ChronoUnit.MINUTES));
+                String end = DateTimeFormatter.ISO_INSTANT.format(instant.plus(2, ChronoUnit.HOURS));
+
+                MvcResult ndjson = mockMvc.perform(get("/api/v1/sensor-readings")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .accept(MediaType.APPLICATION_NDJSON))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                String body = mockMvc.perform(asyncDispatch(ndjson))
+                                .andExpect(status().isOk())
+                                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                                .andReturn().getResponse().getContentAsString();
+                List<String> lines = body.lines().toList();
+                assertEquals(4, lines.size());
+                for (String line : lines) {
+                        SensorReadingResponse reading = objectMapper.readValue(line, SensorReadingResponse.class);
+                        assertEquals(23.5, reading.temperature());
+                }
+
+                MvcResult array = mockMvc.perform(get("/api/v1/sensor-readings")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .param("stream", "true"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                mockMvc.perform(asyncDispatch(array))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(4))
+                                .andExpect(jsonPath("$[*].sensorId")
+                                                .value(hasItems("SENSOR_001", "SENSOR_002", "SENSOR_003")));
+        }
+
+        @Test
+        public void testKeysetPaginationWalksTheWholeRange() throws Exception {
+                Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                        // Two sensors share each timestamp so the id tie breaker is exercised
+                        batch.add(new SensorReadingRequest("SENSOR_001", 20.0 + i, 50.0, 5.0,
+                                        base.plus(i, ChronoUnit.MINUTES)));
+                        batch.add(new SensorReadingRequest("SENSOR_002", 30.0 + i, 50.0, 5.0,
+                                        base.plus(i, ChronoUnit.MINUTES)));
+                }
+                registerBatch(batch);
+
+                String start = DateTimeFormatter.ISO_INSTANT.format(base);
+                String end = DateTimeFormatter.ISO_INSTANT.format(base.plus(1, ChronoUnit.HOURS));
+                List<Integer> ids = new ArrayList<>();
+                String cursor = null;
+                int pages = 0;
+                do {
+                        var request = get("/api/v1/sensor-readings/page")
+                                        .param("startTime", start)
+                                        .param("endTime", end)
+                                        .param("limit", "3");
+                        if (cursor != null) {
+                                request.param("cursor", cursor);
+                        }
+                        String body = mockMvc.perform(request)
+                                        .andExpect(status().isOk())
+                                        .andReturn().getResponse().getContentAsString();
+                        ids.addAll(JsonPath.read(body, "$.readings[*].id"));
+                        cursor = JsonPath.read(body, "$.nextCursor");
+                        pages++;
+                } while (cursor != null);
+
+                assertEquals(3, pages);
+                assertEquals(8, ids.size());
+                assertEquals(8, ids.stream().distinct().count());
+
+                mockMvc.perform(get("/api/v1/sensor-readings/page")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .param("cursor", "not-a-cursor"))
+                                .andExpect(status().isBadRequest());
+        }
+
+        private void registerBatch(List<SensorReadingRequest> batch) throws Exception {
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(batch)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.rejected").value(0));
+        }
+
+        @Test
+        public void testRangeQueriesRunOneStatementWithoutEntities() throws Exception {
+                Instant instant = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                for (SensorReadingRequest req : createReadings(instant)) {
+                        postReading(req);
+                }
+                String start = DateTimeFormatter.ISO_INSTANT.format(instant.minus(30, ChronoUnit.MINUTES));
+                String end = DateTimeFormatter.ISO_INSTANT.format(instant.plus(2, ChronoUnit.HOURS));
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+                statistics.clear();
+                mockMvc.perform(get("/api/v1/sensor-readings").param("startTime", start).param("endTime", end))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(4));
+                assertEquals(1, statistics.getPrepareStatementCount());
+                assertEquals(0, statistics.getEntityLoadCount());
+
+                statistics.clear();
+                mockMvc.perform(get("/api/v1/sensor-readings/page").param("startTime", start).param("endTime", end))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings.length()").value(4));
+                assertEquals(1, statistics.getPrepareStatementCount());
+                assertEquals(0, statistics.getEntityLoadCount());
+        }
+
+        @Test
+        public void testAveragesFromRollupsMatchRawReadings() throws Exception {
+                Instant base = Instant.parse("2024-03-01T00:00:00Z");
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                // Three days of readings every 7 minutes, values exact in binary
+                for (int i = 0; i < 3 * 24 * 60 / 7; i++) {
+                        batch.add(new SensorReadingRequest(i % 2 == 0 ? "SENSOR_001" : "SENSOR_002",
+                                        20.0 + (i % 16) * 0.5, 40.0 + i % 8, 5.0 + (i % 4) * 0.25,
+                                        base.plus(i * 7L, ChronoUnit.MINUTES).plusSeconds(i % 60)));
+                }
+                registerBatch(batch);
+                // Late readings land in buckets that already exist
+                postReading(new SensorReadingRequest("SENSOR_001", 35.0, 90.0, 12.0,
+                                base.plus(1, ChronoUnit.DAYS).plusSeconds(61)));
+                postReading(new SensorReadingRequest("SENSOR_002", -5.0, 10.0, 0.5, base.plusSeconds(30)));
+
+                Instant start = base.plus(3, ChronoUnit.HOURS).plusSeconds(1_234);
+                Instant end = base.plus(2, ChronoUnit.DAYS).plus(17, ChronoUnit.HOURS).plusSeconds(611);
+                for (String tag : Arrays.asList(null, "SENSOR_001", "SENSOR_002")) {
+                        AverageMetricsDto raw = repository.findAverageMetricsFiltered(start, end, null, tag, null)
+                                        .orElseThrow();
+                        String path = tag == null ? "/api/v1/sensor-readings/average"
+                                        : "/api/v1/sensor-readings/average/" + tag;
+                        mockMvc.perform(get(path)
+                                        .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                        .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end)))
+                                        .andExpect(status().isOk())
+                                        .andExpect(jsonPath("$.readings").value(raw.readings().intValue()))
+                                        .andExpect(jsonPath("$.averageTemperature").value(raw.averageTemperature()))
+                                        .andExpect(jsonPath("$.averageHumidity").value(raw.averageHumidity()))
+                                        .andExpect(jsonPath("$.averageWindSpeed").value(raw.averageWindSpeed()));
+                }
+
+                // Both ends are inclusive, like the raw BETWEEN queries
+                Instant exact = base.plus(7, ChronoUnit.MINUTES).plusSeconds(1);
+                mockMvc.perform(get("/api/v1/sensor-readings/average/SENSOR_002")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(exact))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(exact)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(1));
+        }
+
+        @Test
+        public void testRollupsAreBackfilledForReadingsStoredWithoutThem() throws Exception {
+                Instant base = Instant.parse("2024-04-01T00:00:00Z");
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                // Two days of readings every 7 minutes, values not exact in binary
+                for (int i = 0; i < 2 * 24 * 60 / 7; i++) {
+                        batch.add(new SensorReadingRequest(i % 2 == 0 ? "SENSOR_001" : "SENSOR_002",
+                                        20.1 + (i % 16) * 0.3, 40.7 + i % 8, 5.1 + (i % 4) * 0.35,
+                                        base.plus(i * 7L, ChronoUnit.MINUTES).plusSeconds(i % 60)));
+                }
+                registerBatch(batch);
+                // The first day as if its readings were stored before rollups were kept
+                Instant secondDay = base.plus(1, ChronoUnit.DAYS);
+                jdbcTemplate.update("DELETE FROM sensor_reading_rollups WHERE bucket_start < ?",
+                                secondDay.atOffset(ZoneOffset.UTC));
+                jdbcTemplate.update("DELETE FROM sensor_reading_sketches WHERE bucket_start < ?",
+                                secondDay.atOffset(ZoneOffset.UTC));
+
+                assertEquals(2 * 24, rollupBackfill.backfill(base, base.plus(2, ChronoUnit.DAYS)));
+                assertEquals(0, rollupBackfill.backfill(base, base.plus(2, ChronoUnit.DAYS)));
+
+                // Rollup sums are exact, averages match the mean of the stored values
+                Instant start = base.plus(5, ChronoUnit.HOURS).plusSeconds(1_234);
+                Instant end = base.plus(1, ChronoUnit.DAYS).plus(17, ChronoUnit.HOURS).plusSeconds(611);
+                Map<String, Object> stored = jdbcTemplate.queryForMap("SELECT SUM(temperature) t, SUM(humidity) h,"
+                                + " SUM(wind_speed) w, COUNT(*) n FROM sensor_readings WHERE timestamp BETWEEN ? AND ?",
+                                start.atOffset(ZoneOffset.UTC), end.atOffset(ZoneOffset.UTC));
+                double readings = ((Number) stored.get("N")).doubleValue();
+                mockMvc.perform(get("/api/v1/sensor-readings/average")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value((int) readings))
+                                .andExpect(jsonPath("$.averageTemperature").value(((Number) stored.get("T")).longValue()
+                                                / (readings * SensorReading.TEMPERATURE_SCALE)))
+                                .andExpect(jsonPath("$.averageHumidity").value(((Number) stored.get("H")).longValue()
+                                                / (readings * SensorReading.HUMIDITY_SCALE)))
+                                .andExpect(jsonPath("$.averageWindSpeed").value(((Number) stored.get("W")).longValue()
+                                                / (readings * SensorReading.WIND_SPEED_SCALE)));
+                mockMvc.perform(get("/api/v1/sensor-readings/statistics")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(base))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(secondDay.minusSeconds(1))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(repository.findAverageMetricsFiltered(
+                                                base, secondDay.minusSeconds(1), null, null, null)
+                                                .orElseThrow().readings().intValue()));
+        }
+
+        @Test
+        public void testGroupedAveragesMatchEachGroupOnItsOwn() throws Exception {
+                Instant base = Instant.parse("2024-03-01T00:00:00Z");
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                for (int i = 0; i < 2 * 24 * 60 / 7; i++) {
+                        batch.add(new SensorReadingRequest(String.format("SENSOR_%03d", i % 3 + 1),
+                                        20.0 + (i % 16) * 0.5, 40.0 + i % 8, 5.0 + (i % 4) * 0.25,
+                                        base.plus(i * 7L, ChronoUnit.MINUTES).plusSeconds(i % 60)));
+                }
+                registerBatch(batch);
+
+                String start = DateTimeFormatter.ISO_INSTANT.format(base.plus(2, ChronoUnit.HOURS).plusSeconds(777));
+                String end = DateTimeFormatter.ISO_INSTANT.format(base.plus(1, ChronoUnit.DAYS).plusSeconds(40_001));
+                Instant startTime = Instant.parse(start);
+                Instant endTime = Instant.parse(end);
+                AverageMetricsDto berlin = repository.findAverageMetricsFiltered(startTime, endTime, "Berlin", null, null)
+                                .orElseThrow();
+                AverageMetricsDto sensor3 = repository.findAverageMetricsFiltered(startTime, endTime, null, "SENSOR_003",
+                                null).orElseThrow();
+
+                mockMvc.perform(get("/api/v1/sensor-readings/average")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .param("groupBy", "location"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$.Berlin.readings").value(berlin.readings().intValue()))
+                                .andExpect(jsonPath("$.Berlin.averageTemperature").value(closeTo(berlin.averageTemperature(), 1e-9)))
+                                .andExpect(jsonPath("$.Berlin.averageHumidity").value(closeTo(berlin.averageHumidity(), 1e-9)))
+                                .andExpect(jsonPath("$.Delhi.readings").value(sensor3.readings().intValue()));
+
+                mockMvc.perform(get("/api/v1/sensor-readings/average")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .param("groupBy", "tag")
+                                .param("keys", "SENSOR_003", "SENSOR_404"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$.SENSOR_003.readings").value(sensor3.readings().intValue()))
+                                .andExpect(jsonPath("$.SENSOR_003.averageWindSpeed").value(closeTo(sensor3.averageWindSpeed(), 1e-9)))
+                                .andExpect(jsonPath("$.SENSOR_404.readings").value(0));
+
+                mockMvc.perform(get("/api/v1/sensor-readings/average")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .param("groupBy", "timeZone")
+                                .param("keys", "Asia/Kolkata"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(1))
+                                .andExpect(jsonPath("$['Asia/Kolkata'].readings").value(sensor3.readings().intValue()));
+
+                mockMvc.perform(get("/api/v1/sensor-readings/average")
+                                .param("startTime", start)
+                                .param("endTime", end)
+                                .param("groupBy", "country"))
+                                .andExpect(status().isBadRequest());
+        }
+
+        @Test
+        public void testConcurrentReadingsCreatingTheSameRollupBuckets() throws Exception {
+                Instant base = Instant.parse("2024-05-01T00:00:00Z");
+                int threads = 8;
+                int perThread = 25;
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                        List<Future<?>> posts = new ArrayList<>();
+                        for (int t = 0; t < threads; t++) {
+                                int offset = t;
+                                // Every thread writes into the same new minute, hour and day buckets
+                                posts.add(executor.submit(() -> {
+                                        for (int i = 0; i < perThread; i++) {
+                                                postReading(new SensorReadingRequest("SENSOR_001", 20.0, 50.0, 4.0,
+                                                                base.plusSeconds(i * threads + offset)));
+                                        }
+                                        return null;
+                                }));
+                        }
+                        for (Future<?> post : posts) {
+                                post.get(60, TimeUnit.SECONDS);
+                        }
+                } finally {
+                        executor.shutdownNow();
+                }
+
+                mockMvc.perform(get("/api/v1/sensor-readings/average/SENSOR_001")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(base))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(base.plus(1, ChronoUnit.DAYS))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(threads * perThread))
+                                .andExpect(jsonPath("$.averageTemperature").value(20.0));
+                mockMvc.perform(get("/api/v1/sensor-readings/statistics/SENSOR_001")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(base))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(base.plus(1, ChronoUnit.DAYS))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(threads * perThread))
+                                .andExpect(jsonPath("$.temperature.max").value(20.0));
+        }
+
+        @Test
+        public void testStatisticsComeFromSketchesWithoutRawReadings() throws Exception {
+                Instant base = Instant.parse("2024-04-01T00:00:00Z");
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                // Three days of readings every 5 minutes, values exact in binary
+                for (int i = 0; i < 3 * 24 * 12; i++) {
+                        batch.add(new SensorReadingRequest(i % 3 == 0 ? "SENSOR_002" : "SENSOR_001",
+                                        -5.0 + (i * 37 % 160) * 0.25, 20.0 + i % 70, i % 50 == 0 ? 25.0 : (i % 9) * 0.5,
+                                        base.plus(i * 5L, ChronoUnit.MINUTES)));
+                }
+                registerBatch(batch);
+
+                // A range of whole hours spanning day and hour sketches
+                Instant start = base.plus(5, ChronoUnit.HOURS);
+                Instant end = base.plus(2, ChronoUnit.DAYS).plus(7, ChronoUnit.HOURS).minusSeconds(1);
+                double[] temperatures = batch.stream()
+                                .filter(r -> "SENSOR_001".equals(r.sensorId()))
+                                .filter(r -> !r.timestamp().isBefore(start) && !r.timestamp().isAfter(end))
+                                .mapToDouble(SensorReadingRequest::temperature).sorted().toArray();
+                double mean = Arrays.stream(temperatures).average().orElseThrow();
+                double deviation = Math.sqrt(Arrays.stream(temperatures)
+                                .map(t -> (t - mean) * (t - mean)).sum() / temperatures.length);
+                double median = temperatures[(temperatures.length - 1) / 2];
+                double p95 = temperatures[(int) (0.95 * (temperatures.length - 1))];
+
+                // Statistics never read raw readings
+                jdbcTemplate.update("DELETE FROM sensor_readings");
+
+                mockMvc.perform(get("/api/v1/sensor-readings/statistics/SENSOR_001")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end))
+                                .param("quantiles", "0.5,0.95"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(temperatures.length))
+                                .andExpect(jsonPath("$.temperature.min").value(temperatures[0]))
+                                .andExpect(jsonPath("$.temperature.max").value(temperatures[temperatures.length - 1]))
+                                .andExpect(jsonPath("$.temperature.mean").value(closeTo(mean, 1e-9)))
+                                .andExpect(jsonPath("$.temperature.standardDeviation").value(closeTo(deviation, 1e-9)))
+                                .andExpect(jsonPath("$.temperature.quantiles[0].quantile").value(0.5))
+                                .andExpect(jsonPath("$.temperature.quantiles[0].value")
+                                                .value(closeTo(median, Math.abs(median) * 0.01)))
+                                .andExpect(jsonPath("$.temperature.quantiles[1].value")
+                                                .value(closeTo(p95, Math.abs(p95) * 0.01)))
+                                .andExpect(jsonPath("$.temperature.histogram.length()").value(10))
+                                .andExpect(jsonPath("$.windSpeed.max").value(25.0));
+
+                mockMvc.perform(get("/api/v1/sensor-readings/statistics")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(50 * 12))
+                                .andExpect(jsonPath("$.humidity.quantiles.length()").value(4));
+
+                mockMvc.perform(get("/api/v1/sensor-readings/statistics")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end))
+                                .param("quantiles", "1.5"))
+                                .andExpect(status().isBadRequest());
+
+                mockMvc.perform(get("/api/v1/sensor-readings/statistics/SENSOR_003")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.readings").value(0))
+                                .andExpect(jsonPath("$.temperature").doesNotExist());
+        }
+
+        @Test
+        public void testSeriesBucketsMatchRawReadings() throws Exception {
+                Instant base = Instant.parse("2024-05-01T00:00:00Z");
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                // Six hours of readings every 50 seconds, values exact in binary
+                for (int i = 0; i < 6 * 72; i++) {
+                        batch.add(new SensorReadingRequest(i % 3 == 0 ? "SENSOR_002" : "SENSOR_001",
+                                        10.0 + (i % 24) * 0.5, 50.0 + i % 30, (i % 8) * 0.25,
+                                        base.plusSeconds(i * 50L)));
+                }
+                registerBatch(batch);
+
+                // Both ends fall inside a bucket, the whole buckets are returned
+                Instant start = base.plus(62, ChronoUnit.MINUTES).plusSeconds(30);
+                Instant end = base.plus(3, ChronoUnit.HOURS).plus(58, ChronoUnit.MINUTES);
+                for (String tag : Arrays.asList(null, "SENSOR_001")) {
+                        Map<Instant, List<SensorReadingRequest>> expected = new TreeMap<>();
+                        for (SensorReadingRequest r : batch) {
+                                Instant bucket = Instant.ofEpochSecond(r.timestamp().getEpochSecond() / 300 * 300);
+                                if ((tag == null || tag.equals(r.sensorId()))
+                                                && !bucket.isBefore(base.plus(60, ChronoUnit.MINUTES))
+                                                && !bucket.isAfter(base.plus(3, ChronoUnit.HOURS).plus(55, ChronoUnit.MINUTES))) {
+                                        expected.computeIfAbsent(bucket, b -> new ArrayList<>()).add(r);
+                                }
+                        }
+                        String path = tag == null ? "/api/v1/sensor-readings/series"
+                                        : "/api/v1/sensor-readings/series/" + tag;
+                        ResultActions result = mockMvc.perform(get(path)
+                                        .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                        .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end))
+                                        .param("interval", "5m"))
+                                        .andExpect(status().isOk())
+                                        .andExpect(jsonPath("$.length()").value(36));
+                        int index = 0;
+                        for (Map.Entry<Instant, List<SensorReadingRequest>> bucket : expected.entrySet()) {
+                                List<SensorReadingRequest> readings = bucket.getValue();
+                                String prefix = "$[" + index++ + "].";
+                                result.andExpect(jsonPath(prefix + "bucketStart")
+                                                .value(DateTimeFormatter.ISO_INSTANT.format(bucket.getKey())))
+                                                .andExpect(jsonPath(prefix + "readings").value(readings.size()))
+                                                .andExpect(jsonPath(prefix + "averageTemperature").value(closeTo(readings.stream()
+                                                                .mapToDouble(SensorReadingRequest::temperature).average().orElseThrow(), 1e-9)))
+                                                .andExpect(jsonPath(prefix + "averageHumidity").value(closeTo(readings.stream()
+                                                                .mapToDouble(SensorReadingRequest::humidity).average().orElseThrow(), 1e-9)))
+                                                .andExpect(jsonPath(prefix + "averageWindSpeed").value(closeTo(readings.stream()
+                                                                .mapToDouble(SensorReadingRequest::windSpeed).average().orElseThrow(), 1e-9)));
+                        }
+                }
+
+                mockMvc.perform(get("/api/v1/sensor-readings/series")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(base))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(base.plus(1, ChronoUnit.DAYS)))
+                                .param("interval", "1h"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(6))
+                                .andExpect(jsonPath("$[5].bucketStart").value("2024-05-01T05:00:00Z"))
+                                .andExpect(jsonPath("$[5].readings").value(72));
+
+                // More buckets than allowed, an unknown interval and an empty sensor
+                mockMvc.perform(get("/api/v1/sensor-readings/series")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(base))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(base.plus(2, ChronoUnit.DAYS)))
+                                .param("interval", "1m"))
+                                .andExpect(status().isBadRequest());
+                mockMvc.perform(get("/api/v1/sensor-readings/series")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end))
+                                .param("interval", "15m"))
+                                .andExpect(status().isBadRequest());
+                mockMvc.perform(get("/api/v1/sensor-readings/series/SENSOR_003")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end))
+                                .param("interval", "1m"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(0));
+        }
+
+        @Test
+        public void testRecentAveragesAreServedFromMemory() throws Exception {
+                Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(1, ChronoUnit.MINUTES);
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                for (int i = 0; i < 120; i++) {
+                        batch.add(new SensorReadingRequest(i % 3 == 0 ? "SENSOR_003" : "SENSOR_001",
+                                        15.0 + i % 10, 30.0 + i % 7, 2.0 + (i % 4) * 0.5, base.plusSeconds(i * 13L)));
+                }
+                registerBatch(batch);
+                postReading(new SensorReadingRequest("SENSOR_002", 40.0, 80.0, 9.0, base.plusSeconds(5)));
+
+                Instant start = base.plusSeconds(17);
+                Instant end = base.plusSeconds(1_111);
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+                for (String tag : Arrays.asList(null, "SENSOR_001", "SENSOR_002")) {
+                        AverageMetricsDto raw = repository.findAverageMetricsFiltered(start, end, null, tag, null)
+                                        .orElseThrow();
+                        String path = tag == null ? "/api/v1/sensor-readings/average"
+                                        : "/api/v1/sensor-readings/average/" + tag;
+                        statistics.clear();
+                        mockMvc.perform(get(path)
+                                        .param("startTime", DateTimeFormatter.ISO_INSTANT.format(start))
+                                        .param("endTime", DateTimeFormatter.ISO_INSTANT.format(end)))
+                                        .andExpect(status().isOk())
+                                        .andExpect(jsonPath("$.readings").value(raw.readings().intValue()))
+                                        .andExpect(jsonPath("$.averageTemperature").value(raw.averageTemperature()))
+                                        .andExpect(jsonPath("$.averageHumidity").value(raw.averageHumidity()))
+                                        .andExpect(jsonPath("$.averageWindSpeed").value(raw.averageWindSpeed()));
+                        assertEquals(0, statistics.getPrepareStatementCount());
+                }
+        }
+
+        @Test
+        public void testClosedWindowAveragesAreCachedUntilALateReadingArrives() throws Exception {
+                Instant base = Instant.parse("2024-05-01T08:00:00Z");
+                postReading(new SensorReadingRequest("SENSOR_001", 10.0, 40.0, 2.0, base));
+                postReading(new SensorReadingRequest("SENSOR_001", 20.0, 60.0, 4.0, base.plusSeconds(60)));
+                String start = DateTimeFormatter.ISO_INSTANT.format(base.minusSeconds(30));
+                String end = DateTimeFormatter.ISO_INSTANT.format(base.plusSeconds(3_600));
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+                mockMvc.perform(get("/api/v1/sensor-readings/average/SENSOR_001")
+                                .param("startTime", start).param("endTime", end))
+                                .andExpect(jsonPath("$.averageTemperature").value(15.0));
+                statistics.clear();
+                mockMvc.perform(get("/api/v1/sensor-readings/average/SENSOR_001")
+                                .param("startTime", start).param("endTime", end))
+                                .andExpect(jsonPath("$.averageTemperature").value(15.0));
+                assertEquals(0, statistics.getPrepareStatementCount());
+
+                postReading(new SensorReadingRequest("SENSOR_001", 30.0, 50.0, 3.0, base.plusSeconds(120)));
+                mockMvc.perform(get("/api/v1/sensor-readings/average/SENSOR_001")
+                                .param("startTime", start).param("endTime", end))
+                                .andExpect(jsonPath("$.readings").value(3))
+                                .andExpect(jsonPath("$.averageTemperature").value(20.0));
+        }
+
+        @Test
+        public void testIngestAndQueryPathsAreMetered() throws Exception {
+                double storedBefore = meterRegistry.get("weather.ingest.readings.stored").functionCounter().count();
+                double invalidBefore = meterRegistry.get("weather.ingest.readings.rejected")
+                                .tag("reason", "invalid").functionCounter().count();
+                double missesBefore = meterRegistry.get("cache.gets")
+                                .tags("cache", "averages", "result", "miss").functionCounter().count();
+                long computedBefore = meterRegistry.get("weather.average.compute")
+                                .tag("source", "rollups").timer().count();
+
+                Instant base = Instant.parse("2024-06-01T08:00:00Z");
+                postReading(new SensorReadingRequest("SENSOR_001", 10.0, 40.0, 2.0, base));
+                mockMvc.perform(post("/api/v1/sensor-readings/batch")
+                                .contentType(MediaType.APPLICATION_NDJSON)
+                                .content(objectMapper.writeValueAsString(new SensorReadingRequest(
+                                                "SENSOR_002", 20.0, 50.0, 3.0, base)) + "\n{not json\n"))
+                                .andExpect(status().isOk());
+                mockMvc.perform(get("/api/v1/sensor-readings/average")
+                                .param("startTime", DateTimeFormatter.ISO_INSTANT.format(base.minusSeconds(60)))
+                                .param("endTime", DateTimeFormatter.ISO_INSTANT.format(base.plusSeconds(60))))
+                                .andExpect(jsonPath("$.averageTemperature").value(15.0));
+
+                assertEquals(2, meterRegistry.get("weather.ingest.readings.stored").functionCounter().count()
+                                - storedBefore);
+                assertEquals(1, meterRegistry.get("weather.ingest.readings.rejected")
+                                .tag("reason", "invalid").functionCounter().count() - invalidBefore);
+                assertEquals(1, meterRegistry.get("cache.gets")
+                                .tags("cache", "averages", "result", "miss").functionCounter().count() - missesBefore);
+                assertEquals(1, meterRegistry.get("weather.average.compute")
+                                .tag("source", "rollups").timer().count() - computedBefore);
+        }
 }
@@ -0,0 +1,71 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.ReadingSketchRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.SensorReadingService;
+import com.example.weathersensor.service.SensorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = "weather.statistics.enabled=false")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+public class StatisticsDisabledIntegrationTest {
+
+        private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+
+        @Autowired
+        private SensorReadingService sensorReadingService;
+        @Autowired
+        private SensorReadingRepository repository;
+        @Autowired
+        private ReadingRollupRepository rollupRepository;
+        @Autowired
+        private ReadingSketchRepository sketchRepository;
+        @Autowired
+        private SensorRepository sensorRepository;
+        @Autowired
+        private SensorService sensorService;
+
+        @BeforeEach
+        public void setup() {
+                repository.deleteAll();
+                rollupRepository.deleteAll();
+                sketchRepository.deleteAll();
+                sensorRepository.deleteAll();
+                sensorRepository.save(new Sensor("SENSOR_001", "Berlin", "Europe/Berlin"));
+                sensorService.reloadRegistry();
+        }
+
+        @Test
+        public void testRollupsAreKeptWithoutSketches() {
+                for (int i = 0; i < 10; i++) {
+                        sensorReadingService.registerReading(new SensorReadingRequest("SENSOR_001", 20.0 + i, 50.0,
+                                        5.0, START.plusSeconds(i * 600L)));
+                }
+
+                assertThat(rollupRepository.sumBuckets(RollupGranularity.HOUR, START, START.plusSeconds(7200), null)
+                                .readings()).isEqualTo(10);
+                assertThat(sketchRepository.count()).isZero();
+                assertThat(sensorReadingService.getAverageMetrics(START, START.plusSeconds(7200)).readings())
+                                .isEqualTo(10);
+                assertThatThrownBy(() -> sensorReadingService.getStatistics(START, START.plusSeconds(7200), null,
+                                null)).isInstanceOf(IllegalArgumentException.class);
+        }
+}
@@ -0,0 +1,181 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.SensorReadingService;
+import com.example.weathersensor.service.SensorService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Closed-loop HTTP load against a running server: many client threads each
+ * send one request after the other for a fixed time, then throughput and
+ * p99 latency are reported. Subclasses start the server with platform or
+ * virtual request threads. Run with {@code mvn test -Pbenchmark}
+ */
+abstract class ThreadModelBenchmark extends BenchmarkSupport {
+
+        private static final int SENSORS = 100;
+        private static final int CLIENTS = 400;
+        private static final int HISTORY_MINUTES = 6 * 60;
+        private static final Duration WARM_UP = Duration.ofSeconds(3);
+        private static final Duration MEASURE = Duration.ofSeconds(10);
+        private static final Instant HISTORY_START = Instant.parse("2024-01-01T00:00:00Z");
+        private static final Instant INGEST_START = Instant.parse("2024-02-01T00:00:00Z");
+
+        @LocalServerPort
+        private int port;
+        @Autowired
+        private SensorRepository sensorRepository;
+        @Autowired
+        private SensorReadingRepository sensorReadingRepository;
+        @Autowired
+        private ReadingRollupRepository rollupRepository;
+        @Autowired
+        private SensorService sensorService;
+        @Autowired
+        private SensorReadingService sensorReadingService;
+        @Autowired
+        private ObjectMapper objectMapper;
+
+        private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        private final AtomicLong ingestSequence = new AtomicLong();
+
+        protected abstract boolean virtualThreads();
+
+        @BeforeAll
+        void loadHistory() {
+                sensorReadingRepository.deleteAll();
+                rollupRepository.deleteAll();
+                sensorRepository.deleteAll();
+                for (int s = 0; s < SENSORS; s++) {
+                        sensorRepository.save(new Sensor(tag(s), "Berlin", "Europe/Berlin"));
+                }
+                sensorService.reloadRegistry();
+                // Six hours of readings every minute for every sensor
+                List<SensorReadingRequest> batch = new ArrayList<>();
+                for (int m = 0; m < HISTORY_MINUTES; m++) {
+                        for (int s = 0; s < SENSORS; s++) {
+                                batch.add(new SensorReadingRequest(tag(s), 10.0 + s % 20, 50.0, 3.0,
+                                                HISTORY_START.plusSeconds(m * 60L)));
+                        }
+                        if (batch.size() >= 10_000) {
+                                sensorReadingService.registerReadings(batch);
+                                batch.clear();
+                        }
+                }
+                sensorReadingService.registerReadings(batch);
+        }
+
+        @Test
+        void compareIngestAndAverageQueries() throws Exception {
+                run("ingest", this::ingestOne);
+                run("average", this::averageOne);
+        }
+
+        private HttpResponse<String> ingestOne() throws Exception {
+                long sequence = ingestSequence.getAndIncrement();
+                SensorReadingRequest request = new SensorReadingRequest(tag((int) (sequence % SENSORS)), 20.0, 50.0,
+                                3.0, INGEST_START.plusSeconds(sequence / SENSORS));
+                return send(HttpRequest.newBuilder(uri("/api/v1/sensor-readings"))
+                                .header("Content-Type", "application/json")
+                                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(request)))
+                                .build());
+        }
+
+        // Random ranges so every request misses the result cache and reads
+        // the rollups
+        private HttpResponse<String> averageOne() throws Exception {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Instant start = HISTORY_START.plusSeconds(random.nextInt(3 * 3_600));
+                Instant end = start.plusSeconds(random.nextInt(600, 3 * 3_600));
+                String path = "/api/v1/sensor-readings/average/" + tag(random.nextInt(SENSORS))
+                                + "?startTime=" + DateTimeFormatter.ISO_INSTANT.format(start)
+                                + "&endTime=" + DateTimeFormatter.ISO_INSTANT.format(end);
+                return send(HttpRequest.newBuilder(uri(path)).GET().build());
+        }
+
+        private void run(String name, Call call) throws Exception {
+                load(call, WARM_UP);
+                long[][] latencies = load(call, MEASURE);
+                long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+                report("%s threads, %s: %d clients, %.0f requests/s, p50 %.2f ms, p99 %.2f ms",
+                                virtualThreads() ? "virtual" : "platform", name, CLIENTS,
+                                all.length / (double) MEASURE.toSeconds(),
+                                all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6);
+        }
+
+        private long[][] load(Call call, Duration duration) throws Exception {
+                long[][] latencies = new long[CLIENTS][];
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                long deadline = System.nanoTime() + duration.toNanos();
+                List<Thread> threads = IntStream.range(0, CLIENTS).mapToObj(c -> new Thread(() -> {
+                        long[] samples = new long[1024];
+                        int count = 0;
+                        try {
+                                while (System.nanoTime() < deadline) {
+                                        long begin = System.nanoTime();
+                                        HttpResponse<String> response = call.send();
+                                        long took = System.nanoTime() - begin;
+                                        assertEquals(2, response.statusCode() / 100, response::body);
+                                        if (count == samples.length) {
+                                                samples = Arrays.copyOf(samples, count * 2);
+                                        }
+                                        samples[count++] = took;
+                                }
+                        } catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                        }
+                        latencies[c] = Arrays.copyOf(samples, count);
+                })).toList();
+                threads.forEach(Thread::start);
+                for (Thread thread : threads) {
+                        thread.join();
+                }
+                if (failure.get() != null) {
+                        throw new IllegalStateException("A client failed", failure.get());
+                }
+                return latencies;
+        }
+
+        private HttpResponse<String> send(HttpRequest request) throws Exception {
+                return client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+
+        private URI uri(String path) {
+                return URI.create("http://localhost:" + port + path);
+        }
+
+        private static String tag(int sensor) {
+                return "BENCH_" + sensor;
+        }
+
+        @FunctionalInterface
+        private interface Call {
+                HttpResponse<String> send() throws Exception;
+        }
+}
@@ -0,0 +1,18 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = WeatherSensorApiApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = { "spring.threads.virtual.enabled=true", "spring.jpa.show-sql=false" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class VirtualThreadsBenchmarkTest extends ThreadModelBenchmark {
+
+        @Override
+        protected boolean virtualThreads() {
+                return true;
+        }
+}
@@ -0,0 +1,111 @@
+package com.example.weathersensor.integration;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import com.example.weathersensor.service.IngestMetrics;
+import com.example.weathersensor.service.SensorService;
+import com.example.weathersensor.service.WriteBehindPipeline;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = "weather.ingest.write-behind.enabled=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+public class WriteBehindIngestIntegrationTest {
+
+        @Autowired
+        private WebApplicationContext webApplicationContext;
+        @Autowired
+        private SensorReadingRepository repository;
+        @Autowired
+        private ReadingRollupRepository rollupRepository;
+        @Autowired
+        private SensorRepository sensorRepository;
+        @Autowired
+        private SensorService sensorService;
+        @Autowired
+        private WriteBehindPipeline pipeline;
+        @Autowired
+        private IngestMetrics ingestMetrics;
+        @Autowired
+        private ObjectMapper objectMapper;
+
+        private MockMvc mockMvc;
+
+        @BeforeEach
+        public void setup() {
+                mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+                repository.deleteAll();
+                rollupRepository.deleteAll();
+                sensorRepository.deleteAll();
+                sensorRepository.saveAll(List.of(
+                                new Sensor("SENSOR_001", "Berlin", "Europe/Berlin"),
+                                new Sensor("SENSOR_002", "Delhi", "Asia/Kolkata")));
+                sensorService.reloadRegistry();
+        }
+
+        @Test
+        public void testReadingsAreAcceptedAndStoredInTheBackground() throws Exception {
+                Instant base = Instant.parse("2024-06-01T00:00:00Z");
+                long stored = ingestMetrics.writeBehindStored();
+                for (int i = 0; i < 200; i++) {
+                        String tag = i % 2 == 0 ? "SENSOR_001" : "SENSOR_002";
+                        mockMvc.perform(post("/api/v1/sensor-readings")
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .content(objectMapper.writeValueAsString(
+                                                        new SensorReadingRequest(tag, 20.0, 50.0, 5.0,
+                                                                        base.plusSeconds(i)))))
+                                        .andExpect(status().isAccepted());
+                }
+
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (ingestMetrics.writeBehindStored() - stored < 200 && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(10);
+                }
+                assertEquals(0, pipeline.queueDepth());
+                List<SensorReading> readings = repository.findAll();
+                assertEquals(200, readings.size());
+
+                // Ids follow the order readings were accepted in, per sensor
+                for (String tag : List.of("SENSOR_001", "SENSOR_002")) {
+                        Long sensorId = sensorRepository.findByTag(tag).orElseThrow().getId();
+                        List<Instant> byId = readings.stream()
+                                        .filter(r -> r.getSensor().getId().equals(sensorId))
+                                        .sorted(Comparator.comparing(SensorReading::getId))
+                                        .map(SensorReading::getTimestamp)
+                                        .toList();
+                        assertEquals(byId.stream().sorted().toList(), byId);
+                }
+        }
+
+        @Test
+        public void testUnknownSensorIsRejectedBeforeQueueing() throws Exception {
+                mockMvc.perform(post("/api/v1/sensor-readings")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(
+                                                new SensorReadingRequest("NO_SENSOR", 20.0, 50.0, 5.0, Instant.now()))))
+                                .andExpect(status().isUnprocessableEntity());
+        }
+}
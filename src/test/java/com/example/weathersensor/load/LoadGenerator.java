@@ -0,0 +1,254 @@
+package com.example.weathersensor.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model HTTP load generator for capacity planning against an instance
+ * running on localhost. Requests start on a fixed schedule derived from the
+ * arrival rate, whether or not earlier ones have completed, and latencies are
+ * taken from the scheduled start. A slow server therefore shows up as growing
+ * latencies rather than as a lower request rate.
+ * <p>
+ * Run with {@code mvn test -Pload -Dload.args="--rate=500 --duration=PT2M"},
+ * see {@link LoadOptions#USAGE} for all options
+ */
+public final class LoadGenerator {
+
+    private static final String[][] LOCATIONS = {
+            { "Berlin", "Europe/Berlin" }, { "Delhi", "Asia/Kolkata" }, { "Lima", "America/Lima" } };
+
+    private final LoadOptions options;
+    private final HttpClient client;
+    private final Random random;
+    private final List<String> tags = new ArrayList<>();
+    private final Operation[] schedule;
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Last reading second per sensor, readings of a sensor must not share one
+    private final long[] lastSecond;
+
+    LoadGenerator(LoadOptions options) {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(options.timeout())
+                .build();
+        this.random = new Random(options.seed());
+        for (int i = 1; i <= options.sensors(); i++) {
+            tags.add(String.format("%s%05d", options.sensorPrefix(), i));
+        }
+        this.lastSecond = new long[options.sensors()];
+        List<Operation> weighted = new ArrayList<>();
+        options.mix().forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        this.schedule = weighted.toArray(Operation[]::new);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    void run() throws IOException, InterruptedException {
+        registerSensors();
+        System.out.printf(Locale.ROOT, "Offering %.1f requests/s (%s arrivals) to %s for %s after a %s warm-up%n",
+                options.rate(), options.poisson() ? "poisson" : "uniform", options.baseUrl(),
+                options.duration(), options.warmup());
+
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmup().toNanos();
+        long end = measureFrom + options.duration().toNanos();
+        double gapNanos = TimeUnit.SECONDS.toNanos(1) / options.rate();
+        double next = start;
+        while ((long) next < end) {
+            long intended = (long) next;
+            for (long wait; (wait = intended - System.nanoTime()) > 0;) {
+                LockSupport.parkNanos(wait);
+            }
+            send(schedule[random.nextInt(schedule.length)], intended, intended >= measureFrom);
+            next += options.poisson() ? -Math.log(1 - random.nextDouble()) * gapNanos : gapNanos;
+        }
+
+        long drainDeadline = System.nanoTime() + options.timeout().toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        report();
+    }
+
+    // Existing sensors from an earlier run are reused
+    private void registerSensors() throws IOException, InterruptedException {
+        for (int i = 0; i < tags.size(); i++) {
+            String[] location = LOCATIONS[i % LOCATIONS.length];
+            String body = String.format("{\"tag\":\"%s\",\"location\":\"%s\",\"timeZone\":\"%s\"}",
+                    tags.get(i), location[0], location[1]);
+            HttpResponse<String> response = client.send(post("/api/v1/sensors", body),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201 && response.statusCode() != 409) {
+                throw new IllegalStateException("Registering sensor " + tags.get(i) + " failed with "
+                        + response.statusCode() + ": " + response.body());
+            }
+        }
+    }
+
+    private void send(Operation operation, long intended, boolean measured) {
+        // A request never sent failed as far as the offered load goes
+        if (inFlight.get() >= options.maxInFlight()) {
+            if (measured) {
+                stats.get(operation).dropped.increment();
+            }
+            return;
+        }
+        HttpRequest request = request(operation);
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            inFlight.decrementAndGet();
+            if (measured) {
+                stats.get(operation).record(System.nanoTime() - intended,
+                        response == null ? -1 : response.statusCode());
+            }
+        });
+    }
+
+    private HttpRequest request(Operation operation) {
+        return switch (operation) {
+            case INGEST -> post("/api/v1/sensor-readings", reading());
+            case AVERAGE -> get("/api/v1/sensor-readings/average" + window());
+            case SENSOR_AVERAGE -> get("/api/v1/sensor-readings/average/"
+                    + tags.get(random.nextInt(tags.size())) + window());
+            case SENSORS -> get("/api/v1/sensors");
+        };
+    }
+
+    private String reading() {
+        int sensor = random.nextInt(tags.size());
+        long second = Math.max(Instant.now().getEpochSecond(), lastSecond[sensor] + 1);
+        lastSecond[sensor] = second;
+        return String.format(Locale.ROOT,
+                "{\"sensorId\":\"%s\",\"temperature\":%.2f,\"humidity\":%.1f,\"windSpeed\":%.2f,\"timestamp\":\"%s\"}",
+                tags.get(sensor), -10 + random.nextDouble() * 45, random.nextDouble() * 100,
+                random.nextDouble() * 30, Instant.ofEpochSecond(second));
+    }
+
+    // A window of the configured length ending somewhere in the last window
+    private String window() {
+        long length = options.queryWindow().toSeconds();
+        Instant end = Instant.now().truncatedTo(ChronoUnit.SECONDS)
+                .minusSeconds((long) (random.nextDouble() * length));
+        return "?startTime=" + end.minusSeconds(length) + "&endTime=" + end;
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(uri(path)).timeout(options.timeout()).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(uri(path))
+                .timeout(options.timeout())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private URI uri(String path) {
+        return options.baseUrl().resolve(path);
+    }
+
+    private void report() {
+        double seconds = options.duration().toNanos() / 1e9;
+        Histogram total = new Histogram(3);
+        long totalErrors = 0;
+        long totalDropped = 0;
+        SortedMap<Integer, Long> statuses = new ConcurrentSkipListMap<>();
+        System.out.printf(Locale.ROOT, "%n%-15s %9s %8s %8s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "dropped", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms",
+                "max ms");
+        for (Operation operation : Operation.values()) {
+            Stats operationStats = stats.get(operation);
+            Histogram latencies = operationStats.latencies.copy();
+            long dropped = operationStats.dropped.sum();
+            if (latencies.getTotalCount() == 0 && dropped == 0) {
+                continue;
+            }
+            long errors = operationStats.errors.sum() + dropped;
+            total.add(latencies);
+            totalErrors += errors;
+            totalDropped += dropped;
+            operationStats.statuses.forEach((status, count) -> statuses.merge(status, count.sum(), Long::sum));
+            printRow(operation.label(), latencies, errors, dropped, seconds);
+        }
+        printRow("total", total, totalErrors, totalDropped, seconds);
+        long arrivals = total.getTotalCount() + totalDropped;
+        System.out.printf(Locale.ROOT,
+                "%nError rate %.3f%% of %d arrivals, %d of them dropped over max-in-flight, status codes %s%n",
+                arrivals == 0 ? 0.0 : 100.0 * totalErrors / arrivals, arrivals, totalDropped, statuses);
+    }
+
+    // Requests and errors include the dropped arrivals, req/s and latencies
+    // only the requests that were sent
+    private static void printRow(String label, Histogram latencies, long errors, long dropped, double seconds) {
+        System.out.printf(Locale.ROOT, "%-15s %9d %8d %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                label, latencies.getTotalCount() + dropped, errors, dropped, latencies.getTotalCount() / seconds,
+                millis(latencies, 50), millis(latencies, 90), millis(latencies, 99), millis(latencies, 99.9),
+                latencies.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram latencies, double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Latencies in microseconds and outcomes of one operation. Status -1
+     * stands for requests that failed without a response, arrivals dropped
+     * over max-in-flight have neither
+     */
+    private static final class Stats {
+        final ConcurrentHistogram latencies = new ConcurrentHistogram(3);
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        void record(long nanos, int status) {
+            latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            if (status < 200 || status >= 300) {
+                errors.increment();
+            }
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+    }
+}
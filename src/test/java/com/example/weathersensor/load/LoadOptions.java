@@ -0,0 +1,120 @@
+package com.example.weathersensor.load;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options of the {@link LoadGenerator}, passed as {@code --name=value}
+ *
+ * @param baseUrl      instance under test
+ * @param rate         requests started per second over all operations,
+ *                     independent of how fast responses come back
+ * @param poisson      exponentially distributed gaps between requests instead
+ *                     of evenly spaced ones
+ * @param warmup       load applied before measuring starts
+ * @param duration     measured period after the warm-up
+ * @param sensors      simulated sensors, registered before the run
+ * @param sensorPrefix tag prefix of the simulated sensors
+ * @param mix          relative weight of each operation
+ * @param queryWindow  length of the ranges the average queries ask for
+ * @param maxInFlight  outstanding requests after which new arrivals are
+ *                     counted as dropped and failed instead of sent
+ * @param timeout      per request timeout
+ * @param seed         seed of the random choices, runs with equal options
+ *                     send the same requests
+ */
+record LoadOptions(
+                URI baseUrl,
+                double rate,
+                boolean poisson,
+                Duration warmup,
+                Duration duration,
+                int sensors,
+                String sensorPrefix,
+                Map<Operation, Integer> mix,
+                Duration queryWindow,
+                int maxInFlight,
+                Duration timeout,
+                long seed) {
+
+    static final String USAGE = """
+            Options, all optional:
+              --base-url=http://localhost:8080
+              --rate=200                 requests per second
+              --arrivals=uniform         uniform or poisson
+              --warmup=PT10S
+              --duration=PT60S
+              --sensors=100
+              --sensor-prefix=LOAD_
+              --mix=ingest:70,average:15,sensor-average:13,sensors:2
+              --query-window=PT1H
+              --max-in-flight=10000
+              --timeout=PT10S
+              --seed=42
+            """;
+
+    LoadOptions {
+        if (rate <= 0 || sensors <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("rate, sensors and max-in-flight must be positive");
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("mix needs at least one operation with a positive weight");
+        }
+    }
+
+    static LoadOptions parse(String... args) {
+        Map<String, String> values = new HashMap<>();
+        values.put("base-url", "http://localhost:8080");
+        values.put("rate", "200");
+        values.put("arrivals", "uniform");
+        values.put("warmup", "PT10S");
+        values.put("duration", "PT60S");
+        values.put("sensors", "100");
+        values.put("sensor-prefix", "LOAD_");
+        values.put("mix", "ingest:70,average:15,sensor-average:13,sensors:2");
+        values.put("query-window", "PT1H");
+        values.put("max-in-flight", "10000");
+        values.put("timeout", "PT10S");
+        values.put("seed", "42");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (name == null || !values.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option '" + arg + "'\n" + USAGE);
+            }
+            values.put(name, arg.substring(eq + 1));
+        }
+        String arrivals = values.get("arrivals");
+        if (!arrivals.equals("uniform") && !arrivals.equals("poisson")) {
+            throw new IllegalArgumentException("arrivals must be uniform or poisson, not '" + arrivals + "'");
+        }
+        return new LoadOptions(
+                URI.create(values.get("base-url")),
+                Double.parseDouble(values.get("rate")),
+                arrivals.equals("poisson"),
+                Duration.parse(values.get("warmup")),
+                Duration.parse(values.get("duration")),
+                Integer.parseInt(values.get("sensors")),
+                values.get("sensor-prefix"),
+                parseMix(values.get("mix")),
+                Duration.parse(values.get("query-window")),
+                Integer.parseInt(values.get("max-in-flight")),
+                Duration.parse(values.get("timeout")),
+                Long.parseLong(values.get("seed")));
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("mix entries are operation:weight, not '" + entry + "'");
+            }
+            weights.put(Operation.byName(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
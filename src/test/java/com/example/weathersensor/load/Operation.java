@@ -0,0 +1,34 @@
+package com.example.weathersensor.load;
+
+import java.util.Arrays;
+
+/**
+ * Kinds of requests the {@link LoadGenerator} mixes
+ */
+enum Operation {
+    /** POST /api/v1/sensor-readings with a new reading of a random sensor */
+    INGEST("ingest"),
+    /** GET /api/v1/sensor-readings/average over a recent window */
+    AVERAGE("average"),
+    /** GET /api/v1/sensor-readings/average/{sensorId} over a recent window */
+    SENSOR_AVERAGE("sensor-average"),
+    /** GET /api/v1/sensors */
+    SENSORS("sensors");
+
+    private final String label;
+
+    Operation(String label) {
+        this.label = label;
+    }
+
+    String label() {
+        return label;
+    }
+
+    static Operation byName(String label) {
+        return Arrays.stream(values())
+                .filter(operation -> operation.label.equals(label))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown operation '" + label + "'"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Query time of fixed size windows while the history behind them grows from
+ * {@value #DAYS_PER_STEP} to {@value #STEPS} times as many days of minute
+ * readings. The windows stay in the most recent days, older days are
+ * never read, so the times should stay flat. Run with
+ * {@code mvn test -Pbenchmark}
+ */
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+        "spring.jpa.show-sql=false", "logging.level.org.hibernate.SQL=WARN" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class RangeQueryBenchmarkTest extends BenchmarkSupport {
+
+    private static final int SENSORS = 4;
+    private static final int DAYS_PER_STEP = 30;
+    private static final int STEPS = 4;
+    private static final Instant END = Instant.parse("2024-06-01T00:00:00Z");
+    private static final Duration RANGE_WINDOW = Duration.ofHours(1);
+    private static final Duration SUM_WINDOW = Duration.ofDays(7);
+    private static final int RUNS = 21;
+
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private SensorReadingRepository sensorReadingRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final List<Sensor> sensors = new ArrayList<>();
+    private long nextId = 2_000_000_000L;
+
+    @BeforeAll
+    void createSensors() {
+        sensorReadingRepository.deleteAll();
+        for (int s = 1; s <= SENSORS; s++) {
+            sensors.add(sensorRepository.save(
+                    new Sensor(String.format("RANGE_%03d", s), "Berlin", "Europe/Berlin")));
+        }
+    }
+
+    // deleteAll would load every reading as an entity first
+    @AfterAll
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM sensor_readings");
+        sensorRepository.deleteAll();
+    }
+
+    @Test
+    void queryTimeStaysFlatAsHistoryGrows() throws Exception {
+        long[][] nanos = new long[STEPS][];
+        for (int step = 0; step < STEPS; step++) {
+            // Each step adds older history, the queried days stay the same
+            loadDays(END.minus((long) (step + 1) * DAYS_PER_STEP, ChronoUnit.DAYS), DAYS_PER_STEP);
+            long rows = sensorReadingRepository.count();
+
+            // Windows shift a little on every run so H2 never answers from
+            // its result cache
+            IntFunction<Instant> windowEnd = run -> END.minus(run * 37L, ChronoUnit.MINUTES);
+
+            nanos[step] = new long[] {
+                    medianNanos(RUNS, run -> sensorReadingRepository.findRowsByTimestampBetween(
+                            windowEnd.apply(run).minus(RANGE_WINDOW), windowEnd.apply(run))),
+                    medianNanos(RUNS, run -> sensorReadingRepository.sumRaw(
+                            windowEnd.apply(run).minus(SUM_WINDOW), windowEnd.apply(run), null)) };
+            report("%4d days, %8d readings: 1h range %.2f ms, 7d sum %.2f ms",
+                    (step + 1) * DAYS_PER_STEP, rows, nanos[step][0] / 1e6, nanos[step][1] / 1e6);
+        }
+
+        for (int query = 0; query < nanos[0].length; query++) {
+            assertThat(nanos[STEPS - 1][query]).isLessThan(3 * nanos[0][query]);
+        }
+    }
+
+    private void loadDays(Instant from, int days) {
+        int minutesPerDay = 24 * 60;
+        for (int day = 0; day < days; day++) {
+            List<Object[]> rows = new ArrayList<>(SENSORS * minutesPerDay);
+            for (Sensor sensor : sensors) {
+                for (int minute = 0; minute < minutesPerDay; minute++) {
+                    Instant timestamp = from.plus(day, ChronoUnit.DAYS).plus(minute, ChronoUnit.MINUTES);
+                    rows.add(new Object[] { nextId++, sensor.getId(),
+                            SensorReading.scaled(10.0 + (minute % 240) * 0.125, SensorReading.TEMPERATURE_SCALE),
+                            SensorReading.scaled(40.0 + minute % 50, SensorReading.HUMIDITY_SCALE),
+                            SensorReading.scaled((minute % 32) * 0.5, SensorReading.WIND_SPEED_SCALE),
+                            Timestamp.from(timestamp) });
+                }
+            }
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate("INSERT INTO sensor_readings "
+                    + "(id, sensor_id, temperature, humidity, wind_speed, timestamp) VALUES (?, ?, ?, ?, ?, ?)",
+                    rows));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Storage used per reading in the sensor_readings table, as reported by H2
+ * for {@value #SENSORS} sensors with {@value #READINGS_PER_SENSOR} minute
+ * readings each, against the same readings copied into a table with the
+ * earlier layout: the sensor tag string and DOUBLE metrics, with the same
+ * constraint and indexes. H2 only accounts space for file databases, so
+ * this one runs against a fresh database under target. Run with
+ * {@code mvn test -Pbenchmark}
+ */
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:file:./target/storage-benchmark/readings",
+        "spring.jpa.show-sql=false", "logging.level.org.hibernate.SQL=WARN" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class ReadingStorageBenchmarkTest extends BenchmarkSupport {
+
+    private static final int SENSORS = 20;
+    private static final int READINGS_PER_SENSOR = 5_000;
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private SensorReadingRepository sensorReadingRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeAll
+    void loadReadings() {
+        for (int s = 1; s <= SENSORS; s++) {
+            Sensor sensor = sensorRepository.save(
+                    new Sensor(String.format("STORAGE_SENSOR_%03d", s), "Berlin", "Europe/Berlin"));
+            for (int from = 0; from < READINGS_PER_SENSOR; from += 1_000) {
+                List<SensorReading> readings = new ArrayList<>(1_000);
+                for (int i = from; i < from + 1_000; i++) {
+                    readings.add(new SensorReading(sensor, -10.0 + (i % 900) * 0.05, 20.0 + (i % 800) * 0.1,
+                            (i % 400) * 0.05, START.plus(i, ChronoUnit.MINUTES)));
+                }
+                transactionTemplate.executeWithoutResult(status -> sensorReadingRepository.saveAll(readings));
+            }
+        }
+    }
+
+    @AfterAll
+    void cleanUp() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS sensor_readings_wide");
+        sensorReadingRepository.deleteAll();
+        sensorRepository.deleteAll();
+    }
+
+    @Test
+    void compactLayoutTakesLessSpaceThanTheWideOne() {
+        long rows = sensorReadingRepository.count();
+        assertThat(rows).isEqualTo((long) SENSORS * READINGS_PER_SENSOR);
+        copyToWideLayout();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sensor_readings_wide", Long.class))
+                .isEqualTo(rows);
+
+        // Pages still held by the store's writer would otherwise be counted
+        // differently from run to run
+        jdbcTemplate.execute("CHECKPOINT SYNC");
+        long compact = diskSpaceUsed("SENSOR_READINGS");
+        long wide = diskSpaceUsed("SENSOR_READINGS_WIDE");
+        report("%d rows: sensor_readings %.1f bytes per row, tag and DOUBLE layout %.1f bytes per row,"
+                + " %.1fx smaller", rows, (double) compact / rows, (double) wide / rows, (double) wide / compact);
+
+        assertThat(compact * 3).isLessThan(wide * 2);
+    }
+
+    // The layout sensor_readings had before the numeric sensor key and the
+    // scaled metrics, see scripts/migrations/001_compact_sensor_readings.sql
+    private void copyToWideLayout() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS sensor_readings_wide");
+        jdbcTemplate.execute("""
+                CREATE TABLE sensor_readings_wide (
+                    id BIGINT NOT NULL PRIMARY KEY,
+                    sensor_tag VARCHAR(255) NOT NULL,
+                    temperature DOUBLE PRECISION NOT NULL,
+                    humidity DOUBLE PRECISION NOT NULL,
+                    wind_speed DOUBLE PRECISION NOT NULL,
+                    timestamp TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+                    UNIQUE (sensor_tag, timestamp)
+                )""");
+        jdbcTemplate.execute("CREATE INDEX idx_wide_timestamp_id ON sensor_readings_wide (timestamp, id)");
+        jdbcTemplate.execute("CREATE INDEX idx_wide_timestamp_metrics"
+                + " ON sensor_readings_wide (timestamp, sensor_tag, temperature, humidity, wind_speed)");
+        jdbcTemplate.execute("CREATE INDEX idx_wide_tag_timestamp_metrics"
+                + " ON sensor_readings_wide (sensor_tag, timestamp, temperature, humidity, wind_speed)");
+        jdbcTemplate.update("INSERT INTO sensor_readings_wide"
+                + " SELECT r.id, s.tag, r.temperature / " + SensorReading.TEMPERATURE_SCALE + ".0,"
+                + " r.humidity / " + SensorReading.HUMIDITY_SCALE + ".0,"
+                + " r.wind_speed / " + SensorReading.WIND_SPEED_SCALE + ".0, r.timestamp"
+                + " FROM sensor_readings r JOIN sensors s ON s.id = r.sensor_id");
+    }
+
+    private long diskSpaceUsed(String table) {
+        return jdbcTemplate.queryForObject("SELECT DISK_SPACE_USED(?)", Long.class, table);
+    }
+}
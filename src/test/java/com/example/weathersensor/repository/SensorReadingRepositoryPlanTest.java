@@ -0,0 +1,246 @@
+package com.example.weathersensor.repository;
+
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs H2 {@code EXPLAIN} on the SQL of every query of
+ * {@link SensorReadingRepository} and fails when a table is read by a full
+ * scan instead of through an index. Queries filtering on reading columns only
+ * may drive the join from a scan of the small sensors table, queries
+ * filtering on sensor columns may not
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.example.weathersensor.repository.SqlCapture")
+@ActiveProfiles("test")
+class SensorReadingRepositoryPlanTest {
+
+        private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+        private static final Instant END = START.plus(2, ChronoUnit.HOURS);
+
+        // "/* PUBLIC.<index>: <conditions> */" or "/* PUBLIC.<table>.tableScan */"
+        private static final Pattern TABLE_ACCESS = Pattern.compile("/\\* PUBLIC\\.([\\w.]+)(?:: (.*?))?\\s*\\*/",
+                        Pattern.DOTALL);
+
+
+        @Autowired
+        private TestEntityManager entityManager;
+
+        @Autowired
+        private SensorReadingRepository repository;
+
+        // Enough rows that the optimizer weighs indexes against scans the way
+        // it would on a real data set
+        @BeforeEach
+        void setUp() {
+                String[][] locations = { { "Berlin", "Europe/Berlin" }, { "Delhi", "Asia/Kolkata" },
+                                { "Lima", "America/Lima" }, { "Oslo", "Europe/Oslo" }, { "Perth", "Australia/Perth" } };
+                List<Sensor> sensors = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                        String[] location = locations[i % locations.length];
+                        Sensor sensor = new Sensor(String.format("SENSOR_%03d", i), location[0] + i / 10,
+                                        location[1]);
+                        entityManager.persist(sensor);
+                        sensors.add(sensor);
+                }
+                for (Sensor sensor : sensors) {
+                        for (int minute = 0; minute < 24 * 60; minute += 30) {
+                                entityManager.persist(new SensorReading(sensor, 20.0, 50.0, 5.0,
+                                                START.minus(12, ChronoUnit.HOURS).plus(minute, ChronoUnit.MINUTES)));
+                        }
+                }
+                entityManager.flush();
+                entityManager.clear();
+        }
+
+        @Test
+        void findByTimestampBetweenUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findByTimestampBetween(START, END));
+        }
+
+        @Test
+        void findRowsByTimestampBetweenUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findRowsByTimestampBetween(START, END));
+        }
+
+        @Test
+        void streamRowsByTimestampBetweenUsesAnIndex() {
+                assertReadingsIndexed(() -> {
+                        try (var rows = repository.streamRowsByTimestampBetween(START, END)) {
+                                rows.count();
+                        }
+                });
+        }
+
+        @Test
+        void streamRowsToArchiveUsesAnIndex() {
+                assertReadingsIndexed(() -> {
+                        try (var rows = repository.streamRowsToArchive(START, END)) {
+                                rows.count();
+                        }
+                });
+        }
+
+        @Test
+        void findOldestTimestampUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findOldestTimestamp());
+        }
+
+        @Test
+        void findPageUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findPage(START, END, Limit.of(100)));
+        }
+
+        @Test
+        void findPageAfterUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findPageAfter(START, END, START.plusSeconds(600), 10L,
+                                Limit.of(100)));
+        }
+
+        @Test
+        void findExistingKeysSeeksEveryPair() {
+                Sensor sensor = entityManager.getEntityManager()
+                                .createQuery("SELECT s FROM Sensor s WHERE s.tag = 'SENSOR_001'", Sensor.class)
+                                .getSingleResult();
+                List<SensorReading> readings = List.of(new SensorReading(sensor, 20.0, 50.0, 5.0, START),
+                                new SensorReading(sensor, 20.0, 50.0, 5.0, START.plus(90, ChronoUnit.DAYS)));
+
+                assertThat(repository.findExistingKeys(readings)).hasSize(1);
+                String plan = explain(SensorReadingRepositoryImpl.existingKeysSql(readings.size()));
+                Matcher access = TABLE_ACCESS.matcher(plan);
+                assertThat(access.find()).as("Table access in %s", plan).isTrue();
+                assertThat(indexes().get(access.group(1))).as("Index used by %s", plan)
+                                .containsExactly("SENSOR_READINGS", "SENSOR_ID");
+                assertThat(access.group(2)).as("Row values sought in %s", plan).contains("IN(ROW");
+        }
+
+        @Test
+        void sumRawUsesAnIndex() {
+                assertAllIndexed(() -> repository.sumRaw(START, END, null));
+                assertAllIndexed(() -> repository.sumRaw(START, END, "SENSOR_001"));
+        }
+
+        @Test
+        void findAvgTemperatureBySensorTagBetweenUsesAnIndex() {
+                assertAllIndexed(() -> repository.findAvgTemperatureBySensorTagBetween(
+                                "SENSOR_001", START, END));
+        }
+
+        @Test
+        void findAvgTemperatureByLocationBetweenUsesAnIndex() {
+                assertAllIndexed(() -> repository.findAvgTemperatureByLocationBetween("Berlin0", START, END));
+        }
+
+        @Test
+        void findAvgTemperatureByTimeZoneBetweenUsesAnIndex() {
+                assertAllIndexed(() -> repository.findAvgTemperatureByTimeZoneBetween(
+                                "Asia/Kolkata", START, END));
+        }
+
+        @Test
+        void findAverageMetricsInDateRangeUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findAverageMetricsInDateRange(START, END));
+        }
+
+        @Test
+        void findAverageMetricsFilteredUsesAnIndex() {
+                assertReadingsIndexed(() -> repository.findAverageMetricsFiltered(START, END, null, null, null));
+                assertReadingsIndexed(() -> repository.findAverageMetricsFiltered(START, END, "Berlin0",
+                                "SENSOR_000", "Europe/Berlin"));
+        }
+
+        @Test
+        void findAverageMetricsByTagUsesAnIndex() {
+                assertAllIndexed(() -> repository.findAverageMetricsByTag("SENSOR_001", START, END));
+        }
+
+        private void assertReadingsIndexed(Runnable query) {
+                assertIndexed(query, "SENSOR_READINGS");
+        }
+
+        private void assertAllIndexed(Runnable query) {
+                assertIndexed(query, "SENSOR_READINGS", "SENSORS");
+        }
+
+        // H2 names the index it reads in a comment, followed by the conditions
+        // it seeks on. Conditions on later columns alone still read the whole
+        // index, so the leading column has to be among them
+        private void assertIndexed(Runnable query, String... tables) {
+                SqlCapture.clear();
+                query.run();
+                List<String> selects = SqlCapture.statements().stream()
+                                .filter(sql -> sql.stripLeading().regionMatches(true, 0, "select", 0, 6))
+                                .toList();
+                assertThat(selects).isNotEmpty();
+                Map<String, String[]> indexes = indexes();
+                for (String sql : selects) {
+                        String plan = explain(sql);
+                        // MIN and MAX read the first or last entry of an index
+                        // on their column, whatever table access is printed
+                        if (plan.contains("/* direct lookup */")) {
+                                continue;
+                        }
+                        Matcher access = TABLE_ACCESS.matcher(plan);
+                        while (access.find()) {
+                                String[] index = indexes.get(access.group(1));
+                                String table = index == null ? access.group(1).replace(".tableScan", "") : index[0];
+                                if (!List.of(tables).contains(table)) {
+                                        continue;
+                                }
+                                assertThat(index).as("Index used by %s", plan).isNotNull();
+                                String conditions = access.group(2) == null ? "" : access.group(2);
+                                assertThat(conditions.split("\\s+AND\\s+"))
+                                                .as("Seek on leading column %s in %s", index[1], plan)
+                                                .anyMatch(condition -> condition.strip().startsWith(index[1] + " "));
+                        }
+                }
+        }
+
+        private Map<String, String[]> indexes() {
+                return entityManager.getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+                        Map<String, String[]> indexes = new HashMap<>();
+                        try (PreparedStatement statement = connection.prepareStatement("""
+                                        SELECT INDEX_NAME, TABLE_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.INDEX_COLUMNS
+                                        WHERE TABLE_SCHEMA = 'PUBLIC' AND ORDINAL_POSITION = 1
+                                        """);
+                                        ResultSet result = statement.executeQuery()) {
+                                while (result.next()) {
+                                        indexes.put(result.getString(1),
+                                                        new String[] { result.getString(2), result.getString(3) });
+                                }
+                        }
+                        return indexes;
+                });
+        }
+
+        private String explain(String sql) {
+                return entityManager.getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+                        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql);
+                                        ResultSet result = statement.executeQuery()) {
+                                result.next();
+                                return result.getString(1);
+                        }
+                });
+        }
+}
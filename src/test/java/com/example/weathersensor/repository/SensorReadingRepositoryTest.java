@@ -1,8 +1,12 @@
 package com.example.weathersensor.repository;
 
 import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.dto.SensorReadingRow;
 import com.example.weathersensor.entity.Sensor;
 import com.example.weathersensor.entity.SensorReading;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
@@ -15,6 +19,7 @@
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @DataJpaTest
 @ActiveProfiles("test")
@@ -189,86 +194,88 @@ void shouldFindAverageMetricsByTag() {
         }
 
         @Test
-        void shouldFindAverageMetricsByLocation() {
+        void shouldFindAverageMetricsFilteredWithAllNulls() {
                 // Arrange
                 Instant now = Instant.now();
-                Sensor sensor = new Sensor("SENSOR_LOC_TEST", "Madrid", "Europe/Madrid");
+                Sensor sensor = new Sensor("SENSOR_X", "London", "Europe/London");
                 entityManager.persistAndFlush(sensor);
-
-                entityManager.persistAndFlush(new SensorReading(sensor, 18.0, 55.0, 7.0, now));
-                entityManager.persistAndFlush(
-                                new SensorReading(sensor, 22.0, 65.0, 13.0, now.plus(2, ChronoUnit.MINUTES)));
+                entityManager.persistAndFlush(new SensorReading(sensor, 22.0, 55.0, 12.0, now));
 
                 // Act
-                Optional<AverageMetricsDto> result = repository.findAverageMetricsByLocation(
-                                "Madrid", now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS));
+                Optional<AverageMetricsDto> result = repository.findAverageMetricsFiltered(
+                                now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS),
+                                null, null, null);
 
                 // Assert
                 assertThat(result).isPresent();
-                AverageMetricsDto dto = result.get();
-                assertThat(dto.averageTemperature()).isEqualTo(20.0);
-                assertThat(dto.averageHumidity()).isEqualTo(60.0);
-                assertThat(dto.averageWindSpeed()).isEqualTo(10.0);
-                assertThat(dto.readings()).isEqualTo(2L);
+                assertThat(result.get().readings()).isEqualTo(1L);
         }
 
         @Test
-        void shouldFindAverageMetricsByTimeZone() {
+        void shouldFindAverageMetricsFilteredByLocation() {
                 // Arrange
                 Instant now = Instant.now();
-                Sensor sensor = new Sensor("SENSOR_TZ_TEST", "Rome", "Europe/Rome");
+                Sensor sensor = new Sensor("SENSOR_Y", "Lisbon", "Europe/Lisbon");
                 entityManager.persistAndFlush(sensor);
-
-                entityManager.persistAndFlush(new SensorReading(sensor, 12.0, 45.0, 6.0, now));
-                entityManager.persistAndFlush(
-                                new SensorReading(sensor, 18.0, 55.0, 9.0, now.plus(1, ChronoUnit.MINUTES)));
+                entityManager.persistAndFlush(new SensorReading(sensor, 16.0, 50.0, 8.0, now));
 
                 // Act
-                Optional<AverageMetricsDto> result = repository.findAverageMetricsByTimeZone(
-                                "Europe/Rome", now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS));
+                Optional<AverageMetricsDto> result = repository.findAverageMetricsFiltered(
+                                now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS),
+                                "Lisbon", null, null);
 
                 // Assert
                 assertThat(result).isPresent();
-                AverageMetricsDto dto = result.get();
-                assertThat(dto.averageTemperature()).isEqualTo(15.0);
-                assertThat(dto.averageHumidity()).isEqualTo(50.0);
-                assertThat(dto.averageWindSpeed()).isEqualTo(7.5);
-                assertThat(dto.readings()).isEqualTo(2L);
+                assertThat(result.get().averageTemperature()).isEqualTo(16.0);
         }
 
         @Test
-        void shouldFindAverageMetricsFilteredWithAllNulls() {
-                // Arrange
-                Instant now = Instant.now();
-                Sensor sensor = new Sensor("SENSOR_X", "London", "Europe/London");
-                entityManager.persistAndFlush(sensor);
-                entityManager.persistAndFlush(new SensorReading(sensor, 22.0, 55.0, 12.0, now));
+        void shouldSumRawReadingsInTheTestsTransaction() {
+                // Arrange, the rows stay uncommitted
+                Instant start = Instant.parse("2024-03-01T06:00:00Z");
+                Sensor sensor1 = new Sensor("SENSOR_1", "Berlin", "Europe/Berlin");
+                Sensor sensor2 = new Sensor("SENSOR_2", "Berlin", "Europe/Berlin");
+                entityManager.persistAndFlush(sensor1);
+                entityManager.persistAndFlush(sensor2);
+
+                entityManager.persistAndFlush(new SensorReading(sensor1, 20.25, 60.5, 10.75, start));
+                entityManager.persistAndFlush(new SensorReading(sensor2, -3.5, 70.0, 2.0, start.plusSeconds(60)));
+                entityManager.persistAndFlush(new SensorReading(sensor1, 99.0, 99.0, 99.0, start.plusSeconds(120)));
 
                 // Act
-                Optional<AverageMetricsDto> result = repository.findAverageMetricsFiltered(
-                                now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS),
-                                null, null, null);
+                MetricTotals all = repository.sumRaw(start, start.plusSeconds(120), null);
+                MetricTotals tagged = repository.sumRaw(start, start.plusSeconds(120), "SENSOR_1");
 
                 // Assert
-                assertThat(result).isPresent();
-                assertThat(result.get().readings()).isEqualTo(1L);
+                assertThat(all).isEqualTo(new MetricTotals(1675L, 13050L, 1275L, 2L));
+                assertThat(tagged).isEqualTo(new MetricTotals(2025L, 6050L, 1075L, 1L));
         }
 
         @Test
-        void shouldFindAverageMetricsFilteredByLocation() {
+        void shouldProjectReadingsWithSensorInOneStatement() {
                 // Arrange
                 Instant now = Instant.now();
-                Sensor sensor = new Sensor("SENSOR_Y", "Lisbon", "Europe/Lisbon");
-                entityManager.persistAndFlush(sensor);
-                entityManager.persistAndFlush(new SensorReading(sensor, 16.0, 50.0, 8.0, now));
+                Sensor berlin = new Sensor("SENSOR_ROW_1", "Berlin", "Europe/Berlin");
+                Sensor delhi = new Sensor("SENSOR_ROW_2", "Delhi", "Asia/Kolkata");
+                entityManager.persistAndFlush(berlin);
+                entityManager.persistAndFlush(delhi);
+                entityManager.persistAndFlush(new SensorReading(berlin, 20.0, 60.0, 10.0, now));
+                entityManager.persistAndFlush(new SensorReading(delhi, 30.0, 70.0, 20.0, now));
+                entityManager.clear();
+                Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                                .unwrap(SessionFactory.class).getStatistics();
+                statistics.clear();
 
                 // Act
-                Optional<AverageMetricsDto> result = repository.findAverageMetricsFiltered(
-                                now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS),
-                                "Lisbon", null, null);
+                List<SensorReadingRow> rows = repository.findRowsByTimestampBetween(
+                                now.minus(1, ChronoUnit.MINUTES), now.plus(1, ChronoUnit.MINUTES));
 
                 // Assert
-                assertThat(result).isPresent();
-                assertThat(result.get().averageTemperature()).isEqualTo(16.0);
+                assertThat(rows).extracting(SensorReadingRow::sensorId, SensorReadingRow::timeZone)
+                                .containsExactlyInAnyOrder(
+                                                tuple("SENSOR_ROW_1", "Europe/Berlin"),
+                                                tuple("SENSOR_ROW_2", "Asia/Kolkata"));
+                assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+                assertThat(statistics.getEntityLoadCount()).isZero();
         }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.example.weathersensor.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the SQL Hibernate sends, registered through
+ * {@code hibernate.session_factory.statement_inspector}
+ */
+public class SqlCapture implements StatementInspector {
+
+        private static final List<String> statements = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+                statements.add(sql);
+                return sql;
+        }
+
+        static void clear() {
+                statements.clear();
+        }
+
+        static List<String> statements() {
+                return List.copyOf(statements);
+        }
+}
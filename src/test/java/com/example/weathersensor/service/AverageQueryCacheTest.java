@@ -0,0 +1,172 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.AverageCacheProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AverageQueryCacheTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant END = Instant.parse("2024-01-02T00:00:00Z");
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private AverageQueryCache cache(int maxEntries, Duration openTtl, Duration stale) {
+        return new AverageQueryCache(new AverageCacheProperties(maxEntries, openTtl, stale, 1), Runnable::run);
+    }
+
+    private AverageMetricsDto load() {
+        return new AverageMetricsDto(20.0, 50.0, 5.0, (long) loads.incrementAndGet());
+    }
+
+    private static SensorReading reading(String tag, Instant timestamp) {
+        return new SensorReading(new Sensor(tag, "Berlin", "Europe/Berlin"), 1.0, 1.0, 1.0, timestamp);
+    }
+
+    @Test
+    void shouldKeepClosedWindowsUntilALateReadingLandsInThem() {
+        AverageQueryCache cache = cache(10, Duration.ZERO, Duration.ZERO);
+
+        assertThat(cache.get("S1", START, END, this::load).readings()).isEqualTo(1L);
+        assertThat(cache.get("S1", START, END, this::load).readings()).isEqualTo(1L);
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(1);
+
+        // Outside the window or for another sensor
+        cache.invalidate(List.of(reading("S1", END.plusSeconds(1)), reading("S2", START.plusSeconds(5))));
+        assertThat(cache.get("S1", START, END, this::load).readings()).isEqualTo(1L);
+
+        cache.invalidate(List.of(reading("S1", START.plusSeconds(5))));
+        assertThat(cache.get("S1", START, END, this::load).readings()).isEqualTo(2L);
+    }
+
+    @Test
+    void shouldNotKeepAClosedWindowWhoseReadingArrivedWhileLoading() {
+        AverageQueryCache cache = cache(10, Duration.ZERO, Duration.ZERO);
+
+        // The reading commits after the query has read the window
+        assertThat(cache.get("S1", START, END, () -> {
+            AverageMetricsDto result = load();
+            cache.invalidate(List.of(reading("S1", START.plusSeconds(5))));
+            return result;
+        }).readings()).isEqualTo(1L);
+
+        assertThat(cache.get("S1", START, END, this::load).readings()).isEqualTo(2L);
+    }
+
+    @Test
+    void shouldNotCloseARefreshedWindowWhoseReadingArrivedWhileRefreshing() throws Exception {
+        AverageQueryCache cache = cache(10, Duration.ZERO, Duration.ofMinutes(1));
+        Instant end = Instant.now().plusMillis(50);
+        cache.get("S1", START, end, this::load);
+        Thread.sleep(100);
+
+        // Served stale while the refresh, now of a closed window, runs
+        assertThat(cache.get("S1", START, end, () -> {
+            AverageMetricsDto result = load();
+            cache.invalidate(List.of(reading("S1", START.plusSeconds(5))));
+            return result;
+        }).readings()).isEqualTo(1L);
+
+        assertThat(cache.get("S1", START, end, this::load).readings()).isEqualTo(2L);
+        assertThat(cache.get("S1", START, end, this::load).readings()).isEqualTo(3L);
+    }
+
+    @Test
+    void shouldServeStaleOpenWindowsWhileRefreshing() throws Exception {
+        AverageQueryCache cache = cache(10, Duration.ofMillis(1), Duration.ofHours(1));
+        Instant end = Instant.now().plusSeconds(3_600);
+
+        assertThat(cache.get(null, START, end, this::load).readings()).isEqualTo(1L);
+        Thread.sleep(5);
+        // The stale value is returned, the refresh replaces it for later calls
+        assertThat(cache.get(null, START, end, this::load).readings()).isEqualTo(1L);
+        assertThat(cache.staleHits()).isEqualTo(1);
+        assertThat(cache.get(null, START, end, this::load).readings()).isEqualTo(2L);
+    }
+
+    @Test
+    void shouldReloadOpenWindowsPastTheirStalePeriod() throws Exception {
+        AverageQueryCache cache = cache(10, Duration.ofMillis(1), Duration.ofMillis(1));
+        Instant end = Instant.now().plusSeconds(3_600);
+
+        cache.get(null, START, end, this::load);
+        Thread.sleep(5);
+        assertThat(cache.get(null, START, end, this::load).readings()).isEqualTo(2L);
+        assertThat(cache.misses()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldCoalesceConcurrentIdenticalRequests() throws Exception {
+        AverageQueryCache cache = cache(10, Duration.ZERO, Duration.ZERO);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<AverageMetricsDto>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get("S1", START, END, () -> {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return load();
+                })));
+            }
+            while (cache.coalesced() < 7) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<AverageMetricsDto> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS).readings()).isEqualTo(1L);
+            }
+            assertThat(loads).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldNotCacheFailures() {
+        AverageQueryCache cache = cache(10, Duration.ZERO, Duration.ZERO);
+
+        assertThatThrownBy(() -> cache.get("S1", START, END, () -> {
+            throw new IllegalStateException("database down");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.size()).isZero();
+        assertThat(cache.get("S1", START, END, this::load).readings()).isEqualTo(1L);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntriesWhenFull() {
+        AverageQueryCache cache = cache(4, Duration.ZERO, Duration.ZERO);
+        for (int i = 0; i < 4; i++) {
+            cache.get("S" + i, START, END, this::load);
+        }
+        cache.get("S0", START, END, this::load);
+
+        cache.get("S4", START, END, this::load);
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.evictions()).isEqualTo(2);
+        int before = loads.get();
+        cache.get("S0", START, END, this::load);
+        assertThat(loads).hasValue(before);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.MetricTotals;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Size and scan speed of the cold tier against the raw table, for
+ * {@value #SENSORS} sensors with {@value #DAYS} days of minute readings whose
+ * metrics drift like real weather. H2 only accounts space for file
+ * databases, so this one runs against a fresh database under target. Run
+ * with {@code mvn test -Pbenchmark}
+ */
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:file:./target/cold-benchmark/readings",
+        "weather.cold-tier.enabled=true", "weather.cold-tier.directory=target/cold-benchmark/segments",
+        "spring.jpa.show-sql=false", "logging.level.org.hibernate.SQL=WARN" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class ColdSegmentBenchmarkTest extends BenchmarkSupport {
+
+    private static final int SENSORS = 20;
+    private static final int DAYS = 14;
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant END = START.plus(DAYS, ChronoUnit.DAYS);
+    private static final int RUNS = 7;
+
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private SensorReadingRepository sensorReadingRepository;
+    @Autowired
+    private ColdSegmentStore coldStore;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeAll
+    void loadReadings() {
+        coldStore.clear();
+        jdbcTemplate.update("DELETE FROM sensor_readings");
+        sensorRepository.deleteAll();
+        Random random = new Random(7);
+        long id = 1;
+        for (int s = 1; s <= SENSORS; s++) {
+            Sensor sensor = sensorRepository.save(
+                    new Sensor(String.format("COLD_SENSOR_%03d", s), "Berlin", "Europe/Berlin"));
+            double temperature = 10.0;
+            double humidity = 60.0;
+            double windSpeed = 4.0;
+            for (int day = 0; day < DAYS; day++) {
+                List<Object[]> rows = new ArrayList<>(24 * 60);
+                for (int minute = 0; minute < 24 * 60; minute++) {
+                    temperature = Math.max(-30, Math.min(40, temperature + random.nextGaussian() * 0.05));
+                    humidity = Math.max(0, Math.min(100, humidity + random.nextGaussian() * 0.2));
+                    windSpeed = Math.max(0, Math.min(30, windSpeed + random.nextGaussian() * 0.1));
+                    rows.add(new Object[] { id++, sensor.getId(),
+                            SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE),
+                            SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE),
+                            SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE),
+                            Timestamp.from(START.plus(day, ChronoUnit.DAYS).plus(minute, ChronoUnit.MINUTES)) });
+                }
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                        "INSERT INTO sensor_readings (id, sensor_id, temperature, humidity, wind_speed, timestamp)"
+                                + " VALUES (?, ?, ?, ?, ?, ?)",
+                        rows));
+            }
+        }
+    }
+
+    // deleteAll would load every reading as an entity first
+    @AfterAll
+    void cleanUp() {
+        coldStore.clear();
+        jdbcTemplate.update("DELETE FROM sensor_readings");
+        sensorRepository.deleteAll();
+    }
+
+    @Test
+    void segmentsAreSmallerAndFasterToScanThanRows() throws Exception {
+        long rows = sensorReadingRepository.count();
+        Long tableBytes = jdbcTemplate.queryForObject("SELECT DISK_SPACE_USED('SENSOR_READINGS')", Long.class);
+        for (Instant day = START; day.isBefore(END); day = day.plus(1, ChronoUnit.DAYS)) {
+            coldStore.seal(day, day.plus(1, ChronoUnit.DAYS));
+        }
+        long segmentBytes = coldStore.footprintBytes();
+        report("%d readings: sensor_readings %.1f bytes per row, %d segments %.2f bytes per reading,"
+                + " %.1fx smaller", rows, (double) tableBytes / rows, coldStore.segments(),
+                (double) segmentBytes / rows, (double) tableBytes / segmentBytes);
+
+        MetricTotals table = sensorReadingRepository.sumRaw(START, END, null);
+        MetricTotals segments = coldStore.sum(START, END, null);
+        assertThat(segments.readings()).isEqualTo(table.readings()).isEqualTo(rows);
+        assertThat(segments.temperatureSum()).isEqualTo(table.temperatureSum());
+        assertThat(segments.humiditySum()).isEqualTo(table.humiditySum());
+        assertThat(segments.windSpeedSum()).isEqualTo(table.windSpeedSum());
+        Instant dayEnd = START.plus(1, ChronoUnit.DAYS);
+        assertThat(coldStore.readings(START, dayEnd)).hasSize(SENSORS * 24 * 60);
+
+        // Ranges shift by a second on every run so H2 never answers from its
+        // result cache
+        long tableSum = medianNanos(RUNS, run -> sensorReadingRepository.sumRaw(START.plusSeconds(run), END, null));
+        long segmentSum = medianNanos(RUNS, run -> coldStore.sum(START.plusSeconds(run), END, null));
+        long tableRows = medianNanos(RUNS, run -> sensorReadingRepository.findRowsByTimestampBetween(
+                START.plusSeconds(run), dayEnd.minusNanos(1)));
+        long segmentRows = medianNanos(RUNS, run -> coldStore.readings(START.plusSeconds(run), dayEnd).toList());
+        report("Sum of %d days: table %.1f M readings/s, segments %.1f M readings/s",
+                DAYS, rows * 1e3 / tableSum, rows * 1e3 / segmentSum);
+        report("Readings of 1 day: table %.1f M readings/s, segments %.1f M readings/s",
+                SENSORS * 1440 * 1e3 / tableRows, SENSORS * 1440 * 1e3 / segmentRows);
+
+        assertThat(segmentBytes * 4).isLessThan(tableBytes);
+        assertThat(segmentSum).isLessThan(tableSum);
+    }
+}
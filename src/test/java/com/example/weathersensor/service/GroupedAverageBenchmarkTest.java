@@ -0,0 +1,140 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.SensorRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Averages of every sensor of a {@value #SENSORS} sensor fleet over two
+ * weeks of readings, one average request per sensor against one grouped
+ * request. Run with {@code mvn test -Pbenchmark}
+ */
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+        "spring.jpa.show-sql=false", "logging.level.org.hibernate.SQL=WARN" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class GroupedAverageBenchmarkTest extends BenchmarkSupport {
+
+    private static final int SENSORS = 200;
+    private static final int DAYS = 14;
+    private static final Instant START = Instant.parse("2024-02-01T00:00:00Z");
+    private static final int RUNS = 7;
+
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private ReadingRollupService rollupService;
+    @Autowired
+    private SensorReadingService sensorReadingService;
+    @Autowired
+    private SensorService sensorService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final List<String> tags = new ArrayList<>();
+
+    // Readings every 15 minutes, rows with plain JDBC and rollups through the
+    // ingest path
+    @BeforeAll
+    void loadFleet() {
+        cleanUp();
+        long id = 1;
+        for (int s = 0; s < SENSORS; s++) {
+            Sensor sensor = sensorRepository.save(new Sensor(String.format("FLEET_%04d", s),
+                    "City" + s % 20, s % 2 == 0 ? "Europe/Berlin" : "Asia/Kolkata"));
+            tags.add(sensor.getTag());
+            List<SensorReading> readings = new ArrayList<>();
+            List<Object[]> rows = new ArrayList<>();
+            for (int i = 0; i < DAYS * 24 * 4; i++) {
+                Instant timestamp = START.plus(i * 15L, ChronoUnit.MINUTES);
+                double temperature = 5.0 + (i + s) % 80 * 0.25;
+                double humidity = 30.0 + (i * 7 + s) % 60;
+                double windSpeed = (i + s * 3) % 40 * 0.5;
+                readings.add(new SensorReading(sensor, temperature, humidity, windSpeed, timestamp));
+                rows.add(new Object[] { id++, sensor.getId(),
+                        SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE),
+                        SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE),
+                        SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE), Timestamp.from(timestamp) });
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate("INSERT INTO sensor_readings "
+                        + "(id, sensor_id, temperature, humidity, wind_speed, timestamp) VALUES (?, ?, ?, ?, ?, ?)",
+                        rows);
+                rollupService.record(readings);
+            });
+        }
+        sensorService.reloadRegistry();
+    }
+
+    @AfterAll
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM sensor_readings");
+        jdbcTemplate.update("DELETE FROM sensor_reading_rollups");
+        jdbcTemplate.update("DELETE FROM sensor_reading_sketches");
+        sensorRepository.deleteAll();
+    }
+
+    @Test
+    void groupedRequestIsFasterThanOneRequestPerSensor() throws Exception {
+        Instant start = START.plus(1, ChronoUnit.DAYS).plusSeconds(3_333);
+        Instant end = START.plus(13, ChronoUnit.DAYS).plusSeconds(44_444);
+
+        Map<String, AverageMetricsDto> grouped = sensorReadingService.getGroupedAverageMetrics(start, end,
+                SensorReadingService.GroupBy.TAG, null);
+        assertThat(grouped).hasSize(SENSORS);
+        assertThat(grouped.values().stream().mapToLong(AverageMetricsDto::readings).sum())
+                .isEqualTo(rollupService.averages(start, end, null).readings());
+        for (String tag : List.of(tags.get(0), tags.get(SENSORS / 2), tags.get(SENSORS - 1))) {
+            AverageMetricsDto single = rollupService.averages(start, end, tag);
+            assertThat(grouped.get(tag).readings()).isEqualTo(single.readings());
+            assertThat(grouped.get(tag).averageTemperature()).isCloseTo(single.averageTemperature(), within(1e-9));
+        }
+
+        // Windows shift by a second on every run so H2 never answers from its
+        // result cache
+        long perSensor = medianNanos(RUNS, run -> {
+            for (String tag : tags) {
+                rollupService.averages(start.plusSeconds(run), end, tag);
+            }
+        });
+        long perLocation = medianNanos(RUNS, run -> {
+            for (int city = 0; city < 20; city++) {
+                sensorReadingService.getGroupedAverageMetrics(start.plusSeconds(run), end,
+                        SensorReadingService.GroupBy.LOCATION, List.of("City" + city));
+            }
+        });
+        long groupedByTag = medianNanos(RUNS, run -> sensorReadingService.getGroupedAverageMetrics(
+                start.plusSeconds(run), end, SensorReadingService.GroupBy.TAG, null));
+        long groupedByLocation = medianNanos(RUNS, run -> sensorReadingService.getGroupedAverageMetrics(
+                start.plusSeconds(run), end, SensorReadingService.GroupBy.LOCATION, null));
+        report("%d sensors: one request per sensor %.1f ms, grouped by tag %.1f ms (%.0fx faster),"
+                + " one request per location %.1f ms, grouped by location %.1f ms", SENSORS, perSensor / 1e6,
+                groupedByTag / 1e6, (double) perSensor / groupedByTag, perLocation / 1e6, groupedByLocation / 1e6);
+
+        assertThat(groupedByTag * 5).isLessThan(perSensor);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.config.HotStoreProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Footprint and query latency of the hot store holding a million readings,
+ * 1000 sensors reporting once a minute for about 17 hours. The footprint is
+ * reported both as accounted array bytes and as heap growth measured after
+ * a GC. Run with {@code mvn test -Pbenchmark}
+ */
+class HotReadingStoreBenchmarkTest extends BenchmarkSupport {
+
+    private static final int SENSORS = 1_000;
+    private static final int MINUTES = 1_000;
+    private static final int QUERIES = 5_000;
+
+    @Test
+    void millionReadingsStayCompactAndFastToQuery() {
+        long heapBefore = usedHeap();
+        HotReadingStore store = new HotReadingStore(
+                new HotStoreProperties(true, Duration.ofDays(3), 2_000_000, 4096, Duration.ofMinutes(1)));
+        Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        String[] tags = new String[SENSORS];
+        for (int s = 0; s < SENSORS; s++) {
+            tags[s] = "SENSOR_" + s;
+        }
+        long id = 0;
+        for (int m = 0; m < MINUTES; m++) {
+            for (int s = 0; s < SENSORS; s++) {
+                store.add(tags[s], "Europe/Berlin", id++, base.plusSeconds(m * 60L + s % 60),
+                        20.0 + s % 10 * 0.25, 50.0 + m % 7 * 0.5, 3.0);
+            }
+        }
+        long heapAfter = usedHeap();
+        Instant now = base.plus(MINUTES, ChronoUnit.MINUTES);
+
+        AverageMetricsDto sensor = store.averages(base, now, tags[3]).orElseThrow();
+        assertThat(sensor.readings()).isEqualTo(MINUTES);
+        assertThat(sensor.averageTemperature()).isEqualTo(20.75);
+        assertThat(sensor.averageWindSpeed()).isEqualTo(3.0);
+        assertThat(store.averages(base, now, null).orElseThrow().readings()).isEqualTo((long) SENSORS * MINUTES);
+        // Every sensor reports once in each minute
+        assertThat(store.readings(base, base.plusSeconds(59)).orElseThrow()).hasSize(SENSORS);
+
+        long[] sensorNanos = new long[QUERIES];
+        long[] rowsNanos = new long[QUERIES];
+        long[] totalNanos = new long[QUERIES];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < QUERIES; i++) {
+            Instant end = now.minusSeconds(random.nextInt(0, (MINUTES - 60) * 60));
+            Instant start = end.minus(1, ChronoUnit.HOURS);
+            String tag = tags[random.nextInt(SENSORS)];
+            long begin = System.nanoTime();
+            store.averages(start, end, tag).orElseThrow();
+            sensorNanos[i] = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            store.readings(start, start.plusSeconds(60)).orElseThrow();
+            rowsNanos[i] = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            store.averages(start, end, null).orElseThrow();
+            totalNanos[i] = System.nanoTime() - begin;
+        }
+
+        long perMillion = store.bytesPerMillionReadings();
+        long heapPerMillion = (heapAfter - heapBefore) * 1_000_000 / store.readings();
+        report("Hot store with %d readings: %.1f MB arrays per million readings, "
+                + "%.1f MB heap growth per million readings",
+                store.readings(), perMillion / 1e6, heapPerMillion / 1e6);
+        report("Hot store p99 over %d queries: 1h sensor average %.1f us, "
+                + "1 minute of readings %.1f us, 1h all sensor average %.1f us",
+                QUERIES, p99(sensorNanos) / 1e3, p99(rowsNanos) / 1e3, p99(totalNanos) / 1e3);
+
+        assertThat(store.readings()).isEqualTo((long) SENSORS * MINUTES);
+        assertThat(perMillion).isLessThan(2L * SensorColumns.BYTES_PER_SLOT * 1_000_000);
+        assertThat(p99(sensorNanos)).isLessThan(1_000_000L);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.HotStoreProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.SensorReadingRow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotReadingStoreTest {
+
+    private Instant base;
+
+    @BeforeEach
+    void setUp() {
+        base = Instant.now().plusSeconds(60).truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    // Evicts on the adding thread, so tests see the result right away
+    private static HotReadingStore store(long maxReadings, int chunkSize) {
+        return new HotReadingStore(new HotStoreProperties(true, Duration.ofDays(3), maxReadings, chunkSize,
+                Duration.ofMinutes(1)), Runnable::run);
+    }
+
+    @Test
+    void shouldAverageReadingsInInclusiveRange() {
+        HotReadingStore store = store(1_000, 16);
+        store.add("S1", "Europe/Berlin", 1, base, 10.25, 50.0, 1.0);
+        store.add("S1", "Europe/Berlin", 2, base.plusSeconds(1), 20.5, 60.0, 2.0);
+        store.add("S2", "Asia/Kolkata", 3, base.plusSeconds(1), 30.0, 70.5, 3.0);
+        store.add("S1", "Europe/Berlin", 4, base.plusSeconds(2), 90.0, 90.0, 9.0);
+
+        AverageMetricsDto all = store.averages(base, base.plusSeconds(1), null).orElseThrow();
+        assertThat(all.readings()).isEqualTo(3L);
+        assertThat(all.averageTemperature()).isEqualTo(20.25);
+
+        AverageMetricsDto sensor = store.averages(base.minusMillis(500), base.plusSeconds(1), "S1").orElseThrow();
+        assertThat(sensor.readings()).isEqualTo(2L);
+        assertThat(sensor.averageHumidity()).isEqualTo(55.0);
+        assertThat(sensor.averageWindSpeed()).isEqualTo(1.5);
+
+        assertThat(store.averages(base, base.plusSeconds(2), "S3").orElseThrow().readings()).isZero();
+    }
+
+    @Test
+    void shouldListReadingsInTimeOrderWithTheirSensor() {
+        HotReadingStore store = store(1_000, 16);
+        store.add("S2", "Asia/Kolkata", 7, base.plusSeconds(1), 30.0, 70.0, 3.0);
+        store.add("S1", "Europe/Berlin", 5, base.plusSeconds(1), 20.0, 60.0, 2.0);
+        store.add("S1", "Europe/Berlin", 4, base, 10.0, 50.0, 1.0);
+
+        List<SensorReadingRow> rows = store.readings(base, base.plusSeconds(5)).orElseThrow();
+
+        assertThat(rows).containsExactly(
+                new SensorReadingRow(4L, "S1", 10.0, 50.0, 1.0, base, "Europe/Berlin"),
+                new SensorReadingRow(5L, "S1", 20.0, 60.0, 2.0, base.plusSeconds(1), "Europe/Berlin"),
+                new SensorReadingRow(7L, "S2", 30.0, 70.0, 3.0, base.plusSeconds(1), "Asia/Kolkata"));
+    }
+
+    @Test
+    void shouldKeepReadingsArrivingOutOfOrderSorted() {
+        HotReadingStore store = store(10_000, 8);
+        List<Integer> seconds = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            seconds.add(i);
+        }
+        Collections.shuffle(seconds, new Random(42));
+        for (int second : seconds) {
+            store.add("S1", "Europe/Berlin", second, base.plusSeconds(second), second, 0.0, 0.0);
+        }
+
+        List<SensorReadingRow> rows = store.readings(base.plusSeconds(100), base.plusSeconds(199)).orElseThrow();
+        assertThat(rows).extracting(SensorReadingRow::id).containsExactlyElementsOf(
+                seconds.stream().sorted().skip(100).limit(100).map(Integer::longValue).toList());
+        assertThat(store.averages(base.plusSeconds(100), base.plusSeconds(199), "S1").orElseThrow()
+                .averageTemperature()).isEqualTo(149.5);
+    }
+
+    @Test
+    void shouldEvictOldestChunksBeyondCapacity() {
+        HotReadingStore store = store(64, 16);
+        for (int i = 0; i < 100; i++) {
+            store.add(i % 2 == 0 ? "S1" : "S2", "Europe/Berlin", i, base.plusSeconds(i), i, 0.0, 0.0);
+        }
+
+        assertThat(store.readings()).isLessThanOrEqualTo(64);
+        // Every chunk ending before the watermark is gone, S2's chunk
+        // reaching past it is kept whole
+        assertThat(store.coveredFrom()).isEqualTo(base.plusSeconds(63));
+        assertThat(store.averages(base, base.plusSeconds(99), null)).isEmpty();
+        assertThat(store.readings(base, base.plusSeconds(99))).isEmpty();
+        Instant coveredFrom = store.coveredFrom();
+        AverageMetricsDto kept = store.averages(coveredFrom, base.plusSeconds(99), null).orElseThrow();
+        assertThat(kept.readings()).isEqualTo(ChronoUnit.SECONDS.between(coveredFrom, base.plusSeconds(100)));
+    }
+
+    @Test
+    void shouldIgnoreReadingsBeforeTheCoveredRange() {
+        HotReadingStore store = store(1_000, 16);
+        store.add("S1", "Europe/Berlin", 1, base.minus(1, ChronoUnit.DAYS), 10.0, 50.0, 1.0);
+
+        assertThat(store.readings()).isZero();
+        assertThat(store.averages(base.minus(2, ChronoUnit.DAYS), base, null)).isEmpty();
+    }
+
+    @Test
+    void shouldReportFootprintPerMillionReadings() {
+        HotReadingStore store = store(1_000_000, 1024);
+        for (int i = 0; i < 10_240; i++) {
+            store.add("S" + i % 10, "Europe/Berlin", i, base.plusSeconds(i), 20.0, 50.0, 5.0);
+        }
+
+        // Full chunks, no slack
+        assertThat(store.footprintBytes()).isEqualTo(10_240L * SensorColumns.BYTES_PER_SLOT);
+        assertThat(store.bytesPerMillionReadings()).isEqualTo(1_000_000L * SensorColumns.BYTES_PER_SLOT);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.dto.MetricStatistics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class QuantileSketchTest {
+
+    private static final double[] QUANTILES = { 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999 };
+
+    // Value ranked at quantile * (count - 1), the rank the sketch answers
+    private static double exact(double[] sorted, double quantile) {
+        return sorted[(int) (quantile * (sorted.length - 1))];
+    }
+
+    @Test
+    void shouldAnswerQuantilesWithinTheRelativeAccuracy() {
+        Random random = new Random(7);
+        double[] values = new double[50_000];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            // Skewed, signed, with zeros and two decimals like a stored metric
+            double value = i % 20 == 0 ? 0.0 : Math.round((Math.exp(random.nextGaussian()) * 10 - 8) * 100) / 100.0;
+            values[i] = value;
+            sketch.add(value);
+        }
+        Arrays.sort(values);
+
+        for (double q : QUANTILES) {
+            double expected = exact(values, q);
+            assertThat(sketch.quantile(q)).as("quantile %s", q)
+                    .isCloseTo(expected, within(Math.abs(expected) * QuantileSketch.RELATIVE_ACCURACY + 1e-9));
+        }
+        assertThat(sketch.quantile(0)).isEqualTo(values[0]);
+        assertThat(sketch.quantile(1)).isEqualTo(values[values.length - 1]);
+    }
+
+    @Test
+    void shouldMergeLikeOneSketchAndSurviveSerialization() {
+        Random random = new Random(11);
+        QuantileSketch whole = new QuantileSketch();
+        QuantileSketch merged = new QuantileSketch();
+        for (int part = 0; part < 24; part++) {
+            QuantileSketch hour = new QuantileSketch();
+            for (int i = 0; i < 60; i++) {
+                double value = Math.round((15 + part * 0.5 + random.nextGaussian() * 3) * 100) / 100.0;
+                whole.add(value);
+                hour.add(value);
+            }
+            merged.merge(QuantileSketch.fromBytes(hour.toBytes()));
+        }
+
+        List<Double> quantiles = List.of(0.05, 0.5, 0.95);
+        MetricStatistics expected = whole.toStatistics(quantiles, 10);
+        MetricStatistics actual = merged.toStatistics(quantiles, 10);
+        assertThat(actual.quantiles()).isEqualTo(expected.quantiles());
+        assertThat(actual.histogram()).isEqualTo(expected.histogram());
+        assertThat(actual.min()).isEqualTo(expected.min());
+        assertThat(actual.max()).isEqualTo(expected.max());
+        assertThat(actual.mean()).isCloseTo(expected.mean(), within(1e-9));
+        assertThat(actual.standardDeviation()).isCloseTo(expected.standardDeviation(), within(1e-9));
+        assertThat(actual.histogram().stream().mapToLong(MetricStatistics.HistogramBin::count).sum())
+                .isEqualTo(24 * 60);
+    }
+
+    @Test
+    void shouldStayBoundedForValuesSpanningManyMagnitudes() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int exponent = -300; exponent <= 300; exponent++) {
+            sketch.add(Math.pow(10, exponent));
+        }
+
+        // At most MAX_BINS bins of a few bytes each
+        assertThat(sketch.toBytes().length).isLessThan(QuantileSketch.MAX_BINS * 8);
+        assertThat(sketch.count()).isEqualTo(601);
+        // The large values keep their accuracy, the small ones were collapsed
+        // or count as zero
+        assertThat(sketch.quantile(0.99)).isCloseTo(1e294, within(1e294 * QuantileSketch.RELATIVE_ACCURACY));
+        assertThat(QuantileSketch.fromBytes(sketch.toBytes()).quantile(0.99)).isEqualTo(sketch.quantile(0.99));
+    }
+}
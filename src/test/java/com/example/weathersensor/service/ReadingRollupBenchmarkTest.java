@@ -0,0 +1,179 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import com.example.weathersensor.dto.MetricStatistics;
+import com.example.weathersensor.dto.ReadingStatisticsDto;
+import com.example.weathersensor.dto.SeriesBucketDto;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.entity.SensorReading;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.ReadingSketchRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Average and percentiles of an eleven month range over a year of minute
+ * readings, raw scan against rollups and their sketches, and a 5 minute
+ * series against one average per bucket. Run with
+ * {@code mvn test -Pbenchmark}
+ */
+@SpringBootTest(classes = WeatherSensorApiApplication.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class ReadingRollupBenchmarkTest extends BenchmarkSupport {
+
+    private static final String TAG = "BENCH_001";
+    private static final Instant YEAR_START = Instant.parse("2023-01-01T00:00:00Z");
+    private static final int MINUTES = 365 * 24 * 60;
+    private static final int RUNS = 15;
+
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private SensorReadingRepository sensorReadingRepository;
+    @Autowired
+    private ReadingRollupRepository rollupRepository;
+    @Autowired
+    private ReadingSketchRepository sketchRepository;
+    @Autowired
+    private ReadingRollupService rollupService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeAll
+    void loadYearOfReadings() {
+        sensorReadingRepository.deleteAll();
+        rollupRepository.deleteAll();
+        sketchRepository.deleteAll();
+        Sensor sensor = sensorRepository.save(new Sensor(TAG, "Berlin", "Europe/Berlin"));
+
+        // Raw rows are written with plain JDBC to keep the setup short, the
+        // rollups go through the same path as ingest
+        int day = 24 * 60;
+        for (int from = 0; from < MINUTES; from += day) {
+            List<SensorReading> readings = new ArrayList<>(day);
+            List<Object[]> rows = new ArrayList<>(day);
+            for (int i = from; i < from + day; i++) {
+                Instant timestamp = YEAR_START.plus(i, ChronoUnit.MINUTES);
+                double temperature = 10.0 + (i % 240) * 0.125;
+                double humidity = 40.0 + i % 50;
+                double windSpeed = (i % 32) * 0.5;
+                readings.add(new SensorReading(sensor, temperature, humidity, windSpeed, timestamp));
+                rows.add(new Object[] { 1_000_000_000L + i, sensor.getId(),
+                        SensorReading.scaled(temperature, SensorReading.TEMPERATURE_SCALE),
+                        SensorReading.scaled(humidity, SensorReading.HUMIDITY_SCALE),
+                        SensorReading.scaled(windSpeed, SensorReading.WIND_SPEED_SCALE), Timestamp.from(timestamp) });
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate("INSERT INTO sensor_readings "
+                        + "(id, sensor_id, temperature, humidity, wind_speed, timestamp) VALUES (?, ?, ?, ?, ?, ?)",
+                        rows);
+                rollupService.record(readings);
+            });
+        }
+    }
+
+    @AfterAll
+    void cleanUp() {
+        sensorReadingRepository.deleteAll();
+        rollupRepository.deleteAll();
+        sketchRepository.deleteAll();
+        sensorRepository.deleteAll();
+    }
+
+    @Test
+    void rollupsAnswerLongRangesFasterThanRawScans() throws Exception {
+        Instant start = YEAR_START.plus(17, ChronoUnit.DAYS).plusSeconds(4_321);
+        Instant end = YEAR_START.plus(350, ChronoUnit.DAYS).plusSeconds(55_555);
+
+        AverageMetricsDto raw = sensorReadingRepository.findAverageMetricsFiltered(start, end, null, TAG, null)
+                .orElseThrow();
+        AverageMetricsDto rolled = rollupService.averages(start, end, TAG);
+        assertThat(rolled.readings()).isEqualTo(raw.readings());
+        assertThat(rolled.averageTemperature()).isCloseTo(raw.averageTemperature(), within(1e-9));
+        assertThat(rolled.averageHumidity()).isCloseTo(raw.averageHumidity(), within(1e-9));
+        assertThat(rolled.averageWindSpeed()).isCloseTo(raw.averageWindSpeed(), within(1e-9));
+
+        long rawNanos = medianNanos(RUNS,
+                run -> sensorReadingRepository.findAverageMetricsFiltered(start, end, null, TAG, null));
+        long rollupNanos = medianNanos(RUNS, run -> rollupService.averages(start, end, TAG));
+        report("Average over %d readings: raw %.2f ms, rollups %.2f ms, %.1fx faster",
+                raw.readings(), rawNanos / 1e6, rollupNanos / 1e6, (double) rawNanos / rollupNanos);
+
+        assertThat(rollupNanos).isLessThan(rawNanos);
+    }
+
+    @Test
+    void sketchesAnswerPercentilesFasterThanRawScans() throws Exception {
+        Instant start = YEAR_START.plus(17, ChronoUnit.DAYS);
+        Instant end = YEAR_START.plus(350, ChronoUnit.DAYS).minusSeconds(1);
+        String percentileSql = """
+                SELECT PERCENTILE_DISC(0.95) WITHIN GROUP (ORDER BY r.temperature)
+                FROM sensor_readings r JOIN sensors s ON s.id = r.sensor_id
+                WHERE s.tag = ? AND r.timestamp BETWEEN ? AND ?
+                """;
+
+        double raw = jdbcTemplate.queryForObject(percentileSql, Double.class, TAG, Timestamp.from(start),
+                Timestamp.from(end)) / SensorReading.TEMPERATURE_SCALE;
+        ReadingStatisticsDto statistics = rollupService.statistics(start, end, TAG, List.of(0.95), 10);
+        MetricStatistics.QuantileValue sketched = statistics.temperature().quantiles().get(0);
+        assertThat(statistics.readings()).isEqualTo(333L * 24 * 60);
+        assertThat(sketched.value()).isCloseTo(raw, within(raw * QuantileSketch.RELATIVE_ACCURACY));
+
+        long rawNanos = medianNanos(RUNS, run -> jdbcTemplate.queryForObject(percentileSql, Double.class, TAG,
+                Timestamp.from(start), Timestamp.from(end)));
+        long sketchNanos = medianNanos(RUNS, run -> rollupService.statistics(start, end, TAG, List.of(0.95), 10));
+        report("p95 temperature over %d readings: raw %.2f ms (%.3f), sketches %.2f ms (%.3f),"
+                + " %.1fx faster", statistics.readings(), rawNanos / 1e6, raw, sketchNanos / 1e6,
+                sketched.value(), (double) rawNanos / sketchNanos);
+
+        assertThat(sketchNanos).isLessThan(rawNanos);
+    }
+
+    @Test
+    void seriesAnswerInOneQueryFasterThanOneAveragePerBucket() throws Exception {
+        Instant start = YEAR_START.plus(40, ChronoUnit.DAYS);
+        Instant end = start.plus(4, ChronoUnit.DAYS).minusSeconds(1);
+
+        List<SeriesBucketDto> series = rollupService.series(start, end, 300, TAG);
+        assertThat(series).hasSize(4 * 24 * 12);
+        SeriesBucketDto bucket = series.get(100);
+        AverageMetricsDto single = rollupService.averages(bucket.bucketStart(),
+                bucket.bucketStart().plusSeconds(299), TAG);
+        assertThat(bucket.readings()).isEqualTo(single.readings()).isEqualTo(5);
+        assertThat(bucket.averageTemperature()).isCloseTo(single.averageTemperature(), within(1e-9));
+
+        long perBucketNanos = medianNanos(RUNS, run -> {
+            for (Instant from = start; from.isBefore(end); from = from.plusSeconds(300)) {
+                rollupService.averages(from, from.plusSeconds(299), TAG);
+            }
+        });
+        long seriesNanos = medianNanos(RUNS, run -> rollupService.series(start, end, 300, TAG));
+        report("%d buckets of 5 minutes: one average per bucket %.2f ms, series %.2f ms, %.1fx faster",
+                series.size(), perBucketNanos / 1e6, seriesNanos / 1e6, (double) perBucketNanos / seriesNanos);
+
+        assertThat(seriesNanos * 10).isLessThan(perBucketNanos);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.entity.RollupGranularity;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Acknowledged single readings per second with {@value #THREADS} concurrent
+ * clients, stored directly with {@code save} against appended to the
+ * write-ahead log, where an acknowledgement waits for the log sync but not
+ * for the database. Run with {@code mvn test -Pbenchmark}
+ */
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+        "weather.ingest.wal.enabled=true", "weather.ingest.wal.directory=target/wal-benchmark",
+        "spring.jpa.show-sql=false", "logging.level.org.hibernate.SQL=WARN" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class ReadingWriteAheadLogBenchmarkTest extends BenchmarkSupport {
+
+    private static final int THREADS = 16;
+    private static final int READINGS_PER_THREAD = 2_000;
+    private static final Instant BASE = Instant.parse("2024-06-01T00:00:00Z");
+
+    @Autowired
+    private SensorReadingService sensorReadingService;
+    @Autowired
+    private ReadingWriteAheadLog writeAheadLog;
+    @Autowired
+    private SensorReadingRepository repository;
+    @Autowired
+    private ReadingRollupRepository rollupRepository;
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private SensorService sensorService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM sensor_readings");
+        rollupRepository.deleteAll();
+        sensorRepository.deleteAll();
+        for (int t = 0; t < THREADS; t++) {
+            sensorRepository.save(new Sensor(String.format("WAL_SENSOR_%03d", t), "Berlin", "Europe/Berlin"));
+        }
+        sensorService.reloadRegistry();
+    }
+
+    @Test
+    void logAcknowledgesFasterThanDirectSave() throws Exception {
+        // Warm up both paths, then start from an empty table
+        run(0, sensorReadingService::registerReading);
+        run(1, sensorReadingService::acceptReading);
+        awaitApplied(2L * THREADS * READINGS_PER_THREAD);
+        setUp();
+
+        long direct = run(2, sensorReadingService::registerReading);
+        long logged = run(3, sensorReadingService::acceptReading);
+        long applyStart = System.nanoTime();
+        awaitApplied(2L * THREADS * READINGS_PER_THREAD);
+        long applied = logged + System.nanoTime() - applyStart;
+
+        long readings = (long) THREADS * READINGS_PER_THREAD;
+        report("%d threads, %d readings each: direct save %.0f readings/s, write-ahead log"
+                + " %.0f acknowledged readings/s, %.0f applied readings/s", THREADS, READINGS_PER_THREAD,
+                readings * 1e9 / direct, readings * 1e9 / logged, readings * 1e9 / applied);
+
+        assertThat(repository.count()).isEqualTo(2 * readings);
+        assertThat(rollupRepository.sumBuckets(RollupGranularity.HOUR, BASE, BASE.plus(1, ChronoUnit.DAYS), null)
+                .readings()).isEqualTo(2 * readings);
+        assertThat(logged).isLessThan(direct);
+    }
+
+    // Each round uses its own seconds, so no reading is a duplicate
+    private static long run(int round, Consumer<SensorReadingRequest> ingest) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> clients = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String tag = String.format("WAL_SENSOR_%03d", t);
+                clients.add(executor.submit(() -> {
+                    for (int i = 0; i < READINGS_PER_THREAD; i++) {
+                        ingest.accept(new SensorReadingRequest(tag, 20.0 + i % 40 * 0.25, 50.0, 5.0,
+                                BASE.plusSeconds((long) round * READINGS_PER_THREAD + i)));
+                    }
+                }));
+            }
+            for (Future<?> client : clients) {
+                client.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void awaitApplied(long readings) throws InterruptedException {
+        while (repository.count() < readings || writeAheadLog.backlogBytes() > 0) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.WeatherSensorApiApplication;
+import com.example.weathersensor.config.IngestProperties;
+import com.example.weathersensor.config.WriteAheadLogProperties;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.entity.Sensor;
+import com.example.weathersensor.exception.IngestBacklogFullException;
+import com.example.weathersensor.repository.ReadingRollupRepository;
+import com.example.weathersensor.repository.SensorReadingRepository;
+import com.example.weathersensor.repository.SensorRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+@SpringBootTest(classes = WeatherSensorApiApplication.class, properties = {
+        "weather.ingest.wal.enabled=true", "weather.ingest.wal.directory=target/wal-test" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@ActiveProfiles("test")
+class ReadingWriteAheadLogTest {
+
+    private static final Instant BASE = Instant.parse("2024-06-01T00:00:00Z");
+
+    @Autowired
+    private SensorReadingService sensorReadingService;
+    @Autowired
+    private ReadingBatchWriter batchWriter;
+    @Autowired
+    private IngestMetrics ingestMetrics;
+    @Autowired
+    private SensorReadingRepository repository;
+    @Autowired
+    private ReadingRollupRepository rollupRepository;
+    @Autowired
+    private SensorRepository sensorRepository;
+    @Autowired
+    private SensorService sensorService;
+
+    @TempDir
+    private Path directory;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        rollupRepository.deleteAll();
+        sensorRepository.deleteAll();
+        sensorRepository.saveAll(List.of(
+                new Sensor("SENSOR_001", "Berlin", "Europe/Berlin"),
+                new Sensor("SENSOR_002", "Delhi", "Asia/Kolkata")));
+        sensorService.reloadRegistry();
+    }
+
+    // 1 KB segments hold about 20 records
+    private ReadingWriteAheadLog log() {
+        return log(batchWriter);
+    }
+
+    private ReadingWriteAheadLog log(ReadingBatchWriter writer) {
+        return new ReadingWriteAheadLog(new WriteAheadLogProperties(true, directory, DataSize.ofKilobytes(1),
+                Duration.ZERO, 256, DataSize.ofMegabytes(1), Duration.ofSeconds(5), 2),
+                new IngestProperties(50, 10_000, 100, 4096), writer, ingestMetrics);
+    }
+
+    private static SensorReadingRequest reading(int i) {
+        return new SensorReadingRequest(i % 2 == 0 ? "SENSOR_001" : "SENSOR_002", 20.0 + i % 10, 50.0, 5.0,
+                BASE.plusSeconds(i));
+    }
+
+    @Test
+    void shouldReplayTheUnappliedTailAfterACrash() throws IOException {
+        ReadingWriteAheadLog crashed = log();
+        crashed.open();
+        for (int i = 0; i < 100; i++) {
+            crashed.append(reading(i));
+        }
+        // Stored, but the checkpoint is lost in the crash, the records left
+        // in the current segment are replayed
+        assertThat(crashed.applyPending()).isEqualTo(100);
+        Files.delete(directory.resolve("checkpoint"));
+        for (int i = 100; i < 250; i++) {
+            crashed.append(reading(i));
+        }
+        crashed.close();
+        tearLastRecord();
+
+        ReadingWriteAheadLog restarted = log();
+        restarted.start();
+        try {
+            assertThat(repository.count()).isEqualTo(250);
+            assertThat(restarted.backlogBytes()).isZero();
+
+            restarted.append(reading(250));
+            restarted.applyPending();
+            assertThat(repository.count()).isEqualTo(251);
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    void shouldReplayExactlyTheAppendsThatReturned() throws IOException {
+        ReadingWriteAheadLog closing = log();
+        closing.open();
+        AtomicInteger appended = new AtomicInteger();
+        CompletableFuture<Void> appends = CompletableFuture.runAsync(() -> {
+            try {
+                for (int i = 0;; i++) {
+                    closing.append(reading(i));
+                    appended.incrementAndGet();
+                }
+            } catch (IngestBacklogFullException e) {
+                // Closed under the appends
+            }
+        });
+        while (appended.get() < 50) {
+            Thread.onSpinWait();
+        }
+        closing.close();
+        appends.join();
+
+        ReadingWriteAheadLog restarted = log();
+        restarted.open();
+        try {
+            assertThat(restarted.applyPending()).isEqualTo(appended.get());
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    void shouldDeleteSegmentsOnceApplied() throws IOException {
+        ReadingWriteAheadLog wal = log();
+        wal.open();
+        try {
+            for (int i = 0; i < 200; i++) {
+                wal.append(reading(i));
+            }
+            assertThat(segmentFiles()).hasSizeGreaterThan(5);
+
+            wal.applyPending();
+
+            assertThat(segmentFiles()).hasSize(1);
+            assertThat(repository.count()).isEqualTo(200);
+        } finally {
+            wal.close();
+        }
+    }
+
+    @Test
+    void shouldReplayTheWholeLogBehindADamagedCheckpoint() throws IOException {
+        ReadingWriteAheadLog crashed = log();
+        crashed.open();
+        for (int i = 0; i < 10; i++) {
+            crashed.append(reading(i));
+        }
+        crashed.applyPending();
+        crashed.close();
+        Files.write(directory.resolve("checkpoint"), new byte[3]);
+
+        ReadingWriteAheadLog restarted = log();
+        restarted.start();
+        try {
+            assertThat(repository.count()).isEqualTo(10);
+            assertThat(restarted.backlogBytes()).isZero();
+            assertThat(Files.readAllBytes(directory.resolve("checkpoint"))).hasSize(Long.BYTES);
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    void shouldMoveARecordThatKeepsFailingToTheDeadLetterFile() throws IOException, InterruptedException {
+        SensorReadingRequest poison = reading(7);
+        ReadingBatchWriter writer = mock(ReadingBatchWriter.class);
+        doAnswer(invocation -> {
+            List<SensorReadingRequest> chunk = invocation.getArgument(0);
+            if (chunk.contains(poison)) {
+                throw new IllegalStateException("Cannot store " + poison);
+            }
+            batchWriter.writeChunk(chunk, invocation.<Long>getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(writer).writeChunk(anyList(), anyLong(), any());
+        long dropped = ingestMetrics.writeBehindDropped();
+
+        ReadingWriteAheadLog wal = log(writer);
+        wal.start();
+        try {
+            for (int i = 0; i < 40; i++) {
+                wal.append(reading(i));
+            }
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (wal.backlogBytes() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+        } finally {
+            wal.stop();
+        }
+
+        assertThat(repository.count()).isEqualTo(39);
+        assertThat(ingestMetrics.writeBehindDropped() - dropped).isEqualTo(1);
+        assertThat(Files.size(directory.resolve("dead-letter"))).isPositive();
+    }
+
+    @Test
+    void shouldStoreAcceptedReadingsInTheBackground() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            sensorReadingService.acceptReading(reading(i));
+        }
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (repository.count() < 100 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(repository.count()).isEqualTo(100);
+    }
+
+    // Half a record behind the last intact one, as left by a crash during an
+    // append
+    private void tearLastRecord() throws IOException {
+        List<Path> files = segmentFiles();
+        Path last = files.get(files.size() - 1);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer segment = ByteBuffer.allocate((int) channel.size());
+            channel.read(segment, 0);
+            int offset = 0;
+            while (segment.getInt(offset) > 0) {
+                offset += 2 * Integer.BYTES + segment.getInt(offset);
+            }
+            channel.write(ByteBuffer.allocate(12).putInt(40).putInt(12345).putInt(7).flip(), offset);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+}
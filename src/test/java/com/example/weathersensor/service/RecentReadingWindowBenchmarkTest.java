@@ -0,0 +1,69 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.BenchmarkSupport;
+import com.example.weathersensor.config.RecentWindowProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Latency of recent-window averages with 50k sensors reporting once a minute
+ * for an hour. Run with {@code mvn test -Pbenchmark}
+ */
+class RecentReadingWindowBenchmarkTest extends BenchmarkSupport {
+
+    private static final int SENSORS = 50_000;
+    private static final int MINUTES = 60;
+    private static final int QUERIES = 20_000;
+
+    @Test
+    void recentAveragesStayBelowOneMillisecondAtP99() {
+        RecentReadingWindow window = new RecentReadingWindow(new RecentWindowProperties(1024, 86400, 8));
+        Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        String[] tags = new String[SENSORS];
+        for (int s = 0; s < SENSORS; s++) {
+            tags[s] = "SENSOR_" + s;
+        }
+        for (int m = 0; m < MINUTES; m++) {
+            for (int s = 0; s < SENSORS; s++) {
+                window.add(tags[s], base.plusSeconds(m * 60L + s % 60), 20.0 + s % 10, 50.0, 3.0);
+            }
+        }
+        Instant now = base.plus(MINUTES, ChronoUnit.MINUTES);
+
+        AverageMetricsDto sensor = window.averages(base, now, tags[7]).orElseThrow();
+        assertThat(sensor.readings()).isEqualTo(MINUTES);
+        assertThat(sensor.averageTemperature()).isEqualTo(27.0);
+        AverageMetricsDto fleet = window.averages(base, now, null).orElseThrow();
+        assertThat(fleet.readings()).isEqualTo((long) SENSORS * MINUTES);
+        assertThat(fleet.averageTemperature()).isCloseTo(24.5, within(1e-9));
+        assertThat(fleet.averageHumidity()).isCloseTo(50.0, within(1e-9));
+
+        long[] sensorNanos = new long[QUERIES];
+        long[] totalNanos = new long[QUERIES];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < QUERIES; i++) {
+            Instant start = now.minusSeconds(random.nextInt(60, MINUTES * 60));
+            String tag = tags[random.nextInt(SENSORS)];
+            long begin = System.nanoTime();
+            window.averages(start, now, tag).orElseThrow();
+            sensorNanos[i] = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            window.averages(start, now, null).orElseThrow();
+            totalNanos[i] = System.nanoTime() - begin;
+        }
+
+        long sensorP99 = p99(sensorNanos);
+        long totalP99 = p99(totalNanos);
+        report("Recent window p99 over %d queries: per sensor %.1f us, all sensors %.1f us",
+                QUERIES, sensorP99 / 1e3, totalP99 / 1e3);
+        assertThat(sensorP99).isLessThan(1_000_000L);
+        assertThat(totalP99).isLessThan(1_000_000L);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.RecentWindowProperties;
+import com.example.weathersensor.dto.AverageMetricsDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecentReadingWindowTest {
+
+    private RecentReadingWindow window;
+    private Instant base;
+
+    @BeforeEach
+    void setUp() {
+        window = new RecentReadingWindow(new RecentWindowProperties(4, 100, 4));
+        base = Instant.now().plusSeconds(60).truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    @Test
+    void shouldAverageReadingsInInclusiveRange() {
+        window.add("S1", base, 10.0, 50.0, 1.0);
+        window.add("S1", base.plusSeconds(1), 20.0, 60.0, 2.0);
+        window.add("S2", base.plusSeconds(1), 30.0, 70.0, 3.0);
+        window.add("S1", base.plusSeconds(2), 90.0, 90.0, 9.0);
+
+        AverageMetricsDto all = window.averages(base, base.plusSeconds(1), null).orElseThrow();
+        assertThat(all.readings()).isEqualTo(3L);
+        assertThat(all.averageTemperature()).isEqualTo(20.0);
+
+        AverageMetricsDto sensor = window.averages(base.minusMillis(500), base.plusSeconds(1), "S1").orElseThrow();
+        assertThat(sensor.readings()).isEqualTo(2L);
+        assertThat(sensor.averageHumidity()).isEqualTo(55.0);
+        assertThat(sensor.averageWindSpeed()).isEqualTo(1.5);
+    }
+
+    @Test
+    void shouldKeepLateReadingsInOrder() {
+        window.add("S1", base.plusSeconds(3), 30.0, 0.0, 0.0);
+        window.add("S1", base.plusSeconds(1), 10.0, 0.0, 0.0);
+        window.add("S1", base.plusSeconds(2), 20.0, 0.0, 0.0);
+
+        assertThat(window.averages(base.plusSeconds(2), base.plusSeconds(3), "S1").orElseThrow()
+                .averageTemperature()).isEqualTo(25.0);
+    }
+
+    @Test
+    void shouldFallBackOnceOldBucketsAreEvicted() {
+        for (int i = 0; i < 6; i++) {
+            window.add("S1", base.plusSeconds(i), i, 0.0, 0.0);
+        }
+
+        // Four buckets per sensor, seconds 0 and 1 are gone
+        assertThat(window.averages(base.plusSeconds(1), base.plusSeconds(5), "S1")).isEmpty();
+        AverageMetricsDto kept = window.averages(base.plusSeconds(2), base.plusSeconds(5), "S1").orElseThrow();
+        assertThat(kept.readings()).isEqualTo(4L);
+        assertThat(kept.averageTemperature()).isEqualTo(3.5);
+        // The shared buckets still hold everything
+        assertThat(window.averages(base, base.plusSeconds(5), null).orElseThrow().readings()).isEqualTo(6L);
+    }
+
+    @Test
+    void shouldAnswerAllSensorsOnlyWhileEveryStripeCoversTheRange() {
+        RecentReadingWindow small = new RecentReadingWindow(new RecentWindowProperties(100, 2, 4));
+        for (int i = 0; i < 40; i++) {
+            small.add("S" + i, base, 10.0, 0.0, 0.0);
+        }
+        assertThat(small.averages(base, base, null).orElseThrow().readings()).isEqualTo(40L);
+
+        // S1 fills its stripe, the first second falls out of it
+        small.add("S1", base.plusSeconds(1), 20.0, 0.0, 0.0);
+        small.add("S1", base.plusSeconds(2), 30.0, 0.0, 0.0);
+        assertThat(small.averages(base, base.plusSeconds(2), null)).isEmpty();
+        AverageMetricsDto kept = small.averages(base.plusSeconds(1), base.plusSeconds(2), null).orElseThrow();
+        assertThat(kept.readings()).isEqualTo(2L);
+        assertThat(kept.averageTemperature()).isEqualTo(25.0);
+    }
+
+    @Test
+    void shouldNotAnswerRangesStartingBeforeTheWindow() {
+        Instant past = Instant.now().minusSeconds(3_600);
+        window.add("S1", past, 10.0, 0.0, 0.0);
+
+        assertThat(window.averages(past, base, null)).isEmpty();
+        assertThat(window.averages(past, base, "S1")).isEmpty();
+        assertThat(window.averages(base, base.plusSeconds(10), "UNKNOWN"))
+                .isEqualTo(Optional.of(new AverageMetricsDto(null, null, null, 0L)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.weathersensor.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentCodecTest {
+
+    private record Reading(long second, long id, double temperature, double humidity, double windSpeed) {
+    }
+
+    private static List<Reading> roundTrip(List<Reading> readings) {
+        SegmentCodec.Encoder encoder = new SegmentCodec.Encoder();
+        readings.forEach(r -> encoder.add(r.second(), r.id(), r.temperature(), r.humidity(), r.windSpeed()));
+        List<Reading> decoded = new ArrayList<>();
+        SegmentCodec.decode(encoder.toBytes(), encoder.count(),
+                (second, id, temperature, humidity, windSpeed) -> decoded.add(
+                        new Reading(second, id, temperature, humidity, windSpeed)));
+        return decoded;
+    }
+
+    @Test
+    void shouldDecodeWhatWasEncoded() {
+        Random random = new Random(42);
+        List<Reading> readings = new ArrayList<>();
+        long second = 1_709_251_200L;
+        long id = 1;
+        for (int i = 0; i < 5_000; i++) {
+            // Mostly steady, with jitter, gaps and repeated values
+            second += switch (i % 7) {
+                case 0 -> 60 + random.nextInt(5);
+                case 3 -> random.nextInt(100_000);
+                default -> 60;
+            };
+            id += 1 + random.nextInt(i % 11 == 0 ? 10_000 : 3);
+            readings.add(new Reading(second, id, -20.0 + random.nextInt(8_000) / 100.0,
+                    i % 5 == 0 ? 55.5 : random.nextInt(1_000) / 10.0, i % 3 == 0 ? 0.0 : random.nextDouble() * 40));
+        }
+
+        assertThat(roundTrip(readings)).containsExactlyElementsOf(readings);
+    }
+
+    @Test
+    void shouldKeepExtremeValues() {
+        List<Reading> readings = List.of(
+                new Reading(0, 0, Double.MAX_VALUE, -0.0, Double.MIN_VALUE),
+                new Reading(Long.MAX_VALUE / 2, Long.MAX_VALUE, -Double.MAX_VALUE, 0.0, Double.NaN),
+                new Reading(Long.MAX_VALUE / 2, 1, Double.NEGATIVE_INFINITY, 100.0, 1e-300),
+                new Reading(-1, -5, 20.25, 100.0, 1e-300));
+
+        assertThat(roundTrip(readings)).containsExactlyElementsOf(readings);
+    }
+
+    @Test
+    void shouldDecodeAPayloadWithinALargerBuffer() {
+        SegmentCodec.Encoder encoder = new SegmentCodec.Encoder();
+        for (int i = 0; i < 3; i++) {
+            encoder.add(1_709_251_200L + i * 60L, 7 + i, 21.5 + i, 48.0, 3.25 * i);
+        }
+        byte[] payload = encoder.toBytes();
+        // Like a payload after a segment file's header, neither start nor end
+        // on a word
+        ByteBuffer file = ByteBuffer.allocate(payload.length + 12);
+        file.position(5).put(payload).position(5).limit(5 + payload.length);
+
+        SegmentCodec.Decoder decoder = new SegmentCodec.Decoder(SegmentCodec.words(file), encoder.count());
+        List<Reading> decoded = new ArrayList<>();
+        while (decoder.next()) {
+            decoded.add(new Reading(decoder.second(), decoder.id(), decoder.temperature(), decoder.humidity(),
+                    decoder.windSpeed()));
+        }
+
+        assertThat(decoded).containsExactly(
+                new Reading(1_709_251_200L, 7, 21.5, 48.0, 0.0),
+                new Reading(1_709_251_260L, 8, 22.5, 48.0, 3.25),
+                new Reading(1_709_251_320L, 9, 23.5, 48.0, 6.5));
+    }
+
+    @Test
+    void shouldStoreSteadyReadingsInAFewBitsEach() {
+        SegmentCodec.Encoder encoder = new SegmentCodec.Encoder();
+        for (int i = 0; i < 1_440; i++) {
+            encoder.add(1_709_251_200L + i * 60L, 1_000 + i, 21.5, 48.0, 3.25);
+        }
+
+        // One bit for each of timestamp, id and three unchanged metrics
+        assertThat(encoder.toBytes().length).isLessThan(1_440 * 5 / 8 + 64);
+    }
+}
@@ -1,15 +1,18 @@
 package com.example.weathersensor.service;
 
+import com.example.weathersensor.config.AverageCacheProperties;
 import com.example.weathersensor.dto.AverageMetricsDto;
 import com.example.weathersensor.dto.SensorReadingRequest;
 import com.example.weathersensor.dto.SensorReadingResponse;
 import com.example.weathersensor.entity.Sensor;
 import com.example.weathersensor.entity.SensorReading;
 import com.example.weathersensor.repository.SensorReadingRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.*;
@@ -19,6 +22,7 @@
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -30,6 +34,34 @@ class SensorReadingServiceTest {
     @Mock
     private SensorService sensorService;
 
+    @Mock
+    private ReadingRollupService rollupService;
+
+    @Mock
+    private RecentReadingWindow recentWindow;
+
+    @Mock
+    private HotReadingStore hotStore;
+
+    @Mock
+    private ColdSegmentStore coldStore;
+
+    @Mock
+    private ReadingRetentionService retentionService;
+
+    @Spy
+    private AverageQueryCache averageCache = new AverageQueryCache(
+            new AverageCacheProperties(100, Duration.ofSeconds(5), Duration.ofSeconds(30), 1), Runnable::run);
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @Spy
+    private IngestMetrics ingestMetrics = new IngestMetrics();
+
+    @Mock
+    private QueryMetrics queryMetrics;
+
     @InjectMocks
     private SensorReadingService service;
 
@@ -37,7 +69,7 @@ class SensorReadingServiceTest {
     void shouldRegisterReadingAndConvertTimestampToUtc() {
         // Given
         Instant instant = Instant.now();
-        ZonedDateTime targetTime = instant.atZone(ZoneId.of("Europe/Berlin"));
+        ZonedDateTime targetTime = instant.truncatedTo(ChronoUnit.SECONDS).atZone(ZoneId.of("Europe/Berlin"));
         SensorReadingRequest request = new SensorReadingRequest(
                 "SENSOR_1", 25.5, 60.0, 10.5, instant);
         Sensor sensor = new Sensor("SENSOR_1", "Berlin", "Europe/Berlin");
@@ -64,11 +96,8 @@ void shouldGetAverageMetricsForAllSensors() {
         OffsetDateTime startTime = OffsetDateTime.parse("2023-12-01T10:00:00Z");
         OffsetDateTime endTime = OffsetDateTime.parse("2023-12-01T18:00:00Z");
 
-        Optional<AverageMetricsDto> mockResult = Optional.of(new AverageMetricsDto(25.5, 65.0, 15.0D, 10L)); // {25.5,
-                                                                                                             // 65.0,
-                                                                                                             // 15.0,
-                                                                                                             // 10L};
-        when(repository.findAverageMetricsInDateRange(any(Instant.class), any(Instant.class)))
+        AverageMetricsDto mockResult = new AverageMetricsDto(25.5, 65.0, 15.0D, 10L);
+        when(rollupService.averages(any(Instant.class), any(Instant.class), isNull()))
                 .thenReturn(mockResult);
 
         // When
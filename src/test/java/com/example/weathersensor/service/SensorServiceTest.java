@@ -1,5 +1,6 @@
 package com.example.weathersensor.service;
 
+import com.example.weathersensor.config.SensorRegistryProperties;
 import com.example.weathersensor.dto.SensorRegistrationRequest;
 import com.example.weathersensor.dto.SensorResponseDto;
 import com.example.weathersensor.entity.Sensor;
@@ -9,8 +10,10 @@
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.List;
@@ -20,6 +23,9 @@
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,6 +34,13 @@ public class SensorServiceTest {
     @Mock
     private SensorRepository sensorRepository;
 
+    @Spy
+    private SensorRegistry sensorRegistry = new SensorRegistry();
+
+    @Spy
+    private UnknownSensorCache unknownSensorCache = new UnknownSensorCache(
+            new SensorRegistryProperties(Duration.ofMinutes(5), 100, Duration.ofMinutes(1)));
+
     @InjectMocks
     private SensorService service;
 
@@ -68,12 +81,14 @@ void testGetAllSensors(){
         Sensor sensor = new Sensor("SENSOR_001", "Berlin", "Europe/Berlin");
         sensor.setId(1l);
         when(sensorRepository.findAll()).thenReturn(Arrays.asList(sensor));
-
+        service.reloadRegistry();
 
         // When
+        service.getAllSensors();
         List<SensorResponseDto> response = service.getAllSensors();
 
         // Then
+        verify(sensorRepository, times(1)).findAll();
         assertThat(response).isNotEmpty();
         assertThat(response.get(0).id()).isEqualTo(1l);
         assertThat(response.get(0).tag()).isEqualTo("SENSOR_001");
@@ -101,13 +116,14 @@ void testGetSensorByTag(){
     void testGetSensorsByLocation(){
         Sensor sensor = new Sensor("SENSOR_001", "Berlin", "Europe/Berlin");
         sensor.setId(1l);
-        when(sensorRepository.findByLocation(any(String.class))).thenReturn(Arrays.asList(sensor));
-
+        when(sensorRepository.findAll()).thenReturn(Arrays.asList(sensor));
+        service.reloadRegistry();
 
         // When
         List<SensorResponseDto> response = service.getSensorsByLocation("Berlin");
 
         // Then
+        verify(sensorRepository, never()).findByLocation(any(String.class));
         assertThat(response).isNotEmpty();
         assertThat(response.get(0).id()).isEqualTo(1l);
         assertThat(response.get(0).tag()).isEqualTo("SENSOR_001");
@@ -115,5 +131,49 @@ void testGetSensorsByLocation(){
         assertThat(response.get(0).timeZone()).isEqualTo("Europe/Berlin");
     }
 
+    @Test
+    void testGetSensorByTagIsServedFromRegistryAfterFirstLookup() {
+        Sensor sensor = new Sensor("SENSOR_001", "Berlin", "Europe/Berlin");
+        sensor.setId(1l);
+        when(sensorRepository.findByTag("SENSOR_001")).thenReturn(Optional.of(sensor));
+
+        service.getSensorByTag("SENSOR_001");
+        Optional<Sensor> response = service.getSensorByTag("SENSOR_001");
+
+        verify(sensorRepository, times(1)).findByTag("SENSOR_001");
+        assertThat(response).isPresent();
+        assertThat(response.get().getTimeZone()).isEqualTo("Europe/Berlin");
+    }
 
+    @Test
+    void testRegisterSensorAddsToRegistry() {
+        Sensor sensor = new Sensor("SENSOR_009", "Delhi", "Asia/Kolkata");
+        sensor.setId(9l);
+        when(sensorRepository.save(any(Sensor.class))).thenReturn(sensor);
+
+        service.registerSensor(new SensorRegistrationRequest("SENSOR_009", "Delhi", "Asia/Kolkata"));
+
+        assertThat(service.getSensorsByTimeZone("Asia/Kolkata")).extracting(SensorResponseDto::tag)
+                .containsExactly("SENSOR_009");
+        assertThat(service.getSensorByTag("SENSOR_009")).isPresent();
+        verify(sensorRepository, never()).findByTag(any(String.class));
+    }
+
+    @Test
+    void testUnknownTagIsRememberedUntilRegistered() {
+        when(sensorRepository.findByTag("SENSOR_404")).thenReturn(Optional.empty());
+
+        assertThat(service.getSensorByTag("SENSOR_404")).isEmpty();
+        assertThat(service.getSensorByTag("SENSOR_404")).isEmpty();
+        assertThat(service.getSensorsByTags(List.of("SENSOR_404"))).isEmpty();
+        verify(sensorRepository, times(1)).findByTag("SENSOR_404");
+        verify(sensorRepository, never()).findByTagIn(any());
+
+        Sensor sensor = new Sensor("SENSOR_404", "Delhi", "Asia/Kolkata");
+        sensor.setId(4l);
+        when(sensorRepository.save(any(Sensor.class))).thenReturn(sensor);
+        service.registerSensor(new SensorRegistrationRequest("SENSOR_404", "Delhi", "Asia/Kolkata"));
+
+        assertThat(service.getSensorByTag("SENSOR_404")).isPresent();
+    }
 }
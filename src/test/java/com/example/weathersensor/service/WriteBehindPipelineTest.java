@@ -0,0 +1,152 @@
+package com.example.weathersensor.service;
+
+import com.example.weathersensor.config.IngestProperties;
+import com.example.weathersensor.config.WriteBehindProperties;
+import com.example.weathersensor.dto.SensorReadingRequest;
+import com.example.weathersensor.exception.IngestBacklogFullException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class WriteBehindPipelineTest {
+
+    private static final Instant BASE = Instant.parse("2024-01-01T00:00:00Z");
+
+    private final ReadingBatchWriter batchWriter = mock(ReadingBatchWriter.class);
+    private final IngestMetrics metrics = new IngestMetrics();
+    private final List<SensorReadingRequest> written = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private WriteBehindPipeline pipeline;
+
+    private WriteBehindPipeline pipeline(int shards, int bufferSize, CountDownLatch release) {
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            List<SensorReadingRequest> chunk = invocation.getArgument(0);
+            written.addAll(chunk);
+            IngestTally tally = invocation.getArgument(2);
+            tally.accepted(chunk.size());
+            return null;
+        }).when(batchWriter).writeChunk(any(), anyLong(), any());
+        pipeline = new WriteBehindPipeline(new WriteBehindProperties(true, shards, bufferSize, 3, Duration.ofSeconds(5)),
+                new IngestProperties(50, 10000, 100, 4096), batchWriter, metrics);
+        pipeline.start();
+        return pipeline;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null && pipeline.isRunning()) {
+            pipeline.stop();
+        }
+    }
+
+    private static SensorReadingRequest reading(String tag, int second) {
+        return new SensorReadingRequest(tag, (double) second, 50.0, 5.0, BASE.plusSeconds(second));
+    }
+
+    @Test
+    void shouldStoreEachSensorsReadingsInOrderAndDrainOnStop() {
+        WriteBehindPipeline pipeline = pipeline(4, 1024, new CountDownLatch(0));
+        for (int i = 0; i < 500; i++) {
+            for (int s = 0; s < 8; s++) {
+                pipeline.submit(reading("SENSOR_" + s, i));
+            }
+        }
+
+        pipeline.stop();
+
+        assertThat(pipeline.queueDepth()).isZero();
+        assertThat(written).hasSize(4_000);
+        for (int s = 0; s < 8; s++) {
+            String tag = "SENSOR_" + s;
+            assertThat(written.stream().filter(r -> r.sensorId().equals(tag)).map(SensorReadingRequest::timestamp))
+                    .isSorted()
+                    .hasSize(500);
+        }
+        assertThat(metrics.writeBehindStored()).isEqualTo(4_000);
+        assertThat(metrics.writeBehindFlushes()).isPositive();
+    }
+
+    @Test
+    void shouldRejectReadingsWhenTheShardIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WriteBehindPipeline pipeline = pipeline(1, 8, release);
+
+        // Keep the writer busy with the first reading, then fill the buffer
+        pipeline.submit(reading("SENSOR_1", 0));
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 8; i++) {
+            pipeline.submit(reading("SENSOR_1", i));
+        }
+        assertThatThrownBy(() -> pipeline.submit(reading("SENSOR_1", 9)))
+                .isInstanceOf(IngestBacklogFullException.class);
+        assertThat(metrics.backlogRejections()).isEqualTo(1);
+        assertThat(pipeline.queueDepth()).isEqualTo(8);
+
+        release.countDown();
+        pipeline.stop();
+        assertThat(written).hasSize(9);
+        assertThatThrownBy(() -> pipeline.submit(reading("SENSOR_1", 10)))
+                .isInstanceOf(IngestBacklogFullException.class);
+    }
+
+    @Test
+    void shouldDropChunksThatKeepFailing() {
+        doAnswer(invocation -> {
+            throw new IllegalStateException("database down");
+        }).when(batchWriter).writeChunk(any(), anyLong(), any());
+        pipeline = new WriteBehindPipeline(new WriteBehindProperties(true, 1, 16, 2, Duration.ofSeconds(5)),
+                new IngestProperties(50, 10000, 100, 4096), batchWriter, metrics);
+        pipeline.start();
+
+        pipeline.submit(reading("SENSOR_1", 1));
+        pipeline.submit(reading("SENSOR_1", 2));
+        pipeline.stop();
+
+        assertThat(metrics.writeBehindDropped()).isEqualTo(2);
+        assertThat(metrics.writeBehindStored()).isZero();
+    }
+
+    @Test
+    void shouldDropOnlyTheReadingThatKeepsFailing() {
+        SensorReadingRequest poison = reading("SENSOR_1", 7);
+        doAnswer(invocation -> {
+            List<SensorReadingRequest> chunk = invocation.getArgument(0);
+            if (chunk.contains(poison)) {
+                throw new IllegalStateException("Cannot store " + poison);
+            }
+            written.addAll(chunk);
+            IngestTally tally = invocation.getArgument(2);
+            tally.accepted(chunk.size());
+            return null;
+        }).when(batchWriter).writeChunk(any(), anyLong(), any());
+        pipeline = new WriteBehindPipeline(new WriteBehindProperties(true, 1, 64, 2, Duration.ofSeconds(10)),
+                new IngestProperties(50, 10000, 100, 4096), batchWriter, metrics);
+        pipeline.start();
+
+        for (int i = 0; i < 20; i++) {
+            pipeline.submit(reading("SENSOR_1", i));
+        }
+        pipeline.stop();
+
+        assertThat(written).hasSize(19).doesNotContain(poison);
+        assertThat(written.stream().map(SensorReadingRequest::timestamp)).isSorted();
+        assertThat(metrics.writeBehindDropped()).isEqualTo(1);
+        assertThat(metrics.writeBehindStored()).isEqualTo(19);
+    }
+}